@@ -0,0 +1,22 @@
+package com.languagei.compiler;
+
+import com.languagei.compiler.semantic.CompilationError;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception thrown when a program is rejected, carrying the errors found
+ */
+public class CompilationException extends RuntimeException {
+    private final List<CompilationError> errors;
+
+    public CompilationException(String message, List<CompilationError> errors) {
+        super(message);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public List<CompilationError> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,82 @@
+package com.languagei.compiler;
+
+import com.languagei.compiler.semantic.CompilationError;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one compilation by a {@link CompilerService}: the WebAssembly
+ * text module when the program was accepted, every error and warning
+ * reported, and the time spent in each phase.
+ */
+public final class CompilationResult {
+    private final String wat;
+    private final List<CompilationError> diagnostics;
+    private final Map<String, Duration> phaseTimes;
+    private final Duration totalTime;
+
+    CompilationResult(String wat, List<CompilationError> diagnostics, Map<String, Long> phaseNanos, long totalNanos) {
+        this.wat = wat;
+        this.diagnostics = Collections.unmodifiableList(new ArrayList<>(diagnostics));
+        Map<String, Duration> times = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            times.put(phase.getKey(), Duration.ofNanos(phase.getValue()));
+        }
+        this.phaseTimes = Collections.unmodifiableMap(times);
+        this.totalTime = Duration.ofNanos(totalNanos);
+    }
+
+    /** Whether the program compiled; if so {@link #getWat()} holds the module. */
+    public boolean isSuccess() {
+        return wat != null;
+    }
+
+    /** The WebAssembly text module, or null when compilation failed. */
+    public String getWat() {
+        return wat;
+    }
+
+    /** The module as UTF-8 bytes, as wasmtime and wat2wasm read it, or null when compilation failed. */
+    public byte[] getWatBytes() {
+        return wat != null ? wat.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /** Errors and warnings, in the order they were reported. */
+    public List<CompilationError> getDiagnostics() {
+        return diagnostics;
+    }
+
+    public List<CompilationError> getErrors() {
+        return withSeverity(CompilationError.Severity.ERROR);
+    }
+
+    public List<CompilationError> getWarnings() {
+        return withSeverity(CompilationError.Severity.WARNING);
+    }
+
+    /** Time spent in each phase that ran (parse, modules, semantic, optimize, codegen), in pipeline order. */
+    public Map<String, Duration> getPhaseTimes() {
+        return phaseTimes;
+    }
+
+    /** Time from the start of the compilation to its end, reading the source included. */
+    public Duration getTotalTime() {
+        return totalTime;
+    }
+
+    private List<CompilationError> withSeverity(CompilationError.Severity severity) {
+        List<CompilationError> result = new ArrayList<>();
+        for (CompilationError diagnostic : diagnostics) {
+            if (diagnostic.getSeverity() == severity) {
+                result.add(diagnostic);
+            }
+        }
+        return result;
+    }
+}
@@ -2,16 +2,27 @@ package com.languagei.compiler;
 
 import com.languagei.compiler.ast.ProgramNode;
 import com.languagei.compiler.codegen.CodeGenerator;
+import com.languagei.compiler.codegen.Profile;
 import com.languagei.compiler.lexer.Lexer;
+import com.languagei.compiler.module.CompiledModule;
+import com.languagei.compiler.module.ModuleLoader;
 import com.languagei.compiler.parser.Parser;
 import com.languagei.compiler.semantic.CompilationError;
 import com.languagei.compiler.semantic.ConstantFolder;
+import com.languagei.compiler.semantic.ConstantPropagator;
 import com.languagei.compiler.semantic.DeadCodeEliminator;
+import com.languagei.compiler.semantic.PureCallEvaluator;
+import com.languagei.compiler.semantic.RoutineSpecializer;
 import com.languagei.compiler.semantic.SemanticAnalyzer;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Main compiler class orchestrating all compilation stages
@@ -19,72 +30,193 @@ import java.util.List;
 public class Compiler {
     private List<CompilationError> errors;
     private List<CompilationError> warnings;
+    private final CompilerOptions options;
+    private int unoptimizedModuleSize;
+    private int moduleSize;
+    private List<String> removedFunctions = new java.util.ArrayList<>();
+    private List<String> memoizedRoutines = new java.util.ArrayList<>();
+    private final ModuleLoader modules;
+    private List<CompiledModule> importedModules = new java.util.ArrayList<>();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
 
     public Compiler() {
+        this(new CompilerOptions());
+    }
+
+    public Compiler(CompilerOptions options) {
+        this(options, new ModuleLoader(options));
+    }
+
+    /** A compiler that loads imported modules with the given loader, and its cache. */
+    public Compiler(CompilerOptions options, ModuleLoader modules) {
         this.errors = new java.util.ArrayList<>();
         this.warnings = new java.util.ArrayList<>();
+        this.options = options;
+        this.modules = modules;
     }
 
     public ProgramNode compileToAST(String sourceFile) throws IOException {
         Lexer lexer = Lexer.fromFile(sourceFile);
+        return parse(lexer);
+    }
+
+    private ProgramNode parse(Lexer lexer) {
+        long start = System.nanoTime();
         Parser parser = new Parser(lexer);
         ProgramNode ast = parser.parse();
+        phaseNanos.put("parse", System.nanoTime() - start);
         return ast;
     }
 
     /**
      * Parse, run semantic analysis, and apply optimization passes (constant
-     * folding and simple dead-code elimination). Returns the optimized AST
-     * ready for code generation or inspection.
+     * folding and propagation, routine specialization, compile-time
+     * evaluation of pure calls and simple dead-code elimination). Returns the
+     * optimized AST ready for code generation or inspection.
      */
     public ProgramNode compileToOptimizedAST(String sourceFile) throws IOException {
-        ProgramNode ast = compileToAST(sourceFile);
+        return optimize(compileToAST(sourceFile), Paths.get(sourceFile));
+    }
+
+    /**
+     * {@link #compileToOptimizedAST(String)} for source text; imports are
+     * looked up next to {@code filename}, which also names the source in
+     * diagnostics.
+     */
+    public ProgramNode compileSourceToOptimizedAST(String source, String filename) throws IOException {
+        return optimize(parse(new Lexer(source, filename)), Paths.get(filename));
+    }
+
+    private ProgramNode optimize(ProgramNode ast, Path sourcePath) throws IOException {
+        // Imported modules: their declarations join the program, their code is linked in
+        long start = System.nanoTime();
+        importedModules = modules.load(ast, sourcePath);
+        ast = ModuleLoader.withInterfaces(ast, importedModules);
+        for (CompilationError warning : modules.getWarnings()) {
+            if (!warnings.contains(warning)) {
+                warnings.add(warning);
+            }
+        }
+        phaseNanos.put("modules", System.nanoTime() - start);
 
         // Semantic analysis
+        start = System.nanoTime();
         SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer();
         semanticAnalyzer.analyze(ast);
+        phaseNanos.put("semantic", System.nanoTime() - start);
 
         if (semanticAnalyzer.hasErrors()) {
-            System.err.println("Compilation failed due to semantic errors:");
-            for (CompilationError error : semanticAnalyzer.getErrors()) {
-                System.err.println("  " + error);
-            }
-            throw new RuntimeException("Compilation failed due to semantic errors");
+            errors.addAll(semanticAnalyzer.getErrors());
+            throw new CompilationException("Compilation failed due to semantic errors", errors);
         }
 
         // Optimization passes on AST
+        start = System.nanoTime();
         ConstantFolder constantFolder = new ConstantFolder();
         ast = constantFolder.optimize(ast);
 
+        ConstantPropagator constantPropagator = new ConstantPropagator();
+        ast = constantPropagator.optimize(ast);
+
+        // Clones of routines for constant arguments, with the constants propagated
+        RoutineSpecializer specializer = new RoutineSpecializer(options.getSpecializeBudget());
+        ast = specializer.optimize(ast);
+        if (!specializer.getClones().isEmpty()) {
+            ast = new ConstantPropagator().optimize(ast);
+        }
+
+        // Calls to pure routines whose arguments are now constants, then the
+        // constants their results make known
+        PureCallEvaluator pureCalls = new PureCallEvaluator(ast);
+        ast = new ConstantFolder(pureCalls).optimize(ast);
+        if (pureCalls.getEvaluatedCalls() > 0) {
+            ast = new ConstantPropagator().optimize(ast);
+        }
+        warnings.addAll(pureCalls.getWarnings());
+
         DeadCodeEliminator dce = new DeadCodeEliminator();
         ast = dce.optimize(ast);
+        phaseNanos.put("optimize", System.nanoTime() - start);
 
         return ast;
     }
 
+    /** Compile a source file into the WAT file at outputFile, creating its directory if needed. */
     public void compile(String sourceFile, String outputFile) throws IOException {
-        // Ensure output directory exists
-        java.io.File outputDir = new java.io.File("output");
-        if (!outputDir.exists()) {
-            outputDir.mkdirs();
-        }
+        // Parse, analyze and optimize AST, then generate code from it
+        String wat = generateWat(compileToOptimizedAST(sourceFile));
 
-        // If outputFile doesn't contain path separators, put it in output directory
-        if (!outputFile.contains("/") && !outputFile.contains("\\")) {
-            outputFile = "output/" + outputFile;
+        Path outputDir = Paths.get(outputFile).toAbsolutePath().getParent();
+        if (outputDir != null) {
+            Files.createDirectories(outputDir);
         }
-
-        // Parse, analyze and optimize AST
-        ProgramNode ast = compileToOptimizedAST(sourceFile);
-
-        // Code generation from optimized AST
         try (OutputStreamWriter osw = new OutputStreamWriter(
                 new FileOutputStream(outputFile), StandardCharsets.UTF_8)) {
-            CodeGenerator codegen = new CodeGenerator(osw);
-            codegen.generate(ast);
+            osw.write(wat);
         }
     }
 
+    /** The WebAssembly text module of an optimized AST, with the code of its imported modules linked in. */
+    public String generateWat(ProgramNode ast) throws IOException {
+        long start = System.nanoTime();
+        Profile profile = options.getProfileUse() != null
+            ? Profile.read(Paths.get(options.getProfileUse())) : null;
+
+        StringWriter module = new StringWriter();
+        CodeGenerator codegen = new CodeGenerator(module, options);
+        codegen.setProfile(profile);
+        codegen.setLinkedCode(ModuleLoader.linkedCode(importedModules));
+        codegen.generate(ast);
+        unoptimizedModuleSize = codegen.getUnoptimizedModuleSize();
+        moduleSize = codegen.getModuleSize();
+        removedFunctions = new java.util.ArrayList<>(codegen.getRemovedFunctions());
+        memoizedRoutines = new java.util.ArrayList<>(codegen.getMemoizedRoutines());
+        phaseNanos.put("codegen", System.nanoTime() - start);
+        return module.toString();
+    }
+
+    /**
+     * Compile a module imported by other programs and return the functions
+     * of its routines (see {@link CodeGenerator#getRoutineCode()}). The code
+     * of the modules it imports is not included.
+     */
+    public String compileModuleCode(String sourceFile) throws IOException {
+        ProgramNode ast = compileToOptimizedAST(sourceFile);
+        CodeGenerator codegen = new CodeGenerator(new StringWriter(), options);
+        codegen.generate(ast);
+        return codegen.getRoutineCode();
+    }
+
+    /** Size in bytes of the last compiled module before unused functions were removed. */
+    public int getUnoptimizedModuleSize() {
+        return unoptimizedModuleSize;
+    }
+
+    /** Size in bytes of the last compiled module. */
+    public int getModuleSize() {
+        return moduleSize;
+    }
+
+    /** Functions left out of the last compiled module because they are unreachable from _start. */
+    public List<String> getRemovedFunctions() {
+        return removedFunctions;
+    }
+
+    /** Routines of the last compiled module that cache their results (--memoize). */
+    public List<String> getMemoizedRoutines() {
+        return memoizedRoutines;
+    }
+
+    /** Nanoseconds spent in each phase of the last compilation, in pipeline order. */
+    public Map<String, Long> getPhaseNanos() {
+        return phaseNanos;
+    }
+
+    /** Modules the last compiled program imports, directly or not, dependencies first. */
+    public List<CompiledModule> getImportedModules() {
+        return importedModules;
+    }
+
     public void run(String wasmFile, String[] args) throws IOException, InterruptedException {
         System.out.println("=== Stage 5: Execution ===");
         System.out.println("Running " + wasmFile);
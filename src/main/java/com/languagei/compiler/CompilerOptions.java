@@ -0,0 +1,300 @@
+package com.languagei.compiler;
+
+/**
+ * Command-line switches that change how a program is compiled.
+ */
+public class CompilerOptions {
+    private boolean tailCalls;
+    private boolean packRecords;
+    private boolean simd;
+    private boolean profileGenerate;
+    private String profileUse;
+    private boolean instrument;
+    private boolean instrumentJson;
+    private boolean debugInfo;
+    private int unrollFactor = 4;
+    private boolean memoize;
+    private int memoSize = 1024;
+    private int specializeBudget = 1000;
+    private String moduleCache = "output/modules";
+
+    /**
+     * Whether tail calls to other routines may use the wasm tail-call
+     * instruction {@code return_call}. Off by default because not every
+     * engine enables the tail-call proposal.
+     */
+    public boolean isTailCalls() {
+        return tailCalls;
+    }
+
+    public void setTailCalls(boolean tailCalls) {
+        this.tailCalls = tailCalls;
+    }
+
+    /**
+     * Whether record fields are laid out by decreasing alignment instead of
+     * declaration order, which removes padding between them.
+     */
+    public boolean isPackRecords() {
+        return packRecords;
+    }
+
+    public void setPackRecords(boolean packRecords) {
+        this.packRecords = packRecords;
+    }
+
+    /**
+     * Whether counted loops over integer and real arrays may be vectorized
+     * with wasm SIMD instructions. Off by default because it needs an engine
+     * with the SIMD proposal.
+     */
+    public boolean isSimd() {
+        return simd;
+    }
+
+    public void setSimd(boolean simd) {
+        this.simd = simd;
+    }
+
+    /**
+     * Whether the program is instrumented to count routine entries, branch
+     * directions and loop iterations, and to write them to a profile file
+     * when it exits.
+     */
+    public boolean isProfileGenerate() {
+        return profileGenerate;
+    }
+
+    public void setProfileGenerate(boolean profileGenerate) {
+        this.profileGenerate = profileGenerate;
+    }
+
+    /** Profile file recorded by an instrumented run to optimize with, or null. */
+    public String getProfileUse() {
+        return profileUse;
+    }
+
+    public void setProfileUse(String profileUse) {
+        this.profileUse = profileUse;
+    }
+
+    /**
+     * Whether the program counts calls per routine, iterations per loop and
+     * bytes allocated per declaration, and reports them on stderr at exit.
+     */
+    public boolean isInstrument() {
+        return instrument;
+    }
+
+    public void setInstrument(boolean instrument) {
+        this.instrument = instrument;
+    }
+
+    /** Whether the --instrument report is JSON instead of a text table. */
+    public boolean isInstrumentJson() {
+        return instrumentJson;
+    }
+
+    public void setInstrumentJson(boolean instrumentJson) {
+        this.instrumentJson = instrumentJson;
+    }
+
+    /**
+     * Whether the module carries a module name and a custom section mapping
+     * the instructions of each function to source lines, for profilers.
+     */
+    public boolean isDebugInfo() {
+        return debugInfo;
+    }
+
+    public void setDebugInfo(boolean debugInfo) {
+        this.debugInfo = debugInfo;
+    }
+
+    /**
+     * How many iterations one pass of an unrolled range loop runs; 1 turns
+     * loop unrolling off.
+     */
+    public int getUnrollFactor() {
+        return unrollFactor;
+    }
+
+    public void setUnrollFactor(int unrollFactor) {
+        this.unrollFactor = unrollFactor;
+    }
+
+    /**
+     * Whether pure recursive routines with integer or boolean parameters
+     * look up their results in a memo table before computing them.
+     */
+    public boolean isMemoize() {
+        return memoize;
+    }
+
+    public void setMemoize(boolean memoize) {
+        this.memoize = memoize;
+    }
+
+    /** Entries of each memo table, a power of two. */
+    public int getMemoSize() {
+        return memoSize;
+    }
+
+    public void setMemoSize(int memoSize) {
+        this.memoSize = memoSize;
+    }
+
+    /**
+     * How many AST nodes the routine clones made for constant arguments may
+     * add in total; 0 turns specialization off.
+     */
+    public int getSpecializeBudget() {
+        return specializeBudget;
+    }
+
+    public void setSpecializeBudget(int specializeBudget) {
+        this.specializeBudget = specializeBudget;
+    }
+
+    /** Directory holding the interface and code files of compiled imported modules. */
+    public String getModuleCache() {
+        return moduleCache;
+    }
+
+    public void setModuleCache(String moduleCache) {
+        this.moduleCache = moduleCache;
+    }
+
+    /**
+     * The options imported modules are compiled with: the same code
+     * generation, without instrumentation, profiles, memo tables and debug
+     * info, which belong to the whole program.
+     */
+    public CompilerOptions forModules() {
+        CompilerOptions module = new CompilerOptions();
+        module.tailCalls = tailCalls;
+        module.packRecords = packRecords;
+        module.simd = simd;
+        module.unrollFactor = unrollFactor;
+        module.specializeBudget = specializeBudget;
+        module.moduleCache = moduleCache;
+        return module;
+    }
+
+    /**
+     * The options that change the code generated for a module, as recorded in
+     * its interface file: code compiled with other options is rebuilt.
+     */
+    public String getCodeFingerprint() {
+        return "tail-calls=" + tailCalls + " pack-records=" + packRecords + " simd=" + simd
+            + " unroll=" + unrollFactor + " specialize=" + specializeBudget;
+    }
+
+    /**
+     * Parse the option at {@code args[index]} and return the index of the last
+     * argument it consumed.
+     *
+     * @throws IllegalArgumentException if the option is unknown or incomplete
+     */
+    public int parseOption(String[] args, int index) {
+        String arg = args[index];
+        switch (arg) {
+            case "--tail-calls":
+                tailCalls = true;
+                return index;
+            case "--pack-records":
+                packRecords = true;
+                return index;
+            case "--simd":
+                simd = true;
+                return index;
+            case "--profile-generate":
+                profileGenerate = true;
+                return index;
+            case "--profile-use":
+                if (index + 1 >= args.length) {
+                    throw new IllegalArgumentException("--profile-use needs a profile file");
+                }
+                profileUse = args[index + 1];
+                return index + 1;
+            case "--instrument":
+                instrument = true;
+                return index;
+            case "--instrument=json":
+                instrument = true;
+                instrumentJson = true;
+                return index;
+            case "--debug-info":
+                debugInfo = true;
+                return index;
+            case "--unroll":
+                if (index + 1 >= args.length) {
+                    throw new IllegalArgumentException("--unroll needs a factor");
+                }
+                try {
+                    unrollFactor = Integer.parseInt(args[index + 1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("--unroll needs a factor, got " + args[index + 1]);
+                }
+                if (unrollFactor < 1) {
+                    throw new IllegalArgumentException("--unroll factor must be at least 1");
+                }
+                return index + 1;
+            case "--memoize":
+                memoize = true;
+                return index;
+            case "--memo-size":
+                if (index + 1 >= args.length) {
+                    throw new IllegalArgumentException("--memo-size needs a number of entries");
+                }
+                try {
+                    memoSize = Integer.parseInt(args[index + 1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("--memo-size needs a number of entries, got " + args[index + 1]);
+                }
+                if (memoSize < 2 || Integer.bitCount(memoSize) != 1) {
+                    throw new IllegalArgumentException("--memo-size must be a power of two of at least 2");
+                }
+                return index + 1;
+            case "--specialize":
+                if (index + 1 >= args.length) {
+                    throw new IllegalArgumentException("--specialize needs a node budget");
+                }
+                try {
+                    specializeBudget = Integer.parseInt(args[index + 1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("--specialize needs a node budget, got " + args[index + 1]);
+                }
+                if (specializeBudget < 0) {
+                    throw new IllegalArgumentException("--specialize budget must not be negative");
+                }
+                return index + 1;
+            case "--module-cache":
+                if (index + 1 >= args.length) {
+                    throw new IllegalArgumentException("--module-cache needs a directory");
+                }
+                moduleCache = args[index + 1];
+                return index + 1;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+    }
+
+    /** Usage lines for the options, as shown by the help text. */
+    public static String[] describe() {
+        return new String[] {
+            "  --tail-calls   Emit return_call for tail calls between routines (wasm tail-call proposal)",
+            "  --pack-records Reorder record fields by alignment to remove padding",
+            "  --simd         Vectorize simple loops over arrays with wasm SIMD (v128)",
+            "  --profile-generate  Count branches, loops and calls and write default.iprof at exit",
+            "  --profile-use <file> Optimize with a profile written by --profile-generate",
+            "  --instrument[=json]  Report calls, loop iterations and allocated bytes on stderr at exit",
+            "  --debug-info   Name the module and add a source line table custom section",
+            "  --unroll <n>   Unroll small range loops n iterations at a time (default 4, 1 = off)",
+            "  --memoize      Cache results of pure recursive routines in memo tables",
+            "  --memo-size <n> Entries per memo table, a power of two (default 1024)",
+            "  --specialize <n> Clone routines for constant arguments, up to n AST nodes (default 1000, 0 = off)",
+            "  --module-cache <dir> Where compiled imported modules are cached (default output/modules)"
+        };
+    }
+}
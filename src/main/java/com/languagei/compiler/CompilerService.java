@@ -0,0 +1,75 @@
+package com.languagei.compiler;
+
+import com.languagei.compiler.parser.ParseException;
+import com.languagei.compiler.semantic.CompilationError;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiles Language I programs for applications that embed the compiler.
+ *
+ * Nothing is printed and no output file is written: every compilation,
+ * successful or not, returns a {@link CompilationResult}. Only imported
+ * modules touch the file system, through the module cache of the options.
+ * A service may be shared by any number of threads, since each compilation
+ * runs on a {@link Compiler} of its own; the options must not be changed
+ * while it is in use.
+ */
+public class CompilerService {
+    private final CompilerOptions options;
+
+    public CompilerService() {
+        this(new CompilerOptions());
+    }
+
+    public CompilerService(CompilerOptions options) {
+        this.options = options;
+    }
+
+    /** Compile a source file; its imports are looked up next to it. */
+    public CompilationResult compile(Path sourceFile) {
+        long start = System.nanoTime();
+        String source;
+        try {
+            source = new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            String message = e instanceof NoSuchFileException
+                ? "File not found: " + sourceFile : "Cannot read " + sourceFile + ": " + e.getMessage();
+            CompilationError error = new CompilationError(CompilationError.Severity.ERROR, message, null);
+            return new CompilationResult(null, List.of(error), Collections.emptyMap(), System.nanoTime() - start);
+        }
+        return compile(source, sourceFile.toString(), start);
+    }
+
+    /**
+     * Compile source text. {@code filename} names it in diagnostics, and
+     * imports are looked up in its directory.
+     */
+    public CompilationResult compile(String source, String filename) {
+        return compile(source, filename, System.nanoTime());
+    }
+
+    private CompilationResult compile(String source, String filename, long start) {
+        Compiler compiler = new Compiler(options);
+        List<CompilationError> diagnostics = new ArrayList<>();
+        String wat = null;
+        try {
+            wat = compiler.generateWat(compiler.compileSourceToOptimizedAST(source, filename));
+        } catch (CompilationException e) {
+            diagnostics.addAll(e.getErrors());
+        } catch (ParseException e) {
+            diagnostics.add(new CompilationError(CompilationError.Severity.ERROR, e.getMessage(), e.getPosition()));
+        } catch (IOException | RuntimeException e) {
+            diagnostics.add(new CompilationError(CompilationError.Severity.ERROR, e.getMessage(), null));
+        }
+        diagnostics.addAll(compiler.getWarnings());
+        return new CompilationResult(wat, diagnostics, compiler.getPhaseNanos(), System.nanoTime() - start);
+    }
+}
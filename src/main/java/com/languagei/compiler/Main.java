@@ -2,11 +2,17 @@ package com.languagei.compiler;
 
 import com.languagei.compiler.ast.ASTPrinter;
 import com.languagei.compiler.ast.ProgramNode;
+import com.languagei.compiler.benchmark.BenchmarkRunner;
 import com.languagei.compiler.lexer.Lexer;
 import com.languagei.compiler.lexer.Token;
 import com.languagei.compiler.lexer.TokenType;
+import com.languagei.compiler.module.CompiledModule;
+import com.languagei.compiler.semantic.CompilationError;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Main entry point for Language I compiler
@@ -25,45 +31,66 @@ public class Main {
             switch (command) {
                 case "compile":
                     if (args.length < 2) {
-                        System.err.println("Usage: compile <source.i> [-o output.wat]");
+                        System.err.println("Usage: compile <source.i> [-o output.wat] [options]");
                         return;
                     }
                     String sourceFile = args[1];
                     String outputFile = "output.wat";
+                    CompilerOptions options = new CompilerOptions();
                     
                     for (int i = 2; i < args.length; i++) {
                         if ("-o".equals(args[i]) && i + 1 < args.length) {
                             outputFile = args[++i];
+                        } else {
+                            i = options.parseOption(args, i);
                         }
                     }
                     
-                    Compiler compiler = new Compiler();
-                    compiler.compile(sourceFile, outputFile);
+                    Compiler compiler = new Compiler(options);
+                    compiler.compile(sourceFile, outputPath(outputFile));
+                    printWarnings(compiler);
                     System.out.println("✓ Compilation successful!");
+                    printModuleSize(compiler);
+                    printMemoized(compiler, options);
+                    printImports(compiler);
                     break;
 
                 case "run":
                     if (args.length < 2) {
-                        System.err.println("Usage: run <source.i> [-o output.wat]");
+                        System.err.println("Usage: run <source.i> [-o output.wat] [options]");
                         return;
                     }
                     sourceFile = args[1];
                     String watFileArg = "output.wat";
+                    options = new CompilerOptions();
 
                     for (int i = 2; i < args.length; i++) {
                         if ("-o".equals(args[i]) && i + 1 < args.length) {
                             watFileArg = args[++i];
+                        } else {
+                            i = options.parseOption(args, i);
                         }
                     }
 
-                    compiler = new Compiler();
-                    String watFile = watFileArg;
+                    compiler = new Compiler(options);
+                    String watFile = outputPath(watFileArg);
                     compiler.compile(sourceFile, watFile);
+                    printWarnings(compiler);
                     System.out.println("!!! Compiled to WAT");
+                    printModuleSize(compiler);
+                    printMemoized(compiler, options);
+                    printImports(compiler);
 
                     // After successful compilation, execute the generated WAT via wasmtime
                     try {
-                        ProcessBuilder pb = new ProcessBuilder("wasmtime", watFile);
+                        List<String> wasmtime = new ArrayList<>();
+                        wasmtime.add("wasmtime");
+                        if (options.isProfileGenerate()) {
+                            // Preopen the working directory so the profile can be written there
+                            wasmtime.add("--dir=.");
+                        }
+                        wasmtime.add(watFile);
+                        ProcessBuilder pb = new ProcessBuilder(wasmtime);
                         pb.inheritIO();
                         Process proc = pb.start();
                         int exitCode = proc.waitFor();
@@ -76,6 +103,13 @@ public class Main {
                     }
                     break;
 
+                case "bench":
+                    int status = new BenchmarkRunner().run(Arrays.copyOfRange(args, 1, args.length));
+                    if (status != 0) {
+                        System.exit(status);
+                    }
+                    break;
+
                 case "ast":
                     if (args.length < 2) {
                         System.err.println("Usage: ast <source.i>");
@@ -84,6 +118,7 @@ public class Main {
                     sourceFile = args[1];
                     compiler = new Compiler();
                     ProgramNode ast = compiler.compileToOptimizedAST(sourceFile);
+                    printWarnings(compiler);
                     ASTPrinter.print(ast);
                     break;
 
@@ -110,24 +145,75 @@ public class Main {
                     printHelp();
             }
         } catch (Exception e) {
+            if (e instanceof CompilationException) {
+                System.err.println(e.getMessage() + ":");
+                for (CompilationError error : ((CompilationException) e).getErrors()) {
+                    System.err.println("  " + error);
+                }
+            }
             System.err.println("✗ Error: " + e.getMessage());
             System.exit(1);
         }
     }
 
+    /** Bare file names given to -o go into the output directory. */
+    private static String outputPath(String outputFile) {
+        if (!outputFile.contains("/") && !outputFile.contains("\\")) {
+            return "output/" + outputFile;
+        }
+        return outputFile;
+    }
+
+    private static void printWarnings(Compiler compiler) {
+        for (CompilationError warning : compiler.getWarnings()) {
+            System.err.println(warning);
+        }
+    }
+
+    private static void printModuleSize(Compiler compiler) {
+        System.out.println("Module size: " + compiler.getModuleSize() + " bytes ("
+            + compiler.getUnoptimizedModuleSize() + " before removing "
+            + compiler.getRemovedFunctions().size() + " unused functions)");
+    }
+
+    private static void printMemoized(Compiler compiler, CompilerOptions options) {
+        if (options.isMemoize()) {
+            List<String> memoized = compiler.getMemoizedRoutines();
+            System.out.println("Memoized routines: " + (memoized.isEmpty() ? "none" : String.join(", ", memoized)));
+        }
+    }
+
+    private static void printImports(Compiler compiler) {
+        if (!compiler.getImportedModules().isEmpty()) {
+            List<String> modules = new ArrayList<>();
+            for (CompiledModule module : compiler.getImportedModules()) {
+                modules.add(module.getName() + (module.isRebuilt() ? " (rebuilt)" : " (cached)"));
+            }
+            System.out.println("Modules: " + String.join(", ", modules));
+        }
+    }
+
     private static void printHelp() {
         System.out.println("Language I Compiler v1.0.0");
         System.out.println();
         System.out.println("Usage:");
-        System.out.println("  java -jar compiler-i.jar compile <source.i> [-o output.wat]");
-        System.out.println("  java -jar compiler-i.jar run <source.i> [-o output.wat]");
+        System.out.println("  java -jar compiler-i.jar compile <source.i> [-o output.wat] [options]");
+        System.out.println("  java -jar compiler-i.jar run <source.i> [-o output.wat] [options]");
         System.out.println("  java -jar compiler-i.jar ast <source.i>");
+        System.out.println("  java -jar compiler-i.jar bench [benchmark...] [--runs N] [--threshold PERCENT] [--history FILE] [--dir DIR] [--wasmtime PATH]");
 
         System.out.println();
         System.out.println("Commands:");
         System.out.println("  compile  Compile Language I source to WebAssembly Text format");
         System.out.println("  run      Compile and run a Language I program");
         System.out.println("  ast      Display the optimized Abstract Syntax Tree");
+        System.out.println("  bench    Time the benchmark programs at each optimization setting");
+
+        System.out.println();
+        System.out.println("Options:");
+        for (String line : CompilerOptions.describe()) {
+            System.out.println(line);
+        }
 
     }
 }
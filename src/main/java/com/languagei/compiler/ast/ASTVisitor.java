@@ -7,6 +7,7 @@ public interface ASTVisitor {
     void visit(ProgramNode node);
     void visit(VariableDeclarationNode node);
     void visit(TypeDeclarationNode node);
+    void visit(ImportDeclarationNode node);
     void visit(RoutineDeclarationNode node);
     void visit(PrimitiveTypeNode node);
     void visit(ArrayTypeNode node);
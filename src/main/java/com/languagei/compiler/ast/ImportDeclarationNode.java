@@ -0,0 +1,32 @@
+package com.languagei.compiler.ast;
+
+import com.languagei.compiler.lexer.Position;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents an import of another unit: {@code import geometry} makes the
+ * types and routines of {@code geometry.i} available
+ */
+public class ImportDeclarationNode extends ASTNode {
+    private final String moduleName;
+
+    public ImportDeclarationNode(Position position, String moduleName) {
+        super(position);
+        this.moduleName = moduleName;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    @Override
+    public void accept(ASTVisitor visitor) {
+        visitor.visit(this);
+    }
+
+    @Override
+    public List<ASTNode> getChildren() {
+        return new ArrayList<>();
+    }
+}
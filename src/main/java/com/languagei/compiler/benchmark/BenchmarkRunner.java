@@ -0,0 +1,281 @@
+package com.languagei.compiler.benchmark;
+
+import com.languagei.compiler.Compiler;
+import com.languagei.compiler.CompilerOptions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the benchmark corpus: compiles every program in the benchmark
+ * directory at each optimization setting, runs it several times under
+ * wasmtime and appends median and p95 wall time and module size to a JSON
+ * Lines history file (one JSON object per benchmark and setting per run).
+ *
+ * A benchmark fails when its output differs from the output of the first
+ * setting, or when its median time exceeds the median of its last recorded
+ * medians by more than the threshold.
+ */
+public class BenchmarkRunner {
+
+    /** Compiler options of each optimization setting that is measured. */
+    private static final Map<String, String[]> SETTINGS = new LinkedHashMap<>();
+
+    /** wasmtime options the code of a setting needs to run. */
+    private static final Map<String, String[]> WASMTIME_OPTIONS = new HashMap<>();
+
+    static {
+        SETTINGS.put("default", new String[0]);
+        SETTINGS.put("simd", new String[] {"--simd"});
+        SETTINGS.put("pack-records", new String[] {"--pack-records"});
+        SETTINGS.put("tail-calls", new String[] {"--tail-calls"});
+        SETTINGS.put("no-unroll", new String[] {"--unroll", "1"});
+        SETTINGS.put("unroll-8", new String[] {"--unroll", "8"});
+        SETTINGS.put("memoize", new String[] {"--memoize"});
+        SETTINGS.put("no-specialize", new String[] {"--specialize", "0"});
+        WASMTIME_OPTIONS.put("tail-calls", new String[] {"-W", "tail-call=y"});
+    }
+
+    // Recorded medians a new median is compared with
+    private static final int BASELINE_RUNS = 5;
+
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\": (\"[^\"]*\"|[0-9.]+)");
+
+    /** Result of one benchmark at one setting. */
+    static final class Result {
+        final String benchmark;
+        final String setting;
+        final int runs;
+        final double medianMs;
+        final double p95Ms;
+        final long moduleBytes;
+
+        Result(String benchmark, String setting, int runs, double medianMs, double p95Ms, long moduleBytes) {
+            this.benchmark = benchmark;
+            this.setting = setting;
+            this.runs = runs;
+            this.medianMs = medianMs;
+            this.p95Ms = p95Ms;
+            this.moduleBytes = moduleBytes;
+        }
+
+        String toJson(String timestamp) {
+            return String.format(Locale.ROOT,
+                "{\"timestamp\": \"%s\", \"benchmark\": \"%s\", \"setting\": \"%s\", \"runs\": %d, "
+                    + "\"median_ms\": %.3f, \"p95_ms\": %.3f, \"module_bytes\": %d}",
+                timestamp, benchmark, setting, runs, medianMs, p95Ms, moduleBytes);
+        }
+    }
+
+    private Path corpus = Paths.get("tests", "benchmarks");
+    private Path history = Paths.get("output", "benchmarks", "history.jsonl");
+    private Path outputDir = Paths.get("output", "benchmarks");
+    private String wasmtime = "wasmtime";
+    private int runs = 5;
+    private double thresholdPercent = 10;
+
+    /**
+     * Parse the arguments of the {@code bench} command, run the corpus and
+     * return the process exit code: 0 when every benchmark passed.
+     */
+    public int run(String[] args) throws IOException, InterruptedException {
+        List<String> only = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                only.add(arg);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(arg + " needs a value");
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--dir":
+                    corpus = Paths.get(value);
+                    break;
+                case "--history":
+                    history = Paths.get(value);
+                    break;
+                case "--wasmtime":
+                    wasmtime = value;
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    if (runs < 1) {
+                        throw new IllegalArgumentException("--runs must be at least 1");
+                    }
+                    break;
+                case "--threshold":
+                    thresholdPercent = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        List<Path> programs;
+        try (var files = Files.list(corpus)) {
+            programs = files.filter(p -> p.toString().endsWith(".i"))
+                .filter(p -> only.isEmpty() || only.contains(benchmarkName(p)))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        if (programs.isEmpty()) {
+            System.err.println("No benchmarks found in " + corpus);
+            return 1;
+        }
+        Files.createDirectories(outputDir);
+        Map<String, List<Double>> recorded = readHistory();
+
+        List<Result> results = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        System.out.println(String.format(Locale.ROOT, "%-20s %-14s %12s %12s %12s  %s",
+            "benchmark", "setting", "median ms", "p95 ms", "module bytes", "vs history"));
+        for (Path program : programs) {
+            String name = benchmarkName(program);
+            String expectedOutput = null;
+            for (Map.Entry<String, String[]> setting : SETTINGS.entrySet()) {
+                Path wat = outputDir.resolve(name + "-" + setting.getKey() + ".wat");
+                CompilerOptions options = new CompilerOptions();
+                String[] flags = setting.getValue();
+                for (int i = 0; i < flags.length; i++) {
+                    i = options.parseOption(flags, i);
+                }
+                Compiler compiler = new Compiler(options);
+                compiler.compile(program.toString(), wat.toString());
+
+                double[] times = new double[runs];
+                String output = null;
+                for (int run = 0; run < runs; run++) {
+                    long start = System.nanoTime();
+                    output = execute(wat, WASMTIME_OPTIONS.getOrDefault(setting.getKey(), new String[0]));
+                    times[run] = (System.nanoTime() - start) / 1e6;
+                }
+                if (expectedOutput == null) {
+                    expectedOutput = output;
+                } else if (!output.equals(expectedOutput)) {
+                    // A miscompilation, not a timing to record
+                    failures.add(name + " (" + setting.getKey() + "): output differs from "
+                        + SETTINGS.keySet().iterator().next());
+                    continue;
+                }
+                Arrays.sort(times);
+                Result result = new Result(name, setting.getKey(), runs, median(times),
+                    times[p95Index(runs)], Files.size(wat));
+                results.add(result);
+
+                String comparison = "new";
+                List<Double> previous = recorded.get(name + " " + setting.getKey());
+                if (previous != null && !previous.isEmpty()) {
+                    List<Double> last = previous.subList(Math.max(0, previous.size() - BASELINE_RUNS), previous.size());
+                    double[] baselines = last.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+                    double baseline = median(baselines);
+                    double change = 100 * (result.medianMs - baseline) / baseline;
+                    comparison = String.format(Locale.ROOT, "%+.1f%%", change);
+                    if (change > thresholdPercent) {
+                        failures.add(String.format(Locale.ROOT, "%s (%s): median %.1f ms is %.1f%% above %.1f ms",
+                            name, setting.getKey(), result.medianMs, change, baseline));
+                    }
+                }
+                System.out.println(String.format(Locale.ROOT, "%-20s %-14s %12.1f %12.1f %12d  %s",
+                    name, setting.getKey(), result.medianMs, result.p95Ms, result.moduleBytes, comparison));
+            }
+        }
+
+        appendHistory(results);
+        if (!failures.isEmpty()) {
+            System.err.println("Benchmark regressions:");
+            for (String failure : failures) {
+                System.err.println("  " + failure);
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    /** Run a compiled module and return what it printed. */
+    private String execute(Path wat, String[] wasmtimeOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(wasmtime);
+        command.addAll(Arrays.asList(wasmtimeOptions));
+        command.add(wat.toString());
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException(wat + " exited with code " + exitCode + ": " + output);
+        }
+        return output;
+    }
+
+    /** Medians recorded so far, in file order, keyed by benchmark and setting. */
+    private Map<String, List<Double>> readHistory() throws IOException {
+        if (!Files.exists(history)) {
+            return new LinkedHashMap<>();
+        }
+        return parseHistory(Files.readAllLines(history, StandardCharsets.UTF_8));
+    }
+
+    /** Medians of history lines, in order, keyed by benchmark and setting; other lines are skipped. */
+    static Map<String, List<Double>> parseHistory(List<String> lines) {
+        Map<String, List<Double>> medians = new LinkedHashMap<>();
+        for (String line : lines) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            Matcher matcher = FIELD.matcher(line);
+            while (matcher.find()) {
+                fields.put(matcher.group(1), matcher.group(2).replace("\"", ""));
+            }
+            if (fields.containsKey("benchmark") && fields.containsKey("setting") && fields.containsKey("median_ms")) {
+                medians.computeIfAbsent(fields.get("benchmark") + " " + fields.get("setting"), k -> new ArrayList<>())
+                    .add(Double.parseDouble(fields.get("median_ms")));
+            }
+        }
+        return medians;
+    }
+
+    private void appendHistory(List<Result> results) throws IOException {
+        if (history.getParent() != null) {
+            Files.createDirectories(history.getParent());
+        }
+        String timestamp = Instant.now().toString();
+        List<String> lines = new ArrayList<>();
+        for (Result result : results) {
+            lines.add(result.toJson(timestamp));
+        }
+        Files.write(history, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String benchmarkName(Path program) {
+        String file = program.getFileName().toString();
+        return file.substring(0, file.length() - ".i".length());
+    }
+
+    /** Index of the 95th percentile in {@code runs} sorted times (nearest rank). */
+    static int p95Index(int runs) {
+        return (int) Math.ceil(0.95 * runs) - 1;
+    }
+
+    /** Median of sorted values. */
+    static double median(double[] sorted) {
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
@@ -0,0 +1,129 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.function.Function;
+
+/**
+ * Recognizes range loops that copy or fill a run of array elements and can
+ * be replaced by a single {@code memory.copy} or {@code memory.fill}.
+ *
+ * The loop must be a forward {@code for i in lo..hi} whose body is the single
+ * statement {@code a[i] := b[i]} (copy) or {@code a[i] := c} (fill), where a
+ * and b are 1D arrays with the same element type and c is a literal whose
+ * bytes in memory are all equal (zero, or any boolean). The bound can be any
+ * expression, since it is evaluated once before the loop.
+ */
+public class BulkLoopRecognizer {
+
+    /** A copy or fill loop. */
+    public static final class BulkLoop {
+        private final IdentifierNode target;
+        private final IdentifierNode source;
+        private final int fillByte;
+        private final int elementSize;
+
+        private BulkLoop(IdentifierNode target, IdentifierNode source, int fillByte, int elementSize) {
+            this.target = target;
+            this.source = source;
+            this.fillByte = fillByte;
+            this.elementSize = elementSize;
+        }
+
+        /** The array written by the loop. */
+        public IdentifierNode getTarget() {
+            return target;
+        }
+
+        /** The array copied from, or null for a fill. */
+        public IdentifierNode getSource() {
+            return source;
+        }
+
+        /** The byte value every element byte is set to by a fill. */
+        public int getFillByte() {
+            return fillByte;
+        }
+
+        public int getElementSize() {
+            return elementSize;
+        }
+    }
+
+    private final MemoryLayout layouts;
+
+    public BulkLoopRecognizer(MemoryLayout layouts) {
+        this.layouts = layouts;
+    }
+
+    /**
+     * Match a range loop.
+     *
+     * @param typeOf declared type (aliases resolved) of a variable or element, or null
+     * @return the bulk operation, or null if the loop is not a plain copy or fill
+     */
+    public BulkLoop match(ForLoopNode loop, Function<ASTNode, ASTNode> typeOf) {
+        if (loop.getRangeStart() == null || loop.isReverse() || loop.getBody() == null
+                || loop.getBody().getStatements().size() != 1
+                || !(loop.getBody().getStatements().get(0) instanceof AssignmentNode)) {
+            return null;
+        }
+        String variable = loop.getVariable();
+        AssignmentNode assignment = (AssignmentNode) loop.getBody().getStatements().get(0);
+        IdentifierNode target = elementArray(assignment.getTarget(), variable);
+        if (target == null) {
+            return null;
+        }
+        ASTNode element = typeOf.apply(assignment.getTarget());
+        if (element == null || element instanceof ArrayTypeNode) {
+            return null;
+        }
+        int elementSize = layouts.sizeOf(element);
+
+        IdentifierNode source = elementArray(assignment.getValue(), variable);
+        if (source != null) {
+            ASTNode sourceElement = typeOf.apply(assignment.getValue());
+            return sameType(element, sourceElement) ? new BulkLoop(target, source, 0, elementSize) : null;
+        }
+        if (assignment.getValue() instanceof LiteralNode && element instanceof PrimitiveTypeNode) {
+            Integer fill = fillByte(((PrimitiveTypeNode) element).getType(), ((LiteralNode) assignment.getValue()).getValue());
+            return fill != null ? new BulkLoop(target, null, fill, elementSize) : null;
+        }
+        return null;
+    }
+
+    /** The array variable of an access {@code a[i]} indexed by exactly the loop variable. */
+    private static IdentifierNode elementArray(ASTNode node, String variable) {
+        if (!(node instanceof ArrayAccessNode)) {
+            return null;
+        }
+        ArrayAccessNode access = (ArrayAccessNode) node;
+        if (!(access.getArray() instanceof IdentifierNode) || !(access.getIndex() instanceof IdentifierNode)
+                || !((IdentifierNode) access.getIndex()).getName().equals(variable)
+                || ((IdentifierNode) access.getArray()).getName().equals(variable)) {
+            return null;
+        }
+        return (IdentifierNode) access.getArray();
+    }
+
+    private static boolean sameType(ASTNode a, ASTNode b) {
+        if (a == b) {
+            return true;
+        }
+        return a instanceof PrimitiveTypeNode && b instanceof PrimitiveTypeNode
+            && ((PrimitiveTypeNode) a).getType() == ((PrimitiveTypeNode) b).getType();
+    }
+
+    /** The byte a literal is stored as, if all bytes of the stored element are that byte. */
+    private static Integer fillByte(PrimitiveTypeNode.PrimitiveType type, Object value) {
+        switch (type) {
+            case BOOLEAN:
+                return value instanceof Boolean ? ((Boolean) value ? 1 : 0) : null;
+            case INTEGER:
+                return (value instanceof Integer || value instanceof Long) && ((Number) value).longValue() == 0 ? 0 : null;
+            default:
+                // Positive zero only: -0.0 has its sign bit set
+                return value instanceof Number && Double.doubleToRawLongBits(((Number) value).doubleValue()) == 0
+                    ? 0 : null;
+        }
+    }
+}
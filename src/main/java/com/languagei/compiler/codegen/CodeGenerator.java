@@ -1,5 +1,6 @@
 package com.languagei.compiler.codegen;
 
+import com.languagei.compiler.CompilerOptions;
 import com.languagei.compiler.ast.*;
 import com.languagei.compiler.semantic.*;
 import java.io.*;
@@ -20,14 +21,75 @@ public class CodeGenerator implements ASTVisitor {
     private final Map<String, VariableDeclarationNode> globalVarDecls;
     private final List<String> functions;
     private final StringBuilder functionDefs;
+    private final Map<String, String> tempLocals;
+    private final Map<ASTNode, String> hoistedValues;
+    private final Map<ASTNode, String> hoistedAddresses;
+    private final Map<ForLoopNode, String> rangeBounds;
+    private final LoopInvariantAnalyzer loopAnalyzer;
+    private final Map<ASTNode, List<InductionPointer>> inductionSteps;
+    private final ValueNumbering valueNumbering;
+    private final CompilerOptions options;
+    private final Map<String, RoutineDeclarationNode> routineDecls;
+    private final TailCallAnalyzer tailCallAnalyzer;
+    private final LoopVectorizer vectorizer;
+    private final BulkLoopRecognizer bulkLoops;
+    private final SwitchRecognizer switches;
+    private RoutineDeclarationNode currentRoutine;
+    private ProgramNode currentProgram;
+    private int labelCount;
+    private TailCallAnalyzer.TailCalls tailCalls;
+    private List<VariableScopeManager.VariableInfo> tailCallResets;
+    private String accumulatorLocal;
+    private final UnusedFunctionEliminator unusedFunctionEliminator;
+    private final MemoryLayout layouts;
+    private final CounterRegion counterRegion;
+    private final ProfileCounters profileCounters;
+    private final InstrumentationCounters instrumentation;
+    private final LineTable lineTable;
+    private final MemoTables memoTables;
+    private PurityAnalyzer purity;
+    private Profile profile;
+    // Functions of imported modules, linked into the module before unused ones are dropped
+    private String linkedCode;
+    // Functions generated for the program's routines, and their text in the last module
+    private final Set<String> routineFunctions = new LinkedHashSet<>();
+    private String routineCode = "";
+    private int unoptimizedModuleSize;
+    private int moduleSize;
     private String lastVariable;
     private Type currentExpressionType;
 
+    /** File in the first preopened directory that --profile-generate builds write at exit. */
+    public static final String PROFILE_FILE = "default.iprof";
+
+    // Largest br_table a switch uses; it also has to be at least half full
+    private static final int MAX_JUMP_TABLE = 1024;
+    // Cases a binary search compares one by one
+    private static final int LINEAR_SEARCH_CASES = 3;
+    // Most parameters of a memoized routine
+    private static final int MAX_MEMO_ARGUMENTS = 4;
+    // Largest constant trip count of a fully unrolled loop
+    private static final int MAX_FULL_UNROLL_TRIPS = 16;
+    // AST nodes the copies of an unrolled loop body may add up to
+    private static final int UNROLL_BUDGET = 160;
+
     public CodeGenerator(Writer output) throws IOException {
+        this(output, new CompilerOptions());
+    }
+
+    public CodeGenerator(Writer output, CompilerOptions options) throws IOException {
         this.writer = new WATWriter(output);
+        this.options = options;
+        this.routineDecls = new HashMap<>();
+        this.tailCallAnalyzer = new TailCallAnalyzer();
+        this.vectorizer = new LoopVectorizer();
+        this.unusedFunctionEliminator = new UnusedFunctionEliminator();
         this.scopeManager = new VariableScopeManager();
-        this.typeResolver = new TypeResolver(this.scopeManager);
+        this.typeResolver = new TypeResolver(this.scopeManager, this::declaredType);
         this.typeEnvironment = new TypeEnvironment();
+        this.layouts = new MemoryLayout(typeEnvironment, options.isPackRecords());
+        this.bulkLoops = new BulkLoopRecognizer(layouts);
+        this.switches = new SwitchRecognizer();
         this.functionEnvironment = new FunctionEnvironment();
         this.functions = new ArrayList<>();
         this.functionDefs = new StringBuilder();
@@ -35,10 +97,45 @@ public class CodeGenerator implements ASTVisitor {
         this.variableTypeAsts = new HashMap<>();
         this.globalVarWasmTypes = new LinkedHashMap<>();
         this.globalVarDecls = new LinkedHashMap<>();
+        this.tempLocals = new LinkedHashMap<>();
+        this.hoistedValues = new IdentityHashMap<>();
+        this.rangeBounds = new IdentityHashMap<>();
+        this.hoistedAddresses = new IdentityHashMap<>();
+        this.loopAnalyzer = new LoopInvariantAnalyzer(typeEnvironment,
+            hoistedValues.keySet(), hoistedAddresses.keySet());
+        this.inductionSteps = new IdentityHashMap<>();
+        this.valueNumbering = new ValueNumbering(loopAnalyzer);
+        this.counterRegion = options.isProfileGenerate() || options.isInstrument() ? new CounterRegion() : null;
+        this.profileCounters = options.isProfileGenerate() ? new ProfileCounters(counterRegion, PROFILE_FILE) : null;
+        this.instrumentation = options.isInstrument()
+            ? new InstrumentationCounters(counterRegion, options.isInstrumentJson()) : null;
+        this.lineTable = options.isDebugInfo() ? new LineTable() : null;
+        this.memoTables = options.isMemoize() ? new MemoTables(options.getMemoSize()) : null;
+    }
+
+    /**
+     * Link functions compiled from imported modules (see
+     * {@link #getRoutineCode()}) into the generated module.
+     */
+    public void setLinkedCode(String linkedCode) {
+        this.linkedCode = linkedCode;
+    }
+
+    /** Use execution counts of a profiled run (--profile-use) to order branches. */
+    public void setProfile(Profile profile) {
+        this.profile = profile;
     }
 
     public void generate(ProgramNode program) throws IOException {
-        writer.writeLine("(module");
+        currentProgram = program;
+        // Buffer the module so that functions unreachable from _start can be dropped
+        writer.beginCapture();
+        if (lineTable != null) {
+            // Module name for the name section
+            writer.writeLine("(module $" + moduleName(program));
+        } else {
+            writer.writeLine("(module");
+        }
         writer.indent();
 
         writeRuntimeFunctions();
@@ -48,28 +145,103 @@ public class CodeGenerator implements ASTVisitor {
         writer.writeLine("(data (i32.const 1024) \"\\00\\00\\00\\00\\00\\00\\00\\00\")");
         writer.writeLine("(data (i32.const 2048) \"\\00\\00\\00\\00\\00\\00\\00\\00\")");
 
-        // Start heap allocations above the runtime buffers (at address 4096) to
-        // avoid any interaction with low-memory regions that might be touched
-        // by the host environment.
-        writer.writeLine("(global $heap_ptr (mut i32) (i32.const 4096))");
-
         program.accept(this);
+        if (linkedCode != null) {
+            writer.write(linkedCode);
+        }
 
         writer.writeLine("(export \"_start\" (func $_start))");
 
         writeRemainingRuntimeFunctions();
 
+        // Start heap allocations above the runtime buffers (at address 4096) to
+        // avoid any interaction with low-memory regions that might be touched
+        // by the host environment. Counters of instrumented builds and memo
+        // tables come first.
+        int heapStart = counterRegion != null ? counterRegion.getEnd() : 4096;
+        if (memoTables != null) {
+            heapStart = memoTables.emitRuntime(writer, heapStart);
+        }
+        writer.writeLine("(global $heap_ptr (mut i32) (i32.const " + heapStart + "))");
+
         writer.dedent();
         writer.writeLine(")");
+
+        String module = writer.endCapture();
+        routineCode = UnusedFunctionEliminator.extractFunctions(module, routineFunctions);
+        String reachable = unusedFunctionEliminator.eliminate(module);
+        if (lineTable != null) {
+            // Added last so that it only lists the functions that were kept
+            int end = reachable.lastIndexOf(')');
+            reachable = reachable.substring(0, end) + "  "
+                + lineTable.toCustomSection(unusedFunctionEliminator.getRemovedFunctions()) + "\n"
+                + reachable.substring(end);
+        }
+        unoptimizedModuleSize = module.length();
+        moduleSize = reachable.length();
+        writer.write(reachable);
         writer.flush();
     }
 
+    /** Identifier for the module: the source file name without directory and extension. */
+    private static String moduleName(ProgramNode program) {
+        String file = program.getPosition() != null ? program.getPosition().getFilename() : null;
+        if (file == null) {
+            return "program";
+        }
+        String name = new java.io.File(file).getName();
+        if (name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        name = name.replaceAll("[^A-Za-z0-9_.\\-]", "_");
+        return name.isEmpty() ? "program" : name;
+    }
+
+    /** Size in bytes of the last generated module before unused functions were removed. */
+    public int getUnoptimizedModuleSize() {
+        return unoptimizedModuleSize;
+    }
+
+    /** Size in bytes of the last generated module. */
+    public int getModuleSize() {
+        return moduleSize;
+    }
+
+    /**
+     * The functions generated for the routines of the last module, whether
+     * reachable or not, as module fields that can be linked into another
+     * module with {@link #setLinkedCode(String)}.
+     */
+    public String getRoutineCode() {
+        return routineCode;
+    }
+
+    /** Routines and runtime helpers left out of the last module because nothing calls them. */
+    public List<String> getRemovedFunctions() {
+        return unusedFunctionEliminator.getRemovedFunctions();
+    }
+
     private void writeRuntimeFunctions() throws IOException {
         writer.writeLine("(import \"wasi_snapshot_preview1\" \"fd_write\" (func $fd_write (param i32 i32 i32 i32) (result i32)))");
         writer.writeLine("(import \"wasi_snapshot_preview1\" \"proc_exit\" (func $proc_exit (param i32)))");
+        if (profileCounters != null) {
+            writer.writeLine("(import \"wasi_snapshot_preview1\" \"path_open\" (func $path_open (param i32 i32 i32 i32 i32 i64 i64 i32 i32) (result i32)))");
+            writer.writeLine("(import \"wasi_snapshot_preview1\" \"fd_close\" (func $fd_close (param i32) (result i32)))");
+        }
     }
 
     private void writeRemainingRuntimeFunctions() throws IOException {
+        if (profileCounters != null) {
+            profileCounters.emitRuntime(writer);
+        }
+        if (instrumentation != null) {
+            instrumentation.emitRuntime(writer);
+            // Counter of the allocation site being served, set before each allocation call
+            writer.writeLine("(global $alloc_counter (mut i32) (i32.const 0))");
+        }
+        if (counterRegion != null) {
+            counterRegion.emitRuntime(writer);
+        }
         writer.writeLine("(func $print_int (param $val i32)");
         writer.indent();
         writer.writeLine("(call $int_to_string (local.get $val))");
@@ -272,8 +444,12 @@ public class CodeGenerator implements ASTVisitor {
         writer.writeLine("(local.set $total_bytes (i32.mul (local.get $size) (local.get $element_size)))");
 
         writer.writeLine("(local.set $array_ptr (global.get $heap_ptr))");
+        emitAllocationCount("$total_bytes");
 
-        writer.writeLine("(global.set $heap_ptr (i32.add (global.get $heap_ptr) (local.get $total_bytes)))");
+        writer.writeLine("(global.set $heap_ptr (call $grow_heap (i32.add (global.get $heap_ptr) (local.get $total_bytes))))");
+
+        // New arrays start zeroed
+        writer.writeLine("(memory.fill (local.get $array_ptr) (i32.const 0) (local.get $total_bytes))");
 
         writer.writeLine("(local.get $array_ptr)");
         writer.dedent();
@@ -284,12 +460,39 @@ public class CodeGenerator implements ASTVisitor {
         writer.writeLine("(local $record_ptr i32)");
 
         writer.writeLine("(local.set $record_ptr (global.get $heap_ptr))");
+        emitAllocationCount("$size");
+
+        writer.writeLine("(global.set $heap_ptr (call $grow_heap (i32.add (global.get $heap_ptr) (local.get $size))))");
 
-        writer.writeLine("(global.set $heap_ptr (i32.add (global.get $heap_ptr) (local.get $size)))");
+        // New records start zeroed
+        writer.writeLine("(memory.fill (local.get $record_ptr) (i32.const 0) (local.get $size))");
 
         writer.writeLine("(local.get $record_ptr)");
         writer.dedent();
         writer.writeLine(")");
+
+        // Round the new heap pointer up to 8 bytes so every allocation can
+        // hold naturally aligned reals, and grow memory when the heap no
+        // longer fits (large arrays)
+        writer.writeLine("(func $grow_heap (param $ptr i32) (result i32)");
+        writer.indent();
+        writer.writeLine("(local.set $ptr (i32.and (i32.add (local.get $ptr) (i32.const 7)) (i32.const -8)))");
+        writer.writeLine("(if (i32.gt_u (local.get $ptr) (i32.shl (memory.size) (i32.const 16)))");
+        writer.indent();
+        writer.writeLine("(then");
+        writer.indent();
+        writer.writeLine("(if (i32.lt_s (memory.grow (i32.shr_u (i32.sub (i32.add (local.get $ptr) (i32.const 65535)) (i32.shl (memory.size) (i32.const 16))) (i32.const 16))) (i32.const 0))");
+        writer.indent();
+        writer.writeLine("(then (unreachable))");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.writeLine("(local.get $ptr)");
+        writer.dedent();
+        writer.writeLine(")");
     }
 
     @Override
@@ -318,6 +521,20 @@ public class CodeGenerator implements ASTVisitor {
             }
         }
 
+        // Remember every routine signature so tail calls can compare result types
+        for (ASTNode decl : node.getDeclarations()) {
+            if (decl instanceof RoutineDeclarationNode) {
+                RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
+                if (routine.getBody() != null || !routineDecls.containsKey(routine.getName())) {
+                    routineDecls.put(routine.getName(), routine);
+                }
+            }
+        }
+        purity = new PurityAnalyzer(node);
+        if (memoTables != null) {
+            planMemoization();
+        }
+
         // Collect all function declarations (forward and full)
         for (ASTNode decl : node.getDeclarations()) {
             if (decl instanceof RoutineDeclarationNode) {
@@ -338,6 +555,18 @@ public class CodeGenerator implements ASTVisitor {
             scopeManager.resetForNewFunction();
             recordVarTypes.clear();
             variableTypeAsts.clear();
+            currentRoutine = null;
+            tailCalls = null;
+            accumulatorLocal = null;
+
+            List<ASTNode> startItems = new ArrayList<>();
+            for (ASTNode decl : node.getDeclarations()) {
+                if (decl instanceof VariableDeclarationNode) {
+                    startItems.add(decl);
+                }
+            }
+            startItems.addAll(node.getStatements());
+            loopAnalyzer.beginFunction(startItems, Collections.emptySet());
 
             // Collect all local variables from declarations (variables only, functions handled separately) and statements
             for (ASTNode decl : node.getDeclarations()) {
@@ -364,65 +593,7 @@ public class CodeGenerator implements ASTVisitor {
                 }
             }
 
-            // Check if there's a main routine
-            boolean hasMain = false;
-            for (ASTNode decl : node.getDeclarations()) {
-                if (decl instanceof RoutineDeclarationNode) {
-                    RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
-                    if ("main".equals(routine.getName())) {
-                        hasMain = true;
-                        break;
-                    }
-                }
-            }
-
-            if (hasMain) {
-                // For programs with an explicit main, preserve existing behaviour:
-                // initialize all global variables, then call main.
-                for (ASTNode decl : node.getDeclarations()) {
-                    if (decl instanceof VariableDeclarationNode) {
-                        decl.accept(this);
-                    }
-                }
-                writer.writeLine("(call $main)");
-            } else {
-                // Programs without main: execute top-level declarations (with initializers)
-                // and statements strictly in source order. This is important for tests like
-                // array_stats.i, where array element assignments must happen before calls to
-                // sum_array/min_array/max_array.
-
-                java.util.List<ASTNode> topLevel = new java.util.ArrayList<>();
-
-                // Include only variable declarations; type and routine declarations are
-                // handled separately above and do not produce runtime code.
-                for (ASTNode decl : node.getDeclarations()) {
-                    if (decl instanceof VariableDeclarationNode) {
-                        topLevel.add(decl);
-                    }
-                }
-
-                // Include all top-level statements (assignments, prints, etc.)
-                topLevel.addAll(node.getStatements());
-
-                // Sort by source position to reconstruct original order
-                topLevel.sort((a, b) -> {
-                    com.languagei.compiler.lexer.Position pa = a.getPosition();
-                    com.languagei.compiler.lexer.Position pb = b.getPosition();
-                    int lineCmp = Integer.compare(pa.getLine(), pb.getLine());
-                    if (lineCmp != 0) return lineCmp;
-                    int colCmp = Integer.compare(pa.getColumn(), pb.getColumn());
-                    if (colCmp != 0) return colCmp;
-                    return Integer.compare(pa.getOffset(), pb.getOffset());
-                });
-
-                for (ASTNode n : topLevel) {
-                    n.accept(this);
-                }
-            }
-
-            // Always terminate the WASI process with exit code 0
-            writer.writeLine("(i32.const 0)");
-            writer.writeLine("(call $proc_exit)");
+            generateFunctionBody(() -> generateStartBody(node));
             writer.writeCloseParen();
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -449,33 +620,32 @@ public class CodeGenerator implements ASTVisitor {
                 // Array variable (including aliases to arrays) - allocate memory
                 ArrayTypeNode arrayType = (ArrayTypeNode) resolvedTypeAst;
 
-                if (arrayType.getSizeExpression() != null) {
+                if (arrayType.getSizeExpression() != null && layouts.dimensionsOf(arrayType) > 1) {
+                    allocateMultiDimensionalArray(arrayType, node);
+                    writer.writeLine("(local.set $" + node.getName() + ")");
+                } else if (arrayType.getSizeExpression() != null) {
                     // Fixed-size array - allocate memory: size * element_size
                     arrayType.getSizeExpression().accept(this); // Size expression
 
                     // Compute element size based on the array's element type
                     int elementSize = getArrayElementSize(arrayType);
                     writer.writeLine("(i32.const " + elementSize + ")");
+                    emitAllocationSite(node);
                     writer.writeLine("(call $allocate_array)");
                     writer.writeLine("(local.set $" + node.getName() + ")");
                 } else {
                     // Unsized array variable (e.g., "array [] integer"). In the
                     // language these are primarily intended for routine parameters,
                     // but if they appear as variables we still need a well-defined
-                    // base pointer. Allocate space for a single element and
-                    // explicitly initialize that first element to 0 so that
-                    // expressions like b[1] read a defined value.
+                    // base pointer. Allocate space for a single element, which
+                    // the allocator zeroes, so that expressions like b[1] read
+                    // a defined value.
                     writer.writeLine("(i32.const 1)");
-                    int elementSize = getArrayElementSize(arrayType);
+                    int elementSize = Math.max(getArrayElementSize(arrayType), 4);
                     writer.writeLine("(i32.const " + elementSize + ")");
+                    emitAllocationSite(node);
                     writer.writeLine("(call $allocate_array)");
                     writer.writeLine("(local.set $" + node.getName() + ")");
-
-                    // Initialize the first element (index 1) to 0: store 0 at the
-                    // base address pointed to by the local variable.
-                    writer.writeLine("(local.get $" + node.getName() + ")");
-                    writer.writeLine("(i32.const 0)");
-                    writer.writeLine("(i32.store)");
                 }
             } else if (resolvedTypeAst instanceof RecordTypeNode) {
                 // Record variable (including aliases to records) - allocate memory
@@ -484,6 +654,7 @@ public class CodeGenerator implements ASTVisitor {
                 // Calculate record size (sum of field sizes)
                 int recordSize = calculateRecordSize(recordType);
                 writer.writeLine("(i32.const " + recordSize + ")"); // Record size
+                emitAllocationSite(node);
                 writer.writeLine("(call $allocate_record)");
                 writer.writeLine("(local.set $" + node.getName() + ")");
 
@@ -511,6 +682,8 @@ public class CodeGenerator implements ASTVisitor {
                 writer.writeLine("(local.set $" + node.getName() + ")");
             }
 
+            valueNumbering.killVariable(node.getName());
+
             // Track the last global variable for return value
             if (scopeManager.isInGlobalScope()) {
                 lastVariable = node.getName();
@@ -520,6 +693,69 @@ public class CodeGenerator implements ASTVisitor {
         }
     }
 
+    /**
+     * Allocate a multi-dimensional array and leave its base address on the
+     * stack. Every size expression is evaluated once, the strides of the
+     * dimensions are computed from the innermost one outwards (folded when
+     * the sizes are constants), and the strides are stored in the header in
+     * front of the elements.
+     */
+    private void allocateMultiDimensionalArray(ArrayTypeNode arrayType, ASTNode site) throws IOException {
+        List<ArrayTypeNode> levels = new ArrayList<>();
+        for (ASTNode level = arrayType; level instanceof ArrayTypeNode;
+             level = layouts.resolve(((ArrayTypeNode) level).getElementType())) {
+            levels.add((ArrayTypeNode) level);
+        }
+        int dimensions = levels.size();
+        int header = MemoryLayout.headerSize(dimensions);
+
+        // strides[d]: constant stride, or the local holding it
+        String[] strideLocals = new String[dimensions];
+        for (int d = dimensions - 2; d >= 0; d--) {
+            if (layouts.strideOf(levels.get(d)) >= 0) {
+                continue;
+            }
+            ArrayTypeNode row = levels.get(d + 1);
+            if (row.getSizeExpression() != null) {
+                row.getSizeExpression().accept(this);
+            } else {
+                writer.writeLine("(i32.const 1)");
+            }
+            emitStride(levels.get(d + 1), strideLocals[d + 1]);
+            writer.writeLine("(i32.mul)");
+            strideLocals[d] = newTempLocal("stride", "i32");
+            writer.writeLine("(local.set $" + strideLocals[d] + ")");
+        }
+
+        arrayType.getSizeExpression().accept(this);
+        emitStride(arrayType, strideLocals[0]);
+        writer.writeLine("(i32.mul)");
+        writer.writeLine("(i32.const " + header + ")");
+        writer.writeLine("(i32.add)");
+        writer.writeLine("(i32.const 1)");
+        emitAllocationSite(site);
+        writer.writeLine("(call $allocate_array)");
+        writer.writeLine("(i32.const " + header + ")");
+        writer.writeLine("(i32.add)");
+
+        String base = newTempLocal("array", "i32");
+        writer.writeLine("(local.set $" + base + ")");
+        for (int d = 0; d < dimensions - 1; d++) {
+            writer.writeLine("(local.get $" + base + ")");
+            writer.writeLine("(i32.const " + (4 * (d + 1)) + ")");
+            writer.writeLine("(i32.sub)");
+            emitStride(levels.get(d), strideLocals[d]);
+            writer.writeLine("(i32.store)");
+        }
+        writer.writeLine("(local.get $" + base + ")");
+    }
+
+    /** Push the stride of an array type: a constant, or the local it was computed into. */
+    private void emitStride(ArrayTypeNode arrayType, String local) throws IOException {
+        int stride = layouts.strideOf(arrayType);
+        writer.writeLine(stride >= 0 ? "(i32.const " + stride + ")" : "(local.get $" + local + ")");
+    }
+
     /**
      * Compute the effective WebAssembly storage type for a variable declaration.
      * Arrays and records are represented as i32 pointers; primitive types are
@@ -628,8 +864,16 @@ public class CodeGenerator implements ASTVisitor {
             ForLoopNode forLoop = (ForLoopNode) node;
             // Loop variable lives in the surrounding scope of the loop.
             // If a variable with the same name already exists, reuse it instead of redeclaring.
+            ASTNode elementType = null;
+            if (forLoop.getArrayExpr() != null && typeAstOf(forLoop.getArrayExpr()) instanceof ArrayTypeNode) {
+                elementType = layouts.resolve(((ArrayTypeNode) typeAstOf(forLoop.getArrayExpr())).getElementType());
+                // Lets element and field accesses through the loop variable find their type
+                variableTypeAsts.put(forLoop.getVariable(), elementType);
+            }
             if (scopeManager.lookupVariable(forLoop.getVariable()) == null) {
-                scopeManager.declareVariable(forLoop.getVariable(), "i32");
+                String wasmType = elementType != null && !isAggregateType(elementType)
+                    ? layouts.storageOf(elementType).getWasmType() : "i32";
+                scopeManager.declareVariable(forLoop.getVariable(), wasmType);
             }
             if (forLoop.getArrayExpr() != null) {
                 String indexName = forLoop.getVariable() + "_index";
@@ -642,6 +886,382 @@ public class CodeGenerator implements ASTVisitor {
         }
     }
 
+    /** Instructions of $_start: global initialization, then main or the top-level statements. */
+    private void generateStartBody(ProgramNode node) throws IOException {
+        // Check if there's a main routine
+        boolean hasMain = false;
+        for (ASTNode decl : node.getDeclarations()) {
+            if (decl instanceof RoutineDeclarationNode) {
+                RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
+                if ("main".equals(routine.getName())) {
+                    hasMain = true;
+                    break;
+                }
+            }
+        }
+
+        if (memoTables != null && !memoTables.getRoutines().isEmpty()) {
+            // Memo tables are read before anything is allocated: make sure memory covers them
+            writer.writeLine("(drop (call $grow_heap (global.get $heap_ptr)))");
+        }
+        if (hasMain) {
+            // For programs with an explicit main, preserve existing behaviour:
+            // initialize all global variables, then call main.
+            for (ASTNode decl : node.getDeclarations()) {
+                if (decl instanceof VariableDeclarationNode) {
+                    emitLineMarker(decl);
+                    decl.accept(this);
+                }
+            }
+            writer.writeLine("(call $main)");
+        } else {
+            // Programs without main: execute top-level declarations (with initializers)
+            // and statements strictly in source order. This is important for tests like
+            // array_stats.i, where array element assignments must happen before calls to
+            // sum_array/min_array/max_array.
+
+            java.util.List<ASTNode> topLevel = new java.util.ArrayList<>();
+
+            // Include only variable declarations; type and routine declarations are
+            // handled separately above and do not produce runtime code.
+            for (ASTNode decl : node.getDeclarations()) {
+                if (decl instanceof VariableDeclarationNode) {
+                    topLevel.add(decl);
+                }
+            }
+
+            // Include all top-level statements (assignments, prints, etc.)
+            topLevel.addAll(node.getStatements());
+
+            // Sort by source position to reconstruct original order
+            topLevel.sort((a, b) -> {
+                com.languagei.compiler.lexer.Position pa = a.getPosition();
+                com.languagei.compiler.lexer.Position pb = b.getPosition();
+                int lineCmp = Integer.compare(pa.getLine(), pb.getLine());
+                if (lineCmp != 0) return lineCmp;
+                int colCmp = Integer.compare(pa.getColumn(), pb.getColumn());
+                if (colCmp != 0) return colCmp;
+                return Integer.compare(pa.getOffset(), pb.getOffset());
+            });
+
+            for (ASTNode n : topLevel) {
+                emitLineMarker(n);
+                n.accept(this);
+            }
+        }
+
+        if (profileCounters != null) {
+            writer.writeLine("(call $profile_dump)");
+        }
+        if (instrumentation != null) {
+            writer.writeLine("(call $instrument_report)");
+        }
+
+        // Always terminate the WASI process with exit code 0
+        writer.writeLine("(i32.const 0)");
+        writer.writeLine("(call $proc_exit)");
+    }
+
+    /**
+     * Instructions of a routine body, including the fallback return. If the
+     * routine tail-calls itself, the body is wrapped in a loop and each self
+     * tail call becomes a jump back to its start (see {@link #emitSelfTailCall}).
+     */
+    private void generateRoutineBody(RoutineDeclarationNode node) throws IOException {
+        boolean selfTailCalls = tailCalls.hasSelfTailCalls();
+        accumulatorLocal = null;
+        if (tailCalls.getAccumulator() != null) {
+            // Start from the identity of the accumulating operator
+            accumulatorLocal = newTempLocal("acc", "i32");
+            boolean multiply = tailCalls.getAccumulator() == BinaryExpressionNode.Operator.MULTIPLY;
+            writer.writeLine("(i32.const " + (multiply ? 1 : 0) + ")");
+            writer.writeLine("(local.set $" + accumulatorLocal + ")");
+        }
+        emitProfileCount("entry", null, 1, 0);
+        emitInstrumentCount(InstrumentationCounters.Kind.CALLS, node);
+        if (selfTailCalls) {
+            writer.writeLine("(loop $tailcall");
+            writer.indent();
+        }
+
+        // Initialize function-local copies of top-level variables that have
+        // simple literal initializers so that functions see the same
+        // starting values as at the top level. To avoid recursive code
+        // generation and potential stack overflows, we handle only
+        // LiteralNode initializers here and emit constants directly.
+        //
+        // IMPORTANT: skip any global whose name is shadowed by a routine
+        // parameter. In that case, the parameter's local is the one
+        // associated with the name (localIndex < paramCount), and we must
+        // not overwrite it with the global's initializer value.
+        for (Map.Entry<String, VariableDeclarationNode> entry : globalVarDecls.entrySet()) {
+            String globalName = entry.getKey();
+            VariableDeclarationNode globalDecl = entry.getValue();
+
+            // Only initialize if this function actually has a non-parameter
+            // local representing the top-level variable.
+            VariableScopeManager.VariableInfo varInfo = scopeManager.lookupVariable(globalName);
+            if (varInfo == null) {
+                continue; // no local with this name in this function
+            }
+            if (varInfo.localIndex < node.getParameters().size()) {
+                // This name refers to a parameter (e.g. 'a' in
+                // init_array_1_to_5(a : IntArray5)), not a global copy.
+                // Do not overwrite the parameter with the global's
+                // initializer value.
+                continue;
+            }
+
+            if (!(globalDecl.getInitializer() instanceof LiteralNode)) {
+                continue;
+            }
+
+            LiteralNode lit = (LiteralNode) globalDecl.getInitializer();
+            Object value = lit.getValue();
+
+            if (value instanceof Integer || value instanceof Long) {
+                writer.writeLine("(i32.const " + value + ")");
+            } else if (value instanceof Double || value instanceof Float) {
+                writer.writeLine("(f64.const " + value + ")");
+            } else if (value instanceof Boolean) {
+                boolean b = (Boolean) value;
+                writer.writeLine("(i32.const " + (b ? 1 : 0) + ")");
+            } else {
+                continue;
+            }
+
+            writer.writeLine("(local.set $" + globalName + ")");
+        }
+
+        // Generate function body
+        node.getBody().accept(this);
+
+        // Ensure there is always a return for functions with a result type,
+        // even if control reaches the end without executing an explicit return.
+        if (node.getReturnType() != null) {
+            if (accumulatorLocal != null) {
+                writer.writeLine("(local.get $" + accumulatorLocal + ")");
+            }
+            Type retType = typeFromNode(node.getReturnType());
+            if (retType == Type.REAL) {
+                writer.writeLine("(f64.const 0.0)");
+            } else {
+                // INTEGER, BOOLEAN and default fallback use i32
+                writer.writeLine("(i32.const 0)");
+            }
+            if (accumulatorLocal != null) {
+                writer.writeLine(accumulatorInstruction());
+            }
+            writer.writeLine("(return)");
+        }
+
+        if (selfTailCalls) {
+            writer.dedent();
+            writer.writeLine(")");
+            if (node.getReturnType() != null) {
+                // Every path through the loop returns or jumps back
+                writer.writeLine("(unreachable)");
+            }
+        }
+    }
+
+    /**
+     * Jump back to the start of the current routine instead of calling it:
+     * the arguments become the new parameter values, and locals a fresh call
+     * would see as zero are cleared again.
+     */
+    private void emitSelfTailCall(RoutineCallNode call) throws IOException {
+        for (ASTNode arg : call.getArguments()) {
+            arg.accept(this);
+        }
+        List<ParameterNode> params = currentRoutine.getParameters();
+        for (int i = params.size() - 1; i >= 0; i--) {
+            writer.writeLine("(local.set $" + params.get(i).getName() + ")");
+            valueNumbering.killVariable(params.get(i).getName());
+        }
+        for (VariableScopeManager.VariableInfo local : tailCallResets) {
+            writer.writeLine("f64".equals(local.wasmType) ? "(f64.const 0.0)" : "(i32.const 0)");
+            writer.writeLine("(local.set $" + local.name + ")");
+            valueNumbering.killVariable(local.name);
+        }
+        writer.writeLine("(br $tailcall)");
+    }
+
+    /** Instruction combining the accumulator with a returned value. */
+    private String accumulatorInstruction() {
+        return tailCalls.getAccumulator() == BinaryExpressionNode.Operator.MULTIPLY ? "(i32.mul)" : "(i32.add)";
+    }
+
+    /**
+     * Non-parameter locals of the current routine that the start of its body
+     * does not reinitialize: top-level copies without a literal initializer
+     * and variables that may be declared without an initializer. A self tail
+     * call must reset these to the zero a fresh call starts from.
+     */
+    private List<VariableScopeManager.VariableInfo> collectTailCallResets(RoutineDeclarationNode node) {
+        Set<String> initialized = new HashSet<>();
+        Set<String> uninitialized = new HashSet<>();
+        collectInitializedNames(node.getBody(), initialized, uninitialized);
+
+        List<VariableScopeManager.VariableInfo> resets = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (VariableScopeManager.VariableInfo local : scopeManager.getFunctionLocals()) {
+            if (local.localIndex < node.getParameters().size() || !seen.add(local.name)) {
+                continue;
+            }
+            VariableDeclarationNode globalDecl = globalVarDecls.get(local.name);
+            boolean reset;
+            if (globalDecl != null) {
+                reset = !(globalDecl.getInitializer() instanceof LiteralNode);
+            } else {
+                reset = !initialized.contains(local.name) || uninitialized.contains(local.name);
+            }
+            if (reset) {
+                resets.add(local);
+            }
+        }
+        return resets;
+    }
+
+    private void collectInitializedNames(ASTNode node, Set<String> initialized, Set<String> uninitialized) {
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            ASTNode type = decl.getType();
+            if (type instanceof TypeReferenceNode) {
+                ASTNode aliased = typeEnvironment.resolveType(((TypeReferenceNode) type).getName());
+                if (aliased != null) {
+                    type = aliased;
+                }
+            }
+            // Arrays and records are allocated by their declaration
+            if (decl.getInitializer() != null || type instanceof ArrayTypeNode || type instanceof RecordTypeNode) {
+                initialized.add(decl.getName());
+            } else {
+                uninitialized.add(decl.getName());
+            }
+            return;
+        }
+        if (node instanceof ForLoopNode) {
+            ForLoopNode forLoop = (ForLoopNode) node;
+            initialized.add(forLoop.getVariable());
+            initialized.add(forLoop.getVariable() + "_index");
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (child != null) {
+                collectInitializedNames(child, initialized, uninitialized);
+            }
+        }
+    }
+
+    /**
+     * Generate a function body after its locals have been declared. The body
+     * is generated twice: a discovery pass, whose output is discarded, finds
+     * the computations worth reusing (see {@link ValueNumbering}), then the
+     * final pass emits the code.
+     */
+    private void generateFunctionBody(FunctionBodyGenerator body) throws IOException {
+        beginFunctionBody();
+        valueNumbering.beginPass(true);
+        body.generate();
+        writer.endCapture();
+
+        beginFunctionBody();
+        valueNumbering.beginPass(false);
+        body.generate();
+        endFunctionBody();
+    }
+
+    /** Emits the instructions of one function body. */
+    @FunctionalInterface
+    private interface FunctionBodyGenerator {
+        void generate() throws IOException;
+    }
+
+    /**
+     * Start buffering the instructions of the current function so that
+     * compiler-generated locals can still be declared once the body is known.
+     */
+    private void beginFunctionBody() {
+        tempLocals.clear();
+        hoistedValues.clear();
+        hoistedAddresses.clear();
+        inductionSteps.clear();
+        labelCount = 0;
+        writer.beginCapture();
+    }
+
+    /** Emit the compiler-generated locals followed by the buffered function body. */
+    private void endFunctionBody() throws IOException {
+        String body = writer.endCapture();
+        if (lineTable != null) {
+            ASTNode function = currentRoutine != null ? currentRoutine : currentProgram;
+            lineTable.addFunction(currentRoutine != null ? functionName(currentRoutine) : "_start",
+                function.getPosition(), body);
+        }
+        for (Map.Entry<String, String> local : tempLocals.entrySet()) {
+            writer.writeLine(String.format("(local $%s %s)", local.getKey(), local.getValue()));
+        }
+        writer.write(body);
+    }
+
+    /**
+     * Choose the routines to memoize: pure, recursive, with one to
+     * {@link #MAX_MEMO_ARGUMENTS} integer or boolean parameters and a scalar
+     * result.
+     */
+    private void planMemoization() {
+        for (String name : purity.getPureRoutines()) {
+            RoutineDeclarationNode routine = purity.getRoutine(name);
+            if (routine.getReturnType() == null || !purity.isRecursive(name) || routine.getParameters().isEmpty()
+                    || routine.getParameters().size() > MAX_MEMO_ARGUMENTS) {
+                continue;
+            }
+            Type result = typeFromNode(routine.getReturnType());
+            if (result != Type.INTEGER && result != Type.BOOLEAN && result != Type.REAL) {
+                continue;
+            }
+            boolean keyed = true;
+            for (ParameterNode param : routine.getParameters()) {
+                Type type = typeFromParamNode(param);
+                keyed &= type == Type.INTEGER || type == Type.BOOLEAN;
+            }
+            if (keyed) {
+                memoTables.add(name, routine.getParameters().size(), typeToWasm(result));
+            }
+        }
+    }
+
+    /** Name of the wasm function holding the body of a routine. */
+    private String functionName(RoutineDeclarationNode routine) {
+        return memoTables != null && memoTables.contains(routine.getName())
+            ? MemoTables.computeName(routine.getName()) : routine.getName();
+    }
+
+    /**
+     * Routines that look up their results in a memo table (--memoize), left
+     * out those whose calls were all evaluated at compile time, as they are
+     * removed from the module.
+     */
+    public Set<String> getMemoizedRoutines() {
+        if (memoTables == null) {
+            return Collections.emptySet();
+        }
+        Set<String> kept = new LinkedHashSet<>(memoTables.getRoutines());
+        kept.removeAll(getRemovedFunctions());
+        return kept;
+    }
+
+    /**
+     * Allocate a compiler-generated local in the current function. Generated
+     * names contain a '.', which Language I identifiers cannot, so they never
+     * clash with user variables.
+     */
+    private String newTempLocal(String prefix, String wasmType) {
+        String name = prefix + "." + tempLocals.size();
+        tempLocals.put(name, wasmType);
+        return name;
+    }
+
     @Override
     public void visit(TypeDeclarationNode node) {
         // Register type alias
@@ -649,6 +1269,11 @@ public class CodeGenerator implements ASTVisitor {
         // Type declarations don't generate runtime code
     }
 
+    @Override
+    public void visit(ImportDeclarationNode node) {
+        // Imported routines are linked in as code of their own
+    }
+
     @Override
     public void visit(RoutineDeclarationNode node) {
         // Skip forward declarations - they don't generate code
@@ -662,8 +1287,15 @@ public class CodeGenerator implements ASTVisitor {
             recordVarTypes.clear();
             variableTypeAsts.clear();
 
+            Set<String> nonLocalNames = new HashSet<>(globalVarDecls.keySet());
+            for (ParameterNode param : node.getParameters()) {
+                nonLocalNames.add(param.getName());
+            }
+            loopAnalyzer.beginFunction(List.of(node.getBody()), nonLocalNames);
+
             writer.writeLine(";; Function " + node.getName());
-            writer.writeOpenParen("func $" + node.getName());
+            writer.writeOpenParen("func $" + functionName(node));
+            routineFunctions.add(functionName(node));
 
             // Parameters
             for (ParameterNode param : node.getParameters()) {
@@ -719,74 +1351,19 @@ public class CodeGenerator implements ASTVisitor {
                     }
                 }
 
-                // Initialize function-local copies of top-level variables that have
-                // simple literal initializers so that functions see the same
-                // starting values as at the top level. To avoid recursive code
-                // generation and potential stack overflows, we handle only
-                // LiteralNode initializers here and emit constants directly.
-                //
-                // IMPORTANT: skip any global whose name is shadowed by a routine
-                // parameter. In that case, the parameter's local is the one
-                // associated with the name (localIndex < paramCount), and we must
-                // not overwrite it with the global's initializer value.
-                for (Map.Entry<String, VariableDeclarationNode> entry : globalVarDecls.entrySet()) {
-                    String globalName = entry.getKey();
-                    VariableDeclarationNode globalDecl = entry.getValue();
-
-                    // Only initialize if this function actually has a non-parameter
-                    // local representing the top-level variable.
-                    VariableScopeManager.VariableInfo varInfo = scopeManager.lookupVariable(globalName);
-                    if (varInfo == null) {
-                        continue; // no local with this name in this function
-                    }
-                    if (varInfo.localIndex < node.getParameters().size()) {
-                        // This name refers to a parameter (e.g. 'a' in
-                        // init_array_1_to_5(a : IntArray5)), not a global copy.
-                        // Do not overwrite the parameter with the global's
-                        // initializer value.
-                        continue;
-                    }
-
-                    if (!(globalDecl.getInitializer() instanceof LiteralNode)) {
-                        continue;
-                    }
-
-                    LiteralNode lit = (LiteralNode) globalDecl.getInitializer();
-                    Object value = lit.getValue();
-
-                    if (value instanceof Integer || value instanceof Long) {
-                        writer.writeLine("(i32.const " + value + ")");
-                    } else if (value instanceof Double || value instanceof Float) {
-                        writer.writeLine("(f64.const " + value + ")");
-                    } else if (value instanceof Boolean) {
-                        boolean b = (Boolean) value;
-                        writer.writeLine("(i32.const " + (b ? 1 : 0) + ")");
-                    } else {
-                        continue;
-                    }
-
-                    writer.writeLine("(local.set $" + globalName + ")");
-                }
-
-                // Generate function body
-                node.getBody().accept(this);
-
-                // Ensure there is always a return for functions with a result type,
-                // even if control reaches the end without executing an explicit return.
-                if (node.getReturnType() != null) {
-                    Type retType = typeFromNode(node.getReturnType());
-                    if (retType == Type.REAL) {
-                        writer.writeLine("(f64.const 0.0)");
-                    } else {
-                        // INTEGER, BOOLEAN and default fallback use i32
-                        writer.writeLine("(i32.const 0)");
-                    }
-                    writer.writeLine("(return)");
-                }
-            } else {
-                // Forward declaration - no body
-                // Just close the function declaration
-            }
+                currentRoutine = node;
+                boolean integerResult = node.getReturnType() != null
+                    && typeFromNode(node.getReturnType()) == Type.INTEGER;
+                tailCalls = tailCallAnalyzer.analyze(node, integerResult);
+                tailCallResets = collectTailCallResets(node);
+                generateFunctionBody(() -> generateRoutineBody(node));
+                currentRoutine = null;
+                tailCalls = null;
+                accumulatorLocal = null;
+            } else {
+                // Forward declaration - no body
+                // Just close the function declaration
+            }
 
             writer.writeCloseParen();
         } catch (IOException e) {
@@ -817,28 +1394,42 @@ public class CodeGenerator implements ASTVisitor {
     @Override
     public void visit(BinaryExpressionNode node) {
         try {
+            if (emitHoistedValue(node) || emitAvailableValue(node)) {
+                return;
+            }
+            if (isShortCircuit(node.getOperator())) {
+                emitShortCircuitValue(node);
+                captureValue(node, "i32");
+                return;
+            }
             // Determine operand and result types for instruction selection and promotions
             Type leftType = typeResolver.resolveType(node.getLeft());
             Type rightType = typeResolver.resolveType(node.getRight());
             Type exprType = typeResolver.resolveType(node);
             currentExpressionType = exprType;
+            // Comparisons produce a boolean but operate on the promoted operand type
+            Type operandType = exprType;
+            if (exprType == Type.BOOLEAN && (leftType == Type.REAL || rightType == Type.REAL)) {
+                operandType = Type.REAL;
+            }
 
             // Generate left operand
             node.getLeft().accept(this);
-            if (exprType == Type.REAL && leftType == Type.INTEGER) {
+            if (operandType == Type.REAL && leftType != Type.REAL) {
                 // Promote integer operand to real
                 writer.writeLine("(f64.convert_i32_s)");
             }
 
             // Generate right operand
             node.getRight().accept(this);
-            if (exprType == Type.REAL && rightType == Type.INTEGER) {
+            if (operandType == Type.REAL && rightType != Type.REAL) {
                 // Promote integer operand to real
                 writer.writeLine("(f64.convert_i32_s)");
             }
 
-            String instruction = getBinaryInstruction(node.getOperator(), exprType);
+            String instruction = getBinaryInstruction(node.getOperator(), operandType);
             writer.writeLine("(" + instruction + ")");
+            captureValue(node, typeToWasm(exprType));
 
             // Reset expression type
             currentExpressionType = null;
@@ -847,6 +1438,128 @@ public class CodeGenerator implements ASTVisitor {
         }
     }
 
+    private static boolean isShortCircuit(BinaryExpressionNode.Operator operator) {
+        return operator == BinaryExpressionNode.Operator.AND || operator == BinaryExpressionNode.Operator.OR;
+    }
+
+    /**
+     * Whether a condition is an and/or (possibly under not) whose right
+     * operand is worth skipping. A right operand that is cheap and cannot
+     * trap is evaluated anyway and combined with i32.and/i32.or, which costs
+     * less than a branch.
+     */
+    private boolean needsShortCircuit(ASTNode condition) {
+        while (condition instanceof UnaryExpressionNode
+                && ((UnaryExpressionNode) condition).getOperator() == UnaryExpressionNode.Operator.NOT) {
+            condition = ((UnaryExpressionNode) condition).getOperand();
+        }
+        if (!(condition instanceof BinaryExpressionNode) || hoistedValues.containsKey(condition)) {
+            return false;
+        }
+        BinaryExpressionNode binary = (BinaryExpressionNode) condition;
+        return isShortCircuit(binary.getOperator()) && !isCheapAndPure(binary.getRight());
+    }
+
+    /** Literals, variables and arithmetic on them that cannot trap (no division). */
+    private static boolean isCheapAndPure(ASTNode node) {
+        if (node instanceof LiteralNode || node instanceof IdentifierNode) {
+            return true;
+        }
+        if (node instanceof UnaryExpressionNode) {
+            return isCheapAndPure(((UnaryExpressionNode) node).getOperand());
+        }
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            return binary.getOperator() != BinaryExpressionNode.Operator.DIVIDE
+                && binary.getOperator() != BinaryExpressionNode.Operator.MODULO
+                && isCheapAndPure(binary.getLeft()) && isCheapAndPure(binary.getRight());
+        }
+        return false;
+    }
+
+    /**
+     * Value of {@code a and b} / {@code a or b}: b is only evaluated when a
+     * does not decide the result, unless b is cheap and pure.
+     */
+    private void emitShortCircuitValue(BinaryExpressionNode node) throws IOException {
+        boolean and = node.getOperator() == BinaryExpressionNode.Operator.AND;
+        node.getLeft().accept(this);
+        if (isCheapAndPure(node.getRight())) {
+            node.getRight().accept(this);
+            writer.writeLine(and ? "(i32.and)" : "(i32.or)");
+            return;
+        }
+        writer.writeLine("(if (result i32)");
+        writer.indent();
+        if (!and) {
+            writer.writeLine("(then (i32.const 1))");
+        }
+        writer.writeLine(and ? "(then" : "(else");
+        writer.indent();
+        emitConditionally(() -> node.getRight().accept(this));
+        writer.dedent();
+        writer.writeLine(")");
+        if (and) {
+            writer.writeLine("(else (i32.const 0))");
+        }
+        writer.dedent();
+        writer.writeLine(")");
+    }
+
+    /**
+     * Branch to {@code label} when the condition evaluates to {@code jumpWhen},
+     * and fall through otherwise. And/or conditions branch as soon as one
+     * operand decides the outcome; not is folded into the branch sense.
+     */
+    private void emitBranchIf(ASTNode condition, boolean jumpWhen, String label) throws IOException {
+        if (condition instanceof UnaryExpressionNode
+                && ((UnaryExpressionNode) condition).getOperator() == UnaryExpressionNode.Operator.NOT
+                && needsShortCircuit(((UnaryExpressionNode) condition).getOperand())) {
+            emitBranchIf(((UnaryExpressionNode) condition).getOperand(), !jumpWhen, label);
+            return;
+        }
+        if (needsShortCircuit(condition)) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) condition;
+            boolean and = binary.getOperator() == BinaryExpressionNode.Operator.AND;
+            if (and != jumpWhen) {
+                // false and ... / true or ...: either operand alone decides the jump
+                emitBranchIf(binary.getLeft(), jumpWhen, label);
+                emitConditionally(() -> emitBranchIf(binary.getRight(), jumpWhen, label));
+            } else {
+                // Jumping needs both operands: skip the right one when the left one fails
+                String skip = newLabel("sc");
+                writer.writeLine("(block " + skip);
+                writer.indent();
+                emitBranchIf(binary.getLeft(), !jumpWhen, skip);
+                emitConditionally(() -> emitBranchIf(binary.getRight(), jumpWhen, label));
+                writer.dedent();
+                writer.writeLine(")");
+            }
+            return;
+        }
+        condition.accept(this);
+        if (!jumpWhen) {
+            writer.writeLine("(i32.eqz)");
+        }
+        writer.writeLine("(br_if " + label + ")");
+    }
+
+    /**
+     * Emit code that only runs on some paths, such as the right operand of a
+     * short-circuit operator: computations it makes available are forgotten
+     * afterwards, while the variables and memory it invalidates stay invalid.
+     */
+    private void emitConditionally(FunctionBodyGenerator code) throws IOException {
+        ValueNumbering.Snapshot before = valueNumbering.snapshot();
+        code.generate();
+        valueNumbering.join(before, valueNumbering.snapshot(), before);
+    }
+
+    /** A block label unique within the current function. */
+    private String newLabel(String prefix) {
+        return "$" + prefix + "." + labelCount++;
+    }
+
     private String getBinaryInstruction(BinaryExpressionNode.Operator operator, Type exprType) {
         boolean isReal = (exprType == Type.REAL);
 
@@ -871,6 +1584,9 @@ public class CodeGenerator implements ASTVisitor {
     @Override
     public void visit(UnaryExpressionNode node) {
         try {
+            if (emitHoistedValue(node) || emitAvailableValue(node)) {
+                return;
+            }
             if (node.getOperator() == UnaryExpressionNode.Operator.MINUS) {
                 // Unary minus: handle integer vs real separately
                 Type operandType = typeResolver.resolveType(node.getOperand());
@@ -888,6 +1604,7 @@ public class CodeGenerator implements ASTVisitor {
                 node.getOperand().accept(this);
                 writer.writeLine("(i32.eqz)");
             }
+            captureValue(node, typeToWasm(typeResolver.resolveType(node)));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -931,14 +1648,18 @@ public class CodeGenerator implements ASTVisitor {
     @Override
     public void visit(ArrayAccessNode node) {
         try {
+            if (emitHoistedValue(node) || emitAvailableValue(node)) {
+                return;
+            }
             // Calculate address of array element
             visitArrayAccessForStore(node);
 
-            // Load value from calculated address
-            writer.writeLine("(i32.load)");
-
-            // Set expression type (assume integer for now)
-            currentExpressionType = Type.INTEGER;
+            // Records and rows of 2D arrays are stored inline: the address is the value
+            if (!isAggregateType(typeAstOf(node))) {
+                writer.writeLine("(" + storageOf(node).getLoadInstruction() + ")");
+            }
+            captureValue(node, storageOf(node).getWasmType());
+            currentExpressionType = accessType(node);
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -948,20 +1669,25 @@ public class CodeGenerator implements ASTVisitor {
     @Override
     public void visit(RecordAccessNode node) {
         try {
+            if (emitHoistedValue(node) || emitAvailableValue(node)) {
+                return;
+            }
             // Calculate address of the field within its containing record
             visitRecordAccessForStore(node);
 
             // Decide whether to treat this access as a pointer (nested record)
             // or as a scalar value that must be loaded.
             ASTNode fieldTypeAst = resolveFieldTypeAst(node);
-            if (fieldTypeAst != null && isRecordTypeAst(fieldTypeAst)) {
-                // Nested record field: expression value is a pointer to the
-                // inlined record; leave address on the stack without loading.
+            if (fieldTypeAst != null && (isRecordTypeAst(fieldTypeAst) || layouts.isInline(fieldTypeAst))) {
+                // Nested record or fixed-size array field: expression value is
+                // a pointer to the inlined aggregate; leave address on the
+                // stack without loading.
                 currentExpressionType = Type.INTEGER; // pointers are i32
             } else {
                 // Primitive or non-record field: load the stored value.
-                writer.writeLine("(i32.load)");
-                currentExpressionType = Type.INTEGER;
+                writer.writeLine("(" + storageOf(node).getLoadInstruction() + ")");
+                currentExpressionType = accessType(node);
+                captureValue(node, storageOf(node).getWasmType());
             }
 
         } catch (IOException e) {
@@ -970,6 +1696,9 @@ public class CodeGenerator implements ASTVisitor {
     }
 
     private void visitRecordAccessForStore(RecordAccessNode node) throws IOException {
+        if (emitHoistedAddress(node) || emitAvailableAddress(node)) {
+            return;
+        }
         // Get base address of the record
         ASTNode object = node.getObject();
         if (object instanceof ArrayAccessNode) {
@@ -994,6 +1723,7 @@ public class CodeGenerator implements ASTVisitor {
 
         // Add base address
         writer.writeLine("(i32.add)");
+        captureAddress(node);
     }
 
     private RecordTypeNode resolveRecordTypeFromAst(ASTNode typeNode) {
@@ -1058,20 +1788,77 @@ public class CodeGenerator implements ASTVisitor {
             return 0;
         }
 
-        String fieldName = node.getFieldName();
-        int offset = 0;
+        RecordLayout.Field field = layouts.layoutOf(recordType).getField(node.getFieldName());
+        return field != null ? field.getOffset() : 0;
+    }
 
-        if (recordType.getFields() != null) {
-            for (VariableDeclarationNode field : recordType.getFields()) {
-                if (field.getName().equals(fieldName)) {
-                    return offset;
-                }
-                // Accumulate size of preceding fields
-                offset += sizeOfTypeAst(field.getType());
+    /**
+     * The declared type of a variable, element or field expression with
+     * aliases resolved, or null if it is not known.
+     */
+    private ASTNode typeAstOf(ASTNode expr) {
+        ASTNode type = null;
+        if (expr instanceof IdentifierNode) {
+            type = variableTypeAsts.get(((IdentifierNode) expr).getName());
+        } else if (expr instanceof ArrayAccessNode) {
+            ASTNode arrayType = typeAstOf(((ArrayAccessNode) expr).getArray());
+            if (arrayType instanceof ArrayTypeNode) {
+                type = ((ArrayTypeNode) arrayType).getElementType();
+            }
+        } else if (expr instanceof RecordAccessNode) {
+            ASTNode recordType = typeAstOf(((RecordAccessNode) expr).getObject());
+            if (recordType instanceof RecordTypeNode) {
+                RecordLayout.Field field = layouts.layoutOf((RecordTypeNode) recordType)
+                    .getField(((RecordAccessNode) expr).getFieldName());
+                type = field != null ? field.getType() : null;
             }
         }
+        return type != null ? layouts.resolve(type) : null;
+    }
+
+    /** Whether values of the type live inline in their container: records, and rows of 2D arrays. */
+    private boolean isAggregateType(ASTNode type) {
+        return type instanceof RecordTypeNode || type instanceof ArrayTypeNode;
+    }
+
+    /**
+     * Size in bytes of the aggregate an access denotes if it is stored inline
+     * (a record field or element of record type, or a row of a 2D array), or
+     * -1 if the access denotes a scalar or a pointer.
+     */
+    private int inlineSizeOf(ASTNode access) {
+        ASTNode type = typeAstOf(access);
+        if ((access instanceof ArrayAccessNode || access instanceof RecordAccessNode) && type instanceof RecordTypeNode) {
+            return calculateRecordSize((RecordTypeNode) type);
+        }
+        if (access instanceof ArrayAccessNode && type instanceof ArrayTypeNode) {
+            return resolveArrayElementSize((ArrayAccessNode) access);
+        }
+        if (access instanceof RecordAccessNode && layouts.isInline(type)) {
+            return layouts.sizeOf(type);
+        }
+        return -1;
+    }
+
+    /** How the element or field denoted by an access is loaded and stored. */
+    private StorageType storageOf(ASTNode access) {
+        return layouts.storageOf(typeAstOf(access));
+    }
 
-        return offset;
+    /** The type of an access or routine call according to its declaration. */
+    private Type declaredType(ASTNode node) {
+        if (node instanceof RoutineCallNode) {
+            RoutineDeclarationNode routine = routineDecls.get(((RoutineCallNode) node).getName());
+            return routine != null && routine.getReturnType() != null
+                ? typeFromNode(layouts.resolve(routine.getReturnType())) : Type.INTEGER;
+        }
+        return accessType(node);
+    }
+
+    /** The value type of an element or field access. */
+    private Type accessType(ASTNode access) {
+        ASTNode type = typeAstOf(access);
+        return type instanceof PrimitiveTypeNode ? typeFromNode(type) : Type.INTEGER;
     }
 
     /**
@@ -1080,6 +1867,10 @@ public class CodeGenerator implements ASTVisitor {
      * elements of record type, and nested record accesses.
      */
     private RecordTypeNode resolveRecordTypeForObject(ASTNode object) {
+        ASTNode objectType = typeAstOf(object);
+        if (objectType instanceof RecordTypeNode) {
+            return (RecordTypeNode) objectType;
+        }
         if (object instanceof IdentifierNode) {
             String name = ((IdentifierNode) object).getName();
             ASTNode typeAst = variableTypeAsts.get(name);
@@ -1118,15 +1909,45 @@ public class CodeGenerator implements ASTVisitor {
     @Override
     public void visit(RoutineCallNode node) {
         try {
+            if (tailCalls != null && tailCalls.isSelfTailCall(node)) {
+                emitSelfTailCall(node);
+                return;
+            }
+            if (tailCalls != null && tailCalls.isTailCall(node) && canReturnCall(node)) {
+                for (ASTNode arg : node.getArguments()) {
+                    arg.accept(this);
+                }
+                writer.writeLine("(return_call $" + node.getName() + ")");
+                return;
+            }
             for (ASTNode arg : node.getArguments()) {
                 arg.accept(this);
             }
             writer.writeLine("(call $" + node.getName() + ")");
+            // The callee may write any array or record it can reach, unless it is pure
+            if (!purity.isPure(node.getName())) {
+                valueNumbering.killMemory();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Whether a tail call to another routine can use return_call: the option
+     * must be enabled, the result must not be combined with an accumulator,
+     * and both routines must produce the same wasm result.
+     */
+    private boolean canReturnCall(RoutineCallNode call) {
+        RoutineDeclarationNode callee = routineDecls.get(call.getName());
+        if (!options.isTailCalls() || accumulatorLocal != null || callee == null) {
+            return false;
+        }
+        String calleeResult = callee.getReturnType() == null ? null : typeToWasm(typeFromNode(callee.getReturnType()));
+        String ownResult = currentRoutine.getReturnType() == null ? null : typeToWasm(typeFromNode(currentRoutine.getReturnType()));
+        return Objects.equals(calleeResult, ownResult);
+    }
+
     @Override
     public void visit(AssignmentNode node) {
         try {
@@ -1142,6 +1963,19 @@ public class CodeGenerator implements ASTVisitor {
                 }
                 IdentifierNode id = (IdentifierNode) node.getTarget();
                 writer.writeLine("(local.set $" + id.getName() + ")");
+                valueNumbering.killVariable(id.getName());
+            } else if (inlineSizeOf(node.getTarget()) >= 0) {
+                // Records and rows stored inline in their container: copy the
+                // whole aggregate into place
+                if (node.getTarget() instanceof ArrayAccessNode) {
+                    visitArrayAccessForStore((ArrayAccessNode) node.getTarget());
+                } else {
+                    visitRecordAccessForStore((RecordAccessNode) node.getTarget());
+                }
+                node.getValue().accept(this);
+                writer.writeLine("(i32.const " + inlineSizeOf(node.getTarget()) + ")");
+                writer.writeLine("(memory.copy)");
+                valueNumbering.killStore(node.getTarget());
             } else if (node.getTarget() instanceof ArrayAccessNode) {
                 // Array element assignment: address must be below value on the stack
                 ArrayAccessNode arrayAccess = (ArrayAccessNode) node.getTarget();
@@ -1155,8 +1989,9 @@ public class CodeGenerator implements ASTVisitor {
                     generateTypeConversion(sourceType, targetType);
                 }
 
-                // Stack order for i32.store: [..., address, value]
-                writer.writeLine("(i32.store)");
+                // Stack order for the store: [..., address, value]
+                writer.writeLine("(" + storageOf(arrayAccess).getStoreInstruction() + ")");
+                valueNumbering.killStore(arrayAccess);
             } else if (node.getTarget() instanceof RecordAccessNode) {
                 // Record field assignment: address must be below value on the stack
                 RecordAccessNode recordAccess = (RecordAccessNode) node.getTarget();
@@ -1171,7 +2006,13 @@ public class CodeGenerator implements ASTVisitor {
                 }
 
                 // Store value to the calculated address
-                writer.writeLine("(i32.store)");
+                writer.writeLine("(" + storageOf(recordAccess).getStoreInstruction() + ")");
+                valueNumbering.killStore(recordAccess);
+            }
+
+            List<InductionPointer> pointers = inductionSteps.get(node);
+            if (pointers != null) {
+                emitInductionSteps(pointers);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -1192,9 +2033,19 @@ public class CodeGenerator implements ASTVisitor {
             }
         } else if (node instanceof IdentifierNode) {
             VariableScopeManager.VariableInfo var = scopeManager.lookupVariable(((IdentifierNode) node).getName());
+            if (var == null) {
+                var = scopeManager.lookupFunctionLocal(((IdentifierNode) node).getName());
+            }
             if (var != null) {
                 return "f64".equals(var.wasmType) ? Type.REAL : Type.INTEGER;
             }
+        } else if (node instanceof ArrayAccessNode || node instanceof RecordAccessNode) {
+            return accessType(node);
+        } else if (node != null) {
+            Type type = typeResolver.resolveType(node);
+            if (type != null) {
+                return type;
+            }
         }
         return Type.INTEGER; // Default
     }
@@ -1225,192 +2076,220 @@ public class CodeGenerator implements ASTVisitor {
         // Other conversions as per the specification table
     }
 
+    /**
+     * Leave the address of an array element on the stack.
+     *
+     * An access into nested arrays, A[i][j][k], is addressed from the base
+     * of A in one multiply-add chain, base + i*s0 + j*s1 + k*s2 - (s0 + s1 +
+     * s2), with the strides of the dimensions folded into constants when the
+     * sizes are known at compile time and read from A's stride header
+     * otherwise. If the address of a leading part of the chain (a row) was
+     * hoisted out of the enclosing loop or is still available, the chain
+     * starts there instead.
+     */
     private void visitArrayAccessForStore(ArrayAccessNode node) throws IOException {
-        // Handle multi-dimensional arrays (array-of-arrays) via flattened indexing
-        // when we have a pattern like A[i][j].
-        if (node.getArray() instanceof ArrayAccessNode) {
-            if (generateFlattenedTwoDimArrayAddress(node)) {
-                return;
-            }
-            // If we couldn't recognize a 2D array pattern, fall back to 1D behavior.
+        if (emitHoistedAddress(node) || emitAvailableAddress(node)) {
+            return;
+        }
+        // chain.get(0) indexes the root array; each later access indexes a row of the previous one
+        List<ArrayAccessNode> chain = new ArrayList<>();
+        ArrayAccessNode access = node;
+        chain.add(access);
+        while (isRowAccess(access.getArray())) {
+            access = (ArrayAccessNode) access.getArray();
+            chain.add(0, access);
+        }
+        ASTNode root = chain.get(0).getArray();
+        int[] strides = new int[chain.size()];
+        boolean dynamic = false;
+        for (int d = 0; d < chain.size(); d++) {
+            ASTNode containerType = typeAstOf(chain.get(d).getArray());
+            // Default element size (i32) when the array type is unknown
+            strides[d] = containerType instanceof ArrayTypeNode ? layouts.strideOf((ArrayTypeNode) containerType) : 4;
+            dynamic |= strides[d] < 0;
         }
 
-        // 1D array access: base + index * element_size
-        // Get array reference
-        node.getArray().accept(this);
-
-        // Get index (convert from 1-based to 0-based)
-        node.getIndex().accept(this);
-        writer.writeLine("(i32.const 1)");
-        writer.writeLine("(i32.sub)"); // Convert to 0-based indexing
+        int start = -1;
+        String rootLocal = root instanceof IdentifierNode ? ((IdentifierNode) root).getName() : null;
+        if (!dynamic || rootLocal != null) {
+            for (int d = chain.size() - 2; d >= 0 && start < 0; d--) {
+                if (emitHoistedAddress(chain.get(d)) || emitAvailableAddress(chain.get(d))) {
+                    start = d;
+                }
+            }
+        }
+        if (start < 0) {
+            root.accept(this);
+            if (dynamic && rootLocal == null) {
+                rootLocal = newTempLocal("array", "i32");
+                writer.writeLine("(local.tee $" + rootLocal + ")");
+            }
+        }
 
-        // Element size in bytes (may be a record size, not always 4)
-        int elementSize = resolveArrayElementSize(node);
-        writer.writeLine("(i32.const " + elementSize + ")");
-        writer.writeLine("(i32.mul)"); // index * element_size
+        int displacement = 0;
+        for (int d = start + 1; d < chain.size(); d++) {
+            chain.get(d).getIndex().accept(this);
+            if (strides[d] >= 0) {
+                if (strides[d] != 1) {
+                    writer.writeLine("(i32.const " + strides[d] + ")");
+                    writer.writeLine("(i32.mul)");
+                }
+                displacement -= strides[d];
+            } else {
+                // (index - 1) * stride from the header of the root array
+                writer.writeLine("(i32.const 1)");
+                writer.writeLine("(i32.sub)");
+                writer.writeLine("(local.get $" + rootLocal + ")");
+                writer.writeLine("(i32.const " + (4 * (d + 1)) + ")");
+                writer.writeLine("(i32.sub)");
+                writer.writeLine("(i32.load)");
+                writer.writeLine("(i32.mul)");
+            }
+            writer.writeLine("(i32.add)");
+        }
+        if (displacement != 0) {
+            writer.writeLine("(i32.const " + displacement + ")");
+            writer.writeLine("(i32.add)");
+        }
+        captureAddress(node);
+    }
 
-        // Add base address
-        writer.writeLine("(i32.add)");
+    /** Whether an expression is an element of an array of arrays, i.e. a row stored inline. */
+    private boolean isRowAccess(ASTNode expr) {
+        return expr instanceof ArrayAccessNode && typeAstOf(expr) instanceof ArrayTypeNode;
     }
 
     private int calculateRecordSize(RecordTypeNode recordType) {
-        int totalSize = 0;
-        if (recordType.getFields() != null) {
-            for (VariableDeclarationNode field : recordType.getFields()) {
-                totalSize += sizeOfTypeAst(field.getType());
-            }
-        }
-        return totalSize;
+        return layouts.layoutOf(recordType).getSize();
     }
 
-    /** Return the size in bytes of a type described by its AST node. */
+    /**
+     * Return the size in bytes of a type described by its AST node: the
+     * natural scalar size, the inline size of a record, or a pointer for arrays.
+     */
     private int sizeOfTypeAst(ASTNode typeAst) {
-        if (typeAst instanceof PrimitiveTypeNode) {
-            // All primitive scalar types are stored as i32 / f64, but in records we
-            // represent them uniformly as 4-byte slots.
-            return 4;
-        }
-        if (typeAst instanceof TypeReferenceNode) {
-            TypeReferenceNode ref = (TypeReferenceNode) typeAst;
-            ASTNode aliased = typeEnvironment.resolveType(ref.getName());
-            if (aliased != null) {
-                return sizeOfTypeAst(aliased);
-            }
-            return 4;
-        }
-        if (typeAst instanceof RecordTypeNode) {
-            // Inline record size
-            return calculateRecordSize((RecordTypeNode) typeAst);
-        }
-        if (typeAst instanceof ArrayTypeNode) {
-            // Arrays are represented as pointers
-            return 4;
-        }
-        // Fallback: treat as pointer-sized
-        return 4;
+        return layouts.sizeOf(typeAst);
     }
 
-    /** Compute the element size in bytes for a given array type. */
+    /**
+     * Compute the element size in bytes for a given array type. Rows of
+     * multi-dimensional arrays are stored inline, so their size is the whole
+     * row; -1 if that depends on sizes only known at run time.
+     */
     private int getArrayElementSize(ArrayTypeNode arrayType) {
-        ASTNode elementType = arrayType.getElementType();
-        if (elementType instanceof ArrayTypeNode) {
-            // For array-of-arrays, treat each element as an inlined row of the inner
-            // array rather than a pointer, so that 2D arrays are flattened in memory.
-            ArrayTypeNode inner = (ArrayTypeNode) elementType;
-            int cols = getFixedArrayLength(inner);
-            int elemSize = sizeOfTypeAst(inner.getElementType());
-            return cols * elemSize;
-        }
-        return sizeOfTypeAst(elementType);
+        return layouts.strideOf(arrayType);
     }
 
     /** Resolve the element size for an ArrayAccess node based on the array variable type. */
     private int resolveArrayElementSize(ArrayAccessNode node) {
-        ASTNode arrayExpr = node.getArray();
-        if (arrayExpr instanceof IdentifierNode) {
-            String name = ((IdentifierNode) arrayExpr).getName();
-            ASTNode typeAst = variableTypeAsts.get(name);
-            if (typeAst instanceof ArrayTypeNode) {
-                return getArrayElementSize((ArrayTypeNode) typeAst);
-            }
+        ASTNode typeAst = typeAstOf(node.getArray());
+        if (typeAst instanceof ArrayTypeNode) {
+            return getArrayElementSize((ArrayTypeNode) typeAst);
         }
         // Default element size (i32)
         return 4;
     }
 
     /**
-     * Attempt to generate a flattened 2D address for an ArrayAccessNode of the
-     * form A[i][j], where A is declared as array [R] array [C] T. The resulting
-     * address is: base(A) + ((i-1) * C + (j-1)) * sizeof(T).
-     *
-     * Returns true if the pattern was recognized and code was emitted, false
-     * otherwise (in which case the caller should fall back to 1D logic).
+     * Return the declared type of A when the access has the form A[i][j] with
+     * A a variable of type array [R] array [C] T, or null otherwise.
      */
-    private boolean generateFlattenedTwoDimArrayAddress(ArrayAccessNode node) throws IOException {
-        ArrayAccessNode inner = (ArrayAccessNode) node.getArray();
-        ASTNode baseExpr = inner.getArray();
-        if (!(baseExpr instanceof IdentifierNode)) {
-            return false;
-        }
-
-        String baseName = ((IdentifierNode) baseExpr).getName();
-        ASTNode typeAst = variableTypeAsts.get(baseName);
-        if (!(typeAst instanceof ArrayTypeNode)) {
-            return false;
+    private ArrayTypeNode getTwoDimArrayType(ArrayAccessNode node) {
+        if (!(node.getArray() instanceof ArrayAccessNode)) {
+            return null;
         }
-
-        ArrayTypeNode outerType = (ArrayTypeNode) typeAst;
-        if (!(outerType.getElementType() instanceof ArrayTypeNode)) {
-            return false;
+        ASTNode baseExpr = ((ArrayAccessNode) node.getArray()).getArray();
+        if (!(baseExpr instanceof IdentifierNode)) {
+            return null;
         }
-
-        ArrayTypeNode innerType = (ArrayTypeNode) outerType.getElementType();
-        int cols = getFixedArrayLength(innerType);
-        int elemSize = sizeOfTypeAst(innerType.getElementType());
-
-        // Compute ((i-1) * cols + (j-1)) * elemSize
-        // i index (from inner access A[i])
-        inner.getIndex().accept(this);
-        writer.writeLine("(i32.const 1)");
-        writer.writeLine("(i32.sub)"); // i - 1
-        writer.writeLine("(i32.const " + cols + ")");
-        writer.writeLine("(i32.mul)"); // (i-1) * cols
-
-        // j index (from outer access [j])
-        node.getIndex().accept(this);
-        writer.writeLine("(i32.const 1)");
-        writer.writeLine("(i32.sub)"); // j - 1
-        writer.writeLine("(i32.add)"); // (i-1)*cols + (j-1)
-
-        writer.writeLine("(i32.const " + elemSize + ")");
-        writer.writeLine("(i32.mul)"); // offset in bytes
-
-        // Add base pointer. Order (offset, base) is fine because addition is
-        // commutative.
-        writer.writeLine("(local.get $" + baseName + ")");
-        writer.writeLine("(i32.add)");
-        return true;
-    }
-
-    /** Extract constant length from a fixed-size ArrayTypeNode; fallback to 1. */
-    private int getFixedArrayLength(ArrayTypeNode arrayType) {
-        if (arrayType.getSizeExpression() instanceof LiteralNode) {
-            LiteralNode lit = (LiteralNode) arrayType.getSizeExpression();
-            Object v = lit.getValue();
-            if (v instanceof Number) {
-                return ((Number) v).intValue();
-            }
+        ASTNode typeAst = typeAstOf(baseExpr);
+        if (!(typeAst instanceof ArrayTypeNode)
+                || !(layouts.resolve(((ArrayTypeNode) typeAst).getElementType()) instanceof ArrayTypeNode)) {
+            return null;
         }
-        // Fallback for non-constant or unsupported sizes
-        return 1;
+        return (ArrayTypeNode) typeAst;
     }
 
     @Override
     public void visit(IfStatementNode node) {
         try {
-            node.getCondition().accept(this);
-            writer.writeLine(";; If statement");
-            // If-statement is a pure statement, not an expression: no result value on stack
-            writer.writeLine("(if");
-            writer.indent();
-            writer.writeLine("(then");
-            writer.indent();
+            // Profiling counts each if of a chain, so keep them as ifs
+            SwitchRecognizer.SwitchChain chain = profileCounters == null ? switches.recognize(node) : null;
+            if (chain != null && getExpressionType(chain.getSelector()) == Type.INTEGER) {
+                emitSwitch(chain);
+                return;
+            }
+            // Put the arm the profile saw taken more often on the fall-through path
+            boolean swap = false;
+            if (profile != null && node.getElseBlock() != null) {
+                long[] counts = profile.getBranchCounts(Profile.routineName(currentRoutine),
+                    Profile.position(currentRoutine, node));
+                swap = counts != null && counts[1] > counts[0];
+            }
+            BlockNode first = swap ? node.getElseBlock() : node.getThenBlock();
+            BlockNode second = swap ? node.getThenBlock() : node.getElseBlock();
+            boolean hasElse = second != null || profileCounters != null;
+
+            // A short-circuit condition jumps past the first arm as soon as its
+            // outcome is known, without computing a 0/1 value first
+            boolean branching = needsShortCircuit(node.getCondition());
+            String end = null;
+            if (branching) {
+                end = newLabel("if_end");
+                String skip = hasElse ? newLabel("if_else") : end;
+                writer.writeLine(";; If statement");
+                writer.writeLine("(block " + end);
+                writer.indent();
+                if (hasElse) {
+                    writer.writeLine("(block " + skip);
+                    writer.indent();
+                }
+                emitBranchIf(node.getCondition(), swap, skip);
+            } else {
+                node.getCondition().accept(this);
+                if (swap) {
+                    writer.writeLine("(i32.eqz)");
+                }
+                writer.writeLine(";; If statement");
+                // If-statement is a pure statement, not an expression: no result value on stack
+                writer.writeLine("(if");
+                writer.indent();
+                writer.writeLine("(then");
+                writer.indent();
+            }
+            ValueNumbering.Snapshot beforeBranch = valueNumbering.snapshot();
+            emitProfileCount("branch", node, 2, swap ? 1 : 0);
             scopeManager.enterScope();
-            node.getThenBlock().accept(this);
+            first.accept(this);
             scopeManager.exitScope();
-            writer.dedent();
-            writer.writeLine(")");
-
-            if (node.getElseBlock() != null) {
-                writer.writeLine("(else");
-                writer.indent();
-                scopeManager.enterScope();
-                node.getElseBlock().accept(this);
-                scopeManager.exitScope();
+            ValueNumbering.Snapshot afterThen = valueNumbering.snapshot();
+            valueNumbering.restore(beforeBranch);
+            if (branching && hasElse) {
+                writer.writeLine("(br " + end + ")");
+            }
+            if (!branching || hasElse) {
                 writer.dedent();
                 writer.writeLine(")");
             }
 
+            if (hasElse) {
+                if (!branching) {
+                    writer.writeLine("(else");
+                    writer.indent();
+                }
+                emitProfileCount("branch", node, 2, swap ? 0 : 1);
+                if (second != null) {
+                    scopeManager.enterScope();
+                    second.accept(this);
+                    scopeManager.exitScope();
+                }
+                if (!branching) {
+                    writer.dedent();
+                    writer.writeLine(")");
+                }
+            }
+            valueNumbering.join(beforeBranch, afterThen, valueNumbering.snapshot());
+
             writer.dedent();
             writer.writeLine(")");
         } catch (IOException e) {
@@ -1418,37 +2297,160 @@ public class CodeGenerator implements ASTVisitor {
         }
     }
 
-    @Override
-    public void visit(WhileLoopNode node) {
-        try {
-            writer.writeLine(";; While loop");
-            writer.writeLine("(block $break");
-            writer.indent();
-            writer.writeLine("(loop $continue");
+    /**
+     * Dispatch an if/else-if chain on one integer. The arms are laid out in
+     * nested blocks, the innermost block ending before the first arm, and the
+     * selector is evaluated once to pick the block to leave: with a
+     * {@code br_table} indexed by the selector minus the smallest case when
+     * the case values are dense, and with a binary search otherwise.
+     */
+    private void emitSwitch(SwitchRecognizer.SwitchChain chain) throws IOException {
+        List<SwitchRecognizer.Case> cases = chain.getCases();
+        int n = cases.size();
+        String end = newLabel("switch_end");
+        String otherwise = newLabel("switch_default");
+        writer.writeLine(";; If chain dispatched as a switch");
+        writer.writeLine("(block " + end);
+        writer.indent();
+        writer.writeLine("(block " + otherwise);
+        writer.indent();
+        String[] labels = new String[n];
+        for (int i = n - 1; i >= 0; i--) {
+            labels[i] = newLabel("case");
+            writer.writeLine("(block " + labels[i]);
             writer.indent();
-            node.getCondition().accept(this);
-            writer.writeLine("(i32.eqz)");
-            writer.writeLine("(br_if $break)");
-            scopeManager.enterScope();
-            node.getBody().accept(this);
-            scopeManager.exitScope();
-            writer.writeLine("(br $continue)");
-            writer.dedent();
-            writer.writeLine(")");
-            writer.dedent();
-            writer.writeLine(")");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
-    }
 
-    @Override
-    public void visit(ForLoopNode node) {
-        try {
-            if (node.getArrayExpr() != null) {
-                // Iterate over array elements
-                generateArrayIteration(node);
-            } else if (node.getRangeStart() != null) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> cases.get(i).getValue()));
+        long min = cases.get(order[0]).getValue();
+        long span = cases.get(order[n - 1]).getValue() - min + 1;
+        chain.getSelector().accept(this);
+        if (span <= MAX_JUMP_TABLE && span <= 2L * n) {
+            String[] targets = new String[(int) span];
+            Arrays.fill(targets, otherwise);
+            for (int i = 0; i < n; i++) {
+                targets[(int) (cases.get(i).getValue() - min)] = labels[i];
+            }
+            if (min != 0) {
+                writer.writeLine("(i32.const " + min + ")");
+                writer.writeLine("(i32.sub)");
+            }
+            // Values outside the table, negative ones included (unsigned), take the default
+            writer.writeLine("(br_table " + String.join(" ", targets) + " " + otherwise + ")");
+        } else {
+            String selector = newTempLocal("switch", "i32");
+            writer.writeLine("(local.set $" + selector + ")");
+            emitSearch(selector, cases, order, labels, 0, n, otherwise);
+        }
+
+        ValueNumbering.Snapshot beforeArms = valueNumbering.snapshot();
+        ValueNumbering.Snapshot joined = null;
+        for (int i = 0; i <= n; i++) {
+            writer.dedent();
+            writer.writeLine(")");
+            BlockNode body = i < n ? cases.get(i).getBody() : chain.getDefaultBody();
+            valueNumbering.restore(beforeArms);
+            if (body != null) {
+                scopeManager.enterScope();
+                body.accept(this);
+                scopeManager.exitScope();
+            }
+            if (i < n) {
+                writer.writeLine("(br " + end + ")");
+            }
+            if (joined != null) {
+                valueNumbering.join(beforeArms, joined, valueNumbering.snapshot());
+            }
+            joined = valueNumbering.snapshot();
+        }
+        writer.dedent();
+        writer.writeLine(")");
+    }
+
+    /**
+     * Binary search for the selector among the cases {@code order[from..to)},
+     * sorted by value, branching to the matching case block or to the default.
+     */
+    private void emitSearch(String selector, List<SwitchRecognizer.Case> cases, Integer[] order, String[] labels,
+                            int from, int to, String otherwise) throws IOException {
+        if (to - from <= LINEAR_SEARCH_CASES) {
+            for (int i = from; i < to; i++) {
+                writer.writeLine("(br_if " + labels[order[i]] + " (i32.eq (local.get $" + selector + ") (i32.const "
+                    + cases.get(order[i]).getValue() + ")))");
+            }
+            writer.writeLine("(br " + otherwise + ")");
+            return;
+        }
+        int middle = (from + to) / 2;
+        writer.writeLine("(if (i32.lt_s (local.get $" + selector + ") (i32.const "
+            + cases.get(order[middle]).getValue() + "))");
+        writer.indent();
+        writer.writeLine("(then");
+        writer.indent();
+        emitSearch(selector, cases, order, labels, from, middle, otherwise);
+        writer.dedent();
+        writer.writeLine(")");
+        writer.writeLine("(else");
+        writer.indent();
+        emitSearch(selector, cases, order, labels, middle, to, otherwise);
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+    }
+
+    @Override
+    public void visit(WhileLoopNode node) {
+        try {
+            List<ASTNode> hoisted = hoistLoopInvariants(node);
+            List<AssignmentNode> increments = findCounterIncrements(node);
+            for (AssignmentNode increment : increments) {
+                List<InductionPointer> pointers = new ArrayList<>();
+                String counter = ((IdentifierNode) increment.getTarget()).getName();
+                hoisted.addAll(reduceInductionVariable(node, counter, counterStep(increment), pointers));
+                if (!pointers.isEmpty()) {
+                    inductionSteps.put(increment, pointers);
+                }
+            }
+            ValueNumbering.Snapshot beforeLoop = valueNumbering.enterLoop(loopAnalyzer.analyze(node));
+            writer.writeLine(";; While loop");
+            emitProfileCount("loop", node, 2, 0);
+            writer.writeLine("(block $break");
+            writer.indent();
+            writer.writeLine("(loop $continue");
+            writer.indent();
+            emitBranchIf(node.getCondition(), false, "$break");
+            emitProfileCount("loop", node, 2, 1);
+            emitInstrumentCount(InstrumentationCounters.Kind.ITERATIONS, node);
+            scopeManager.enterScope();
+            node.getBody().accept(this);
+            scopeManager.exitScope();
+            writer.writeLine("(br $continue)");
+            writer.dedent();
+            writer.writeLine(")");
+            writer.dedent();
+            writer.writeLine(")");
+            valueNumbering.restore(beforeLoop);
+            dropHoisted(hoisted);
+            for (AssignmentNode increment : increments) {
+                inductionSteps.remove(increment);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void visit(ForLoopNode node) {
+        try {
+            if (node.getArrayExpr() != null) {
+                // Iterate over array elements
+                generateArrayIteration(node);
+            } else if (node.getRangeStart() != null) {
                 // Range-based iteration
                 generateRangeIteration(node);
             }
@@ -1457,126 +2459,1126 @@ public class CodeGenerator implements ASTVisitor {
         }
     }
 
+    /**
+     * Loop over the elements of an array. The array expression is evaluated
+     * once, into a pointer that walks the elements; the hidden index
+     * {@code <variable>_index} counts the iterations. The length is a
+     * compile-time constant, so the loop needs no entry guard and is tested
+     * at the bottom.
+     */
     private void generateArrayIteration(ForLoopNode node) throws IOException {
-        // For array iteration, we need:
-        // - A loop index variable
-        // - Check if index is within array bounds
-        // - Set loop variable to array[index]
-        // - Increment index
-
         String loopVar = node.getVariable();
         boolean reverse = node.isReverse();
 
         Integer arrayLength = getArrayLengthForArrayExpr(node.getArrayExpr());
         int lengthConst = (arrayLength != null ? arrayLength : 5);
+        ASTNode arrayType = typeAstOf(node.getArrayExpr());
+        int stride = arrayType instanceof ArrayTypeNode ? getArrayElementSize((ArrayTypeNode) arrayType) : 4;
+        ASTNode elementType = arrayType instanceof ArrayTypeNode
+            ? layouts.resolve(((ArrayTypeNode) arrayType).getElementType()) : null;
+        if (lengthConst < 1) {
+            return;
+        }
 
+        List<ASTNode> hoisted = hoistLoopInvariants(node);
         writer.writeLine(";; For loop over array");
-        // Initialize index
+        writer.writeLine("(i32.const " + (reverse ? lengthConst : 1) + ")");
+        writer.writeLine("(local.set $" + loopVar + "_index)");
+        String elementPointer = newTempLocal("iv", "i32");
+        node.getArrayExpr().accept(this);
         if (reverse) {
-            writer.writeLine("(i32.const " + lengthConst + ")");
-        } else {
-            writer.writeLine("(i32.const 1)");
+            writer.writeLine("(i32.const " + ((lengthConst - 1) * stride) + ")");
+            writer.writeLine("(i32.add)");
         }
-        writer.writeLine("(local.set $" + loopVar + "_index)");
+        writer.writeLine("(local.set $" + elementPointer + ")");
+        ValueNumbering.Snapshot beforeLoop = valueNumbering.enterLoop(loopAnalyzer.analyze(node));
 
-        writer.writeLine("(block $break");
-        writer.indent();
+        emitProfileCount("loop", node, 2, 0);
         writer.writeLine("(loop $continue");
         writer.indent();
+        emitProfileCount("loop", node, 2, 1);
+        emitInstrumentCount(InstrumentationCounters.Kind.ITERATIONS, node);
 
-        // Check bounds
-        if (reverse) {
-            writer.writeLine("(local.get $" + loopVar + "_index)");
-            writer.writeLine("(i32.const 1)");
-            writer.writeLine("(i32.lt_s)");
-            writer.writeLine("(br_if $break)");
-        } else {
-            writer.writeLine("(local.get $" + loopVar + "_index)");
-            writer.writeLine("(i32.const " + lengthConst + ")");
-            writer.writeLine("(i32.gt_s)");
-            writer.writeLine("(br_if $break)");
+        // Set loop variable to the element; inline records are referred to by address
+        writer.writeLine("(local.get $" + elementPointer + ")");
+        if (!isAggregateType(elementType)) {
+            writer.writeLine("(" + layouts.storageOf(elementType).getLoadInstruction() + ")");
         }
-
-        // Set loop variable to array[index]
-        node.getArrayExpr().accept(this); // Array reference
-        writer.writeLine("(local.get $" + loopVar + "_index)");
-        writer.writeLine("(i32.const 1)");
-        writer.writeLine("(i32.sub)"); // Convert to 0-based
-        writer.writeLine("(i32.const 4)");
-        writer.writeLine("(i32.mul)");
-        writer.writeLine("(i32.add)");
-        writer.writeLine("(i32.load)"); // Load array[index]
         writer.writeLine("(local.set $" + loopVar + ")");
 
         scopeManager.enterScope();
         node.getBody().accept(this);
         scopeManager.exitScope();
 
-        // Increment/decrement index
+        writer.writeLine("(local.get $" + elementPointer + ")");
+        writer.writeLine("(i32.const " + (reverse ? -stride : stride) + ")");
+        writer.writeLine("(i32.add)");
+        writer.writeLine("(local.set $" + elementPointer + ")");
         writer.writeLine("(local.get $" + loopVar + "_index)");
         writer.writeLine("(i32.const 1)");
+        writer.writeLine(reverse ? "(i32.sub)" : "(i32.add)");
+        writer.writeLine("(local.tee $" + loopVar + "_index)");
         if (reverse) {
-            writer.writeLine("(i32.sub)");
+            writer.writeLine("(i32.const 1)");
+            writer.writeLine("(i32.ge_s)");
         } else {
-            writer.writeLine("(i32.add)");
+            writer.writeLine("(i32.const " + lengthConst + ")");
+            writer.writeLine("(i32.le_s)");
         }
-        writer.writeLine("(local.set $" + loopVar + "_index)");
-        writer.writeLine("(br $continue)");
+        writer.writeLine("(br_if $continue)");
 
         writer.dedent();
         writer.writeLine(")");
-        writer.dedent();
-        writer.writeLine(")");
+        valueNumbering.restore(beforeLoop);
+        dropHoisted(hoisted);
     }
 
+    /**
+     * Loop over a range. The bounds are evaluated once, in source order: the
+     * first value into the loop variable and the last one, unless it is a
+     * literal, into a hidden local. An entry guard skips the loop when the
+     * range is empty, and the loop is rotated so each iteration ends with a
+     * single conditional branch back to its start.
+     */
     private void generateRangeIteration(ForLoopNode node) throws IOException {
         if (node.getRangeStart() != null) {
             boolean reverse = node.isReverse();
+            if (generateFullyUnrolledLoop(node)) {
+                return;
+            }
+            List<ASTNode> hoisted = hoistLoopInvariants(node);
+            String variable = node.getVariable();
+            ASTNode first = reverse ? node.getRangeEnd() : node.getRangeStart();
+            ASTNode last = reverse ? node.getRangeStart() : node.getRangeEnd();
 
             if (reverse) {
-                node.getRangeEnd().accept(this);
-            } else {
-                node.getRangeStart().accept(this);
+                evaluateRangeBound(node, last);
+            }
+            first.accept(this);
+            writer.writeLine("(local.set $" + variable + ")");
+            if (!reverse) {
+                evaluateRangeBound(node, last);
+            }
+
+            // Instrumented builds keep every iteration in the counted scalar loop
+            if (!reverse && counterRegion == null) {
+                generateBulkLoop(node);
             }
-            writer.writeLine("(local.set $" + node.getVariable() + ")");
+            if (options.isSimd() && !reverse && counterRegion == null) {
+                generateVectorLoop(node);
+            }
+
+            List<InductionPointer> pointers = new ArrayList<>();
+            if (countDefinitions(node.getBody(), variable) == 0) {
+                hoisted.addAll(reduceInductionVariable(node, variable, reverse ? -1 : 1, pointers));
+            }
+            generateUnrolledLoop(node, pointers);
 
+            ValueNumbering.Snapshot beforeLoop = valueNumbering.enterLoop(loopAnalyzer.analyze(node));
             writer.writeLine(";; For loop range");
+            emitProfileCount("loop", node, 2, 0);
             writer.writeLine("(block $break");
             writer.indent();
+            writer.writeLine("(local.get $" + variable + ")");
+            emitRangeBound(node);
+            writer.writeLine(reverse ? "(i32.lt_s)" : "(i32.gt_s)");
+            writer.writeLine("(br_if $break)");
             writer.writeLine("(loop $continue");
             writer.indent();
+            emitProfileCount("loop", node, 2, 1);
+            emitInstrumentCount(InstrumentationCounters.Kind.ITERATIONS, node);
 
-            writer.writeLine("(local.get $" + node.getVariable() + ")");
-            if (reverse) {
-                node.getRangeStart().accept(this);
-                writer.writeLine("(i32.lt_s)");
-            } else {
-                node.getRangeEnd().accept(this);
-                writer.writeLine("(i32.gt_s)");
+            scopeManager.enterScope();
+            node.getBody().accept(this);
+            scopeManager.exitScope();
+
+            emitInductionSteps(pointers);
+            writer.writeLine("(local.get $" + variable + ")");
+            writer.writeLine("(i32.const 1)");
+            writer.writeLine(reverse ? "(i32.sub)" : "(i32.add)");
+            writer.writeLine("(local.tee $" + variable + ")");
+            emitRangeBound(node);
+            writer.writeLine(reverse ? "(i32.ge_s)" : "(i32.le_s)");
+            writer.writeLine("(br_if $continue)");
+
+            writer.dedent();
+            writer.writeLine(")");
+            writer.dedent();
+            writer.writeLine(")");
+            valueNumbering.restore(beforeLoop);
+            rangeBounds.remove(node);
+            dropHoisted(hoisted);
+        }
+    }
+
+    /** Evaluate the last value of a range once, into a hidden local unless it is a literal. */
+    private void evaluateRangeBound(ForLoopNode node, ASTNode last) throws IOException {
+        if (last instanceof LiteralNode) {
+            return;
+        }
+        last.accept(this);
+        String local = newTempLocal("bound", "i32");
+        writer.writeLine("(local.set $" + local + ")");
+        rangeBounds.put(node, local);
+    }
+
+    /** Push the last value of a range loop, as evaluated on entry. */
+    private void emitRangeBound(ForLoopNode node) throws IOException {
+        String local = rangeBounds.get(node);
+        if (local != null) {
+            writer.writeLine("(local.get $" + local + ")");
+        } else {
+            (node.isReverse() ? node.getRangeStart() : node.getRangeEnd()).accept(this);
+        }
+    }
+
+    /**
+     * Replace a range loop with constant bounds and at most
+     * {@link #MAX_FULL_UNROLL_TRIPS} iterations by one copy of its body per
+     * iteration, each after setting the loop variable to a constant. The
+     * copies are straight-line code, so value numbering shares what they
+     * compute alike. Returns false if the loop is not unrolled.
+     */
+    private boolean generateFullyUnrolledLoop(ForLoopNode node) throws IOException {
+        if (!canUnroll(node) || !(node.getRangeStart() instanceof LiteralNode)
+                || !(node.getRangeEnd() instanceof LiteralNode)) {
+            return false;
+        }
+        Object startValue = ((LiteralNode) node.getRangeStart()).getValue();
+        Object endValue = ((LiteralNode) node.getRangeEnd()).getValue();
+        if (!(startValue instanceof Integer || startValue instanceof Long)
+                || !(endValue instanceof Integer || endValue instanceof Long)) {
+            return false;
+        }
+        int start = ((Number) startValue).intValue();
+        int end = ((Number) endValue).intValue();
+        long trips = Math.max(0, (long) end - start + 1);
+        if (trips > MAX_FULL_UNROLL_TRIPS || trips * countNodes(node.getBody()) > UNROLL_BUDGET) {
+            return false;
+        }
+        String variable = node.getVariable();
+        writer.writeLine(";; For loop range, fully unrolled");
+        for (int trip = 0; trip < trips; trip++) {
+            int value = node.isReverse() ? end - trip : start + trip;
+            writer.writeLine("(i32.const " + value + ")");
+            writer.writeLine("(local.set $" + variable + ")");
+            valueNumbering.killVariable(variable);
+            scopeManager.enterScope();
+            node.getBody().accept(this);
+            scopeManager.exitScope();
+        }
+        return true;
+    }
+
+    /**
+     * Run the iterations of a range loop {@code --unroll} at a time: each
+     * pass of the unrolled loop checks once that that many iterations are
+     * left, then runs the body as often, stepping the loop variable and the
+     * induction pointers between the copies. Like the vector loop, it leaves
+     * the loop variable at the first iteration the scalar loop emitted after
+     * it still has to run.
+     *
+     * Only innermost loops are unrolled, and only while the copies stay
+     * within {@link #UNROLL_BUDGET}.
+     * With a profile, loops that ran fewer iterations per entry than the
+     * factor on average are left alone.
+     */
+    private void generateUnrolledLoop(ForLoopNode node, List<InductionPointer> pointers) throws IOException {
+        int factor = options.getUnrollFactor();
+        if (!canUnroll(node) || containsLoop(node.getBody())
+                || factor * countNodes(node.getBody()) > UNROLL_BUDGET) {
+            return;
+        }
+        if (profile != null) {
+            long[] counts = profile.getLoopCounts(Profile.routineName(currentRoutine),
+                Profile.position(currentRoutine, node));
+            if (counts != null && counts[1] < factor * counts[0]) {
+                return;
             }
-            writer.writeLine("(br_if $break)");
+        }
+        String variable = node.getVariable();
+        String step = node.isReverse() ? "(i32.sub)" : "(i32.add)";
 
+        ValueNumbering.Snapshot beforeLoop = valueNumbering.enterLoop(loopAnalyzer.analyze(node));
+        writer.writeLine(";; For loop range, unrolled " + factor + " times");
+        writer.writeLine("(block $unroll_break");
+        writer.indent();
+        writer.writeLine("(loop $unroll_continue");
+        writer.indent();
+        // Stop when fewer than factor iterations are left
+        writer.writeLine("(local.get $" + variable + ")");
+        writer.writeLine("(i32.const " + (factor - 1) + ")");
+        writer.writeLine(step);
+        emitRangeBound(node);
+        writer.writeLine(node.isReverse() ? "(i32.lt_s)" : "(i32.gt_s)");
+        writer.writeLine("(br_if $unroll_break)");
+        for (int copy = 0; copy < factor; copy++) {
             scopeManager.enterScope();
             node.getBody().accept(this);
             scopeManager.exitScope();
+            emitInductionSteps(pointers);
+            writer.writeLine("(local.get $" + variable + ")");
+            writer.writeLine("(i32.const 1)");
+            writer.writeLine(step);
+            writer.writeLine("(local.set $" + variable + ")");
+            valueNumbering.killVariable(variable);
+        }
+        writer.writeLine("(br $unroll_continue)");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+        valueNumbering.restore(beforeLoop);
+    }
 
-            writer.writeLine("(local.get $" + node.getVariable() + ")");
+    /**
+     * Whether a range loop may have its body copied: unrolling is on, the
+     * build does not count loop iterations, and the body does not assign the
+     * loop variable.
+     */
+    private boolean canUnroll(ForLoopNode node) {
+        return options.getUnrollFactor() > 1 && counterRegion == null
+            && countDefinitions(node.getBody(), node.getVariable()) == 0;
+    }
+
+    private static int countNodes(ASTNode node) {
+        int count = 1;
+        for (ASTNode child : node.getChildren()) {
+            if (child != null) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    private static boolean containsLoop(ASTNode node) {
+        if (node instanceof ForLoopNode || node instanceof WhileLoopNode) {
+            return true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (child != null && containsLoop(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Mark where the instructions of a statement start, for the --debug-info line table. */
+    private void emitLineMarker(ASTNode statement) throws IOException {
+        if (lineTable != null && statement.getPosition() != null) {
+            writer.writeLine(LineTable.marker(statement));
+        }
+    }
+
+    /**
+     * Increment counter {@code index} of a profiled site when building with
+     * --profile-generate. Sites are labelled with their kind, routine and
+     * position as written to the profile; routine entries have no position.
+     */
+    private void emitProfileCount(String kind, ASTNode site, int counters, int index) throws IOException {
+        if (profileCounters == null) {
+            return;
+        }
+        String label = kind + " " + Profile.routineName(currentRoutine)
+            + (site != null ? " " + Profile.position(currentRoutine, site) : "");
+        counterRegion.emitIncrement(writer, profileCounters.address(label, counters, index));
+    }
+
+    /** Count a routine call or loop iteration when building with --instrument. */
+    private void emitInstrumentCount(InstrumentationCounters.Kind kind, ASTNode site) throws IOException {
+        if (instrumentation == null) {
+            return;
+        }
+        counterRegion.emitIncrement(writer,
+            instrumentation.address(kind, Profile.routineName(currentRoutine), site.getPosition()));
+    }
+
+    /** Make the next allocation count its bytes for this declaration when building with --instrument. */
+    private void emitAllocationSite(ASTNode site) throws IOException {
+        if (instrumentation == null) {
+            return;
+        }
+        int address = instrumentation.address(InstrumentationCounters.Kind.BYTES,
+            Profile.routineName(currentRoutine), site.getPosition());
+        writer.writeLine("(global.set $alloc_counter (i32.const " + address + "))");
+    }
+
+    /** In an allocator: add the allocated size in {@code local} to the counter of the calling site. */
+    private void emitAllocationCount(String local) throws IOException {
+        if (instrumentation == null) {
+            return;
+        }
+        writer.writeLine("(i64.store (global.get $alloc_counter) (i64.add (i64.load (global.get $alloc_counter)) "
+            + "(i64.extend_i32_u (local.get " + local + "))))");
+    }
+
+    /**
+     * Replace an element-wise copy or fill loop recognized by
+     * {@link BulkLoopRecognizer} with one {@code memory.copy} or
+     * {@code memory.fill}, and advance the loop variable past the bound so the
+     * scalar loop emitted after it does not run. A copy whose destination
+     * overlaps the source from above is left to the scalar loop, which
+     * propagates the elements it has already written where memory.copy would
+     * not.
+     */
+    private void generateBulkLoop(ForLoopNode node) throws IOException {
+        BulkLoopRecognizer.BulkLoop bulk = bulkLoops.match(node, this::typeAstOf);
+        if (bulk == null) {
+            return;
+        }
+        String variable = node.getVariable();
+        String bytes = newTempLocal("bytes", "i32");
+        String offset = newTempLocal("offset", "i32");
+        int elementSize = bulk.getElementSize();
+
+        writer.writeLine(bulk.getSource() != null ? ";; Bulk copy loop" : ";; Bulk fill loop");
+        writer.writeLine("(block $bulk_skip");
+        writer.indent();
+        // bytes = (bound - i + 1) * element_size, skipped when there are no iterations
+        emitRangeBound(node);
+        writer.writeLine("(local.get $" + variable + ")");
+        writer.writeLine("(i32.sub)");
+        writer.writeLine("(i32.const 1)");
+        writer.writeLine("(i32.add)");
+        writer.writeLine("(i32.const " + elementSize + ")");
+        writer.writeLine("(i32.mul)");
+        writer.writeLine("(local.tee $" + bytes + ")");
+        writer.writeLine("(i32.const 0)");
+        writer.writeLine("(i32.le_s)");
+        writer.writeLine("(br_if $bulk_skip)");
+
+        writer.writeLine("(local.get $" + variable + ")");
+        writer.writeLine("(i32.const 1)");
+        writer.writeLine("(i32.sub)");
+        writer.writeLine("(i32.const " + elementSize + ")");
+        writer.writeLine("(i32.mul)");
+        writer.writeLine("(local.set $" + offset + ")");
+
+        if (bulk.getSource() != null) {
+            // Scalar loop when source < destination < source + bytes
+            writer.writeLine("(local.get $" + bulk.getTarget().getName() + ")");
+            writer.writeLine("(local.get $" + bulk.getSource().getName() + ")");
+            writer.writeLine("(i32.sub)");
             writer.writeLine("(i32.const 1)");
-            if (reverse) {
-                writer.writeLine("(i32.sub)");
+            writer.writeLine("(i32.sub)");
+            writer.writeLine("(local.get $" + bytes + ")");
+            writer.writeLine("(i32.const 1)");
+            writer.writeLine("(i32.sub)");
+            writer.writeLine("(i32.lt_u)");
+            writer.writeLine("(br_if $bulk_skip)");
+        }
+
+        writer.writeLine("(local.get $" + bulk.getTarget().getName() + ")");
+        writer.writeLine("(local.get $" + offset + ")");
+        writer.writeLine("(i32.add)");
+        if (bulk.getSource() != null) {
+            writer.writeLine("(local.get $" + bulk.getSource().getName() + ")");
+            writer.writeLine("(local.get $" + offset + ")");
+            writer.writeLine("(i32.add)");
+            writer.writeLine("(local.get $" + bytes + ")");
+            writer.writeLine("(memory.copy)");
+        } else {
+            writer.writeLine("(i32.const " + bulk.getFillByte() + ")");
+            writer.writeLine("(local.get $" + bytes + ")");
+            writer.writeLine("(memory.fill)");
+        }
+        valueNumbering.killStore(((AssignmentNode) node.getBody().getStatements().get(0)).getTarget());
+
+        // The loop variable ends where the scalar loop would leave it
+        emitRangeBound(node);
+        writer.writeLine("(i32.const 1)");
+        writer.writeLine("(i32.add)");
+        writer.writeLine("(local.set $" + variable + ")");
+        writer.dedent();
+        writer.writeLine(")");
+        valueNumbering.killVariable(variable);
+    }
+
+    /**
+     * Run the iterations of a range loop several at a time with SIMD
+     * instructions, if {@link LoopVectorizer} accepts it. The vector loop
+     * leaves the loop variable at the first iteration that still has to run;
+     * the scalar loop emitted after it executes the remaining ones.
+     */
+    private void generateVectorLoop(ForLoopNode node) throws IOException {
+        LoopVectorizer.VectorLoop plan = vectorizer.analyze(node, this::typeAstOf, this::getExpressionType);
+        if (plan == null) {
+            return;
+        }
+        String variable = node.getVariable();
+        String shape = plan.getShape();
+        int lanes = plan.getLanes();
+
+        ValueNumbering.Snapshot beforeLoop = valueNumbering.enterLoop(loopAnalyzer.analyze(node));
+        writer.writeLine(";; Vectorized for loop, " + lanes + " iterations at a time");
+        writer.writeLine("(block $vector_skip");
+        writer.indent();
+        emitOverlapGuard(plan);
+
+        Map<String, String> splats = new HashMap<>();
+        for (String name : plan.getInvariants()) {
+            String local = newTempLocal("vec", "v128");
+            writer.writeLine("(local.get $" + name + ")");
+            writer.writeLine("(" + shape + ".splat)");
+            writer.writeLine("(local.set $" + local + ")");
+            splats.put(name, local);
+        }
+        Map<LoopVectorizer.Reduction, String> accumulators = new IdentityHashMap<>();
+        for (LoopVectorizer.Reduction reduction : plan.getReductions()) {
+            String local = newTempLocal("vec", "v128");
+            switch (reduction.getKind()) {
+                case ADD:
+                    writer.writeLine("(v128.const i32x4 0 0 0 0)");
+                    break;
+                case MULTIPLY:
+                    writer.writeLine("(v128.const i32x4 1 1 1 1)");
+                    break;
+                default:
+                    writer.writeLine("(local.get $" + reduction.getVariable() + ")");
+                    writer.writeLine("(i32x4.splat)");
+                    break;
+            }
+            writer.writeLine("(local.set $" + local + ")");
+            accumulators.put(reduction, local);
+        }
+        String offset = newTempLocal("offset", "i32");
+
+        writer.writeLine("(block $vector_break");
+        writer.indent();
+        writer.writeLine("(loop $vector_continue");
+        writer.indent();
+        // Stop when fewer than a full vector of iterations is left
+        writer.writeLine("(local.get $" + variable + ")");
+        writer.writeLine("(i32.const " + (lanes - 1) + ")");
+        writer.writeLine("(i32.add)");
+        emitRangeBound(node);
+        writer.writeLine("(i32.gt_s)");
+        writer.writeLine("(br_if $vector_break)");
+
+        writer.writeLine("(local.get $" + variable + ")");
+        writer.writeLine("(i32.const 1)");
+        writer.writeLine("(i32.sub)");
+        writer.writeLine("(i32.const " + plan.getElement().getSize() + ")");
+        writer.writeLine("(i32.mul)");
+        writer.writeLine("(local.set $" + offset + ")");
+
+        for (ASTNode stmt : plan.getStatements()) {
+            LoopVectorizer.Reduction reduction = plan.getReduction(stmt);
+            if (reduction != null) {
+                writer.writeLine("(local.get $" + accumulators.get(reduction) + ")");
+                emitVectorExpression(reduction.getOperand(), plan, splats, offset, variable);
+                writer.writeLine("(" + vectorReductionInstruction(reduction.getKind()) + ")");
+                writer.writeLine("(local.set $" + accumulators.get(reduction) + ")");
             } else {
+                AssignmentNode store = (AssignmentNode) stmt;
+                ((ArrayAccessNode) store.getTarget()).getArray().accept(this);
+                writer.writeLine("(local.get $" + offset + ")");
                 writer.writeLine("(i32.add)");
+                emitVectorExpression(store.getValue(), plan, splats, offset, variable);
+                writer.writeLine("(v128.store)");
             }
-            writer.writeLine("(local.set $" + node.getVariable() + ")");
-            writer.writeLine("(br $continue)");
+        }
 
-            writer.dedent();
-            writer.writeLine(")");
-            writer.dedent();
-            writer.writeLine(")");
+        writer.writeLine("(local.get $" + variable + ")");
+        writer.writeLine("(i32.const " + lanes + ")");
+        writer.writeLine("(i32.add)");
+        writer.writeLine("(local.set $" + variable + ")");
+        writer.writeLine("(br $vector_continue)");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+
+        // Combine the lanes of every accumulator into its variable
+        for (LoopVectorizer.Reduction reduction : plan.getReductions()) {
+            String accumulator = accumulators.get(reduction);
+            String target = reduction.getVariable();
+            if (reduction.getKind() == LoopVectorizer.ReductionKind.ADD
+                    || reduction.getKind() == LoopVectorizer.ReductionKind.MULTIPLY) {
+                String op = reduction.getKind() == LoopVectorizer.ReductionKind.ADD ? "i32.add" : "i32.mul";
+                writer.writeLine("(local.get $" + target + ")");
+                for (int lane = 0; lane < lanes; lane++) {
+                    writer.writeLine("(local.get $" + accumulator + ")");
+                    writer.writeLine("(i32x4.extract_lane " + lane + ")");
+                    writer.writeLine("(" + op + ")");
+                }
+                writer.writeLine("(local.set $" + target + ")");
+            } else {
+                String laneValue = newTempLocal("lane", "i32");
+                String compare = reduction.getKind() == LoopVectorizer.ReductionKind.MIN ? "i32.lt_s" : "i32.gt_s";
+                for (int lane = 0; lane < lanes; lane++) {
+                    writer.writeLine("(local.get $" + accumulator + ")");
+                    writer.writeLine("(i32x4.extract_lane " + lane + ")");
+                    writer.writeLine("(local.set $" + laneValue + ")");
+                    writer.writeLine("(local.get $" + laneValue + ")");
+                    writer.writeLine("(local.get $" + target + ")");
+                    writer.writeLine("(local.get $" + laneValue + ")");
+                    writer.writeLine("(local.get $" + target + ")");
+                    writer.writeLine("(" + compare + ")");
+                    writer.writeLine("(select)");
+                    writer.writeLine("(local.set $" + target + ")");
+                }
+            }
+        }
+        writer.dedent();
+        writer.writeLine(")");
+        valueNumbering.restore(beforeLoop);
+        for (LoopVectorizer.Reduction reduction : plan.getReductions()) {
+            valueNumbering.killVariable(reduction.getVariable());
+        }
+    }
+
+    /**
+     * Skip the vector loop when a stored array and another accessed array
+     * overlap without starting at the same address (rows of one 2D array):
+     * the lanes of one vector iteration would then read elements the scalar
+     * loop writes in an earlier iteration.
+     */
+    private void emitOverlapGuard(LoopVectorizer.VectorLoop plan) throws IOException {
+        String distance = null;
+        for (String stored : plan.getStoredArrays()) {
+            for (String other : plan.getArrays()) {
+                if (other.equals(stored)) {
+                    continue;
+                }
+                if (distance == null) {
+                    distance = newTempLocal("distance", "i32");
+                }
+                writer.writeLine("(local.get $" + stored + ")");
+                writer.writeLine("(local.get $" + other + ")");
+                writer.writeLine("(i32.sub)");
+                writer.writeLine("(local.tee $" + distance + ")");
+                writer.writeLine("(i32.const 15)");
+                writer.writeLine("(i32.add)");
+                writer.writeLine("(i32.const 31)");
+                writer.writeLine("(i32.lt_u)");
+                writer.writeLine("(local.get $" + distance + ")");
+                writer.writeLine("(i32.const 0)");
+                writer.writeLine("(i32.ne)");
+                writer.writeLine("(i32.and)");
+                writer.writeLine("(br_if $vector_skip)");
+            }
+        }
+    }
+
+    /** Evaluate an expression accepted by {@link LoopVectorizer} for all lanes of one vector iteration. */
+    private void emitVectorExpression(ASTNode expr, LoopVectorizer.VectorLoop plan, Map<String, String> splats,
+                                      String offset, String variable) throws IOException {
+        String shape = plan.getShape();
+        if (expr instanceof ArrayAccessNode) {
+            ((ArrayAccessNode) expr).getArray().accept(this);
+            writer.writeLine("(local.get $" + offset + ")");
+            writer.writeLine("(i32.add)");
+            writer.writeLine("(v128.load)");
+        } else if (expr instanceof IdentifierNode) {
+            String name = ((IdentifierNode) expr).getName();
+            if (name.equals(variable)) {
+                // Lane k holds the loop variable of iteration i + k
+                writer.writeLine("(local.get $" + variable + ")");
+                writer.writeLine("(i32x4.splat)");
+                writer.writeLine("(v128.const i32x4 0 1 2 3)");
+                writer.writeLine("(i32x4.add)");
+            } else {
+                writer.writeLine("(local.get $" + splats.get(name) + ")");
+            }
+        } else if (expr instanceof LiteralNode) {
+            Number value = (Number) ((LiteralNode) expr).getValue();
+            if (plan.getElement() == StorageType.F64) {
+                writer.writeLine("(f64.const " + value.doubleValue() + ")");
+            } else {
+                writer.writeLine("(i32.const " + value.intValue() + ")");
+            }
+            writer.writeLine("(" + shape + ".splat)");
+        } else if (expr instanceof UnaryExpressionNode) {
+            emitVectorExpression(((UnaryExpressionNode) expr).getOperand(), plan, splats, offset, variable);
+            writer.writeLine("(" + shape + ".neg)");
+        } else {
+            BinaryExpressionNode binary = (BinaryExpressionNode) expr;
+            emitVectorExpression(binary.getLeft(), plan, splats, offset, variable);
+            emitVectorExpression(binary.getRight(), plan, splats, offset, variable);
+            switch (binary.getOperator()) {
+                case PLUS:
+                    writer.writeLine("(" + shape + ".add)");
+                    break;
+                case MINUS:
+                    writer.writeLine("(" + shape + ".sub)");
+                    break;
+                case MULTIPLY:
+                    writer.writeLine("(" + shape + ".mul)");
+                    break;
+                default:
+                    writer.writeLine("(" + shape + ".div)");
+                    break;
+            }
+        }
+    }
+
+    private static String vectorReductionInstruction(LoopVectorizer.ReductionKind kind) {
+        switch (kind) {
+            case ADD:
+                return "i32x4.add";
+            case MULTIPLY:
+                return "i32x4.mul";
+            case MIN:
+                return "i32x4.min_s";
+            default:
+                return "i32x4.max_s";
+        }
+    }
+
+    /**
+     * Loop-invariant code motion. Invariant subexpressions of the loop and
+     * invariant element/field addresses are computed once into fresh locals
+     * right before the loop; while the loop body is generated those nodes
+     * read the local instead. Returns the hoisted nodes so that the caller can
+     * forget them once the loop has been emitted.
+     *
+     * Code that is not guaranteed to run on the first iteration only gives up
+     * expressions that cannot trap when evaluated early.
+     */
+    private List<ASTNode> hoistLoopInvariants(ASTNode loop) throws IOException {
+        LoopInvariantAnalyzer.LoopEffects effects = loopAnalyzer.analyze(loop);
+        List<ASTNode> candidates = new ArrayList<>();
+        Set<ASTNode> addressCandidates = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        if (loop instanceof WhileLoopNode) {
+            WhileLoopNode whileLoop = (WhileLoopNode) loop;
+            collectHoistCandidates(whileLoop.getCondition(), false, effects, candidates, addressCandidates);
+            collectHoistCandidates(whileLoop.getBody().getStatements(), true, effects, candidates, addressCandidates);
+        } else {
+            // Range bounds are evaluated once anyway
+            ForLoopNode forLoop = (ForLoopNode) loop;
+            collectHoistCandidates(forLoop.getBody().getStatements(), !isAlwaysEntered(forLoop),
+                effects, candidates, addressCandidates);
+        }
+
+        if (!candidates.isEmpty()) {
+            writer.writeLine(";; Hoisted loop invariants");
+        }
+        for (ASTNode candidate : candidates) {
+            String local;
+            if (addressCandidates.contains(candidate)) {
+                if (candidate instanceof ArrayAccessNode) {
+                    visitArrayAccessForStore((ArrayAccessNode) candidate);
+                } else {
+                    visitRecordAccessForStore((RecordAccessNode) candidate);
+                }
+                local = newTempLocal("licm", "i32");
+                hoistedAddresses.put(candidate, local);
+            } else {
+                candidate.accept(this);
+                local = newTempLocal("licm", typeToWasm(typeResolver.resolveType(candidate)));
+                hoistedValues.put(candidate, local);
+            }
+            writer.writeLine("(local.set $" + local + ")");
+        }
+        return candidates;
+    }
+
+    private void dropHoisted(List<ASTNode> hoisted) {
+        for (ASTNode node : hoisted) {
+            hoistedValues.remove(node);
+            hoistedAddresses.remove(node);
+        }
+    }
+
+    /** A pointer local that follows an induction variable and the step it moves by. */
+    private static final class InductionPointer {
+        final String local;
+        final int step;
+
+        InductionPointer(String local, int step) {
+            this.local = local;
+            this.step = step;
+        }
+    }
+
+    /**
+     * Induction-variable strength reduction. Every element access in the loop
+     * whose address moves by a fixed stride when {@code variable} moves by
+     * {@code direction} gets a pointer local: it is set to the current address
+     * before the loop (which folds the 1-based offset into the base) and is
+     * bumped by the stride wherever the variable changes, so the access no
+     * longer needs a multiply. Accesses with the same key share a pointer.
+     * Returns the rewritten accesses; the pointers are added to {@code pointers}.
+     */
+    private List<ASTNode> reduceInductionVariable(ASTNode loop, String variable, int direction,
+                                                  List<InductionPointer> pointers) throws IOException {
+        LoopInvariantAnalyzer.LoopEffects effects = loopAnalyzer.analyze(loop);
+        Map<String, List<ASTNode>> groups = new LinkedHashMap<>();
+        Map<String, Integer> strides = new HashMap<>();
+        collectInductionAccesses(loop, variable, effects, groups, strides);
+
+        List<ASTNode> rewritten = new ArrayList<>();
+        for (Map.Entry<String, List<ASTNode>> group : groups.entrySet()) {
+            visitArrayAccessForStore((ArrayAccessNode) group.getValue().get(0));
+            String local = newTempLocal("iv", "i32");
+            writer.writeLine("(local.set $" + local + ")");
+            for (ASTNode access : group.getValue()) {
+                hoistedAddresses.put(access, local);
+                rewritten.add(access);
+            }
+            pointers.add(new InductionPointer(local, direction * strides.get(group.getKey())));
+        }
+        return rewritten;
+    }
+
+    private void collectInductionAccesses(ASTNode node, String variable, LoopInvariantAnalyzer.LoopEffects effects,
+                                          Map<String, List<ASTNode>> groups, Map<String, Integer> strides) {
+        if (node == null || hoistedValues.containsKey(node) || hoistedAddresses.containsKey(node)) {
+            return;
+        }
+        if (node instanceof ArrayAccessNode) {
+            Integer stride = inductionStride((ArrayAccessNode) node, variable, effects);
+            String key = ExpressionKey.of(node);
+            if (stride != null && key != null) {
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
+                strides.put(key, stride);
+                return;
+            }
+        }
+        for (ASTNode child : node.getChildren()) {
+            collectInductionAccesses(child, variable, effects, groups, strides);
+        }
+    }
+
+    /**
+     * Return the number of bytes the address of {@code access} moves when the
+     * induction variable grows by one, or null if the address is not of the
+     * form invariant + variable * stride.
+     */
+    private Integer inductionStride(ArrayAccessNode access, String variable,
+                                    LoopInvariantAnalyzer.LoopEffects effects) {
+        ArrayTypeNode matrixType = getTwoDimArrayType(access);
+        if (matrixType != null) {
+            ArrayAccessNode row = (ArrayAccessNode) access.getArray();
+            ArrayTypeNode rowType = (ArrayTypeNode) layouts.resolve(matrixType.getElementType());
+            int elemSize = layouts.strideOf(rowType);
+            int rowSize = layouts.strideOf(matrixType);
+            if (!loopAnalyzer.isInvariant(row.getArray(), effects) || elemSize < 0 || rowSize < 0) {
+                return null;
+            }
+            if (isInductionIndex(access.getIndex(), variable, effects) && isSafeInvariant(row.getIndex(), effects)) {
+                return elemSize;
+            }
+            if (isInductionIndex(row.getIndex(), variable, effects) && isSafeInvariant(access.getIndex(), effects)) {
+                return rowSize;
+            }
+            return null;
+        }
+        if (isSafeInvariant(access.getArray(), effects) && isInductionIndex(access.getIndex(), variable, effects)) {
+            int stride = resolveArrayElementSize(access);
+            return stride >= 0 ? stride : null;
+        }
+        return null;
+    }
+
+    /** Whether an index is v, v + c, c + v or v - c with c loop invariant. */
+    private boolean isInductionIndex(ASTNode index, String variable, LoopInvariantAnalyzer.LoopEffects effects) {
+        if (isVariable(index, variable)) {
+            return true;
+        }
+        if (index instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) index;
+            if (binary.getOperator() == BinaryExpressionNode.Operator.PLUS) {
+                return (isVariable(binary.getLeft(), variable) && isSafeInvariant(binary.getRight(), effects))
+                    || (isVariable(binary.getRight(), variable) && isSafeInvariant(binary.getLeft(), effects));
+            }
+            if (binary.getOperator() == BinaryExpressionNode.Operator.MINUS) {
+                return isVariable(binary.getLeft(), variable) && isSafeInvariant(binary.getRight(), effects);
+            }
+        }
+        return false;
+    }
+
+    private boolean isSafeInvariant(ASTNode expr, LoopInvariantAnalyzer.LoopEffects effects) {
+        return loopAnalyzer.isInvariant(expr, effects) && loopAnalyzer.isSpeculationSafe(expr);
+    }
+
+    private boolean isVariable(ASTNode node, String name) {
+        return node instanceof IdentifierNode && ((IdentifierNode) node).getName().equals(name);
+    }
+
+    /**
+     * Find the simple counters of a while loop: top-level body statements
+     * v := v + 1 or v := v - 1, where v is not assigned or declared anywhere
+     * else in the loop.
+     */
+    private List<AssignmentNode> findCounterIncrements(WhileLoopNode loop) {
+        List<AssignmentNode> increments = new ArrayList<>();
+        for (ASTNode stmt : loop.getBody().getStatements()) {
+            if (stmt instanceof AssignmentNode && counterStep((AssignmentNode) stmt) != 0) {
+                String counter = ((IdentifierNode) ((AssignmentNode) stmt).getTarget()).getName();
+                if (countDefinitions(loop, counter) == 1) {
+                    increments.add((AssignmentNode) stmt);
+                }
+            }
+        }
+        return increments;
+    }
+
+    /** Return +1 or -1 for v := v + 1 / v := 1 + v / v := v - 1, and 0 otherwise. */
+    private int counterStep(AssignmentNode assignment) {
+        if (!(assignment.getTarget() instanceof IdentifierNode)
+                || !(assignment.getValue() instanceof BinaryExpressionNode)) {
+            return 0;
+        }
+        String name = ((IdentifierNode) assignment.getTarget()).getName();
+        BinaryExpressionNode value = (BinaryExpressionNode) assignment.getValue();
+        if (value.getOperator() == BinaryExpressionNode.Operator.PLUS) {
+            if ((isVariable(value.getLeft(), name) && isIntegerOne(value.getRight()))
+                    || (isIntegerOne(value.getLeft()) && isVariable(value.getRight(), name))) {
+                return 1;
+            }
+        } else if (value.getOperator() == BinaryExpressionNode.Operator.MINUS) {
+            if (isVariable(value.getLeft(), name) && isIntegerOne(value.getRight())) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    private boolean isIntegerOne(ASTNode node) {
+        if (!(node instanceof LiteralNode)) {
+            return false;
+        }
+        Object value = ((LiteralNode) node).getValue();
+        return (value instanceof Integer || value instanceof Long) && ((Number) value).longValue() == 1;
+    }
+
+    /** Count assignments to a variable; declarations and loop variables of that name count twice. */
+    private int countDefinitions(ASTNode node, String name) {
+        if (node == null) {
+            return 0;
+        }
+        int count = 0;
+        if (node instanceof AssignmentNode && isVariable(((AssignmentNode) node).getTarget(), name)) {
+            count++;
+        } else if (node instanceof VariableDeclarationNode && ((VariableDeclarationNode) node).getName().equals(name)) {
+            count += 2;
+        } else if (node instanceof ForLoopNode && ((ForLoopNode) node).getVariable().equals(name)) {
+            count += 2;
+        }
+        for (ASTNode child : node.getChildren()) {
+            count += countDefinitions(child, name);
+        }
+        return count;
+    }
+
+    private void emitInductionSteps(List<InductionPointer> pointers) throws IOException {
+        for (InductionPointer pointer : pointers) {
+            writer.writeLine("(local.get $" + pointer.local + ")");
+            writer.writeLine("(i32.const " + pointer.step + ")");
+            writer.writeLine("(i32.add)");
+            writer.writeLine("(local.set $" + pointer.local + ")");
         }
     }
 
+    /** Whether a for loop is known to execute its body at least once. */
+    private boolean isAlwaysEntered(ForLoopNode node) {
+        if (node.getArrayExpr() != null) {
+            // Array iteration always runs over a constant, positive length
+            return true;
+        }
+        if (node.getRangeStart() instanceof LiteralNode && node.getRangeEnd() instanceof LiteralNode) {
+            Object start = ((LiteralNode) node.getRangeStart()).getValue();
+            Object end = ((LiteralNode) node.getRangeEnd()).getValue();
+            return start instanceof Number && end instanceof Number
+                && ((Number) start).longValue() <= ((Number) end).longValue();
+        }
+        return false;
+    }
+
+    /**
+     * Collect hoisting candidates from a statement list. Statements after the
+     * first one that may print, call, return or loop are not guaranteed to run
+     * and are scanned speculatively.
+     */
+    private void collectHoistCandidates(List<ASTNode> statements, boolean speculative,
+                                        LoopInvariantAnalyzer.LoopEffects effects,
+                                        List<ASTNode> candidates, Set<ASTNode> addressCandidates) {
+        for (ASTNode stmt : statements) {
+            if (stmt instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) stmt;
+                if (!(assignment.getTarget() instanceof IdentifierNode)) {
+                    collectHoistAddress(assignment.getTarget(), speculative, effects, candidates, addressCandidates);
+                }
+                collectHoistCandidates(assignment.getValue(), speculative, effects, candidates, addressCandidates);
+            } else if (stmt instanceof VariableDeclarationNode) {
+                VariableDeclarationNode decl = (VariableDeclarationNode) stmt;
+                if (decl.getInitializer() != null && !(decl.getType() instanceof ArrayTypeNode)
+                        && !(decl.getType() instanceof RecordTypeNode)) {
+                    collectHoistCandidates(decl.getInitializer(), speculative, effects, candidates, addressCandidates);
+                }
+            } else if (stmt instanceof IfStatementNode) {
+                IfStatementNode ifStmt = (IfStatementNode) stmt;
+                collectHoistCandidates(ifStmt.getCondition(), speculative, effects, candidates, addressCandidates);
+                collectHoistCandidates(ifStmt.getThenBlock().getStatements(), true, effects, candidates, addressCandidates);
+                if (ifStmt.getElseBlock() != null) {
+                    collectHoistCandidates(ifStmt.getElseBlock().getStatements(), true, effects, candidates, addressCandidates);
+                }
+            } else if (stmt instanceof WhileLoopNode) {
+                WhileLoopNode whileLoop = (WhileLoopNode) stmt;
+                collectHoistCandidates(whileLoop.getCondition(), speculative, effects, candidates, addressCandidates);
+                collectHoistCandidates(whileLoop.getBody().getStatements(), true, effects, candidates, addressCandidates);
+            } else if (stmt instanceof ForLoopNode) {
+                ForLoopNode forLoop = (ForLoopNode) stmt;
+                collectHoistCandidates(forLoop.getRangeStart(), speculative, effects, candidates, addressCandidates);
+                collectHoistCandidates(forLoop.getRangeEnd(), speculative, effects, candidates, addressCandidates);
+                collectHoistCandidates(forLoop.getArrayExpr(), speculative, effects, candidates, addressCandidates);
+                collectHoistCandidates(forLoop.getBody().getStatements(), true, effects, candidates, addressCandidates);
+            } else if (stmt instanceof BlockNode) {
+                collectHoistCandidates(((BlockNode) stmt).getStatements(), speculative, effects, candidates, addressCandidates);
+            } else {
+                // print, return and call statements: their operands
+                for (ASTNode child : stmt.getChildren()) {
+                    collectHoistCandidates(child, speculative, effects, candidates, addressCandidates);
+                }
+            }
+            if (!(stmt instanceof AssignmentNode || stmt instanceof VariableDeclarationNode)
+                    || containsCall(stmt)) {
+                speculative = true;
+            }
+        }
+    }
+
+    /** Collect the largest invariant subexpressions of an expression. */
+    private void collectHoistCandidates(ASTNode expr, boolean speculative,
+                                        LoopInvariantAnalyzer.LoopEffects effects,
+                                        List<ASTNode> candidates, Set<ASTNode> addressCandidates) {
+        if (expr == null || hoistedValues.containsKey(expr)) {
+            return;
+        }
+        boolean computed = expr instanceof BinaryExpressionNode || expr instanceof UnaryExpressionNode
+            || expr instanceof ArrayAccessNode || expr instanceof RecordAccessNode;
+        if (computed && loopAnalyzer.isInvariant(expr, effects)
+                && (!speculative || loopAnalyzer.isSpeculationSafe(expr))) {
+            candidates.add(expr);
+            return;
+        }
+        if (expr instanceof ArrayAccessNode || expr instanceof RecordAccessNode) {
+            collectHoistAddress(expr, speculative, effects, candidates, addressCandidates);
+        } else if (expr instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) expr;
+            boolean shortCircuit = binary.getOperator() == BinaryExpressionNode.Operator.AND
+                || binary.getOperator() == BinaryExpressionNode.Operator.OR;
+            collectHoistCandidates(binary.getLeft(), speculative, effects, candidates, addressCandidates);
+            collectHoistCandidates(binary.getRight(), speculative || shortCircuit, effects, candidates, addressCandidates);
+        } else {
+            for (ASTNode child : expr.getChildren()) {
+                collectHoistCandidates(child, speculative, effects, candidates, addressCandidates);
+            }
+        }
+    }
+
+    /**
+     * Collect the address of an element or field access whose value itself is
+     * not invariant (the memory is written in the loop, or it is a store
+     * target). Only addresses that take more than one instruction are hoisted.
+     */
+    private void collectHoistAddress(ASTNode access, boolean speculative,
+                                     LoopInvariantAnalyzer.LoopEffects effects,
+                                     List<ASTNode> candidates, Set<ASTNode> addressCandidates) {
+        if (hoistedAddresses.containsKey(access)) {
+            return;
+        }
+        boolean worthHoisting = access instanceof ArrayAccessNode
+            || (access instanceof RecordAccessNode && !(((RecordAccessNode) access).getObject() instanceof IdentifierNode));
+        if (worthHoisting && loopAnalyzer.isAddressInvariant(access, effects)
+                && (!speculative || loopAnalyzer.isAddressSpeculationSafe(access))) {
+            candidates.add(access);
+            addressCandidates.add(access);
+            return;
+        }
+        if (access instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) access;
+            if (isRowAccess(arrayAccess.getArray())) {
+                // A[i][j]: the row address A[i] may still be invariant
+                collectHoistAddress(arrayAccess.getArray(), speculative, effects, candidates, addressCandidates);
+            } else {
+                collectHoistCandidates(arrayAccess.getArray(), speculative, effects, candidates, addressCandidates);
+            }
+            collectHoistCandidates(arrayAccess.getIndex(), speculative, effects, candidates, addressCandidates);
+        } else if (access instanceof RecordAccessNode) {
+            ASTNode object = ((RecordAccessNode) access).getObject();
+            if (object instanceof ArrayAccessNode || object instanceof RecordAccessNode) {
+                collectHoistAddress(object, speculative, effects, candidates, addressCandidates);
+            } else {
+                collectHoistCandidates(object, speculative, effects, candidates, addressCandidates);
+            }
+        }
+    }
+
+    private boolean containsCall(ASTNode node) {
+        if (node instanceof RoutineCallNode) {
+            return true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (child != null && containsCall(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Emit a local.get for an expression whose value is still available from an earlier computation. */
+    private boolean emitAvailableValue(ASTNode node) throws IOException {
+        String local = valueNumbering.lookup(node, false);
+        if (local == null) {
+            return false;
+        }
+        writer.writeLine("(local.get $" + local + ")");
+        return true;
+    }
+
+    /** Emit a local.get for an access whose address is still available from an earlier computation. */
+    private boolean emitAvailableAddress(ASTNode node) throws IOException {
+        String local = valueNumbering.lookup(node, true);
+        if (local == null) {
+            return false;
+        }
+        writer.writeLine("(local.get $" + local + ")");
+        return true;
+    }
+
+    /** Keep the value just computed for a node in a local when it is reused later. */
+    private void captureValue(ASTNode node, String wasmType) throws IOException {
+        if (valueNumbering.shouldCapture(node, false)) {
+            String local = newTempLocal("cse", wasmType);
+            writer.writeLine("(local.tee $" + local + ")");
+            valueNumbering.define(node, false, local);
+        }
+    }
+
+    /** Keep the address just computed for an access in a local when it is reused later. */
+    private void captureAddress(ASTNode node) throws IOException {
+        if (valueNumbering.shouldCapture(node, true)) {
+            String local = newTempLocal("cse", "i32");
+            writer.writeLine("(local.tee $" + local + ")");
+            valueNumbering.define(node, true, local);
+        }
+    }
+
+    /** Emit a local.get for an expression whose value was hoisted out of the enclosing loop. */
+    private boolean emitHoistedValue(ASTNode node) throws IOException {
+        String local = hoistedValues.get(node);
+        if (local == null) {
+            return false;
+        }
+        writer.writeLine("(local.get $" + local + ")");
+        return true;
+    }
+
+    /** Emit a local.get for an access whose address was hoisted out of the enclosing loop. */
+    private boolean emitHoistedAddress(ASTNode node) throws IOException {
+        String local = hoistedAddresses.get(node);
+        if (local == null) {
+            return false;
+        }
+        writer.writeLine("(local.get $" + local + ")");
+        return true;
+    }
+
     private Integer getArrayLengthForArrayExpr(ASTNode arrayExpr) {
         if (arrayExpr instanceof IdentifierNode) {
             String name = ((IdentifierNode) arrayExpr).getName();
@@ -1598,9 +3600,27 @@ public class CodeGenerator implements ASTVisitor {
     @Override
     public void visit(ReturnStatementNode node) {
         try {
+            BinaryExpressionNode accumulating = tailCalls == null ? null : tailCalls.getAccumulatingReturn(node);
+            if (accumulating != null) {
+                // return x op self(...): fold x into the accumulator and jump
+                writer.writeLine("(local.get $" + accumulatorLocal + ")");
+                tailCalls.getAccumulatedOperand(accumulating).accept(this);
+                writer.writeLine(accumulatorInstruction());
+                writer.writeLine("(local.set $" + accumulatorLocal + ")");
+                emitSelfTailCall(tailCalls.getAccumulatedCall(accumulating));
+                return;
+            }
+            boolean accumulate = accumulatorLocal != null && node.getValue() != null
+                && !tailCalls.isSelfTailCall(node.getValue());
+            if (accumulate) {
+                writer.writeLine("(local.get $" + accumulatorLocal + ")");
+            }
             if (node.getValue() != null) {
                 node.getValue().accept(this);
             }
+            if (accumulate) {
+                writer.writeLine(accumulatorInstruction());
+            }
             // Explicit return ensures correct control flow and stack discipline
             writer.writeLine("(return)");
         } catch (IOException e) {
@@ -1648,6 +3668,11 @@ public class CodeGenerator implements ASTVisitor {
     public void visit(BlockNode node) {
         scopeManager.enterScope();
         for (ASTNode stmt : node.getStatements()) {
+            try {
+                emitLineMarker(stmt);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
             stmt.accept(this);
         }
         scopeManager.exitScope();
@@ -0,0 +1,130 @@
+package com.languagei.compiler.codegen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Region of linear memory reserved in front of the heap for the 64-bit
+ * counters of instrumented builds (--profile-generate, --instrument),
+ * followed by constant data the code that reports them needs.
+ *
+ * Counters are handed out while functions are generated; since every body is
+ * generated twice, asking again for a key returns the same counter. Data is
+ * added once all code is generated, when the number of counters is final.
+ */
+public class CounterRegion {
+    /** Start of the region: just above the runtime buffers. */
+    public static final int BASE = 4096;
+
+    /** Bytes of the longest decimal i64. */
+    public static final int MAX_NUMBER_TEXT = 20;
+
+    private final Map<String, Integer> counters = new LinkedHashMap<>();
+    private int slots;
+    private final StringBuilder data = new StringBuilder();
+    private int dataBytes;
+
+    /**
+     * Address of counter {@code index} of a group of {@code count} counters,
+     * allocated the first time the key is seen.
+     */
+    public int counter(String key, int count, int index) {
+        Integer first = counters.get(key);
+        if (first == null) {
+            if (dataBytes > 0) {
+                throw new IllegalStateException("Counter " + key + " added after the counter data");
+            }
+            first = slots;
+            counters.put(key, first);
+            slots += count;
+        }
+        return BASE + 8 * (first + index);
+    }
+
+    /** Append text to the data after the counters and return its address. */
+    public int addText(String text) {
+        return addBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Append little-endian i32 values to the data after the counters and return their address. */
+    public int addWords(int... words) {
+        byte[] bytes = new byte[4 * words.length];
+        for (int i = 0; i < words.length; i++) {
+            for (int b = 0; b < 4; b++) {
+                bytes[4 * i + b] = (byte) (words[i] >>> (8 * b));
+            }
+        }
+        return addBytes(bytes);
+    }
+
+    private int addBytes(byte[] bytes) {
+        int address = dataBase() + dataBytes;
+        data.append(WATWriter.escape(bytes));
+        dataBytes += bytes.length;
+        return address;
+    }
+
+    /** First address after the counters and data, where the heap can start. */
+    public int getEnd() {
+        return MemoryLayout.alignUp(dataBase() + dataBytes, 8);
+    }
+
+    /** Add one to a counter. */
+    public void emitIncrement(WATWriter writer, int address) throws IOException {
+        writer.writeLine("(i64.store (i32.const " + address + ") (i64.add (i64.load (i32.const " + address
+            + ")) (i64.const 1)))");
+    }
+
+    /**
+     * Emit the data segment and {@code $write_u64}, which writes an unsigned
+     * decimal number at an address and returns the address after it.
+     */
+    public void emitRuntime(WATWriter writer) throws IOException {
+        if (dataBytes > 0) {
+            writer.writeLine("(data (i32.const " + dataBase() + ") \"" + data + "\")");
+        }
+        writer.writeLine("(func $write_u64 (param $dst i32) (param $value i64) (result i32)");
+        writer.indent();
+        writer.writeLine("(local $end i32)");
+        writer.writeLine("(local $rest i64)");
+        // Find where the last digit goes, then write digits backwards from it
+        writer.writeLine("(local.set $end (i32.add (local.get $dst) (i32.const 1)))");
+        writer.writeLine("(local.set $rest (i64.div_u (local.get $value) (i64.const 10)))");
+        writer.writeLine("(block $counted");
+        writer.indent();
+        writer.writeLine("(loop $count");
+        writer.indent();
+        writer.writeLine("(br_if $counted (i64.eqz (local.get $rest)))");
+        writer.writeLine("(local.set $end (i32.add (local.get $end) (i32.const 1)))");
+        writer.writeLine("(local.set $rest (i64.div_u (local.get $rest) (i64.const 10)))");
+        writer.writeLine("(br $count)");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.writeLine("(local.set $dst (local.get $end))");
+        writer.writeLine("(loop $digit");
+        writer.indent();
+        writer.writeLine("(local.set $dst (i32.sub (local.get $dst) (i32.const 1)))");
+        writer.writeLine("(i32.store8 (local.get $dst) (i32.add (i32.wrap_i64 (i64.rem_u (local.get $value) (i64.const 10))) (i32.const 48)))");
+        writer.writeLine("(local.set $value (i64.div_u (local.get $value) (i64.const 10)))");
+        writer.writeLine("(br_if $digit (i64.ne (local.get $value) (i64.const 0)))");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.writeLine("(local.get $end)");
+        writer.dedent();
+        writer.writeLine(")");
+    }
+
+    /** Emit a copy of {@code length} bytes from {@code address} to {@code $p}, advancing {@code $p}. */
+    public static void emitCopy(WATWriter writer, int address, int length) throws IOException {
+        writer.writeLine("(memory.copy (local.get $p) (i32.const " + address + ") (i32.const " + length + "))");
+        writer.writeLine("(local.set $p (i32.add (local.get $p) (i32.const " + length + ")))");
+    }
+
+    private int dataBase() {
+        return BASE + 8 * slots;
+    }
+}
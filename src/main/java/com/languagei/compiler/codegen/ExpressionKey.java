@@ -0,0 +1,60 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+
+/**
+ * Structural keys for expressions: two expressions with the same key compute
+ * the same value (or address) when evaluated in the same state. Used to share
+ * one generated local between textually repeated expressions.
+ */
+public final class ExpressionKey {
+
+    private ExpressionKey() {
+    }
+
+    /**
+     * Return the key of an expression built from literals, variables,
+     * operators, element and field accesses, or null if it contains anything
+     * else (routine calls in particular).
+     */
+    public static String of(ASTNode expr) {
+        if (expr instanceof LiteralNode) {
+            Object value = ((LiteralNode) expr).getValue();
+            if (value == null) {
+                return null;
+            }
+            String kind = value instanceof Boolean ? "b" : (value instanceof Number
+                && !(value instanceof Double || value instanceof Float) ? "i" : "r");
+            return kind + ":" + value;
+        }
+        if (expr instanceof IdentifierNode) {
+            return ((IdentifierNode) expr).getName();
+        }
+        if (expr instanceof UnaryExpressionNode) {
+            UnaryExpressionNode unary = (UnaryExpressionNode) expr;
+            String operand = of(unary.getOperand());
+            return operand == null ? null : "(" + unary.getOperator() + " " + operand + ")";
+        }
+        if (expr instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) expr;
+            String left = of(binary.getLeft());
+            String right = of(binary.getRight());
+            if (left == null || right == null) {
+                return null;
+            }
+            return "(" + binary.getOperator() + " " + left + " " + right + ")";
+        }
+        if (expr instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) expr;
+            String array = of(access.getArray());
+            String index = of(access.getIndex());
+            return array == null || index == null ? null : array + "[" + index + "]";
+        }
+        if (expr instanceof RecordAccessNode) {
+            RecordAccessNode access = (RecordAccessNode) expr;
+            String object = of(access.getObject());
+            return object == null ? null : object + "." + access.getFieldName();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,234 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.lexer.Position;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters of a module built with {@code --instrument}: calls per routine,
+ * iterations per loop and bytes allocated per allocation site, kept in the
+ * {@link CounterRegion}.
+ *
+ * Before the program exits {@code $instrument_report} sorts the sites by
+ * count and writes them to stderr, each with the source file and line it
+ * belongs to: as a tab-separated hot-spot report of the sites that ran, or
+ * as a JSON array of all sites.
+ */
+public class InstrumentationCounters {
+
+    /** What a counter counts. */
+    public enum Kind {
+        CALLS("calls"),
+        ITERATIONS("iterations"),
+        BYTES("allocated bytes");
+
+        private final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private static final class Site {
+        final Kind kind;
+        final String routine;
+        final Position position;
+        final int address;
+
+        Site(Kind kind, String routine, Position position, int address) {
+            this.kind = kind;
+            this.routine = routine;
+            this.position = position;
+            this.address = address;
+        }
+    }
+
+    private final CounterRegion region;
+    private final boolean json;
+    private final Map<String, Site> sites = new LinkedHashMap<>();
+
+    /** @param json write the report as JSON instead of text */
+    public InstrumentationCounters(CounterRegion region, boolean json) {
+        this.region = region;
+        this.json = json;
+    }
+
+    /** Address of the counter of a site, created the first time it is seen. */
+    public int address(Kind kind, String routine, Position position) {
+        String key = kind + " " + routine + " " + position;
+        Site site = sites.get(key);
+        if (site == null) {
+            site = new Site(kind, routine, position, region.counter("instrument " + key, 1, 0));
+            sites.put(key, site);
+        }
+        return site.address;
+    }
+
+    /** Emit {@code $instrument_report}, called once at exit. */
+    public void emitRuntime(WATWriter writer) throws IOException {
+        String header = json ? "[\n" : "count\tkind\tlocation\troutine\n";
+        String footer = json ? "\n]\n" : "";
+        String separator = ",\n";
+
+        // Table of sites: counter address, row text address and length, padding
+        int n = sites.size();
+        int[] table = new int[4 * n];
+        int maxText = header.length() + footer.length();
+        int index = 0;
+        for (Site site : sites.values()) {
+            String text = rowText(site);
+            int length = text.getBytes(StandardCharsets.UTF_8).length;
+            table[index++] = site.address;
+            table[index++] = region.addText(text);
+            table[index++] = length;
+            table[index++] = 0;
+            maxText += length + CounterRegion.MAX_NUMBER_TEXT + separator.length() + 1;
+        }
+        int tableAddress = n > 0 ? region.addWords(table) : 0;
+
+        writer.writeLine("(func $instrument_report");
+        writer.indent();
+        writer.writeLine("(local $order i32)");
+        writer.writeLine("(local $start i32)");
+        writer.writeLine("(local $p i32)");
+        writer.writeLine("(local $i i32)");
+        writer.writeLine("(local $j i32)");
+        writer.writeLine("(local $best i32)");
+        writer.writeLine("(local $entry i32)");
+        writer.writeLine("(local $count i64)");
+        // Sort pointers to the table entries in free memory after the heap, then format the report after them
+        writer.writeLine("(local.set $order (global.get $heap_ptr))");
+        writer.writeLine("(local.set $start (i32.add (local.get $order) (i32.const " + (4 * n) + ")))");
+        writer.writeLine("(drop (call $grow_heap (i32.add (local.get $start) (i32.const " + maxText + "))))");
+        writer.writeLine("(local.set $p (local.get $start))");
+        emitText(writer, header);
+        if (n > 0) {
+            beginCountedLoop(writer, "$i", "$fill", n);
+            writer.writeLine("(i32.store (i32.add (local.get $order) (i32.mul (local.get $i) (i32.const 4))) "
+                + "(i32.add (i32.const " + tableAddress + ") (i32.mul (local.get $i) (i32.const 16))))");
+            endCountedLoop(writer, "$i", "$fill");
+
+            // Selection sort by decreasing count
+            beginCountedLoop(writer, "$i", "$sort", n);
+            writer.writeLine("(local.set $best (local.get $i))");
+            writer.writeLine("(local.set $j (i32.add (local.get $i) (i32.const 1)))");
+            writer.writeLine("(block $scan_done");
+            writer.indent();
+            writer.writeLine("(loop $scan");
+            writer.indent();
+            writer.writeLine("(br_if $scan_done (i32.ge_u (local.get $j) (i32.const " + n + ")))");
+            writer.writeLine("(if (i64.gt_u (i64.load (i32.load (i32.load (i32.add (local.get $order) (i32.mul (local.get $j) (i32.const 4))))))");
+            writer.writeLine("              (i64.load (i32.load (i32.load (i32.add (local.get $order) (i32.mul (local.get $best) (i32.const 4)))))))");
+            writer.indent();
+            writer.writeLine("(then (local.set $best (local.get $j)))");
+            writer.dedent();
+            writer.writeLine(")");
+            writer.writeLine("(local.set $j (i32.add (local.get $j) (i32.const 1)))");
+            writer.writeLine("(br $scan)");
+            writer.dedent();
+            writer.writeLine(")");
+            writer.dedent();
+            writer.writeLine(")");
+            writer.writeLine("(local.set $entry (i32.load (i32.add (local.get $order) (i32.mul (local.get $best) (i32.const 4)))))");
+            writer.writeLine("(i32.store (i32.add (local.get $order) (i32.mul (local.get $best) (i32.const 4))) "
+                + "(i32.load (i32.add (local.get $order) (i32.mul (local.get $i) (i32.const 4)))))");
+            writer.writeLine("(i32.store (i32.add (local.get $order) (i32.mul (local.get $i) (i32.const 4))) (local.get $entry))");
+            endCountedLoop(writer, "$i", "$sort");
+
+            beginCountedLoop(writer, "$i", "$row", n);
+            writer.writeLine("(local.set $entry (i32.load (i32.add (local.get $order) (i32.mul (local.get $i) (i32.const 4)))))");
+            writer.writeLine("(local.set $count (i64.load (i32.load (local.get $entry))))");
+            if (json) {
+                writer.writeLine("(if (local.get $i)");
+                writer.indent();
+                writer.writeLine("(then");
+                writer.indent();
+                emitText(writer, separator);
+                writer.dedent();
+                writer.writeLine(")");
+                writer.dedent();
+                writer.writeLine(")");
+                emitRowText(writer);
+                writer.writeLine("(local.set $p (call $write_u64 (local.get $p) (local.get $count)))");
+                writer.writeLine("(i32.store8 (local.get $p) (i32.const 125))");
+                writer.writeLine("(local.set $p (i32.add (local.get $p) (i32.const 1)))");
+            } else {
+                // Sorted, so the sites that never ran are all at the end
+                writer.writeLine("(br_if $row_done (i64.eqz (local.get $count)))");
+                writer.writeLine("(local.set $p (call $write_u64 (local.get $p) (local.get $count)))");
+                emitRowText(writer);
+            }
+            endCountedLoop(writer, "$i", "$row");
+        }
+        emitText(writer, footer);
+        writer.writeLine("(i32.store (i32.const 2048) (local.get $start))");
+        writer.writeLine("(i32.store (i32.const 2052) (i32.sub (local.get $p) (local.get $start)))");
+        writer.writeLine("(drop (call $fd_write (i32.const 2) (i32.const 2048) (i32.const 1) (i32.const 2056)))");
+        writer.dedent();
+        writer.writeLine(")");
+    }
+
+    /** The text of a report row other than the count. */
+    private String rowText(Site site) {
+        String file = site.position.getFilename();
+        int line = site.position.getLine();
+        if (json) {
+            return "  {\"kind\": \"" + jsonEscape(site.kind.getDescription()) + "\", \"routine\": \""
+                + jsonEscape(site.routine) + "\", \"file\": \"" + jsonEscape(file) + "\", \"line\": " + line
+                + ", \"count\": ";
+        }
+        return "\t" + site.kind.getDescription() + "\t" + file + ":" + line + "\t" + site.routine + "\n";
+    }
+
+    private static String jsonEscape(String text) {
+        StringBuilder out = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /** Copy the row text of the table entry in {@code $entry}. */
+    private static void emitRowText(WATWriter writer) throws IOException {
+        writer.writeLine("(memory.copy (local.get $p) (i32.load offset=4 (local.get $entry)) (i32.load offset=8 (local.get $entry)))");
+        writer.writeLine("(local.set $p (i32.add (local.get $p) (i32.load offset=8 (local.get $entry))))");
+    }
+
+    private void emitText(WATWriter writer, String text) throws IOException {
+        if (!text.isEmpty()) {
+            CounterRegion.emitCopy(writer, region.addText(text), text.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    /** Start a loop running {@code variable} from 0 while it is below {@code count}. */
+    private static void beginCountedLoop(WATWriter writer, String variable, String label, int count)
+            throws IOException {
+        writer.writeLine("(local.set " + variable + " (i32.const 0))");
+        writer.writeLine("(block " + label + "_done");
+        writer.indent();
+        writer.writeLine("(loop " + label);
+        writer.indent();
+        writer.writeLine("(br_if " + label + "_done (i32.ge_u (local.get " + variable + ") (i32.const " + count + ")))");
+    }
+
+    private static void endCountedLoop(WATWriter writer, String variable, String label) throws IOException {
+        writer.writeLine("(local.set " + variable + " (i32.add (local.get " + variable + ") (i32.const 1)))");
+        writer.writeLine("(br " + label + ")");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+    }
+}
@@ -0,0 +1,122 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.ASTNode;
+import com.languagei.compiler.lexer.Position;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Source line table of a module built with {@code --debug-info}, emitted as
+ * the {@code language-i.lines} custom section.
+ *
+ * While a function body is generated, a marker comment is written in front
+ * of the instructions of every statement. Once the body is final each marker
+ * is matched to an instruction ordinal: the position, counting from 0, of
+ * the statement's first instruction in the binary encoding of the body
+ * (where {@code block}, {@code loop} and {@code if} are followed by an
+ * {@code end}). A tool that decodes the code section can turn ordinals into
+ * code offsets, and the {@code name} section the assembler derives from the
+ * {@code $} identifiers links functions to routines.
+ *
+ * The section is text:
+ * <pre>
+ * language-i-lines 1
+ * func &lt;name&gt; &lt;file&gt; &lt;line&gt;
+ * &lt;ordinal&gt; &lt;line&gt;
+ * </pre>
+ */
+public class LineTable {
+    public static final String SECTION = "language-i.lines";
+    public static final String FORMAT = "language-i-lines";
+    public static final int VERSION = 1;
+
+    private static final String MARKER = ";; line ";
+
+    // Parenthesized words that are not instructions
+    private static final Set<String> NON_INSTRUCTIONS = Set.of("then", "local", "param", "result", "type", "mut");
+    // Instructions that are closed by an end
+    private static final Set<String> STRUCTURED = Set.of("block", "loop", "if");
+
+    private final Map<String, String> functions = new LinkedHashMap<>();
+
+    /** Comment placed in a function body before the instructions of a statement. */
+    public static String marker(ASTNode statement) {
+        return MARKER + statement.getPosition().getLine();
+    }
+
+    /** Record the lines of a generated function body; the markers stay in it as comments. */
+    public void addFunction(String name, Position declaration, String body) {
+        StringBuilder entries = new StringBuilder();
+        entries.append("func ").append(name).append(' ')
+            .append(declaration.getFilename()).append(' ').append(declaration.getLine()).append('\n');
+        int ordinal = 0;
+        int lastLine = -1;
+        Deque<Boolean> open = new ArrayDeque<>();
+        for (String line : body.split("\n", -1)) {
+            String text = line.trim();
+            if (text.startsWith(MARKER)) {
+                int sourceLine = Integer.parseInt(text.substring(MARKER.length()).trim());
+                if (sourceLine != lastLine) {
+                    entries.append(ordinal).append(' ').append(sourceLine).append('\n');
+                    lastLine = sourceLine;
+                }
+                continue;
+            }
+            ordinal += countInstructions(text, open);
+        }
+        functions.put(name, entries.toString());
+    }
+
+    /** The custom section, leaving out the functions that were removed from the module. */
+    public String toCustomSection(Collection<String> removedFunctions) {
+        StringBuilder table = new StringBuilder(FORMAT + " " + VERSION + "\n");
+        for (Map.Entry<String, String> function : functions.entrySet()) {
+            if (!removedFunctions.contains(function.getKey())) {
+                table.append(function.getValue());
+            }
+        }
+        return "(@custom \"" + SECTION + "\" \"" + WATWriter.escape(table.toString()) + "\")";
+    }
+
+    /**
+     * Instructions that start or end on one line of folded WAT. {@code open}
+     * tracks the parentheses still open from earlier lines, true for those
+     * whose closing emits an {@code end}.
+     */
+    private static int countInstructions(String line, Deque<Boolean> open) {
+        int count = 0;
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == ';' && line.startsWith(";;", i)) {
+                break;
+            } else if (c == '"') {
+                i = line.indexOf('"', i + 1);
+                if (i < 0) {
+                    break;
+                }
+            } else if (c == '(') {
+                int end = i + 1;
+                while (end < line.length() && " ()".indexOf(line.charAt(end)) < 0) {
+                    end++;
+                }
+                String word = line.substring(i + 1, end);
+                boolean instruction = !NON_INSTRUCTIONS.contains(word);
+                if (instruction) {
+                    count++;
+                }
+                open.push(STRUCTURED.contains(word));
+            } else if (c == ')' && !open.isEmpty()) {
+                if (open.pop()) {
+                    count++;
+                }
+            }
+            i++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,311 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.*;
+
+/**
+ * Answers loop-invariance questions for loop-invariant code motion.
+ *
+ * For a loop it summarizes which variables may change, which aggregates may
+ * be stored to and whether routine calls occur. Routines only receive copies
+ * of scalar values, so a call can never change the caller's locals, but it
+ * may write through any array or record pointer it can reach.
+ *
+ * Aliasing is tracked per function: an array or record variable that is
+ * allocated by its own declaration and never copied as a whole ("fresh")
+ * cannot share memory with any other fresh aggregate. Everything else is
+ * assumed to alias.
+ */
+public class LoopInvariantAnalyzer {
+
+    /** Effects of executing a loop (condition, bounds and body) any number of times. */
+    public static class LoopEffects {
+        private final Set<String> modifiedVariables = new HashSet<>();
+        private final Set<String> storedRoots = new HashSet<>();
+        private boolean unknownStore;
+        private boolean hasCalls;
+
+        public Set<String> getModifiedVariables() {
+            return modifiedVariables;
+        }
+
+        public boolean hasCalls() {
+            return hasCalls;
+        }
+
+        public boolean writesMemory() {
+            return hasCalls || unknownStore || !storedRoots.isEmpty();
+        }
+    }
+
+    private final TypeEnvironment typeEnvironment;
+    private final Set<ASTNode> hoistedValues;
+    private final Set<ASTNode> hoistedAddresses;
+    private final Set<String> freshAggregates = new HashSet<>();
+
+    /**
+     * @param hoistedValues    expressions whose value already lives in a local computed before the loop
+     * @param hoistedAddresses accesses whose address already lives in such a local
+     */
+    public LoopInvariantAnalyzer(TypeEnvironment typeEnvironment,
+                                 Set<ASTNode> hoistedValues, Set<ASTNode> hoistedAddresses) {
+        this.typeEnvironment = typeEnvironment;
+        this.hoistedValues = hoistedValues;
+        this.hoistedAddresses = hoistedAddresses;
+    }
+
+    /**
+     * Compute the set of fresh aggregates for a function whose code consists of
+     * the given top-level items. Names in {@code excludedNames} (parameters,
+     * copies of program-level variables) are never considered fresh.
+     */
+    public void beginFunction(List<ASTNode> items, Collection<String> excludedNames) {
+        freshAggregates.clear();
+        Map<String, Integer> declarationCounts = new HashMap<>();
+        Set<String> copied = new HashSet<>();
+        for (ASTNode item : items) {
+            scanFunction(item, declarationCounts, copied);
+        }
+        for (Map.Entry<String, Integer> entry : declarationCounts.entrySet()) {
+            String name = entry.getKey();
+            if (entry.getValue() == 1 && !copied.contains(name) && !excludedNames.contains(name)) {
+                freshAggregates.add(name);
+            }
+        }
+    }
+
+    private void scanFunction(ASTNode node, Map<String, Integer> declarationCounts, Set<String> copied) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            if (isAggregateType(decl.getType())) {
+                declarationCounts.merge(decl.getName(), 1, Integer::sum);
+            } else {
+                // A scalar with the same name makes the name ambiguous
+                declarationCounts.merge(decl.getName(), 2, Integer::sum);
+            }
+            if (decl.getInitializer() instanceof IdentifierNode) {
+                copied.add(((IdentifierNode) decl.getInitializer()).getName());
+            }
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            if (assignment.getTarget() instanceof IdentifierNode) {
+                copied.add(((IdentifierNode) assignment.getTarget()).getName());
+            }
+            if (assignment.getValue() instanceof IdentifierNode) {
+                copied.add(((IdentifierNode) assignment.getValue()).getName());
+            }
+        } else if (node instanceof ForLoopNode) {
+            declarationCounts.merge(((ForLoopNode) node).getVariable(), 2, Integer::sum);
+        }
+        for (ASTNode child : node.getChildren()) {
+            scanFunction(child, declarationCounts, copied);
+        }
+    }
+
+    private boolean isAggregateType(ASTNode typeAst) {
+        if (typeAst instanceof TypeReferenceNode) {
+            ASTNode aliased = typeEnvironment.resolveType(((TypeReferenceNode) typeAst).getName());
+            return aliased != null && isAggregateType(aliased);
+        }
+        return typeAst instanceof ArrayTypeNode || typeAst instanceof RecordTypeNode;
+    }
+
+    /** Summarize the effects of a while or for loop. */
+    public LoopEffects analyze(ASTNode loop) {
+        LoopEffects effects = new LoopEffects();
+        collectEffects(loop, effects);
+        return effects;
+    }
+
+    private void collectEffects(ASTNode node, LoopEffects effects) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof AssignmentNode) {
+            ASTNode target = ((AssignmentNode) node).getTarget();
+            if (target instanceof IdentifierNode) {
+                effects.modifiedVariables.add(((IdentifierNode) target).getName());
+            } else {
+                String root = rootVariable(target);
+                if (root != null) {
+                    effects.storedRoots.add(root);
+                } else {
+                    effects.unknownStore = true;
+                }
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            effects.modifiedVariables.add(((VariableDeclarationNode) node).getName());
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode forLoop = (ForLoopNode) node;
+            effects.modifiedVariables.add(forLoop.getVariable());
+            if (forLoop.getArrayExpr() != null) {
+                effects.modifiedVariables.add(forLoop.getVariable() + "_index");
+            }
+        } else if (node instanceof RoutineCallNode) {
+            effects.hasCalls = true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            collectEffects(child, effects);
+        }
+    }
+
+    /**
+     * Return the variable whose memory an access chain addresses, or null when
+     * the chain goes through a pointer loaded from memory. Two-dimensional
+     * arrays, nested records and arrays of records are stored inline.
+     */
+    public String rootVariable(ASTNode access) {
+        if (access instanceof IdentifierNode) {
+            return ((IdentifierNode) access).getName();
+        }
+        if (access instanceof ArrayAccessNode) {
+            ASTNode array = ((ArrayAccessNode) access).getArray();
+            if (array instanceof IdentifierNode) {
+                return ((IdentifierNode) array).getName();
+            }
+            if (isInlineRow(array)) {
+                return ((IdentifierNode) ((ArrayAccessNode) array).getArray()).getName();
+            }
+            return null;
+        }
+        if (access instanceof RecordAccessNode) {
+            ASTNode object = ((RecordAccessNode) access).getObject();
+            if (object instanceof IdentifierNode
+                    || object instanceof RecordAccessNode
+                    || object instanceof ArrayAccessNode) {
+                return rootVariable(object);
+            }
+        }
+        return null;
+    }
+
+    /** Row of a two-dimensional array variable (A[i] in A[i][j]), which is addressed, not loaded. */
+    private boolean isInlineRow(ASTNode array) {
+        return array instanceof ArrayAccessNode && ((ArrayAccessNode) array).getArray() instanceof IdentifierNode;
+    }
+
+    /** Whether the aggregates held by two variables may share memory. */
+    public boolean mayAlias(String a, String b) {
+        if (a.equals(b)) {
+            return true;
+        }
+        return !(freshAggregates.contains(a) && freshAggregates.contains(b));
+    }
+
+    /** Whether memory reachable through the given access chain is unchanged by the loop. */
+    private boolean isMemoryInvariant(ASTNode access, LoopEffects effects) {
+        if (effects.hasCalls || effects.unknownStore) {
+            return false;
+        }
+        String root = rootVariable(access);
+        if (root == null) {
+            return effects.storedRoots.isEmpty();
+        }
+        for (String stored : effects.storedRoots) {
+            if (mayAlias(root, stored)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether an expression yields the same value on every iteration of the loop. */
+    public boolean isInvariant(ASTNode expr, LoopEffects effects) {
+        if (hoistedValues.contains(expr)) {
+            return true;
+        }
+        if (expr instanceof LiteralNode) {
+            return true;
+        }
+        if (expr instanceof IdentifierNode) {
+            return !effects.modifiedVariables.contains(((IdentifierNode) expr).getName());
+        }
+        if (expr instanceof UnaryExpressionNode) {
+            return isInvariant(((UnaryExpressionNode) expr).getOperand(), effects);
+        }
+        if (expr instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) expr;
+            return isInvariant(binary.getLeft(), effects)
+                && isInvariant(binary.getRight(), effects);
+        }
+        if (expr instanceof ArrayAccessNode || expr instanceof RecordAccessNode) {
+            return isAddressInvariant(expr, effects) && isMemoryInvariant(expr, effects);
+        }
+        return false;
+    }
+
+    /** Whether the address computed for an array element or record field is loop invariant. */
+    public boolean isAddressInvariant(ASTNode access, LoopEffects effects) {
+        if (hoistedAddresses.contains(access)) {
+            return true;
+        }
+        if (access instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) access;
+            ASTNode array = arrayAccess.getArray();
+            boolean baseInvariant = isInlineRow(array)
+                ? isAddressInvariant(array, effects)
+                : isInvariant(array, effects);
+            return baseInvariant && isInvariant(arrayAccess.getIndex(), effects);
+        }
+        if (access instanceof RecordAccessNode) {
+            ASTNode object = ((RecordAccessNode) access).getObject();
+            if (object instanceof RecordAccessNode || object instanceof ArrayAccessNode) {
+                return isAddressInvariant(object, effects);
+            }
+            return isInvariant(object, effects);
+        }
+        return false;
+    }
+
+    /**
+     * Whether evaluating an expression early can never trap: no memory loads
+     * and no integer division or remainder. Such expressions may be hoisted
+     * even out of code that is not executed on every loop entry.
+     */
+    public boolean isSpeculationSafe(ASTNode expr) {
+        if (hoistedValues.contains(expr)) {
+            return true;
+        }
+        if (expr instanceof ArrayAccessNode || expr instanceof RecordAccessNode || expr instanceof RoutineCallNode) {
+            return false;
+        }
+        if (expr instanceof BinaryExpressionNode) {
+            BinaryExpressionNode.Operator op = ((BinaryExpressionNode) expr).getOperator();
+            if (op == BinaryExpressionNode.Operator.DIVIDE || op == BinaryExpressionNode.Operator.MODULO) {
+                return false;
+            }
+        }
+        for (ASTNode child : expr.getChildren()) {
+            if (!isSpeculationSafe(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Like {@link #isSpeculationSafe} but for the address computation of an access (the final load is excluded). */
+    public boolean isAddressSpeculationSafe(ASTNode access) {
+        if (hoistedAddresses.contains(access)) {
+            return true;
+        }
+        if (access instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) access;
+            ASTNode array = arrayAccess.getArray();
+            boolean baseSafe = isInlineRow(array)
+                ? isAddressSpeculationSafe(array)
+                : isSpeculationSafe(array);
+            return baseSafe && isSpeculationSafe(arrayAccess.getIndex());
+        }
+        if (access instanceof RecordAccessNode) {
+            ASTNode object = ((RecordAccessNode) access).getObject();
+            if (object instanceof RecordAccessNode || object instanceof ArrayAccessNode) {
+                return isAddressSpeculationSafe(object);
+            }
+            return isSpeculationSafe(object);
+        }
+        return isSpeculationSafe(access);
+    }
+}
@@ -0,0 +1,404 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import com.languagei.compiler.semantic.Type;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Recognizes counted loops that can run several iterations at once with
+ * WebAssembly SIMD.
+ *
+ * A forward range loop {@code for i in lo..hi} qualifies when every statement
+ * of its body is one of
+ * <ul>
+ *   <li>an element store {@code a[i] := e},</li>
+ *   <li>an integer sum or product reduction {@code s := s + e} / {@code s := s * e},</li>
+ *   <li>an integer min/max reduction {@code if e < s then s := e end} (or &gt;),</li>
+ * </ul>
+ * where e is built from elements {@code b[i]} of 1D integer or real arrays,
+ * the loop variable, loop-invariant scalars and literals with +, -, * (and /
+ * for reals). The bounds may be any expressions, since they are evaluated
+ * once before the loop. Every access uses exactly the loop variable as its
+ * index, so lane k of a vector iteration performs the work of scalar
+ * iteration i + k in the same statement order, even when two array variables
+ * refer to the same array; arrays that overlap only partially (rows of one
+ * 2D array) are detected at run time by the generated code, which then stays
+ * scalar. Integer arithmetic wraps, so reassociating sums and products is
+ * exact; real reductions are left scalar because reordering would change
+ * rounding.
+ */
+public class LoopVectorizer {
+
+    /** Kind of a reduction into a scalar variable. */
+    public enum ReductionKind {
+        ADD, MULTIPLY, MIN, MAX
+    }
+
+    /** A reduction statement: the variable, how it combines, and the per-iteration operand. */
+    public static final class Reduction {
+        private final String variable;
+        private final ReductionKind kind;
+        private final ASTNode operand;
+
+        Reduction(String variable, ReductionKind kind, ASTNode operand) {
+            this.variable = variable;
+            this.kind = kind;
+            this.operand = operand;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public ReductionKind getKind() {
+            return kind;
+        }
+
+        public ASTNode getOperand() {
+            return operand;
+        }
+    }
+
+    /** A loop that can be vectorized. */
+    public static final class VectorLoop {
+        private final StorageType element;
+        private final List<ASTNode> statements = new ArrayList<>();
+        private final Map<ASTNode, Reduction> reductions = new IdentityHashMap<>();
+        private final Set<String> invariants = new LinkedHashSet<>();
+        private final Set<String> arrays = new LinkedHashSet<>();
+        private final Set<String> storedArrays = new LinkedHashSet<>();
+
+        private VectorLoop(StorageType element) {
+            this.element = element;
+        }
+
+        /** Storage of the array elements, I32 or F64. */
+        public StorageType getElement() {
+            return element;
+        }
+
+        /** Number of elements processed per vector iteration. */
+        public int getLanes() {
+            return 16 / element.getSize();
+        }
+
+        /** The SIMD shape, i32x4 or f64x2. */
+        public String getShape() {
+            return element == StorageType.F64 ? "f64x2" : "i32x4";
+        }
+
+        /** Body statements in order: element stores and reductions. */
+        public List<ASTNode> getStatements() {
+            return statements;
+        }
+
+        /** The reduction performed by a statement, or null for an element store. */
+        public Reduction getReduction(ASTNode statement) {
+            return reductions.get(statement);
+        }
+
+        /** Reductions in statement order. */
+        public List<Reduction> getReductions() {
+            List<Reduction> ordered = new ArrayList<>();
+            for (ASTNode stmt : statements) {
+                if (reductions.containsKey(stmt)) {
+                    ordered.add(reductions.get(stmt));
+                }
+            }
+            return ordered;
+        }
+
+        /** Loop-invariant scalar variables read by the vectorized expressions. */
+        public Set<String> getInvariants() {
+            return invariants;
+        }
+
+        /** Array variables accessed by the loop. */
+        public Set<String> getArrays() {
+            return arrays;
+        }
+
+        /** Array variables the loop stores into. */
+        public Set<String> getStoredArrays() {
+            return storedArrays;
+        }
+    }
+
+    /**
+     * Analyze a range loop.
+     *
+     * @param typeOf declared type (aliases resolved) of a variable, or null
+     * @param valueType value type of a scalar expression
+     * @return the vectorization plan, or null if the loop does not qualify
+     */
+    public VectorLoop analyze(ForLoopNode loop, Function<ASTNode, ASTNode> typeOf, Function<ASTNode, Type> valueType) {
+        if (loop.getRangeStart() == null || loop.isReverse() || loop.getBody() == null
+                || loop.getBody().getStatements().isEmpty()) {
+            return null;
+        }
+        Analysis analysis = new Analysis(loop.getVariable(), typeOf, valueType);
+        analysis.collectAssigned(loop.getBody());
+        if (analysis.assigned.contains(loop.getVariable()) || analysis.declares) {
+            return null;
+        }
+
+        List<ASTNode> statements = loop.getBody().getStatements();
+        Map<ASTNode, Reduction> reductions = new IdentityHashMap<>();
+        for (ASTNode stmt : statements) {
+            if (stmt instanceof AssignmentNode && ((AssignmentNode) stmt).getTarget() instanceof ArrayAccessNode) {
+                AssignmentNode store = (AssignmentNode) stmt;
+                if (!analysis.checkAccess((ArrayAccessNode) store.getTarget()) || !analysis.checkExpression(store.getValue())) {
+                    return null;
+                }
+                analysis.storedArrays.add(((IdentifierNode) ((ArrayAccessNode) store.getTarget()).getArray()).getName());
+            } else {
+                Reduction reduction = matchReduction(stmt);
+                if (reduction == null || !analysis.checkExpression(reduction.getOperand())) {
+                    return null;
+                }
+                reductions.put(stmt, reduction);
+            }
+        }
+        if (analysis.element == null || analysis.arrays.isEmpty()) {
+            return null;
+        }
+
+        // Reduction variables: distinct integers, touched only by their own statement
+        Set<String> reduced = new HashSet<>();
+        for (Map.Entry<ASTNode, Reduction> entry : reductions.entrySet()) {
+            String variable = entry.getValue().getVariable();
+            if (analysis.element != StorageType.I32 || !reduced.add(variable)
+                    || valueType.apply(new IdentifierNode(loop.getPosition(), variable)) != Type.INTEGER) {
+                return null;
+            }
+            for (ASTNode stmt : statements) {
+                // The reduction statement itself reads the variable exactly once
+                int expected = stmt == entry.getKey() ? 1 : 0;
+                if (countReads(stmt, variable) != expected) {
+                    return null;
+                }
+            }
+        }
+        // Reduction targets are the only scalars the body assigns
+        for (String name : analysis.assigned) {
+            if (!reduced.contains(name)) {
+                return null;
+            }
+        }
+        VectorLoop result = new VectorLoop(analysis.element);
+        result.statements.addAll(statements);
+        result.reductions.putAll(reductions);
+        result.invariants.addAll(analysis.invariants);
+        result.arrays.addAll(analysis.arrays);
+        result.storedArrays.addAll(analysis.storedArrays);
+        return result;
+    }
+
+    /** s := s op e, s := e op s, or if e cmp s then s := e end. */
+    private static Reduction matchReduction(ASTNode stmt) {
+        if (stmt instanceof AssignmentNode && ((AssignmentNode) stmt).getTarget() instanceof IdentifierNode) {
+            AssignmentNode assignment = (AssignmentNode) stmt;
+            String variable = ((IdentifierNode) assignment.getTarget()).getName();
+            if (!(assignment.getValue() instanceof BinaryExpressionNode)) {
+                return null;
+            }
+            BinaryExpressionNode value = (BinaryExpressionNode) assignment.getValue();
+            ReductionKind kind;
+            if (value.getOperator() == BinaryExpressionNode.Operator.PLUS) {
+                kind = ReductionKind.ADD;
+            } else if (value.getOperator() == BinaryExpressionNode.Operator.MULTIPLY) {
+                kind = ReductionKind.MULTIPLY;
+            } else {
+                return null;
+            }
+            if (isVariable(value.getLeft(), variable)) {
+                return new Reduction(variable, kind, value.getRight());
+            }
+            if (isVariable(value.getRight(), variable)) {
+                return new Reduction(variable, kind, value.getLeft());
+            }
+            return null;
+        }
+        if (stmt instanceof IfStatementNode) {
+            IfStatementNode ifStmt = (IfStatementNode) stmt;
+            if (ifStmt.getElseBlock() != null || !(ifStmt.getCondition() instanceof BinaryExpressionNode)
+                    || ifStmt.getThenBlock().getStatements().size() != 1
+                    || !(ifStmt.getThenBlock().getStatements().get(0) instanceof AssignmentNode)) {
+                return null;
+            }
+            AssignmentNode assignment = (AssignmentNode) ifStmt.getThenBlock().getStatements().get(0);
+            if (!(assignment.getTarget() instanceof IdentifierNode)) {
+                return null;
+            }
+            String variable = ((IdentifierNode) assignment.getTarget()).getName();
+            BinaryExpressionNode condition = (BinaryExpressionNode) ifStmt.getCondition();
+            boolean less;
+            switch (condition.getOperator()) {
+                case LT:
+                case LE:
+                    less = true;
+                    break;
+                case GT:
+                case GE:
+                    less = false;
+                    break;
+                default:
+                    return null;
+            }
+            ASTNode operand;
+            if (isVariable(condition.getRight(), variable)) {
+                operand = condition.getLeft();           // e < s: new minimum
+            } else if (isVariable(condition.getLeft(), variable)) {
+                operand = condition.getRight();          // s < e: new maximum
+                less = !less;
+            } else {
+                return null;
+            }
+            String key = ExpressionKey.of(operand);
+            if (key == null || !key.equals(ExpressionKey.of(assignment.getValue()))) {
+                return null;
+            }
+            return new Reduction(variable, less ? ReductionKind.MIN : ReductionKind.MAX, operand);
+        }
+        return null;
+    }
+
+    private static int countReads(ASTNode node, String name) {
+        if (node == null) {
+            return 0;
+        }
+        if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            int count = countReads(assignment.getValue(), name);
+            if (!(assignment.getTarget() instanceof IdentifierNode)) {
+                count += countReads(assignment.getTarget(), name);
+            }
+            return count;
+        }
+        int count = isVariable(node, name) ? 1 : 0;
+        for (ASTNode child : node.getChildren()) {
+            count += countReads(child, name);
+        }
+        return count;
+    }
+
+    private static boolean isVariable(ASTNode node, String name) {
+        return node instanceof IdentifierNode && ((IdentifierNode) node).getName().equals(name);
+    }
+
+    /** State gathered while checking the statements of one loop. */
+    private static final class Analysis {
+        final String loopVariable;
+        final Function<ASTNode, ASTNode> typeOf;
+        final Function<ASTNode, Type> valueType;
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> invariants = new LinkedHashSet<>();
+        final Set<String> arrays = new LinkedHashSet<>();
+        final Set<String> storedArrays = new LinkedHashSet<>();
+        boolean declares;
+        StorageType element;
+
+        Analysis(String loopVariable, Function<ASTNode, ASTNode> typeOf, Function<ASTNode, Type> valueType) {
+            this.loopVariable = loopVariable;
+            this.typeOf = typeOf;
+            this.valueType = valueType;
+        }
+
+        void collectAssigned(ASTNode node) {
+            if (node instanceof AssignmentNode && ((AssignmentNode) node).getTarget() instanceof IdentifierNode) {
+                assigned.add(((IdentifierNode) ((AssignmentNode) node).getTarget()).getName());
+            } else if (node instanceof VariableDeclarationNode || node instanceof ForLoopNode) {
+                declares = true;
+            }
+            for (ASTNode child : node.getChildren()) {
+                if (child != null) {
+                    collectAssigned(child);
+                }
+            }
+        }
+
+        /** a[i] with a a 1D integer or real array variable that the loop does not reassign. */
+        boolean checkAccess(ArrayAccessNode access) {
+            if (!(access.getArray() instanceof IdentifierNode) || !isVariable(access.getIndex(), loopVariable)) {
+                return false;
+            }
+            String array = ((IdentifierNode) access.getArray()).getName();
+            ASTNode type = typeOf.apply(access.getArray());
+            if (assigned.contains(array) || !(type instanceof ArrayTypeNode)) {
+                return false;
+            }
+            ASTNode elementType = typeOf.apply(access);
+            if (!(elementType instanceof PrimitiveTypeNode)) {
+                return false;
+            }
+            PrimitiveTypeNode.PrimitiveType primitive = ((PrimitiveTypeNode) elementType).getType();
+            StorageType storage = primitive == PrimitiveTypeNode.PrimitiveType.INTEGER ? StorageType.I32
+                : primitive == PrimitiveTypeNode.PrimitiveType.REAL ? StorageType.F64 : null;
+            arrays.add(array);
+            return unify(storage);
+        }
+
+        boolean checkExpression(ASTNode node) {
+            if (node instanceof ArrayAccessNode) {
+                return checkAccess((ArrayAccessNode) node);
+            }
+            if (node instanceof IdentifierNode) {
+                String name = ((IdentifierNode) node).getName();
+                if (name.equals(loopVariable)) {
+                    return unify(StorageType.I32);
+                }
+                ASTNode declared = typeOf.apply(node);
+                if (assigned.contains(name) || (declared != null && !(declared instanceof PrimitiveTypeNode))
+                        || (declared != null && ((PrimitiveTypeNode) declared).getType() == PrimitiveTypeNode.PrimitiveType.BOOLEAN)) {
+                    return false;
+                }
+                Type type = valueType.apply(node);
+                invariants.add(name);
+                return unify(type == Type.REAL ? StorageType.F64 : type == Type.INTEGER ? StorageType.I32 : null);
+            }
+            if (node instanceof LiteralNode) {
+                Object value = ((LiteralNode) node).getValue();
+                if (value instanceof Double || value instanceof Float) {
+                    return unify(StorageType.F64);
+                }
+                // Integer literals are exact in either lane type
+                return value instanceof Integer || value instanceof Long;
+            }
+            if (node instanceof UnaryExpressionNode) {
+                UnaryExpressionNode unary = (UnaryExpressionNode) node;
+                return unary.getOperator() == UnaryExpressionNode.Operator.MINUS && checkExpression(unary.getOperand());
+            }
+            if (node instanceof BinaryExpressionNode) {
+                BinaryExpressionNode binary = (BinaryExpressionNode) node;
+                switch (binary.getOperator()) {
+                    case PLUS:
+                    case MINUS:
+                    case MULTIPLY:
+                        break;
+                    case DIVIDE:
+                        // No integer SIMD division
+                        if (!unify(StorageType.F64)) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        return false;
+                }
+                return checkExpression(binary.getLeft()) && checkExpression(binary.getRight());
+            }
+            return false;
+        }
+
+        /** All lanes hold the same element type; mixing integers and reals needs conversions we do not emit. */
+        private boolean unify(StorageType storage) {
+            if (storage == null) {
+                return false;
+            }
+            if (element == null) {
+                element = storage;
+            }
+            return element == storage;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.languagei.compiler.codegen;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memo tables of the routines memoized with {@code --memoize}.
+ *
+ * A memoized routine is compiled as {@code $<name>.compute}, and
+ * {@code $<name>} becomes a wrapper that every call, recursive ones
+ * included, goes through. The wrapper hashes the arguments to one entry of a
+ * direct-mapped table in linear memory and returns the stored result when
+ * the entry holds the same arguments; otherwise it calls the compute
+ * function and overwrites the entry. Tables sit between the counters of
+ * instrumented builds and the heap, and start out zero, that is empty.
+ *
+ * An entry holds the i32 arguments, a valid flag and the result in an
+ * 8-byte slot.
+ */
+public class MemoTables {
+
+    private static final class Table {
+        final int arguments;
+        final String resultType;
+
+        Table(int arguments, String resultType) {
+            this.arguments = arguments;
+            this.resultType = resultType;
+        }
+
+        int flagOffset() {
+            return 4 * arguments;
+        }
+
+        int resultOffset() {
+            return MemoryLayout.alignUp(flagOffset() + 4, 8);
+        }
+
+        int entrySize() {
+            return resultOffset() + 8;
+        }
+    }
+
+    private final int entries;
+    private final Map<String, Table> tables = new LinkedHashMap<>();
+
+    /** @param entries entries per table, a power of two of at least 2 */
+    public MemoTables(int entries) {
+        this.entries = entries;
+    }
+
+    /** Name of the function holding the body of a memoized routine. */
+    public static String computeName(String routine) {
+        return routine + ".compute";
+    }
+
+    /** Memoize a routine with the given number of i32 arguments and result type. */
+    public void add(String routine, int arguments, String resultType) {
+        tables.put(routine, new Table(arguments, resultType));
+    }
+
+    public boolean contains(String routine) {
+        return tables.containsKey(routine);
+    }
+
+    /** The memoized routines, in declaration order. */
+    public Set<String> getRoutines() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * Emit the wrappers with the tables starting at {@code base}, and return
+     * the first address after the tables.
+     */
+    public int emitRuntime(WATWriter writer, int base) throws IOException {
+        int address = MemoryLayout.alignUp(base, 8);
+        int shift = 32 - Integer.numberOfTrailingZeros(entries);
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            emitWrapper(writer, entry.getKey(), entry.getValue(), address, shift);
+            address += entries * entry.getValue().entrySize();
+        }
+        return address;
+    }
+
+    private void emitWrapper(WATWriter writer, String routine, Table table, int address, int shift)
+            throws IOException {
+        String type = table.resultType;
+        StringBuilder header = new StringBuilder("(func $" + routine);
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < table.arguments; i++) {
+            header.append(" (param $a").append(i).append(" i32)");
+            arguments.append(" (local.get $a").append(i).append(")");
+        }
+        writer.writeLine(header + " (result " + type + ")");
+        writer.indent();
+        writer.writeLine("(local $hash i32)");
+        writer.writeLine("(local $entry i32)");
+        writer.writeLine("(local $result " + type + ")");
+        // Fibonacci hashing: mix the arguments, then keep the top bits as the index
+        for (int i = 0; i < table.arguments; i++) {
+            writer.writeLine("(local.set $hash (i32.mul (i32.xor (local.get $hash) (local.get $a" + i
+                + ")) (i32.const -1640531535)))");
+        }
+        writer.writeLine("(local.set $entry (i32.add (i32.const " + address + ") (i32.mul (i32.shr_u "
+            + "(local.get $hash) (i32.const " + shift + ")) (i32.const " + table.entrySize() + "))))");
+        String hit = "(i32.load offset=" + table.flagOffset() + " (local.get $entry))";
+        for (int i = 0; i < table.arguments; i++) {
+            hit = "(i32.and " + hit + " (i32.eq (i32.load offset=" + (4 * i)
+                + " (local.get $entry)) (local.get $a" + i + ")))";
+        }
+        writer.writeLine("(if " + hit);
+        writer.indent();
+        writer.writeLine("(then (return (" + type + ".load offset=" + table.resultOffset() + " (local.get $entry))))");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.writeLine("(local.set $result (call $" + computeName(routine) + arguments + "))");
+        // Recursive calls may have reused the entry meanwhile: overwrite it
+        for (int i = 0; i < table.arguments; i++) {
+            writer.writeLine("(i32.store offset=" + (4 * i) + " (local.get $entry) (local.get $a" + i + "))");
+        }
+        writer.writeLine("(i32.store offset=" + table.flagOffset() + " (local.get $entry) (i32.const 1))");
+        writer.writeLine("(" + type + ".store offset=" + table.resultOffset() + " (local.get $entry) (local.get $result))");
+        writer.writeLine("(local.get $result)");
+        writer.dedent();
+        writer.writeLine(")");
+    }
+}
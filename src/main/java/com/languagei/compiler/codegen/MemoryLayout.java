@@ -0,0 +1,151 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Sizes, alignments and storage types of values kept in linear memory.
+ *
+ * Scalars use their natural size (integer 4, real 8, boolean 1), records are
+ * stored inline with the layout computed by {@link RecordLayout}, and so are
+ * arrays whose sizes are all known at compile time; other arrays referenced
+ * from a record field are pointers. Record layouts are computed once per
+ * record type and cached.
+ *
+ * Multi-dimensional arrays are laid out contiguously in row-major order: the
+ * stride of a dimension is the size of one element of it. Strides that depend
+ * on sizes only known at run time are read from the array's stride header
+ * (see {@link #headerSize}).
+ */
+public class MemoryLayout {
+    private final TypeEnvironment typeEnvironment;
+    private final boolean packed;
+    private final Map<RecordTypeNode, RecordLayout> records = new IdentityHashMap<>();
+
+    public MemoryLayout(TypeEnvironment typeEnvironment, boolean packed) {
+        this.typeEnvironment = typeEnvironment;
+        this.packed = packed;
+    }
+
+    /** The layout of a record type. */
+    public RecordLayout layoutOf(RecordTypeNode record) {
+        RecordLayout layout = records.get(record);
+        if (layout == null) {
+            layout = new RecordLayout(record, this, packed);
+            records.put(record, layout);
+        }
+        return layout;
+    }
+
+    /** Follow type aliases until a type definition is reached. */
+    public ASTNode resolve(ASTNode type) {
+        if (type instanceof TypeReferenceNode) {
+            ASTNode aliased = typeEnvironment.resolveType(((TypeReferenceNode) type).getName());
+            if (aliased != null) {
+                return aliased;
+            }
+        }
+        return type;
+    }
+
+    /** Size in bytes of a value of the given type stored in memory. */
+    public int sizeOf(ASTNode type) {
+        type = resolve(type);
+        if (type instanceof RecordTypeNode) {
+            return layoutOf((RecordTypeNode) type).getSize();
+        }
+        if (isInline(type)) {
+            return lengthOf((ArrayTypeNode) type) * strideOf((ArrayTypeNode) type);
+        }
+        return storageOf(type).getSize();
+    }
+
+    /** Required alignment in bytes of a value of the given type. */
+    public int alignmentOf(ASTNode type) {
+        type = resolve(type);
+        if (type instanceof RecordTypeNode) {
+            return layoutOf((RecordTypeNode) type).getAlignment();
+        }
+        if (isInline(type)) {
+            return alignmentOf(((ArrayTypeNode) type).getElementType());
+        }
+        return storageOf(type).getSize();
+    }
+
+    /**
+     * Whether a record field of the given type holds the value itself rather
+     * than a pointer: records, and arrays with compile-time sizes.
+     */
+    public boolean isInline(ASTNode type) {
+        type = resolve(type);
+        return type instanceof RecordTypeNode
+            || (type instanceof ArrayTypeNode && lengthOf((ArrayTypeNode) type) != null
+                && strideOf((ArrayTypeNode) type) >= 0);
+    }
+
+    /** The number of elements of an array type if it is a compile-time constant, or null. */
+    public Integer lengthOf(ArrayTypeNode array) {
+        ASTNode size = array.getSizeExpression();
+        if (size instanceof LiteralNode && ((LiteralNode) size).getValue() instanceof Number) {
+            return ((Number) ((LiteralNode) size).getValue()).intValue();
+        }
+        return null;
+    }
+
+    /**
+     * Distance in bytes between consecutive elements of an array type, or -1
+     * if its elements are arrays whose size is only known at run time.
+     */
+    public int strideOf(ArrayTypeNode array) {
+        ASTNode element = resolve(array.getElementType());
+        if (element instanceof ArrayTypeNode) {
+            ArrayTypeNode row = (ArrayTypeNode) element;
+            Integer length = lengthOf(row);
+            int stride = strideOf(row);
+            return length != null && stride >= 0 ? length * stride : -1;
+        }
+        return sizeOf(element);
+    }
+
+    /** Number of dimensions of an array type: 1 plus the dimensions of an array element type. */
+    public int dimensionsOf(ArrayTypeNode array) {
+        ASTNode element = resolve(array.getElementType());
+        return element instanceof ArrayTypeNode ? 1 + dimensionsOf((ArrayTypeNode) element) : 1;
+    }
+
+    /**
+     * Size of the stride header in front of a separately allocated
+     * multi-dimensional array. The stride of dimension d (0 outermost) is
+     * stored as an i32 at {@code base - 4 * (d + 1)} for every dimension
+     * whose elements are arrays, so code that does not know the sizes
+     * statically (dynamic sizes, {@code array []} parameters) can still
+     * address the elements. Rounded to 8 to keep the elements aligned.
+     */
+    public static int headerSize(int dimensions) {
+        return alignUp(4 * (dimensions - 1), 8);
+    }
+
+    /**
+     * How a value of the given type is loaded and stored. Arrays and unknown
+     * types are pointer-sized.
+     */
+    public StorageType storageOf(ASTNode type) {
+        type = resolve(type);
+        if (type instanceof PrimitiveTypeNode) {
+            switch (((PrimitiveTypeNode) type).getType()) {
+                case REAL:
+                    return StorageType.F64;
+                case BOOLEAN:
+                    return StorageType.BYTE;
+                default:
+                    return StorageType.I32;
+            }
+        }
+        return StorageType.I32;
+    }
+
+    static int alignUp(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+}
@@ -0,0 +1,113 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.ASTNode;
+import com.languagei.compiler.ast.RoutineDeclarationNode;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Execution counts recorded by a program compiled with
+ * {@code --profile-generate}, read back for {@code --profile-use}.
+ *
+ * The profile is a text file. The first line names the format and its
+ * version; every other line is one site:
+ * <pre>
+ * language-i-profile 1
+ * entry  &lt;routine&gt; &lt;calls&gt;
+ * branch &lt;routine&gt; &lt;line&gt;:&lt;column&gt; &lt;then&gt; &lt;else&gt;
+ * loop   &lt;routine&gt; &lt;line&gt;:&lt;column&gt; &lt;entries&gt; &lt;iterations&gt;
+ * </pre>
+ * Lines are counted from the declaration of the enclosing routine (top-level
+ * code uses {@code _start} and absolute lines), so a profile still matches
+ * after edits in other routines.
+ */
+public class Profile {
+    public static final String FORMAT = "language-i-profile";
+    public static final int VERSION = 1;
+
+    /** Routine name used for top-level statements. */
+    public static final String TOP_LEVEL = "_start";
+
+    private final Map<String, long[]> counts = new HashMap<>();
+
+    /**
+     * Read a profile file.
+     *
+     * @throws IOException if the file cannot be read or is not a profile of this version
+     */
+    public static Profile read(Path file) throws IOException {
+        Profile profile = new Profile();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.trim().equals(FORMAT + " " + VERSION)) {
+                throw new IOException(file + " is not a version " + VERSION + " profile");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 3) {
+                    continue;
+                }
+                boolean positioned = !fields[0].equals("entry");
+                int first = positioned ? 3 : 2;
+                String key = positioned ? key(fields[0], fields[1], fields[2]) : key(fields[0], fields[1], "");
+                long[] values = new long[fields.length - first];
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Long.parseUnsignedLong(fields[first + i]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed profile line: " + line, e);
+                }
+                // Counts of repeated runs written to one file add up
+                long[] previous = profile.counts.putIfAbsent(key, values);
+                if (previous != null) {
+                    for (int i = 0; i < Math.min(previous.length, values.length); i++) {
+                        previous[i] += values[i];
+                    }
+                }
+            }
+        }
+        return profile;
+    }
+
+    /** Position of a node relative to the routine it belongs to, as written in the profile. */
+    public static String position(RoutineDeclarationNode routine, ASTNode node) {
+        int base = routine != null ? routine.getPosition().getLine() : 0;
+        return (node.getPosition().getLine() - base) + ":" + node.getPosition().getColumn();
+    }
+
+    /** Name of the routine a site belongs to, as written in the profile. */
+    public static String routineName(RoutineDeclarationNode routine) {
+        return routine != null ? routine.getName() : TOP_LEVEL;
+    }
+
+    /** Number of times a routine was entered, or -1 if the profile does not know it. */
+    public long getEntryCount(String routine) {
+        long[] values = counts.get(key("entry", routine, ""));
+        return values != null && values.length > 0 ? values[0] : -1;
+    }
+
+    /** Then/else counts of an if statement, or null if the profile does not know it. */
+    public long[] getBranchCounts(String routine, String position) {
+        return pair(counts.get(key("branch", routine, position)));
+    }
+
+    /** Entry and total iteration counts of a loop, or null if the profile does not know it. */
+    public long[] getLoopCounts(String routine, String position) {
+        return pair(counts.get(key("loop", routine, position)));
+    }
+
+    private static long[] pair(long[] values) {
+        return values != null && values.length >= 2 ? values : null;
+    }
+
+    private static String key(String kind, String routine, String position) {
+        return kind + " " + routine + " " + position;
+    }
+}
@@ -0,0 +1,110 @@
+package com.languagei.compiler.codegen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters of an instrumented module built with {@code --profile-generate}.
+ *
+ * Every profiled site (a routine entry, an if statement, a loop) owns one or
+ * more counters in the {@link CounterRegion}. At exit {@code $profile_dump}
+ * formats them as a {@link Profile} and writes it with WASI {@code fd_write}
+ * to a file in the first preopened directory, or to stderr when no directory
+ * is available.
+ */
+public class ProfileCounters {
+
+    private static final class Site {
+        final String label;
+        final int address;
+        final int counters;
+
+        Site(String label, int address, int counters) {
+            this.label = label;
+            this.address = address;
+            this.counters = counters;
+        }
+    }
+
+    private final CounterRegion region;
+    private final String fileName;
+    private final Map<String, Site> sites = new LinkedHashMap<>();
+
+    /** @param fileName name of the profile file written at exit */
+    public ProfileCounters(CounterRegion region, String fileName) {
+        this.region = region;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Address of counter {@code index} of the site with the given label. The
+     * site is created with {@code count} counters the first time it is seen.
+     */
+    public int address(String label, int count, int index) {
+        int address = region.counter("profile " + label, count, index);
+        sites.putIfAbsent(label, new Site(label, address - 8 * index, count));
+        return address;
+    }
+
+    /**
+     * Emit {@code $profile_dump}, called once at exit. Needs the
+     * {@code $path_open} and {@code $fd_close} imports.
+     */
+    public void emitRuntime(WATWriter writer) throws IOException {
+        String header = Profile.FORMAT + " " + Profile.VERSION + "\n";
+        int textBytes = header.length();
+        int counters = 0;
+        for (Site site : sites.values()) {
+            textBytes += site.label.getBytes(StandardCharsets.UTF_8).length + 1;
+            counters += site.counters;
+        }
+        int maxText = textBytes + counters * (CounterRegion.MAX_NUMBER_TEXT + 1);
+
+        writer.writeLine("(func $profile_dump");
+        writer.indent();
+        writer.writeLine("(local $start i32)");
+        writer.writeLine("(local $p i32)");
+        writer.writeLine("(local $fd i32)");
+        // Format the profile in free memory after the heap
+        writer.writeLine("(local.set $start (global.get $heap_ptr))");
+        writer.writeLine("(drop (call $grow_heap (i32.add (local.get $start) (i32.const " + maxText + "))))");
+        writer.writeLine("(local.set $p (local.get $start))");
+        emitText(writer, header);
+        for (Site site : sites.values()) {
+            emitText(writer, site.label);
+            for (int i = 0; i < site.counters; i++) {
+                writer.writeLine("(i32.store8 (local.get $p) (i32.const 32))");
+                writer.writeLine("(local.set $p (call $write_u64 (i32.add (local.get $p) (i32.const 1)) "
+                    + "(i64.load (i32.const " + (site.address + 8 * i) + "))))");
+            }
+            writer.writeLine("(i32.store8 (local.get $p) (i32.const 10))");
+            writer.writeLine("(local.set $p (i32.add (local.get $p) (i32.const 1)))");
+        }
+
+        // Create or truncate the file in the first preopened directory (fd 3), with the right to write it
+        int nameLength = fileName.getBytes(StandardCharsets.UTF_8).length;
+        writer.writeLine("(local.set $fd (i32.const 2))");
+        writer.writeLine("(if (i32.eqz (call $path_open (i32.const 3) (i32.const 0) (i32.const " + region.addText(fileName)
+            + ") (i32.const " + nameLength + ") (i32.const 9) (i64.const 64) (i64.const 0) (i32.const 0) (i32.const 2056)))");
+        writer.indent();
+        writer.writeLine("(then (local.set $fd (i32.load (i32.const 2056))))");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.writeLine("(i32.store (i32.const 2048) (local.get $start))");
+        writer.writeLine("(i32.store (i32.const 2052) (i32.sub (local.get $p) (local.get $start)))");
+        writer.writeLine("(drop (call $fd_write (local.get $fd) (i32.const 2048) (i32.const 1) (i32.const 2056)))");
+        writer.writeLine("(if (i32.ne (local.get $fd) (i32.const 2))");
+        writer.indent();
+        writer.writeLine("(then (drop (call $fd_close (local.get $fd))))");
+        writer.dedent();
+        writer.writeLine(")");
+        writer.dedent();
+        writer.writeLine(")");
+    }
+
+    private void emitText(WATWriter writer, String text) throws IOException {
+        CounterRegion.emitCopy(writer, region.addText(text), text.getBytes(StandardCharsets.UTF_8).length);
+    }
+}
@@ -0,0 +1,97 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.*;
+
+/**
+ * Memory layout of one record type: the offset of every field and the
+ * record's size and alignment.
+ *
+ * Every field is placed at a multiple of its natural alignment and the size
+ * is rounded up to the record's alignment, so records can be stored back to
+ * back in arrays. In packed mode the fields are laid out by decreasing
+ * alignment instead of declaration order, which removes the padding between
+ * them.
+ */
+public class RecordLayout {
+
+    /** Placement of one field. */
+    public static final class Field {
+        private final String name;
+        private final ASTNode type;
+        private final int offset;
+        private final int size;
+
+        Field(String name, ASTNode type, int offset, int size) {
+            this.name = name;
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** The field type with aliases resolved. */
+        public ASTNode getType() {
+            return type;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+    private final int size;
+    private final int alignment;
+
+    RecordLayout(RecordTypeNode record, MemoryLayout memory, boolean packed) {
+        List<VariableDeclarationNode> order = new ArrayList<>(record.getFields());
+        if (packed) {
+            // Stable, so fields with equal alignment keep their declaration order
+            order.sort(Comparator.comparingInt((VariableDeclarationNode f) -> memory.alignmentOf(f.getType())).reversed());
+        }
+
+        int offset = 0;
+        int maxAlignment = 1;
+        Map<String, Field> placed = new HashMap<>();
+        for (VariableDeclarationNode decl : order) {
+            int fieldAlignment = memory.alignmentOf(decl.getType());
+            int fieldSize = memory.sizeOf(decl.getType());
+            offset = MemoryLayout.alignUp(offset, fieldAlignment);
+            placed.put(decl.getName(), new Field(decl.getName(), memory.resolve(decl.getType()), offset, fieldSize));
+            offset += fieldSize;
+            maxAlignment = Math.max(maxAlignment, fieldAlignment);
+        }
+        // Keep declaration order for iteration regardless of placement
+        for (VariableDeclarationNode decl : record.getFields()) {
+            fields.putIfAbsent(decl.getName(), placed.get(decl.getName()));
+        }
+        this.alignment = maxAlignment;
+        this.size = MemoryLayout.alignUp(offset, maxAlignment);
+    }
+
+    /** The field with the given name, or null if the record has no such field. */
+    public Field getField(String name) {
+        return fields.get(name);
+    }
+
+    /** Fields in declaration order. */
+    public Collection<Field> getFields() {
+        return fields.values();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+}
@@ -0,0 +1,42 @@
+package com.languagei.compiler.codegen;
+
+/**
+ * How a scalar value is kept in linear memory: its size and the wasm
+ * instructions that load and store it. Integers and pointers take four
+ * bytes, reals eight and booleans one.
+ */
+public enum StorageType {
+    I32(4, "i32", "i32.load", "i32.store"),
+    F64(8, "f64", "f64.load", "f64.store"),
+    BYTE(1, "i32", "i32.load8_u", "i32.store8");
+
+    private final int size;
+    private final String wasmType;
+    private final String load;
+    private final String store;
+
+    StorageType(int size, String wasmType, String load, String store) {
+        this.size = size;
+        this.wasmType = wasmType;
+        this.load = load;
+        this.store = store;
+    }
+
+    /** Size in bytes, which is also the natural alignment. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Type of the value on the wasm stack. */
+    public String getWasmType() {
+        return wasmType;
+    }
+
+    public String getLoadInstruction() {
+        return load;
+    }
+
+    public String getStoreInstruction() {
+        return store;
+    }
+}
@@ -0,0 +1,148 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recognizes if/else-if chains that compare one expression with integer
+ * constants, {@code if x = 1 then ... else if x = 2 then ... else ... end},
+ * so they can be dispatched with a jump table or a binary search instead of
+ * one comparison per arm.
+ *
+ * Every condition of the chain must be {@code e = c} or {@code c = e} for
+ * structurally equal expressions e (see {@link ExpressionKey}) and integer
+ * literals c. Conditions are evaluated one after another with nothing in
+ * between, so e can be evaluated once before the dispatch. The chain ends at
+ * the first else block that is not a single matching if statement; that
+ * block becomes the default arm.
+ */
+public class SwitchRecognizer {
+
+    /** Chains with fewer cases are left as comparisons. */
+    public static final int MIN_CASES = 4;
+
+    /** One arm of a chain. */
+    public static final class Case {
+        private final int value;
+        private final BlockNode body;
+
+        private Case(int value, BlockNode body) {
+            this.value = value;
+            this.body = body;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public BlockNode getBody() {
+            return body;
+        }
+    }
+
+    /** A recognized chain. */
+    public static final class SwitchChain {
+        private final ASTNode selector;
+        private final List<Case> cases;
+        private final BlockNode defaultBody;
+
+        private SwitchChain(ASTNode selector, List<Case> cases, BlockNode defaultBody) {
+            this.selector = selector;
+            this.cases = cases;
+            this.defaultBody = defaultBody;
+        }
+
+        /** The expression compared by every condition (taken from the first one). */
+        public ASTNode getSelector() {
+            return selector;
+        }
+
+        /** The cases in source order, each value only once. */
+        public List<Case> getCases() {
+            return cases;
+        }
+
+        /** The arm run when no case matches, or null. */
+        public BlockNode getDefaultBody() {
+            return defaultBody;
+        }
+    }
+
+    /**
+     * Match a chain starting at an if statement, or return null if it has
+     * fewer than {@link #MIN_CASES} distinct cases. Whether the selector is
+     * an integer is left to the caller.
+     */
+    public SwitchChain recognize(IfStatementNode node) {
+        BinaryExpressionNode first = comparison(node.getCondition());
+        if (first == null) {
+            return null;
+        }
+        ASTNode selector = selectorOf(first);
+        String key = ExpressionKey.of(selector);
+
+        List<Case> cases = new ArrayList<>();
+        Set<Integer> values = new HashSet<>();
+        IfStatementNode current = node;
+        while (true) {
+            int value = valueOf(comparison(current.getCondition()));
+            // A repeated value can never reach its later arm
+            if (values.add(value)) {
+                cases.add(new Case(value, current.getThenBlock()));
+            }
+            BlockNode rest = current.getElseBlock();
+            IfStatementNode next = singleIf(rest);
+            BinaryExpressionNode condition = next == null ? null : comparison(next.getCondition());
+            if (condition == null || !key.equals(ExpressionKey.of(selectorOf(condition)))) {
+                return cases.size() < MIN_CASES ? null : new SwitchChain(selector, cases, rest);
+            }
+            current = next;
+        }
+    }
+
+    private static IfStatementNode singleIf(BlockNode block) {
+        if (block == null || block.getStatements().size() != 1
+                || !(block.getStatements().get(0) instanceof IfStatementNode)) {
+            return null;
+        }
+        return (IfStatementNode) block.getStatements().get(0);
+    }
+
+    /** The condition if it is an equality between an expression with a key and an integer literal. */
+    private static BinaryExpressionNode comparison(ASTNode condition) {
+        if (!(condition instanceof BinaryExpressionNode)) {
+            return null;
+        }
+        BinaryExpressionNode binary = (BinaryExpressionNode) condition;
+        if (binary.getOperator() != BinaryExpressionNode.Operator.EQ) {
+            return null;
+        }
+        boolean constantRight = isIntegerLiteral(binary.getRight());
+        if (constantRight == isIntegerLiteral(binary.getLeft())) {
+            return null;
+        }
+        return ExpressionKey.of(constantRight ? binary.getLeft() : binary.getRight()) == null ? null : binary;
+    }
+
+    private static ASTNode selectorOf(BinaryExpressionNode comparison) {
+        return isIntegerLiteral(comparison.getRight()) ? comparison.getLeft() : comparison.getRight();
+    }
+
+    private static int valueOf(BinaryExpressionNode comparison) {
+        LiteralNode literal = (LiteralNode) (isIntegerLiteral(comparison.getRight())
+            ? comparison.getRight() : comparison.getLeft());
+        return ((Number) literal.getValue()).intValue();
+    }
+
+    private static boolean isIntegerLiteral(ASTNode node) {
+        if (!(node instanceof LiteralNode)) {
+            return false;
+        }
+        Object value = ((LiteralNode) node).getValue();
+        return value instanceof Integer
+            || (value instanceof Long && (Long) value == ((Long) value).intValue());
+    }
+}
@@ -0,0 +1,182 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.*;
+
+/**
+ * Finds the routine calls of a routine body that are in tail position.
+ *
+ * A call is in tail position when its result is returned directly
+ * ({@code return f(...)}) or, in a procedure, when nothing but a return
+ * follows it. Self calls in tail position can be turned into a jump back to
+ * the routine entry; tail calls to other routines can use {@code return_call}.
+ *
+ * For integer functions the analysis also recognizes accumulating returns
+ * such as {@code return n * f(n - 1)}: since integer + and * are associative
+ * and commutative (wasm arithmetic wraps), the pending operand can be folded
+ * into an accumulator before jumping, and every other return then yields
+ * {@code accumulator op value}. All accumulating returns of a routine must use
+ * the same operator.
+ */
+public class TailCallAnalyzer {
+
+    /** Tail calls and accumulating returns of one routine. */
+    public static class TailCalls {
+        private final String routineName;
+        private final Set<ASTNode> tailCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Map<ASTNode, BinaryExpressionNode> accumulatingReturns = new IdentityHashMap<>();
+        private BinaryExpressionNode.Operator accumulator;
+
+        private TailCalls(String routineName) {
+            this.routineName = routineName;
+        }
+
+        /** Whether the call is in tail position. */
+        public boolean isTailCall(ASTNode call) {
+            return tailCalls.contains(call);
+        }
+
+        /** Whether the call is a tail call of the routine to itself. */
+        public boolean isSelfTailCall(ASTNode call) {
+            return isTailCall(call) && routineName.equals(((RoutineCallNode) call).getName());
+        }
+
+        /**
+         * The {@code x op self(...)} expression returned by an accumulating
+         * return statement, or null if the return does not accumulate.
+         */
+        public BinaryExpressionNode getAccumulatingReturn(ASTNode returnStatement) {
+            return accumulatingReturns.get(returnStatement);
+        }
+
+        /** The accumulator operator, or null if the routine does not accumulate. */
+        public BinaryExpressionNode.Operator getAccumulator() {
+            return accumulator;
+        }
+
+        /** Whether the routine jumps back to its own entry anywhere. */
+        public boolean hasSelfTailCalls() {
+            if (!accumulatingReturns.isEmpty()) {
+                return true;
+            }
+            for (ASTNode call : tailCalls) {
+                if (routineName.equals(((RoutineCallNode) call).getName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The self call an accumulating return jumps through. */
+        public RoutineCallNode getAccumulatedCall(BinaryExpressionNode expr) {
+            return (RoutineCallNode) (isSelfCall(expr.getRight()) ? expr.getRight() : expr.getLeft());
+        }
+
+        /** The operand an accumulating return folds into the accumulator. */
+        public ASTNode getAccumulatedOperand(BinaryExpressionNode expr) {
+            return isSelfCall(expr.getRight()) ? expr.getLeft() : expr.getRight();
+        }
+
+        private boolean isSelfCall(ASTNode node) {
+            return node instanceof RoutineCallNode && routineName.equals(((RoutineCallNode) node).getName());
+        }
+    }
+
+    /**
+     * Analyze a routine body.
+     *
+     * @param integerResult whether the routine returns an integer, which is
+     *     required for accumulating returns
+     */
+    public TailCalls analyze(RoutineDeclarationNode routine, boolean integerResult) {
+        TailCalls result = new TailCalls(routine.getName());
+        boolean procedure = routine.getReturnType() == null;
+        collect(routine.getBody(), true, procedure, integerResult, result);
+
+        // Accumulating returns must agree on the operator; otherwise keep them as calls
+        for (BinaryExpressionNode expr : result.accumulatingReturns.values()) {
+            if (result.accumulator == null) {
+                result.accumulator = expr.getOperator();
+            } else if (result.accumulator != expr.getOperator()) {
+                result.accumulatingReturns.clear();
+                result.accumulator = null;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private void collect(BlockNode block, boolean tail, boolean procedure, boolean integerResult, TailCalls result) {
+        if (block == null) {
+            return;
+        }
+        List<ASTNode> statements = block.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            ASTNode stmt = statements.get(i);
+            boolean last = i == statements.size() - 1;
+            if (stmt instanceof ReturnStatementNode) {
+                ASTNode value = ((ReturnStatementNode) stmt).getValue();
+                if (value instanceof RoutineCallNode) {
+                    result.tailCalls.add(value);
+                } else if (integerResult && isAccumulatingReturn(value, result)) {
+                    result.accumulatingReturns.put(stmt, (BinaryExpressionNode) value);
+                }
+            } else if (stmt instanceof RoutineCallNode) {
+                boolean returnsNext = !last && statements.get(i + 1) instanceof ReturnStatementNode
+                    && ((ReturnStatementNode) statements.get(i + 1)).getValue() == null;
+                if (procedure && ((tail && last) || returnsNext)) {
+                    result.tailCalls.add(stmt);
+                }
+            } else if (stmt instanceof IfStatementNode) {
+                IfStatementNode ifStmt = (IfStatementNode) stmt;
+                collect(ifStmt.getThenBlock(), tail && last, procedure, integerResult, result);
+                collect(ifStmt.getElseBlock(), tail && last, procedure, integerResult, result);
+            } else if (stmt instanceof WhileLoopNode) {
+                collect(((WhileLoopNode) stmt).getBody(), false, procedure, integerResult, result);
+            } else if (stmt instanceof ForLoopNode) {
+                collect(((ForLoopNode) stmt).getBody(), false, procedure, integerResult, result);
+            } else if (stmt instanceof BlockNode) {
+                collect((BlockNode) stmt, tail && last, procedure, integerResult, result);
+            }
+        }
+    }
+
+    /**
+     * {@code x + self(...)} or {@code x * self(...)}, or the mirrored form. When
+     * the self call comes first, x is evaluated after the call returns in the
+     * original program, so it must be free of calls, memory reads and traps to
+     * be evaluated before the jump instead.
+     */
+    private boolean isAccumulatingReturn(ASTNode value, TailCalls result) {
+        if (!(value instanceof BinaryExpressionNode)) {
+            return false;
+        }
+        BinaryExpressionNode expr = (BinaryExpressionNode) value;
+        if (expr.getOperator() != BinaryExpressionNode.Operator.PLUS
+                && expr.getOperator() != BinaryExpressionNode.Operator.MULTIPLY) {
+            return false;
+        }
+        if (result.isSelfCall(expr.getRight())) {
+            return true;
+        }
+        return result.isSelfCall(expr.getLeft()) && isSimple(expr.getRight());
+    }
+
+    private static boolean isSimple(ASTNode node) {
+        if (node instanceof LiteralNode || node instanceof IdentifierNode) {
+            return true;
+        }
+        if (node instanceof UnaryExpressionNode) {
+            return isSimple(((UnaryExpressionNode) node).getOperand());
+        }
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            if (binary.getOperator() == BinaryExpressionNode.Operator.DIVIDE
+                    || binary.getOperator() == BinaryExpressionNode.Operator.MODULO) {
+                return false;
+            }
+            return isSimple(binary.getLeft()) && isSimple(binary.getRight());
+        }
+        return false;
+    }
+}
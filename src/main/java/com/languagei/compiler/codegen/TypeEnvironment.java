@@ -2,7 +2,9 @@ package com.languagei.compiler.codegen;
 
 import com.languagei.compiler.ast.*;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Manages type aliases and type resolution
@@ -10,19 +12,39 @@ import java.util.Map;
 public class TypeEnvironment {
 
     private final Map<String, ASTNode> typeAliases = new HashMap<>();
+    // End of each alias chain resolved so far; cleared when an alias is added
+    private final Map<String, ASTNode> resolved = new HashMap<>();
 
     /**
      * Add a type alias
      */
     public void addTypeAlias(String name, ASTNode typeDefinition) {
         typeAliases.put(name, typeDefinition);
+        resolved.clear();
     }
 
     /**
-     * Resolve a type reference by following aliases
+     * Resolve a type reference by following aliases to the end of the chain.
+     * Returns null for a name that is not an alias; a chain that ends at an
+     * unknown name, or runs in a cycle, ends at its last reference.
      */
     public ASTNode resolveType(String typeName) {
-        return typeAliases.get(typeName);
+        ASTNode cached = resolved.get(typeName);
+        if (cached != null || !typeAliases.containsKey(typeName)) {
+            return cached;
+        }
+        ASTNode type = typeAliases.get(typeName);
+        Set<String> seen = new HashSet<>();
+        seen.add(typeName);
+        while (type instanceof TypeReferenceNode) {
+            String next = ((TypeReferenceNode) type).getName();
+            if (!typeAliases.containsKey(next) || !seen.add(next)) {
+                break;
+            }
+            type = typeAliases.get(next);
+        }
+        resolved.put(typeName, type);
+        return type;
     }
 
     /**
@@ -44,5 +66,6 @@ public class TypeEnvironment {
      */
     public void clear() {
         typeAliases.clear();
+        resolved.clear();
     }
 }
@@ -2,6 +2,7 @@ package com.languagei.compiler.codegen;
 
 import com.languagei.compiler.ast.*;
 import com.languagei.compiler.semantic.Type;
+import java.util.function.Function;
 
 /**
  * Resolves types for expressions during code generation.
@@ -11,13 +12,23 @@ public class TypeResolver implements ASTVisitor {
 
     private Type currentType;
     private final VariableScopeManager scopeManager;
+    private final Function<ASTNode, Type> declaredTypes;
 
     public TypeResolver() {
-        this.scopeManager = null;
+        this(null, null);
     }
 
     public TypeResolver(VariableScopeManager scopeManager) {
+        this(scopeManager, null);
+    }
+
+    /**
+     * @param declaredTypes gives the type of array and record accesses and of
+     *     routine calls, from the declarations known to the code generator
+     */
+    public TypeResolver(VariableScopeManager scopeManager, Function<ASTNode, Type> declaredTypes) {
         this.scopeManager = scopeManager;
+        this.declaredTypes = declaredTypes;
     }
 
     public Type resolveType(ASTNode node) {
@@ -41,6 +52,11 @@ public class TypeResolver implements ASTVisitor {
         // Not used for type resolution
     }
 
+    @Override
+    public void visit(ImportDeclarationNode node) {
+        // Not used for type resolution
+    }
+
     @Override
     public void visit(RoutineDeclarationNode node) {
         // Not used for type resolution
@@ -115,6 +131,9 @@ public class TypeResolver implements ASTVisitor {
         // Try to infer identifier type from the codegen variable scope, if available
         if (scopeManager != null) {
             VariableScopeManager.VariableInfo var = scopeManager.lookupVariable(node.getName());
+            if (var == null) {
+                var = scopeManager.lookupFunctionLocal(node.getName());
+            }
             if (var != null) {
                 if ("f64".equals(var.wasmType)) {
                     currentType = Type.REAL;
@@ -133,22 +152,19 @@ public class TypeResolver implements ASTVisitor {
     @Override
     public void visit(ArrayAccessNode node) {
         // Array access returns element type
-        // For now, assume INTEGER elements
-        currentType = Type.INTEGER;
+        currentType = declaredTypes != null ? declaredTypes.apply(node) : Type.INTEGER;
     }
 
     @Override
     public void visit(RecordAccessNode node) {
         // Record access returns field type
-        // For now, assume INTEGER
-        currentType = Type.INTEGER;
+        currentType = declaredTypes != null ? declaredTypes.apply(node) : Type.INTEGER;
     }
 
     @Override
     public void visit(RoutineCallNode node) {
         // Function call returns return type
-        // For now, assume INTEGER
-        currentType = Type.INTEGER;
+        currentType = declaredTypes != null ? declaredTypes.apply(node) : Type.INTEGER;
     }
 
     @Override
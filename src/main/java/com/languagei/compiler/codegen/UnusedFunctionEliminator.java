@@ -0,0 +1,156 @@
+package com.languagei.compiler.codegen;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Removes functions that can never run from a generated module.
+ *
+ * The call graph is rooted at the exported functions ({@code _start}) and
+ * follows every {@code call} and {@code return_call}, so both user routines
+ * and runtime helpers (print_real, allocate_record, ...) are only kept when a
+ * reachable function calls them. Unused imported functions are dropped too.
+ * Everything else in the module (memory, data, globals, exports) is kept.
+ */
+public class UnusedFunctionEliminator {
+    private static final Pattern FUNCTION = Pattern.compile("^\\(func \\$([^\\s()]+)");
+    private static final Pattern IMPORTED_FUNCTION = Pattern.compile("^\\(import [^(]*\\(func \\$([^\\s()]+)");
+    private static final Pattern EXPORTED_FUNCTION = Pattern.compile("^\\(export \"[^\"]*\" \\(func \\$([^\\s()]+)\\)");
+    private static final Pattern CALL = Pattern.compile("\\((?:return_)?call \\$([^\\s()]+)");
+
+    private final List<String> removedFunctions = new ArrayList<>();
+
+    /** Names of the functions removed by the last {@link #eliminate(String)}, in module order. */
+    public List<String> getRemovedFunctions() {
+        return removedFunctions;
+    }
+
+    /** Return the module text without its unreachable functions. */
+    public String eliminate(String module) {
+        removedFunctions.clear();
+        List<String> items = splitItems(module);
+
+        Map<String, String> functions = new HashMap<>();
+        Deque<String> worklist = new ArrayDeque<>();
+        for (String item : items) {
+            String expr = expression(item);
+            String name = match(FUNCTION, expr);
+            if (name == null) {
+                name = match(IMPORTED_FUNCTION, expr);
+            }
+            if (name != null) {
+                functions.put(name, item);
+            }
+            String exported = match(EXPORTED_FUNCTION, expr);
+            if (exported != null) {
+                worklist.add(exported);
+            }
+        }
+
+        Set<String> reachable = new HashSet<>();
+        while (!worklist.isEmpty()) {
+            String name = worklist.pop();
+            if (!reachable.add(name) || !functions.containsKey(name)) {
+                continue;
+            }
+            Matcher call = CALL.matcher(functions.get(name));
+            while (call.find()) {
+                worklist.add(call.group(1));
+            }
+        }
+
+        StringBuilder result = new StringBuilder(module.length());
+        for (String item : items) {
+            String expr = expression(item);
+            String name = match(FUNCTION, expr);
+            if (name == null) {
+                name = match(IMPORTED_FUNCTION, expr);
+            }
+            if (name != null && !reachable.contains(name)) {
+                removedFunctions.add(name);
+                continue;
+            }
+            result.append(item);
+        }
+        return result.toString();
+    }
+
+    /**
+     * The fields of a module that define the named functions, in module
+     * order, with the comments in front of them.
+     */
+    public static String extractFunctions(String module, Collection<String> names) {
+        StringBuilder result = new StringBuilder();
+        for (String item : splitItems(module)) {
+            String name = match(FUNCTION, expression(item));
+            if (name != null && names.contains(name)) {
+                result.append(item);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Split the module text into the "(module" line, one piece per module
+     * field (with the comments in front of it and the rest of its last line)
+     * and the closing parenthesis.
+     */
+    private static List<String> splitItems(String module) {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        boolean inString = false;
+        boolean cut = false;
+        for (int i = 0; i < module.length(); i++) {
+            char c = module.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == ';' && i + 1 < module.length() && module.charAt(i + 1) == ';') {
+                while (i + 1 < module.length() && module.charAt(i + 1) != '\n') {
+                    i++;
+                }
+            } else if (c == '(') {
+                depth++;
+                cut |= depth == 1;
+            } else if (c == ')') {
+                depth--;
+                cut |= depth == 1;
+            } else if (c == '\n' && cut) {
+                items.add(module.substring(start, i + 1));
+                start = i + 1;
+                cut = false;
+            }
+        }
+        items.add(module.substring(start));
+        return items;
+    }
+
+    /** The item text without leading whitespace and comment lines. */
+    private static String expression(String item) {
+        int i = 0;
+        while (i < item.length()) {
+            char c = item.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (item.startsWith(";;", i)) {
+                int end = item.indexOf('\n', i);
+                i = end < 0 ? item.length() : end + 1;
+            } else {
+                break;
+            }
+        }
+        return item.substring(i);
+    }
+
+    private static String match(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+}
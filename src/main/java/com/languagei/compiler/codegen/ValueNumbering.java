@@ -0,0 +1,215 @@
+package com.languagei.compiler.codegen;
+
+import com.languagei.compiler.ast.*;
+import java.util.*;
+
+/**
+ * Value numbering for the code generator (common subexpression elimination).
+ *
+ * While a function body is generated, every pure expression value and every
+ * element/field address is keyed by {@link ExpressionKey}. When a computation
+ * with the same key is still available, its result is read from the local
+ * that captured it instead of being recomputed.
+ *
+ * A computation stays available along straight-line code and into the blocks
+ * it dominates. It is invalidated when a variable it reads is assigned, and,
+ * if it reads memory, when a store may alias one of its loads or a routine is
+ * called. Results computed inside an if branch, a loop body or the right
+ * operand of a short-circuit and/or are dropped when that code ends.
+ *
+ * A function body is generated twice. The discovery pass captures every
+ * computation and records which captures are ever reused; the final pass
+ * only captures those.
+ */
+public class ValueNumbering {
+
+    private static final class Entry {
+        final String local;
+        final Set<String> variables = new HashSet<>();
+        final List<ASTNode> loads = new ArrayList<>();
+
+        Entry(String local) {
+            this.local = local;
+        }
+    }
+
+    /** Available computations at some program point, used to join control flow. */
+    public static final class Snapshot {
+        private final Map<String, Entry> entries;
+
+        private Snapshot(Map<String, Entry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    private final LoopInvariantAnalyzer aliasing;
+    private final Set<ASTNode> reusedValues = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<ASTNode> reusedAddresses = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<String, ASTNode> definitions = new HashMap<>();
+    private Map<String, Entry> available = new HashMap<>();
+    private boolean discovering;
+
+    public ValueNumbering(LoopInvariantAnalyzer aliasing) {
+        this.aliasing = aliasing;
+    }
+
+    /** Start generating a function body; the discovery pass must come first. */
+    public void beginPass(boolean discovering) {
+        this.discovering = discovering;
+        available.clear();
+        definitions.clear();
+        if (discovering) {
+            reusedValues.clear();
+            reusedAddresses.clear();
+        }
+    }
+
+    /** Return the local holding an available computation of the expression (or its address), or null. */
+    public String lookup(ASTNode node, boolean address) {
+        String key = keyOf(node, address);
+        Entry entry = key == null ? null : available.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (discovering) {
+            (address ? reusedAddresses : reusedValues).add(definitions.get(key));
+        }
+        return entry.local;
+    }
+
+    /** Whether the computation of this node should be captured in a local. */
+    public boolean shouldCapture(ASTNode node, boolean address) {
+        if (keyOf(node, address) == null) {
+            return false;
+        }
+        return discovering || (address ? reusedAddresses : reusedValues).contains(node);
+    }
+
+    /** Record that the value (or address) of a node has just been captured in a local. */
+    public void define(ASTNode node, boolean address, String local) {
+        String key = keyOf(node, address);
+        Entry entry = new Entry(local);
+        collectVariables(node, entry.variables);
+        if (address) {
+            collectAddressLoads(node, entry.loads);
+        } else {
+            collectLoads(node, entry.loads);
+        }
+        available.put(key, entry);
+        definitions.put(key, node);
+    }
+
+    /** A variable has been assigned. */
+    public void killVariable(String name) {
+        available.values().removeIf(entry -> entry.variables.contains(name));
+    }
+
+    /** Memory addressed by the given assignment target has been written. */
+    public void killStore(ASTNode target) {
+        String stored = aliasing.rootVariable(target);
+        available.values().removeIf(entry -> {
+            for (ASTNode load : entry.loads) {
+                String root = aliasing.rootVariable(load);
+                if (stored == null || root == null || aliasing.mayAlias(root, stored)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /** Arbitrary memory may have been written (routine call). */
+    public void killMemory() {
+        available.values().removeIf(entry -> !entry.loads.isEmpty());
+    }
+
+    /**
+     * Entering a loop: drop everything the loop may change on a later
+     * iteration, and return the state to restore once the loop is done.
+     */
+    public Snapshot enterLoop(LoopInvariantAnalyzer.LoopEffects effects) {
+        for (String name : effects.getModifiedVariables()) {
+            killVariable(name);
+        }
+        if (effects.writesMemory()) {
+            killMemory();
+        }
+        return snapshot();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(new HashMap<>(available));
+    }
+
+    public void restore(Snapshot snapshot) {
+        available = new HashMap<>(snapshot.entries);
+    }
+
+    /**
+     * Join after a two-way branch: keep the computations available before the
+     * branch that survived both arms.
+     */
+    public void join(Snapshot before, Snapshot thenArm, Snapshot elseArm) {
+        Map<String, Entry> joined = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : before.entries.entrySet()) {
+            String key = entry.getKey();
+            if (thenArm.entries.get(key) == entry.getValue() && elseArm.entries.get(key) == entry.getValue()) {
+                joined.put(key, entry.getValue());
+            }
+        }
+        available = joined;
+    }
+
+    private static String keyOf(ASTNode node, boolean address) {
+        String key = ExpressionKey.of(node);
+        if (key == null) {
+            return null;
+        }
+        return address ? "&" + key : key;
+    }
+
+    private static void collectVariables(ASTNode node, Set<String> variables) {
+        if (node instanceof IdentifierNode) {
+            variables.add(((IdentifierNode) node).getName());
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (child != null) {
+                collectVariables(child, variables);
+            }
+        }
+    }
+
+    /** Element and field reads performed when evaluating a value. */
+    private static void collectLoads(ASTNode node, List<ASTNode> loads) {
+        if (node instanceof ArrayAccessNode || node instanceof RecordAccessNode) {
+            loads.add(node);
+            collectAddressLoads(node, loads);
+            return;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (child != null) {
+                collectLoads(child, loads);
+            }
+        }
+    }
+
+    /**
+     * Reads performed when computing the address of an access. Nested records
+     * and arrays of records are inline, so the field address of r.a.b or
+     * arr[i].b reads nothing beyond the index; every other nested access is
+     * conservatively treated as a read.
+     */
+    private static void collectAddressLoads(ASTNode access, List<ASTNode> loads) {
+        if (access instanceof ArrayAccessNode) {
+            collectLoads(((ArrayAccessNode) access).getArray(), loads);
+            collectLoads(((ArrayAccessNode) access).getIndex(), loads);
+        } else if (access instanceof RecordAccessNode) {
+            ASTNode object = ((RecordAccessNode) access).getObject();
+            if (object instanceof RecordAccessNode || object instanceof ArrayAccessNode) {
+                collectAddressLoads(object, loads);
+            } else {
+                collectLoads(object, loads);
+            }
+        }
+    }
+}
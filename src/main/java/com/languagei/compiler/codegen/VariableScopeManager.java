@@ -88,6 +88,21 @@ public class VariableScopeManager {
         return null;
     }
 
+    /**
+     * Look up a variable of the current function by name regardless of scope.
+     * Locals are declared once per name, so this is the variable whose wasm
+     * local the name refers to; block scopes are only populated while locals
+     * are being collected.
+     */
+    public VariableInfo lookupFunctionLocal(String name) {
+        for (VariableInfo var : functionLocals) {
+            if (var.name.equals(name)) {
+                return var;
+            }
+        }
+        return null;
+    }
+
     /**
      * Get all local variables that need to be declared at function start
      */
@@ -1,13 +1,18 @@
 package com.languagei.compiler.codegen;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * Writes WebAssembly Text (WAT) format code
  */
 public class WATWriter {
-    private final Writer writer;
+    private Writer writer;
+    private final Deque<Writer> captured = new ArrayDeque<>();
     private int indentLevel = 0;
     private static final String INDENT = "  ";
 
@@ -53,6 +58,44 @@ public class WATWriter {
         writer.write(")\n");
     }
 
+    /**
+     * Redirect all subsequent output into a buffer until {@link #endCapture()}
+     * is called. Captures may be nested.
+     */
+    public void beginCapture() {
+        captured.push(writer);
+        writer = new StringWriter();
+    }
+
+    /**
+     * Stop capturing and return the text written since the matching
+     * {@link #beginCapture()}. The text can later be emitted with {@link #write(String)}.
+     */
+    public String endCapture() {
+        String text = writer.toString();
+        writer = captured.pop();
+        return text;
+    }
+
+    /** Escape text for a WAT string literal. */
+    public static String escape(String text) {
+        return escape(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Escape bytes for a WAT string literal. */
+    public static String escape(byte[] bytes) {
+        StringBuilder out = new StringBuilder();
+        for (byte b : bytes) {
+            int c = b & 0xff;
+            if (c >= 0x20 && c < 0x7f && c != '"' && c != '\\') {
+                out.append((char) c);
+            } else {
+                out.append(String.format("\\%02x", c));
+            }
+        }
+        return out.toString();
+    }
+
     public void close() throws IOException {
         writer.close();
     }
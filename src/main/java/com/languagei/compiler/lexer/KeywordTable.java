@@ -18,6 +18,7 @@ public class KeywordTable {
         keywords.put("end", TokenType.END);
         keywords.put("record", TokenType.RECORD);
         keywords.put("array", TokenType.ARRAY);
+        keywords.put("import", TokenType.IMPORT);
 
         // Type keywords
         keywords.put("integer", TokenType.INTEGER_TYPE);
@@ -5,7 +5,7 @@ package com.languagei.compiler.lexer;
  */
 public enum TokenType {
     // Keywords - Declarations
-    VAR, TYPE, ROUTINE, IS, END, RECORD, ARRAY,
+    VAR, TYPE, ROUTINE, IS, END, RECORD, ARRAY, IMPORT,
 
     // Keywords - Types
     INTEGER_TYPE, REAL_TYPE, BOOLEAN_TYPE, TRUE, FALSE,
@@ -0,0 +1,64 @@
+package com.languagei.compiler.module;
+
+import com.languagei.compiler.ast.ASTNode;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A module ready to be imported: the declarations of its interface, the
+ * code of its routines and the modules it imports itself.
+ */
+public class CompiledModule {
+    private final String name;
+    private final Path source;
+    private final List<ASTNode> declarations;
+    private final String interfaceHash;
+    private final String code;
+    private final List<CompiledModule> imports;
+    private final boolean rebuilt;
+
+    public CompiledModule(String name, Path source, List<ASTNode> declarations, String interfaceHash,
+                          String code, List<CompiledModule> imports, boolean rebuilt) {
+        this.name = name;
+        this.source = source;
+        this.declarations = declarations;
+        this.interfaceHash = interfaceHash;
+        this.code = code;
+        this.imports = imports;
+        this.rebuilt = rebuilt;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    /** Type declarations and routine declarations without bodies. */
+    public List<ASTNode> getDeclarations() {
+        return Collections.unmodifiableList(declarations);
+    }
+
+    /** Hash of the interface; modules importing this one are rebuilt when it changes. */
+    public String getInterfaceHash() {
+        return interfaceHash;
+    }
+
+    /** The functions of the module's routines, as WAT module fields. */
+    public String getCode() {
+        return code;
+    }
+
+    public List<CompiledModule> getImports() {
+        return Collections.unmodifiableList(imports);
+    }
+
+    /** Whether the module was compiled by this compilation rather than taken from the cache. */
+    public boolean isRebuilt() {
+        return rebuilt;
+    }
+}
@@ -0,0 +1,15 @@
+package com.languagei.compiler.module;
+
+/**
+ * Exception thrown when an imported module cannot be found, is not a valid
+ * module, or conflicts with the program importing it
+ */
+public class ModuleException extends RuntimeException {
+    public ModuleException(String message) {
+        super(message);
+    }
+
+    public ModuleException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,107 @@
+package com.languagei.compiler.module;
+
+import com.languagei.compiler.ast.*;
+import com.languagei.compiler.lexer.Lexer;
+import com.languagei.compiler.parser.Parser;
+import com.languagei.compiler.semantic.ConstantFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The interface of a module: its type declarations and the signatures of
+ * its routines, written as Language I declarations so that the parser reads
+ * them back, one per line:
+ * <pre>
+ * type Point is record x : real y : real end
+ * routine distance(a : Point, b : Point) : real
+ * </pre>
+ */
+public final class ModuleInterface {
+
+    private ModuleInterface() {
+    }
+
+    /** The interface of a parsed module. */
+    public static String format(ProgramNode module, String moduleName) {
+        StringBuilder text = new StringBuilder();
+        for (ASTNode decl : module.getDeclarations()) {
+            if (decl instanceof TypeDeclarationNode) {
+                TypeDeclarationNode type = (TypeDeclarationNode) decl;
+                text.append("type ").append(type.getName()).append(" is ")
+                    .append(formatType(type.getType(), moduleName)).append('\n');
+            } else if (decl instanceof RoutineDeclarationNode && ((RoutineDeclarationNode) decl).getBody() != null) {
+                RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
+                text.append("routine ").append(routine.getName()).append('(');
+                for (int i = 0; i < routine.getParameters().size(); i++) {
+                    ParameterNode param = routine.getParameters().get(i);
+                    text.append(i > 0 ? ", " : "").append(param.getName()).append(" : ")
+                        .append(formatType(param.getType(), moduleName));
+                }
+                text.append(')');
+                if (routine.getReturnType() != null) {
+                    text.append(" : ").append(formatType(routine.getReturnType(), moduleName));
+                }
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /** The declarations of an interface; routines have no bodies. */
+    public static List<ASTNode> parse(String text, String filename) {
+        return new ArrayList<>(new Parser(new Lexer(text, filename)).parse().getDeclarations());
+    }
+
+    /** Hex SHA-256 of a text. */
+    public static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String formatType(ASTNode type, String moduleName) {
+        if (type == null) {
+            throw new ModuleException("Every declaration in the interface of module " + moduleName + " needs a type");
+        }
+        if (type instanceof PrimitiveTypeNode) {
+            return ((PrimitiveTypeNode) type).getType().name().toLowerCase(Locale.ROOT);
+        }
+        if (type instanceof TypeReferenceNode) {
+            return ((TypeReferenceNode) type).getName();
+        }
+        if (type instanceof ArrayTypeNode) {
+            ArrayTypeNode array = (ArrayTypeNode) type;
+            String size = "";
+            if (array.getSizeExpression() != null) {
+                ASTNode folded = new ConstantFolder().foldExpression(array.getSizeExpression());
+                if (!(folded instanceof LiteralNode) || !(((LiteralNode) folded).getValue() instanceof Number)) {
+                    throw new ModuleException("Array size at " + array.getPosition()
+                        + " must be a constant in the interface of module " + moduleName);
+                }
+                size = String.valueOf(((Number) ((LiteralNode) folded).getValue()).longValue());
+            }
+            return "array [" + size + "] " + formatType(array.getElementType(), moduleName);
+        }
+        if (type instanceof RecordTypeNode) {
+            StringBuilder record = new StringBuilder("record");
+            for (VariableDeclarationNode field : ((RecordTypeNode) type).getFields()) {
+                record.append(' ').append(field.getName()).append(" : ").append(formatType(field.getType(), moduleName));
+            }
+            return record.append(" end").toString();
+        }
+        throw new ModuleException("Unsupported type at " + type.getPosition()
+            + " in the interface of module " + moduleName);
+    }
+}
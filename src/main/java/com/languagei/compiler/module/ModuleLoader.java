@@ -0,0 +1,272 @@
+package com.languagei.compiler.module;
+
+import com.languagei.compiler.Compiler;
+import com.languagei.compiler.CompilerOptions;
+import com.languagei.compiler.ast.*;
+import com.languagei.compiler.lexer.Lexer;
+import com.languagei.compiler.parser.Parser;
+import com.languagei.compiler.semantic.CompilationError;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds, compiles and caches the modules a program imports.
+ *
+ * {@code import geometry} refers to {@code geometry.i} in the directory of
+ * the importing file. A module declares only types, routines and imports.
+ * Each module is compiled on its own into two files in the module cache:
+ * its interface ({@code .ii}, see {@link ModuleInterface}) and the WAT
+ * functions of its routines ({@code .iwat}). The interface starts with a
+ * header recording the hash of the source, the code generation options and
+ * the interface hash of every imported module; a module is rebuilt only
+ * when one of them changed. So changing the body of a routine rebuilds its
+ * module alone, while changing a signature also rebuilds the modules that
+ * import it.
+ *
+ * Imports are transitive: a program sees the declarations of every module
+ * it imports directly or indirectly, and links all their code. Names share
+ * one namespace, so a type or routine may be declared by one unit only.
+ *
+ * The name of the cache files includes a hash of the code generation
+ * options, so compiling with other options keeps its own copies instead of
+ * rebuilding every module. The code file starts with the hash of the
+ * interface file written with it, and is used only when that hash matches:
+ * cache files are replaced atomically, one at a time, so compilations
+ * sharing a cache directory may leave an interface next to code written by
+ * another, which is then rebuilt rather than linked.
+ */
+public class ModuleLoader {
+    public static final String SOURCE_EXTENSION = ".i";
+    public static final String INTERFACE_EXTENSION = ".ii";
+    public static final String CODE_EXTENSION = ".iwat";
+
+    private static final String FORMAT = "// language-i-interface 1";
+    private static final String CODE_HEADER = ";; interface ";
+
+    private final CompilerOptions options;
+    private final Path cacheDirectory;
+    private final Map<Path, CompiledModule> modules = new LinkedHashMap<>();
+    private final Set<Path> loading = new LinkedHashSet<>();
+    private final List<CompilationError> warnings = new ArrayList<>();
+
+    /** @param options options of the importing program; modules use {@link CompilerOptions#forModules()} */
+    public ModuleLoader(CompilerOptions options) {
+        this.options = options.forModules();
+        this.cacheDirectory = Paths.get(options.getModuleCache());
+    }
+
+    /**
+     * Load the modules a program imports, directly or through other modules,
+     * compiling those whose cached files are out of date. Dependencies come
+     * before the modules importing them.
+     */
+    public List<CompiledModule> load(ProgramNode program, Path source) throws IOException {
+        List<CompiledModule> result = new ArrayList<>();
+        for (CompiledModule module : importsOf(program, source)) {
+            collect(module, result);
+        }
+        return result;
+    }
+
+    /** Warnings reported while compiling the modules loaded so far. */
+    public List<CompilationError> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * The program with its imports replaced by the declarations of the
+     * loaded modules, which come first.
+     */
+    public static ProgramNode withInterfaces(ProgramNode program, List<CompiledModule> imported) {
+        Map<String, String> owners = new HashMap<>();
+        ProgramNode result = new ProgramNode(program.getPosition());
+        for (CompiledModule module : imported) {
+            for (ASTNode decl : module.getDeclarations()) {
+                String owner = owners.putIfAbsent(declaredName(decl), module.getName());
+                if (owner != null) {
+                    throw new ModuleException("'" + declaredName(decl) + "' is declared by both module "
+                        + owner + " and module " + module.getName());
+                }
+                result.addDeclaration(decl);
+            }
+        }
+        for (ASTNode decl : program.getDeclarations()) {
+            if (decl instanceof ImportDeclarationNode) {
+                continue;
+            }
+            String name = declaredName(decl);
+            if (name != null && owners.containsKey(name)) {
+                throw new ModuleException("'" + name + "' at " + decl.getPosition()
+                    + " is already declared by module " + owners.get(name));
+            }
+            result.addDeclaration(decl);
+        }
+        for (ASTNode stmt : program.getStatements()) {
+            result.addStatement(stmt);
+        }
+        return result;
+    }
+
+    /** The code of the loaded modules, to link into the program. */
+    public static String linkedCode(List<CompiledModule> imported) {
+        StringBuilder code = new StringBuilder();
+        for (CompiledModule module : imported) {
+            code.append(module.getCode());
+        }
+        return code.toString();
+    }
+
+    private static void collect(CompiledModule module, List<CompiledModule> result) {
+        if (result.contains(module)) {
+            return;
+        }
+        for (CompiledModule dependency : module.getImports()) {
+            collect(dependency, result);
+        }
+        result.add(module);
+    }
+
+    private List<CompiledModule> importsOf(ProgramNode program, Path source) throws IOException {
+        Path directory = source.toAbsolutePath().normalize().getParent();
+        List<CompiledModule> imports = new ArrayList<>();
+        for (ASTNode decl : program.getDeclarations()) {
+            if (decl instanceof ImportDeclarationNode) {
+                ImportDeclarationNode imp = (ImportDeclarationNode) decl;
+                Path path = directory.resolve(imp.getModuleName() + SOURCE_EXTENSION);
+                CompiledModule module = loadModule(imp.getModuleName(), path, imp);
+                if (!imports.contains(module)) {
+                    imports.add(module);
+                }
+            }
+        }
+        return imports;
+    }
+
+    private CompiledModule loadModule(String name, Path source, ImportDeclarationNode site) throws IOException {
+        CompiledModule loaded = modules.get(source);
+        if (loaded != null) {
+            return loaded;
+        }
+        if (!Files.isRegularFile(source)) {
+            throw new ModuleException("Module " + name + " imported at " + site.getPosition()
+                + " not found: " + source);
+        }
+        if (!loading.add(source)) {
+            throw new ModuleException("Import cycle through module " + name + " at " + site.getPosition());
+        }
+        try {
+            String text = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+            ProgramNode ast = new Parser(new Lexer(text, source.toString())).parse();
+            checkModule(ast, name);
+            List<CompiledModule> imports = importsOf(ast, source);
+
+            StringBuilder header = new StringBuilder(FORMAT).append('\n')
+                .append("// source ").append(ModuleInterface.hash(text)).append('\n')
+                .append("// options ").append(options.getCodeFingerprint()).append('\n');
+            for (CompiledModule dependency : imports) {
+                header.append("// import ").append(dependency.getName()).append(' ')
+                    .append(dependency.getInterfaceHash()).append('\n');
+            }
+
+            Path interfaceFile = cacheFile(name, source, INTERFACE_EXTENSION);
+            Path codeFile = cacheFile(name, source, CODE_EXTENSION);
+            String cached = Files.isRegularFile(interfaceFile) && Files.isRegularFile(codeFile)
+                ? new String(Files.readAllBytes(interfaceFile), StandardCharsets.UTF_8) : null;
+
+            CompiledModule module;
+            String cachedCode = cached != null && cached.startsWith(header.toString())
+                ? cachedCode(codeFile, cached) : null;
+            if (cachedCode != null) {
+                String interfaceText = cached.substring(header.length());
+                module = new CompiledModule(name, source, ModuleInterface.parse(interfaceText, interfaceFile.toString()),
+                    ModuleInterface.hash(interfaceText), cachedCode, imports, false);
+            } else {
+                String interfaceText = ModuleInterface.format(ast, name);
+                Compiler compiler = new Compiler(options, this);
+                String code = compiler.compileModuleCode(source.toString());
+                for (CompilationError warning : compiler.getWarnings()) {
+                    if (!warnings.contains(warning)) {
+                        warnings.add(warning);
+                    }
+                }
+                Files.createDirectories(cacheDirectory);
+                // The interface goes last: a header that matches means the code is complete
+                String interfaceFileText = header + interfaceText;
+                write(codeFile, CODE_HEADER + ModuleInterface.hash(interfaceFileText) + "\n" + code);
+                write(interfaceFile, interfaceFileText);
+                module = new CompiledModule(name, source, ModuleInterface.parse(interfaceText, interfaceFile.toString()),
+                    ModuleInterface.hash(interfaceText), code, imports, true);
+            }
+            modules.put(source, module);
+            return module;
+        } finally {
+            loading.remove(source);
+        }
+    }
+
+    /**
+     * The code of a cached module without its first line, or null when that
+     * line does not name the interface file read.
+     */
+    private static String cachedCode(Path codeFile, String interfaceFileText) throws IOException {
+        String text = new String(Files.readAllBytes(codeFile), StandardCharsets.UTF_8);
+        String expected = CODE_HEADER + ModuleInterface.hash(interfaceFileText) + "\n";
+        return text.startsWith(expected) ? text.substring(expected.length()) : null;
+    }
+
+    /** Replace a cache file at once, so that no reader sees it half written. */
+    private static void write(Path file, String text) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Cache file of a module; the hash of its path keeps modules of the same
+     * name apart, and the hash of the options the builds with other options.
+     */
+    private Path cacheFile(String name, Path source, String extension) {
+        String pathHash = ModuleInterface.hash(source.toString()).substring(0, 8);
+        String optionsHash = ModuleInterface.hash(options.getCodeFingerprint()).substring(0, 8);
+        return cacheDirectory.resolve(name + "-" + pathHash + "-" + optionsHash + extension);
+    }
+
+    private static void checkModule(ProgramNode module, String name) {
+        for (ASTNode decl : module.getDeclarations()) {
+            if (decl instanceof VariableDeclarationNode) {
+                throw new ModuleException("Module " + name + " may only declare types and routines, found variable "
+                    + ((VariableDeclarationNode) decl).getName() + " at " + decl.getPosition());
+            }
+        }
+        if (!module.getStatements().isEmpty()) {
+            throw new ModuleException("Module " + name + " may only declare types and routines, found a statement at "
+                + module.getStatements().get(0).getPosition());
+        }
+    }
+
+    private static String declaredName(ASTNode decl) {
+        if (decl instanceof TypeDeclarationNode) {
+            return ((TypeDeclarationNode) decl).getName();
+        }
+        if (decl instanceof RoutineDeclarationNode) {
+            return ((RoutineDeclarationNode) decl).getName();
+        }
+        return null;
+    }
+}
@@ -1,15 +1,28 @@
 package com.languagei.compiler.parser;
 
+import com.languagei.compiler.lexer.Position;
+
 /**
  * Exception thrown by parser for parsing errors
  */
 public class ParseException extends RuntimeException {
+    private final Position position;
+
     public ParseException(String message) {
-        super(message);
+        this(message, null, null);
     }
 
     public ParseException(String message, Throwable cause) {
+        this(message, null, cause);
+    }
+
+    public ParseException(String message, Position position, Throwable cause) {
         super(message, cause);
+        this.position = position;
     }
-}
 
+    /** Where parsing stopped, or null when it is not known. */
+    public Position getPosition() {
+        return position;
+    }
+}
@@ -36,8 +36,22 @@ public class Parser {
 
             return jccParser.Program();
         } catch (com.languagei.compiler.parser.jcc.ParseException e) {
+            throw new ParseException(e.getMessage(), errorPosition(e), e);
+        } catch (com.languagei.compiler.parser.jcc.TokenMgrError e) {
             throw new ParseException(e.getMessage(), e);
         }
     }
+
+    /** Position of the token the parser could not accept. */
+    private Position errorPosition(com.languagei.compiler.parser.jcc.ParseException e) {
+        com.languagei.compiler.parser.jcc.Token token = e.currentToken;
+        if (token == null) {
+            return null;
+        }
+        if (token.next != null) {
+            token = token.next;
+        }
+        return new Position(token.beginLine, token.beginColumn, 0, lexer.getFilename());
+    }
 }
 
@@ -28,12 +28,16 @@ public class CompilationError {
         return message;
     }
 
+    /** Where the problem is, or null when it concerns no single place. */
     public Position getPosition() {
         return position;
     }
 
     @Override
     public String toString() {
+        if (position == null) {
+            return String.format("%s: %s", severity, message);
+        }
         return String.format("%s: %s at %s", severity, message, position);
     }
 }
@@ -5,13 +5,31 @@ import com.languagei.compiler.lexer.Position;
 
 /**
  * Performs constant folding on the AST.
+ *
+ * Given a {@link PureCallEvaluator}, calls in expressions whose arguments
+ * fold to literals are evaluated as well.
  */
 public class ConstantFolder {
 
+    private final PureCallEvaluator calls;
+
+    public ConstantFolder() {
+        this(null);
+    }
+
+    public ConstantFolder(PureCallEvaluator calls) {
+        this.calls = calls;
+    }
+
     public ProgramNode optimize(ProgramNode root) {
         return (ProgramNode) fold(root);
     }
 
+    /** Fold a single expression (or statement) and return the rewritten node. */
+    public ASTNode foldExpression(ASTNode expr) {
+        return fold(expr);
+    }
+
     private ASTNode fold(ASTNode node) {
         if (node == null) return null;
 
@@ -22,7 +40,7 @@ public class ConstantFolder {
                 result.addDeclaration(fold(decl));
             }
             for (ASTNode stmt : prog.getStatements()) {
-                result.addStatement(fold(stmt));
+                result.addStatement(foldStatement(stmt));
             }
             return result;
         }
@@ -31,7 +49,7 @@ public class ConstantFolder {
             BlockNode block = (BlockNode) node;
             BlockNode result = new BlockNode(block.getPosition());
             for (ASTNode stmt : block.getStatements()) {
-                result.addStatement(fold(stmt));
+                result.addStatement(foldStatement(stmt));
             }
             return result;
         }
@@ -74,6 +92,15 @@ public class ConstantFolder {
             return new WhileLoopNode(w.getPosition(), cond, body);
         }
 
+        if (node instanceof ForLoopNode) {
+            ForLoopNode f = (ForLoopNode) node;
+            ASTNode start = fold(f.getRangeStart());
+            ASTNode end = fold(f.getRangeEnd());
+            ASTNode array = fold(f.getArrayExpr());
+            BlockNode body = (BlockNode) fold(f.getBody());
+            return new ForLoopNode(f.getPosition(), f.getVariable(), start, end, array, f.isReverse(), body);
+        }
+
         if (node instanceof ReturnStatementNode) {
             ReturnStatementNode r = (ReturnStatementNode) node;
             ASTNode value = r.getValue() != null ? fold(r.getValue()) : null;
@@ -87,12 +114,9 @@ public class ConstantFolder {
         }
 
         if (node instanceof RoutineCallNode) {
-            RoutineCallNode call = (RoutineCallNode) node;
-            RoutineCallNode result = new RoutineCallNode(call.getPosition(), call.getName());
-            for (ASTNode arg : call.getArguments()) {
-                result.addArgument(fold(arg));
-            }
-            return result;
+            RoutineCallNode result = foldArguments((RoutineCallNode) node);
+            LiteralNode value = calls != null ? calls.evaluate(result) : null;
+            return value != null ? value : result;
         }
 
         if (node instanceof ArrayAccessNode) {
@@ -120,6 +144,19 @@ public class ConstantFolder {
         return node;
     }
 
+    /** A call used as a statement keeps its call, whatever it returns. */
+    private ASTNode foldStatement(ASTNode stmt) {
+        return stmt instanceof RoutineCallNode ? foldArguments((RoutineCallNode) stmt) : fold(stmt);
+    }
+
+    private RoutineCallNode foldArguments(RoutineCallNode call) {
+        RoutineCallNode result = new RoutineCallNode(call.getPosition(), call.getName());
+        for (ASTNode arg : call.getArguments()) {
+            result.addArgument(fold(arg));
+        }
+        return result;
+    }
+
     private ASTNode foldUnary(UnaryExpressionNode node) {
         ASTNode foldedOperand = fold(node.getOperand());
         if (!(foldedOperand instanceof LiteralNode)) {
@@ -138,7 +175,7 @@ public class ConstantFolder {
             case MINUS:
                 if (v instanceof Integer || v instanceof Long) {
                     long val = ((Number) v).longValue();
-                    return new LiteralNode(pos, Long.valueOf(-val));
+                    return new LiteralNode(pos, Long.valueOf((int) -val));
                 }
                 if (v instanceof Double || v instanceof Float) {
                     double val = ((Number) v).doubleValue();
@@ -251,7 +288,8 @@ public class ConstantFolder {
                 default:
                     res = 0L; break;
             }
-            return new LiteralNode(pos, Long.valueOf(res));
+            // Integers are 32-bit at runtime: wrap like i32 arithmetic does
+            return new LiteralNode(pos, Long.valueOf((int) res));
         } else {
             double a = ln.doubleValue();
             double b = rn.doubleValue();
@@ -0,0 +1,502 @@
+package com.languagei.compiler.semantic;
+
+import com.languagei.compiler.ast.*;
+import com.languagei.compiler.lexer.Position;
+import java.util.*;
+
+/**
+ * Propagates constants and copies through scalar variables and folds the
+ * resulting expressions.
+ *
+ * The analysis is a forward dataflow over the structured AST of one function
+ * (the program's top-level code or a routine body). It tracks, per variable
+ * name, either a known literal value or another variable it is a copy of.
+ * At an if statement the two arms are merged, and a loop first forgets every
+ * variable assigned anywhere inside it. Routine calls cannot change the
+ * caller's scalars, so they do not invalidate anything.
+ *
+ * Array sizes are rewritten as well, so that declarations such as
+ * {@code var a : array [n] integer} with a constant {@code n} end up with a
+ * literal size that code generation can use.
+ */
+public class ConstantPropagator {
+
+    private final ConstantFolder folder = new ConstantFolder();
+
+    /** Known facts: name -> LiteralNode (constant value) or IdentifierNode (copy of that variable). */
+    private Map<String, ASTNode> known = new HashMap<>();
+
+    /** Scalar kind of each trackable variable of the current function. */
+    private final Map<String, PrimitiveTypeNode.PrimitiveType> scalarKinds = new HashMap<>();
+
+    /** Untyped variables declared exactly once; their kind is taken from the initializer. */
+    private final Set<String> inferredNames = new HashSet<>();
+
+    /** Variables of the current function that are never tracked. */
+    private Set<String> untrackedNames = new HashSet<>();
+
+    public ProgramNode optimize(ProgramNode root) {
+        boolean hasMain = false;
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof RoutineDeclarationNode && "main".equals(((RoutineDeclarationNode) decl).getName())) {
+                hasMain = true;
+            }
+        }
+
+        // Top-level code runs in the order code generation executes it: global
+        // declarations followed by main, or declarations and statements in
+        // source order when there is no main.
+        List<ASTNode> topLevel = new ArrayList<>();
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof VariableDeclarationNode) {
+                topLevel.add(decl);
+            }
+        }
+        if (!hasMain) {
+            topLevel.addAll(root.getStatements());
+            topLevel.sort(Comparator
+                .comparingInt((ASTNode n) -> n.getPosition().getLine())
+                .thenComparingInt(n -> n.getPosition().getColumn())
+                .thenComparingInt(n -> n.getPosition().getOffset()));
+        }
+
+        beginFunction(topLevel, Collections.emptyList());
+        Map<ASTNode, ASTNode> rewritten = new IdentityHashMap<>();
+        for (ASTNode node : topLevel) {
+            rewritten.put(node, statement(node));
+        }
+
+        // Every routine starts with its own copies of the program variables,
+        // initialized from literal initializers only
+        Map<String, LiteralNode> globalConstants = new LinkedHashMap<>();
+        Map<String, PrimitiveTypeNode.PrimitiveType> globalKinds = new HashMap<>();
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof VariableDeclarationNode) {
+                VariableDeclarationNode global = (VariableDeclarationNode) rewritten.get(decl);
+                PrimitiveTypeNode.PrimitiveType kind = scalarKinds.get(global.getName());
+                globalKinds.put(global.getName(), kind);
+                if (kind != null && global.getInitializer() instanceof LiteralNode) {
+                    LiteralNode value = convert((LiteralNode) global.getInitializer(), kind);
+                    if (value != null && kindOf(value) == kindOf((LiteralNode) global.getInitializer())) {
+                        globalConstants.put(global.getName(), value);
+                    }
+                }
+            }
+        }
+
+        ProgramNode result = new ProgramNode(root.getPosition());
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof VariableDeclarationNode) {
+                result.addDeclaration(rewritten.get(decl));
+            } else if (decl instanceof RoutineDeclarationNode) {
+                result.addDeclaration(routine((RoutineDeclarationNode) decl, globalConstants, globalKinds));
+            } else {
+                result.addDeclaration(decl);
+            }
+        }
+        for (ASTNode stmt : root.getStatements()) {
+            result.addStatement(rewritten.getOrDefault(stmt, stmt));
+        }
+        return result;
+    }
+
+    private ASTNode routine(RoutineDeclarationNode node, Map<String, LiteralNode> globalConstants,
+                            Map<String, PrimitiveTypeNode.PrimitiveType> globalKinds) {
+        if (node.getBody() == null) {
+            return node;
+        }
+        Set<String> parameterNames = new HashSet<>();
+        for (ParameterNode param : node.getParameters()) {
+            parameterNames.add(param.getName());
+        }
+        beginFunction(List.of(node.getBody()), node.getParameters());
+        for (Map.Entry<String, PrimitiveTypeNode.PrimitiveType> global : globalKinds.entrySet()) {
+            if (!parameterNames.contains(global.getKey())) {
+                addProgramVariableKind(global.getKey(), global.getValue());
+            }
+        }
+        for (Map.Entry<String, LiteralNode> global : globalConstants.entrySet()) {
+            String name = global.getKey();
+            if (!parameterNames.contains(name) && scalarKinds.get(name) == kindOf(global.getValue())) {
+                known.put(name, global.getValue());
+            }
+        }
+        BlockNode body = (BlockNode) statement(node.getBody());
+        return new RoutineDeclarationNode(node.getPosition(), node.getName(), node.getParameters(),
+            node.getReturnType(), body);
+    }
+
+    /**
+     * Reset the state for a new function and record the scalar kind of every
+     * variable it declares. Names declared with conflicting kinds, or as
+     * aggregates, are never tracked.
+     */
+    private void beginFunction(List<ASTNode> items, List<ParameterNode> parameters) {
+        known = new HashMap<>();
+        scalarKinds.clear();
+        inferredNames.clear();
+        Map<String, Integer> untypedCounts = new HashMap<>();
+        Set<String> untracked = new HashSet<>();
+        for (ParameterNode param : parameters) {
+            recordDeclaredKind(param.getName(), param.getType(), untracked);
+        }
+        for (ASTNode item : items) {
+            collectKinds(item, untypedCounts, untracked);
+        }
+        for (Map.Entry<String, Integer> entry : untypedCounts.entrySet()) {
+            if (entry.getValue() == 1 && !scalarKinds.containsKey(entry.getKey())) {
+                inferredNames.add(entry.getKey());
+            } else {
+                untracked.add(entry.getKey());
+            }
+        }
+        scalarKinds.keySet().removeAll(untracked);
+        inferredNames.removeAll(untracked);
+        untrackedNames = untracked;
+    }
+
+    private void collectKinds(ASTNode node, Map<String, Integer> untypedCounts, Set<String> untracked) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            if (decl.getType() == null) {
+                untypedCounts.merge(decl.getName(), 1, Integer::sum);
+            } else {
+                recordDeclaredKind(decl.getName(), decl.getType(), untracked);
+            }
+        } else if (node instanceof ForLoopNode) {
+            ForLoopNode loop = (ForLoopNode) node;
+            if (loop.getArrayExpr() != null) {
+                untracked.add(loop.getVariable());
+            } else {
+                mergeKind(loop.getVariable(), PrimitiveTypeNode.PrimitiveType.INTEGER, untracked);
+            }
+        }
+        for (ASTNode child : node.getChildren()) {
+            collectKinds(child, untypedCounts, untracked);
+        }
+    }
+
+    private void recordDeclaredKind(String name, ASTNode type, Set<String> untracked) {
+        if (type instanceof PrimitiveTypeNode) {
+            mergeKind(name, ((PrimitiveTypeNode) type).getType(), untracked);
+        } else {
+            untracked.add(name);
+        }
+    }
+
+    private void mergeKind(String name, PrimitiveTypeNode.PrimitiveType kind, Set<String> untracked) {
+        PrimitiveTypeNode.PrimitiveType previous = scalarKinds.putIfAbsent(name, kind);
+        if (previous != null && previous != kind) {
+            untracked.add(name);
+        }
+    }
+
+    /** Add the kind of a program variable seen by a routine, unless the routine redeclares it differently. */
+    private void addProgramVariableKind(String name, PrimitiveTypeNode.PrimitiveType kind) {
+        if (untrackedNames.contains(name) || inferredNames.contains(name)) {
+            scalarKinds.remove(name);
+            untrackedNames.add(name);
+            inferredNames.remove(name);
+            return;
+        }
+        if (kind == null) {
+            scalarKinds.remove(name);
+            untrackedNames.add(name);
+            return;
+        }
+        PrimitiveTypeNode.PrimitiveType previous = scalarKinds.putIfAbsent(name, kind);
+        if (previous != null && previous != kind) {
+            scalarKinds.remove(name);
+            untrackedNames.add(name);
+        }
+    }
+
+    // ----- statements -------------------------------------------------------
+
+    private ASTNode statement(ASTNode node) {
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            ASTNode type = arrayType(decl.getType());
+            ASTNode init = decl.getInitializer() != null ? expression(decl.getInitializer()) : null;
+            if (decl.getType() == null && inferredNames.contains(decl.getName()) && init instanceof LiteralNode) {
+                scalarKinds.put(decl.getName(), kindOf((LiteralNode) init));
+            }
+            assign(decl.getName(), init);
+            return new VariableDeclarationNode(decl.getPosition(), decl.getName(), type, init);
+        }
+
+        if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            ASTNode target = assignment.getTarget();
+            ASTNode value = expression(assignment.getValue());
+            if (target instanceof IdentifierNode) {
+                assign(((IdentifierNode) target).getName(), value);
+            } else {
+                target = expression(target);
+            }
+            return new AssignmentNode(assignment.getPosition(), target, value);
+        }
+
+        if (node instanceof BlockNode) {
+            BlockNode block = (BlockNode) node;
+            BlockNode result = new BlockNode(block.getPosition());
+            for (ASTNode stmt : block.getStatements()) {
+                result.addStatement(statement(stmt));
+            }
+            return result;
+        }
+
+        if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmt = (IfStatementNode) node;
+            ASTNode cond = expression(ifStmt.getCondition());
+            Map<String, ASTNode> before = new HashMap<>(known);
+            BlockNode thenBlock = (BlockNode) statement(ifStmt.getThenBlock());
+            Map<String, ASTNode> afterThen = known;
+            known = new HashMap<>(before);
+            BlockNode elseBlock = ifStmt.getElseBlock() != null ? (BlockNode) statement(ifStmt.getElseBlock()) : null;
+            Map<String, ASTNode> afterElse = known;
+
+            if (Boolean.TRUE.equals(literalValue(cond))) {
+                known = afterThen;
+            } else if (Boolean.FALSE.equals(literalValue(cond))) {
+                known = afterElse;
+            } else {
+                known = join(afterThen, afterElse);
+            }
+            return new IfStatementNode(ifStmt.getPosition(), cond, thenBlock, elseBlock);
+        }
+
+        if (node instanceof WhileLoopNode) {
+            WhileLoopNode loop = (WhileLoopNode) node;
+            forgetAssignedIn(loop);
+            ASTNode cond = expression(loop.getCondition());
+            Map<String, ASTNode> atHeader = new HashMap<>(known);
+            BlockNode body = (BlockNode) statement(loop.getBody());
+            known = atHeader;
+            return new WhileLoopNode(loop.getPosition(), cond, body);
+        }
+
+        if (node instanceof ForLoopNode) {
+            ForLoopNode loop = (ForLoopNode) node;
+            // The first bound is evaluated once before the loop, the other one
+            // (and the array) on every iteration.
+            ASTNode start = loop.getRangeStart();
+            ASTNode end = loop.getRangeEnd();
+            if (loop.isReverse()) {
+                end = end != null ? expression(end) : null;
+            } else {
+                start = start != null ? expression(start) : null;
+            }
+            forgetAssignedIn(loop);
+            if (loop.isReverse()) {
+                start = start != null ? expression(start) : null;
+            } else {
+                end = end != null ? expression(end) : null;
+            }
+            ASTNode array = loop.getArrayExpr() != null ? expression(loop.getArrayExpr()) : null;
+            Map<String, ASTNode> atHeader = new HashMap<>(known);
+            BlockNode body = (BlockNode) statement(loop.getBody());
+            known = atHeader;
+            return new ForLoopNode(loop.getPosition(), loop.getVariable(), start, end, array,
+                loop.isReverse(), body);
+        }
+
+        if (node instanceof PrintStatementNode) {
+            PrintStatementNode print = (PrintStatementNode) node;
+            PrintStatementNode result = new PrintStatementNode(print.getPosition());
+            for (ASTNode expr : print.getExpressions()) {
+                result.addExpression(expression(expr));
+            }
+            return result;
+        }
+
+        if (node instanceof ReturnStatementNode) {
+            ReturnStatementNode ret = (ReturnStatementNode) node;
+            ASTNode value = ret.getValue() != null ? expression(ret.getValue()) : null;
+            return new ReturnStatementNode(ret.getPosition(), value);
+        }
+
+        if (node instanceof RoutineCallNode) {
+            return expression(node);
+        }
+
+        return node;
+    }
+
+    /** Record the effect of assigning {@code value} (already propagated) to a variable. */
+    private void assign(String name, ASTNode value) {
+        forget(name);
+        PrimitiveTypeNode.PrimitiveType kind = scalarKinds.get(name);
+        if (kind == null || value == null) {
+            return;
+        }
+        if (value instanceof LiteralNode) {
+            LiteralNode constant = convert((LiteralNode) value, kind);
+            if (constant != null) {
+                known.put(name, constant);
+            }
+        } else if (value instanceof IdentifierNode) {
+            String source = ((IdentifierNode) value).getName();
+            if (!source.equals(name) && scalarKinds.get(source) == kind) {
+                known.put(name, value);
+            }
+        }
+    }
+
+    /** Forget what is known about a variable and about every copy of it. */
+    private void forget(String name) {
+        known.remove(name);
+        known.values().removeIf(fact -> fact instanceof IdentifierNode
+            && ((IdentifierNode) fact).getName().equals(name));
+    }
+
+    private void forgetAssignedIn(ASTNode node) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof AssignmentNode && ((AssignmentNode) node).getTarget() instanceof IdentifierNode) {
+            forget(((IdentifierNode) ((AssignmentNode) node).getTarget()).getName());
+        } else if (node instanceof VariableDeclarationNode) {
+            forget(((VariableDeclarationNode) node).getName());
+        } else if (node instanceof ForLoopNode) {
+            forget(((ForLoopNode) node).getVariable());
+        }
+        for (ASTNode child : node.getChildren()) {
+            forgetAssignedIn(child);
+        }
+    }
+
+    private Map<String, ASTNode> join(Map<String, ASTNode> a, Map<String, ASTNode> b) {
+        Map<String, ASTNode> joined = new HashMap<>();
+        for (Map.Entry<String, ASTNode> entry : a.entrySet()) {
+            ASTNode other = b.get(entry.getKey());
+            if (other != null && sameFact(entry.getValue(), other)) {
+                joined.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return joined;
+    }
+
+    private boolean sameFact(ASTNode a, ASTNode b) {
+        if (a instanceof LiteralNode && b instanceof LiteralNode) {
+            return Objects.equals(((LiteralNode) a).getValue(), ((LiteralNode) b).getValue());
+        }
+        if (a instanceof IdentifierNode && b instanceof IdentifierNode) {
+            return ((IdentifierNode) a).getName().equals(((IdentifierNode) b).getName());
+        }
+        return false;
+    }
+
+    // ----- expressions ------------------------------------------------------
+
+    private ASTNode expression(ASTNode expr) {
+        return folder.foldExpression(substitute(expr));
+    }
+
+    private ASTNode substitute(ASTNode node) {
+        if (node instanceof IdentifierNode) {
+            ASTNode fact = known.get(((IdentifierNode) node).getName());
+            if (fact instanceof LiteralNode) {
+                return new LiteralNode(node.getPosition(), ((LiteralNode) fact).getValue());
+            }
+            if (fact instanceof IdentifierNode) {
+                return new IdentifierNode(node.getPosition(), ((IdentifierNode) fact).getName());
+            }
+            return node;
+        }
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            ASTNode left = substitute(binary.getLeft());
+            ASTNode right = substitute(binary.getRight());
+            boolean division = binary.getOperator() == BinaryExpressionNode.Operator.DIVIDE
+                || binary.getOperator() == BinaryExpressionNode.Operator.MODULO;
+            if (division && isIntegerZero(right)) {
+                // Keep the runtime trap instead of letting folding turn it into 0
+                right = binary.getRight();
+            }
+            return new BinaryExpressionNode(node.getPosition(), left, binary.getOperator(), right);
+        }
+        if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode unary = (UnaryExpressionNode) node;
+            return new UnaryExpressionNode(node.getPosition(), unary.getOperator(), substitute(unary.getOperand()));
+        }
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            return new ArrayAccessNode(node.getPosition(), substitute(access.getArray()), substitute(access.getIndex()));
+        }
+        if (node instanceof RecordAccessNode) {
+            RecordAccessNode access = (RecordAccessNode) node;
+            return new RecordAccessNode(node.getPosition(), substitute(access.getObject()), access.getFieldName());
+        }
+        if (node instanceof RoutineCallNode) {
+            RoutineCallNode call = (RoutineCallNode) node;
+            RoutineCallNode result = new RoutineCallNode(call.getPosition(), call.getName());
+            for (ASTNode arg : call.getArguments()) {
+                result.addArgument(substitute(arg));
+            }
+            return result;
+        }
+        return node;
+    }
+
+    /** Rewrite the size expressions of an array type (and of its nested element arrays). */
+    private ASTNode arrayType(ASTNode type) {
+        if (!(type instanceof ArrayTypeNode)) {
+            return type;
+        }
+        ArrayTypeNode array = (ArrayTypeNode) type;
+        ASTNode size = array.getSizeExpression() != null ? expression(array.getSizeExpression()) : null;
+        return new ArrayTypeNode(array.getPosition(), size, arrayType(array.getElementType()));
+    }
+
+    // ----- literals ---------------------------------------------------------
+
+    private static Object literalValue(ASTNode node) {
+        return node instanceof LiteralNode ? ((LiteralNode) node).getValue() : null;
+    }
+
+    private static boolean isIntegerZero(ASTNode node) {
+        Object value = literalValue(node);
+        return (value instanceof Integer || value instanceof Long) && ((Number) value).longValue() == 0;
+    }
+
+    private static PrimitiveTypeNode.PrimitiveType kindOf(LiteralNode literal) {
+        Object value = literal.getValue();
+        if (value instanceof Boolean) {
+            return PrimitiveTypeNode.PrimitiveType.BOOLEAN;
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            return PrimitiveTypeNode.PrimitiveType.INTEGER;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return PrimitiveTypeNode.PrimitiveType.REAL;
+        }
+        return null;
+    }
+
+    /**
+     * Return the value a variable of the given kind holds after being assigned
+     * the literal, or null when the conversion is not a plain widening.
+     */
+    private static LiteralNode convert(LiteralNode literal, PrimitiveTypeNode.PrimitiveType kind) {
+        PrimitiveTypeNode.PrimitiveType literalKind = kindOf(literal);
+        Position pos = literal.getPosition();
+        if (literalKind == PrimitiveTypeNode.PrimitiveType.INTEGER) {
+            long value = ((Number) literal.getValue()).longValue();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                return null;
+            }
+            if (kind == PrimitiveTypeNode.PrimitiveType.INTEGER) {
+                return new LiteralNode(pos, Long.valueOf(value));
+            }
+            if (kind == PrimitiveTypeNode.PrimitiveType.REAL) {
+                return new LiteralNode(pos, Double.valueOf(value));
+            }
+            return null;
+        }
+        return literalKind == kind ? literal : null;
+    }
+}
@@ -0,0 +1,51 @@
+package com.languagei.compiler.semantic;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the global scope, shared by the tasks that check
+ * routine bodies concurrently.
+ *
+ * Every declaration made in the global scope is kept with its ordinal, so a
+ * task can see the globals as they were when its routine was reached in
+ * source order: variables declared after a routine stay invisible to it, and
+ * a name redeclared later keeps its earlier symbol.
+ */
+public final class GlobalScope {
+    private final Map<String, List<Version>> versions;
+
+    GlobalScope(List<String> names, List<Symbol> symbols) {
+        Map<String, List<Version>> map = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            map.computeIfAbsent(names.get(i), k -> new ArrayList<>()).add(new Version(i, symbols.get(i)));
+        }
+        this.versions = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * The symbol bound to a name by the first {@code limit} global
+     * declarations, or null.
+     */
+    public Symbol lookup(String name, int limit) {
+        List<Version> list = versions.get(name);
+        if (list == null) {
+            return null;
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i).ordinal < limit) {
+                return list.get(i).symbol;
+            }
+        }
+        return null;
+    }
+
+    private static final class Version {
+        final int ordinal;
+        final Symbol symbol;
+
+        Version(int ordinal, Symbol symbol) {
+            this.ordinal = ordinal;
+            this.symbol = symbol;
+        }
+    }
+}
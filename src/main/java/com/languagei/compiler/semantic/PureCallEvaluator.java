@@ -0,0 +1,493 @@
+package com.languagei.compiler.semantic;
+
+import com.languagei.compiler.ast.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates calls to pure routines with literal arguments at compile time,
+ * so that {@code factorial(10)} becomes {@code 3628800}.
+ *
+ * The evaluator interprets routine bodies over integer, real and boolean
+ * values with the semantics of the generated code: integers wrap like i32,
+ * division truncates, reals are converted to integers by truncation, and
+ * declarations without an initializer keep the local's previous value
+ * (zero at first). Anything else it does not model, such as arrays,
+ * records, type aliases or an operation that would trap at run time, leaves
+ * the call alone.
+ *
+ * Every evaluation is bounded by {@link #MAX_STEPS} evaluated nodes and
+ * {@link #MAX_DEPTH} nested calls. A call that runs out of either is left to
+ * run time and reported with a warning. Results of nested calls are cached,
+ * so naive recursions such as Fibonacci stay cheap.
+ */
+public class PureCallEvaluator {
+
+    /** Nodes one call may evaluate, nested calls included. */
+    public static final int MAX_STEPS = 100_000;
+
+    /** Calls that may be active at once. */
+    public static final int MAX_DEPTH = 100;
+
+    /** The call cannot be evaluated at compile time. */
+    private static class Unsupported extends Exception {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** The evaluation ran out of its budget. */
+    private static final class BudgetExhausted extends Unsupported {
+        final String reason;
+
+        BudgetExhausted(String reason) {
+            this.reason = reason;
+        }
+    }
+
+    /** Locals of one activation, by name as in the generated function. */
+    private static final class Frame {
+        final Map<String, Object> values = new HashMap<>();
+        final Map<String, PrimitiveTypeNode.PrimitiveType> kinds = new HashMap<>();
+        Object result;
+        boolean returned;
+    }
+
+    private final PurityAnalyzer purity;
+    private final Map<String, Object> results = new HashMap<>();
+    private final Map<String, String> exhausted = new HashMap<>();
+    private final List<CompilationError> warnings = new ArrayList<>();
+    private int evaluatedCalls;
+    private int steps;
+    private int depth;
+
+    public PureCallEvaluator(ProgramNode program) {
+        this.purity = new PurityAnalyzer(program);
+    }
+
+    /**
+     * The literal a call evaluates to, or null when it has to run at run
+     * time. The arguments are expected to be folded already.
+     */
+    public LiteralNode evaluate(RoutineCallNode call) {
+        RoutineDeclarationNode routine = purity.getRoutine(call.getName());
+        if (routine == null || !purity.isPure(call.getName()) || kindOf(routine.getReturnType()) == null) {
+            return null;
+        }
+        List<Object> arguments = new ArrayList<>();
+        for (ASTNode argument : call.getArguments()) {
+            if (!(argument instanceof LiteralNode)) {
+                return null;
+            }
+            Object value = valueOf((LiteralNode) argument);
+            if (value == null) {
+                return null;
+            }
+            arguments.add(value);
+        }
+
+        String key = key(routine.getName(), arguments);
+        String reason = exhausted.get(key);
+        Object result = results.get(key);
+        if (result == null && reason == null) {
+            steps = 0;
+            depth = 0;
+            try {
+                result = call(routine, arguments);
+            } catch (BudgetExhausted e) {
+                reason = e.reason;
+                exhausted.put(key, reason);
+            } catch (Unsupported e) {
+                return null;
+            }
+        }
+        if (reason != null) {
+            warnings.add(new CompilationError(CompilationError.Severity.WARNING,
+                "Compile-time evaluation of call to '" + call.getName() + "' " + reason
+                    + "; the call is left to run time", call.getPosition()));
+            return null;
+        }
+        if (result instanceof Double && !Double.isFinite((Double) result)) {
+            return null;
+        }
+        evaluatedCalls++;
+        return new LiteralNode(call.getPosition(), literalValue(result));
+    }
+
+    /** Calls replaced by their result so far. */
+    public int getEvaluatedCalls() {
+        return evaluatedCalls;
+    }
+
+    /** Calls whose evaluation ran out of budget. */
+    public List<CompilationError> getWarnings() {
+        return Collections.unmodifiableList(warnings);
+    }
+
+    private Object call(RoutineDeclarationNode routine, List<Object> arguments) throws Unsupported {
+        String key = key(routine.getName(), arguments);
+        Object cached = results.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (++depth > MAX_DEPTH) {
+            throw new BudgetExhausted("exceeded " + MAX_DEPTH + " nested calls");
+        }
+        PrimitiveTypeNode.PrimitiveType returnKind = kindOf(routine.getReturnType());
+        if (returnKind == null || routine.getParameters().size() != arguments.size()) {
+            throw new Unsupported();
+        }
+        Frame frame = new Frame();
+        for (int i = 0; i < arguments.size(); i++) {
+            ParameterNode param = routine.getParameters().get(i);
+            PrimitiveTypeNode.PrimitiveType kind = kindOf(param.getType());
+            if (kind == null) {
+                throw new Unsupported();
+            }
+            frame.kinds.put(param.getName(), kind);
+            frame.values.put(param.getName(), convert(arguments.get(i), kind));
+        }
+        execute(routine.getBody(), frame);
+        if (!frame.returned) {
+            throw new Unsupported();
+        }
+        Object result = convert(frame.result, returnKind);
+        depth--;
+        results.put(key, result);
+        return result;
+    }
+
+    private void execute(ASTNode node, Frame frame) throws Unsupported {
+        step();
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                execute(statement, frame);
+                if (frame.returned) {
+                    return;
+                }
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            Object initial = decl.getInitializer() != null ? evaluate(decl.getInitializer(), frame) : null;
+            PrimitiveTypeNode.PrimitiveType kind = decl.getType() != null ? kindOf(decl.getType())
+                : initial != null ? kindOfValue(initial) : null;
+            PrimitiveTypeNode.PrimitiveType previous = frame.kinds.get(decl.getName());
+            if (kind == null || (previous != null && previous != kind)) {
+                throw new Unsupported();
+            }
+            frame.kinds.put(decl.getName(), kind);
+            if (initial != null) {
+                frame.values.put(decl.getName(), convert(initial, kind));
+            } else {
+                frame.values.putIfAbsent(decl.getName(), zero(kind));
+            }
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            if (!(assignment.getTarget() instanceof IdentifierNode)) {
+                throw new Unsupported();
+            }
+            String name = ((IdentifierNode) assignment.getTarget()).getName();
+            PrimitiveTypeNode.PrimitiveType kind = frame.kinds.get(name);
+            if (kind == null) {
+                throw new Unsupported();
+            }
+            frame.values.put(name, convert(evaluate(assignment.getValue(), frame), kind));
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifNode = (IfStatementNode) node;
+            if (asBoolean(evaluate(ifNode.getCondition(), frame))) {
+                execute(ifNode.getThenBlock(), frame);
+            } else if (ifNode.getElseBlock() != null) {
+                execute(ifNode.getElseBlock(), frame);
+            }
+        } else if (node instanceof WhileLoopNode) {
+            WhileLoopNode loop = (WhileLoopNode) node;
+            while (asBoolean(evaluate(loop.getCondition(), frame))) {
+                execute(loop.getBody(), frame);
+                if (frame.returned) {
+                    return;
+                }
+            }
+        } else if (node instanceof ForLoopNode) {
+            executeFor((ForLoopNode) node, frame);
+        } else if (node instanceof ReturnStatementNode) {
+            ReturnStatementNode ret = (ReturnStatementNode) node;
+            if (ret.getValue() == null) {
+                throw new Unsupported();
+            }
+            frame.result = evaluate(ret.getValue(), frame);
+            frame.returned = true;
+        } else {
+            throw new Unsupported();
+        }
+    }
+
+    /** A range loop: bounds evaluated once, the counter stepping through them inclusively. */
+    private void executeFor(ForLoopNode loop, Frame frame) throws Unsupported {
+        if (loop.getArrayExpr() != null || assigns(loop.getBody(), loop.getVariable())) {
+            throw new Unsupported();
+        }
+        int start = asInteger(evaluate(loop.getRangeStart(), frame));
+        int end = asInteger(evaluate(loop.getRangeEnd(), frame));
+        String name = loop.getVariable();
+        PrimitiveTypeNode.PrimitiveType previous = frame.kinds.put(name, PrimitiveTypeNode.PrimitiveType.INTEGER);
+        if (previous != null && previous != PrimitiveTypeNode.PrimitiveType.INTEGER) {
+            throw new Unsupported();
+        }
+        long first = loop.isReverse() ? end : start;
+        long last = loop.isReverse() ? start : end;
+        long stride = loop.isReverse() ? -1 : 1;
+        for (long i = first; loop.isReverse() ? i >= last : i <= last; i += stride) {
+            frame.values.put(name, (int) i);
+            execute(loop.getBody(), frame);
+            if (frame.returned) {
+                return;
+            }
+        }
+    }
+
+    private Object evaluate(ASTNode node, Frame frame) throws Unsupported {
+        step();
+        if (node instanceof LiteralNode) {
+            Object value = valueOf((LiteralNode) node);
+            if (value == null) {
+                throw new Unsupported();
+            }
+            return value;
+        }
+        if (node instanceof IdentifierNode) {
+            Object value = frame.values.get(((IdentifierNode) node).getName());
+            if (value == null) {
+                throw new Unsupported();
+            }
+            return value;
+        }
+        if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode unary = (UnaryExpressionNode) node;
+            Object operand = evaluate(unary.getOperand(), frame);
+            switch (unary.getOperator()) {
+                case PLUS:
+                    if (operand instanceof Boolean) {
+                        throw new Unsupported();
+                    }
+                    return operand;
+                case MINUS:
+                    if (operand instanceof Integer) {
+                        return -(Integer) operand;
+                    }
+                    if (operand instanceof Double) {
+                        return -(Double) operand;
+                    }
+                    throw new Unsupported();
+                case NOT:
+                    return !asBoolean(operand);
+                default:
+                    throw new Unsupported();
+            }
+        }
+        if (node instanceof BinaryExpressionNode) {
+            return evaluateBinary((BinaryExpressionNode) node, frame);
+        }
+        if (node instanceof RoutineCallNode) {
+            RoutineCallNode call = (RoutineCallNode) node;
+            RoutineDeclarationNode routine = purity.getRoutine(call.getName());
+            if (routine == null) {
+                throw new Unsupported();
+            }
+            List<Object> arguments = new ArrayList<>();
+            for (ASTNode argument : call.getArguments()) {
+                arguments.add(evaluate(argument, frame));
+            }
+            return call(routine, arguments);
+        }
+        throw new Unsupported();
+    }
+
+    private Object evaluateBinary(BinaryExpressionNode node, Frame frame) throws Unsupported {
+        BinaryExpressionNode.Operator op = node.getOperator();
+        Object left = evaluate(node.getLeft(), frame);
+        switch (op) {
+            case AND:
+                return asBoolean(left) && asBoolean(evaluate(node.getRight(), frame));
+            case OR:
+                return asBoolean(left) || asBoolean(evaluate(node.getRight(), frame));
+            case XOR:
+                return asBoolean(left) ^ asBoolean(evaluate(node.getRight(), frame));
+            default:
+                break;
+        }
+        Object right = evaluate(node.getRight(), frame);
+
+        if (left instanceof Boolean || right instanceof Boolean) {
+            if (!(left instanceof Boolean) || !(right instanceof Boolean)) {
+                throw new Unsupported();
+            }
+            if (op == BinaryExpressionNode.Operator.EQ) {
+                return left.equals(right);
+            }
+            if (op == BinaryExpressionNode.Operator.NE) {
+                return !left.equals(right);
+            }
+            throw new Unsupported();
+        }
+
+        if (left instanceof Double || right instanceof Double) {
+            // Integer operands are promoted, as f64.convert_i32_s does
+            double a = ((Number) left).doubleValue();
+            double b = ((Number) right).doubleValue();
+            switch (op) {
+                case PLUS: return a + b;
+                case MINUS: return a - b;
+                case MULTIPLY: return a * b;
+                case DIVIDE: return a / b;
+                case LT: return a < b;
+                case LE: return a <= b;
+                case GT: return a > b;
+                case GE: return a >= b;
+                case EQ: return a == b;
+                case NE: return a != b;
+                default: throw new Unsupported();
+            }
+        }
+
+        int a = (Integer) left;
+        int b = (Integer) right;
+        switch (op) {
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case MULTIPLY: return a * b;
+            case DIVIDE:
+            case MODULO:
+                // Cases where i32.div_s traps
+                if (b == 0 || (a == Integer.MIN_VALUE && b == -1 && op == BinaryExpressionNode.Operator.DIVIDE)) {
+                    throw new Unsupported();
+                }
+                return op == BinaryExpressionNode.Operator.DIVIDE ? a / b : a % b;
+            case LT: return a < b;
+            case LE: return a <= b;
+            case GT: return a > b;
+            case GE: return a >= b;
+            case EQ: return a == b;
+            case NE: return a != b;
+            default: throw new Unsupported();
+        }
+    }
+
+    private void step() throws BudgetExhausted {
+        if (++steps > MAX_STEPS) {
+            throw new BudgetExhausted("exceeded " + MAX_STEPS + " steps");
+        }
+    }
+
+    /** Convert a value like an assignment to a variable of the given kind does. */
+    private static Object convert(Object value, PrimitiveTypeNode.PrimitiveType kind) throws Unsupported {
+        switch (kind) {
+            case INTEGER:
+                if (value instanceof Integer) {
+                    return value;
+                }
+                if (value instanceof Boolean) {
+                    return (Boolean) value ? 1 : 0;
+                }
+                double real = (Double) value;
+                // i32.trunc_f64_s traps outside the i32 range
+                if (Double.isNaN(real) || real <= Integer.MIN_VALUE - 1.0 || real >= Integer.MAX_VALUE + 1.0) {
+                    throw new Unsupported();
+                }
+                return (int) real;
+            case REAL:
+                if (value instanceof Boolean) {
+                    return (Boolean) value ? 1.0 : 0.0;
+                }
+                return ((Number) value).doubleValue();
+            case BOOLEAN:
+                if (value instanceof Integer) {
+                    return (Integer) value != 0;
+                }
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                throw new Unsupported();
+            default:
+                throw new Unsupported();
+        }
+    }
+
+    private static boolean asBoolean(Object value) throws Unsupported {
+        if (!(value instanceof Boolean)) {
+            throw new Unsupported();
+        }
+        return (Boolean) value;
+    }
+
+    private static int asInteger(Object value) throws Unsupported {
+        if (!(value instanceof Integer)) {
+            throw new Unsupported();
+        }
+        return (Integer) value;
+    }
+
+    private static boolean assigns(ASTNode node, String name) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof AssignmentNode && ((AssignmentNode) node).getTarget() instanceof IdentifierNode
+                && ((IdentifierNode) ((AssignmentNode) node).getTarget()).getName().equals(name)) {
+            return true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (assigns(child, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PrimitiveTypeNode.PrimitiveType kindOf(ASTNode type) {
+        return type instanceof PrimitiveTypeNode ? ((PrimitiveTypeNode) type).getType() : null;
+    }
+
+    private static PrimitiveTypeNode.PrimitiveType kindOfValue(Object value) {
+        if (value instanceof Integer) {
+            return PrimitiveTypeNode.PrimitiveType.INTEGER;
+        }
+        return value instanceof Double ? PrimitiveTypeNode.PrimitiveType.REAL : PrimitiveTypeNode.PrimitiveType.BOOLEAN;
+    }
+
+    private static Object zero(PrimitiveTypeNode.PrimitiveType kind) {
+        switch (kind) {
+            case INTEGER: return 0;
+            case REAL: return 0.0;
+            default: return false;
+        }
+    }
+
+    /** The runtime value of a literal (integers as i32), or null for other literals. */
+    private static Object valueOf(LiteralNode literal) {
+        Object value = literal.getValue();
+        if (value instanceof Integer || value instanceof Long) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        }
+        return value instanceof Boolean ? value : null;
+    }
+
+    /** Literal values follow the parser: integers are Long. */
+    private static Object literalValue(Object value) {
+        return value instanceof Integer ? Long.valueOf((Integer) value) : value;
+    }
+
+    private static String key(String routine, List<Object> arguments) {
+        StringBuilder key = new StringBuilder(routine).append('(');
+        for (Object argument : arguments) {
+            // The class keeps 1 and 1.0 apart
+            key.append(argument.getClass().getSimpleName()).append(' ').append(argument).append(',');
+        }
+        return key.append(')').toString();
+    }
+}
@@ -0,0 +1,189 @@
+package com.languagei.compiler.semantic;
+
+import com.languagei.compiler.ast.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the routines whose result depends only on their arguments and that
+ * have no effect a caller could observe.
+ *
+ * A routine is pure when it does not print, does not read or write a
+ * top-level variable, calls only pure routines, and writes elements and
+ * fields only directly of arrays and records it declared itself (without an
+ * initializer, and never assigned as a whole). A nested element may be a
+ * reference stored there, so {@code a[i][j] := x} is not allowed even for
+ * such an array. Recursion is allowed: routines start out pure and lose it
+ * until nothing changes.
+ */
+public class PurityAnalyzer {
+
+    private final Map<String, RoutineDeclarationNode> routines = new LinkedHashMap<>();
+    private final Map<String, Set<String>> callees = new LinkedHashMap<>();
+    private final Set<String> pure = new LinkedHashSet<>();
+
+    public PurityAnalyzer(ProgramNode program) {
+        for (ASTNode decl : program.getDeclarations()) {
+            if (decl instanceof RoutineDeclarationNode && ((RoutineDeclarationNode) decl).getBody() != null) {
+                RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
+                routines.put(routine.getName(), routine);
+            }
+        }
+
+        Set<String> candidates = new LinkedHashSet<>();
+        for (RoutineDeclarationNode routine : routines.values()) {
+            Set<String> calls = new LinkedHashSet<>();
+            if (hasNoLocalEffects(routine, calls)) {
+                candidates.add(routine.getName());
+            }
+            callees.put(routine.getName(), calls);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String name : new ArrayList<>(candidates)) {
+                if (!candidates.containsAll(callees.get(name))) {
+                    candidates.remove(name);
+                    changed = true;
+                }
+            }
+        }
+        pure.addAll(candidates);
+    }
+
+    public boolean isPure(String routine) {
+        return pure.contains(routine);
+    }
+
+    /** The pure routines, in declaration order. */
+    public Set<String> getPureRoutines() {
+        return Collections.unmodifiableSet(pure);
+    }
+
+    /** The declaration with a body of a routine, or null. */
+    public RoutineDeclarationNode getRoutine(String name) {
+        return routines.get(name);
+    }
+
+    /** Whether a routine can call itself, directly or through other routines. */
+    public boolean isRecursive(String routine) {
+        Set<String> seen = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(callees.getOrDefault(routine, Set.of()));
+        while (!work.isEmpty()) {
+            String next = work.pop();
+            if (next.equals(routine)) {
+                return true;
+            }
+            if (seen.add(next)) {
+                work.addAll(callees.getOrDefault(next, Set.of()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check everything but the callees, which are collected into
+     * {@code calls} (an unknown callee makes the routine impure).
+     */
+    private boolean hasNoLocalEffects(RoutineDeclarationNode routine, Set<String> calls) {
+        Set<String> locals = new HashSet<>();
+        for (ParameterNode param : routine.getParameters()) {
+            locals.add(param.getName());
+        }
+        Set<String> declared = new HashSet<>();
+        collectDeclarations(routine.getBody(), declared);
+        locals.addAll(declared);
+
+        // Locals that hold an array or record of their own
+        Set<String> owned = new HashSet<>();
+        collectOwned(routine.getBody(), owned);
+        removeReassigned(routine.getBody(), owned);
+
+        return check(routine.getBody(), locals, owned, calls);
+    }
+
+    private boolean check(ASTNode node, Set<String> locals, Set<String> owned, Set<String> calls) {
+        if (node == null) {
+            return true;
+        }
+        if (node instanceof PrintStatementNode) {
+            return false;
+        }
+        if (node instanceof IdentifierNode && !locals.contains(((IdentifierNode) node).getName())) {
+            return false;
+        }
+        if (node instanceof RoutineCallNode) {
+            String callee = ((RoutineCallNode) node).getName();
+            if (!routines.containsKey(callee)) {
+                return false;
+            }
+            calls.add(callee);
+        }
+        if (node instanceof AssignmentNode) {
+            ASTNode target = ((AssignmentNode) node).getTarget();
+            if (!(target instanceof IdentifierNode)) {
+                ASTNode container = target instanceof ArrayAccessNode
+                    ? ((ArrayAccessNode) target).getArray() : ((RecordAccessNode) target).getObject();
+                if (!(container instanceof IdentifierNode)
+                        || !owned.contains(((IdentifierNode) container).getName())) {
+                    return false;
+                }
+            }
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (!check(child, locals, owned, calls)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collectDeclarations(ASTNode node, Set<String> names) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof VariableDeclarationNode) {
+            names.add(((VariableDeclarationNode) node).getName());
+        } else if (node instanceof ForLoopNode) {
+            names.add(((ForLoopNode) node).getVariable());
+        }
+        for (ASTNode child : node.getChildren()) {
+            collectDeclarations(child, names);
+        }
+    }
+
+    private static void collectOwned(ASTNode node, Set<String> owned) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            if (decl.getInitializer() == null) {
+                owned.add(decl.getName());
+            }
+        }
+        for (ASTNode child : node.getChildren()) {
+            collectOwned(child, owned);
+        }
+    }
+
+    private static void removeReassigned(ASTNode node, Set<String> owned) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof AssignmentNode && ((AssignmentNode) node).getTarget() instanceof IdentifierNode) {
+            owned.remove(((IdentifierNode) ((AssignmentNode) node).getTarget()).getName());
+        }
+        for (ASTNode child : node.getChildren()) {
+            removeReassigned(child, owned);
+        }
+    }
+}
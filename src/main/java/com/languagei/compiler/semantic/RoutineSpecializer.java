@@ -0,0 +1,420 @@
+package com.languagei.compiler.semantic;
+
+import com.languagei.compiler.ast.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Clones routines for call sites that pass constants or arrays of known
+ * size, so that the clones can be optimized with that knowledge.
+ *
+ * A scalar parameter is specialized when the argument is a literal and the
+ * parameter decides control flow (a loop bound, a condition or an array
+ * size): the clone drops the parameter and starts with a local of the same
+ * name initialized to the literal, which constant propagation then pushes
+ * through the body, so loops get constant trip counts and can be unrolled.
+ * A sizeless array parameter iterated with {@code for x in a} is specialized
+ * when the argument is a variable declared with a literal size: the clone
+ * declares the parameter with that size.
+ *
+ * Call sites with the same specialization share one clone, named
+ * {@code <routine>.<n>} and placed after the routine. Cloned nodes are
+ * counted against a budget; calls past it keep calling the routine. Calls to
+ * pure routines with only literal arguments are left to
+ * {@link PureCallEvaluator}, and calls inside clones are not specialized
+ * again.
+ */
+public class RoutineSpecializer {
+
+    /** Routines with bodies larger than this many nodes are never cloned. */
+    public static final int MAX_ROUTINE_SIZE = 400;
+
+    private final int budget;
+    private final Map<String, RoutineDeclarationNode> routines = new HashMap<>();
+    private final Map<String, String> clonesByKey = new HashMap<>();
+    private final Map<String, List<RoutineDeclarationNode>> clonesOf = new HashMap<>();
+    private final Map<String, String> clones = new LinkedHashMap<>();
+    private PurityAnalyzer purity;
+    private int clonedNodes;
+
+    /** Declared types of the variables of the function being rewritten, by name. */
+    private Map<String, ASTNode> variableTypes = new HashMap<>();
+
+    /** @param budget nodes all clones together may add; 0 turns specialization off */
+    public RoutineSpecializer(int budget) {
+        this.budget = budget;
+    }
+
+    public ProgramNode optimize(ProgramNode root) {
+        if (budget <= 0) {
+            return root;
+        }
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof RoutineDeclarationNode && ((RoutineDeclarationNode) decl).getBody() != null) {
+                routines.put(((RoutineDeclarationNode) decl).getName(), (RoutineDeclarationNode) decl);
+            }
+        }
+        purity = new PurityAnalyzer(root);
+
+        // Top-level code sees the program variables; routines see only their own
+        Map<String, ASTNode> globalTypes = new HashMap<>();
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof VariableDeclarationNode) {
+                collectTypes(decl, globalTypes);
+            }
+        }
+        for (ASTNode stmt : root.getStatements()) {
+            collectTypes(stmt, globalTypes);
+        }
+
+        List<ASTNode> declarations = new ArrayList<>();
+        for (ASTNode decl : root.getDeclarations()) {
+            if (decl instanceof RoutineDeclarationNode && ((RoutineDeclarationNode) decl).getBody() != null) {
+                RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
+                variableTypes = new HashMap<>();
+                for (ParameterNode param : routine.getParameters()) {
+                    addType(variableTypes, param.getName(), param.getType());
+                }
+                collectTypes(routine.getBody(), variableTypes);
+                declarations.add(new RoutineDeclarationNode(routine.getPosition(), routine.getName(),
+                    routine.getParameters(), routine.getReturnType(), (BlockNode) rewrite(routine.getBody())));
+            } else {
+                variableTypes = globalTypes;
+                declarations.add(rewrite(decl));
+            }
+        }
+        variableTypes = globalTypes;
+        List<ASTNode> statements = new ArrayList<>();
+        for (ASTNode stmt : root.getStatements()) {
+            statements.add(rewrite(stmt));
+        }
+
+        ProgramNode result = new ProgramNode(root.getPosition());
+        for (ASTNode decl : declarations) {
+            result.addDeclaration(decl);
+            if (decl instanceof RoutineDeclarationNode && ((RoutineDeclarationNode) decl).getBody() != null) {
+                for (RoutineDeclarationNode clone : clonesOf.getOrDefault(
+                        ((RoutineDeclarationNode) decl).getName(), List.of())) {
+                    result.addDeclaration(clone);
+                }
+            }
+        }
+        for (ASTNode stmt : statements) {
+            result.addStatement(stmt);
+        }
+        return result;
+    }
+
+    /** The clones made, each mapped to the routine it specializes, in creation order. */
+    public Map<String, String> getClones() {
+        return Collections.unmodifiableMap(clones);
+    }
+
+    private ASTNode rewrite(ASTNode node) {
+        if (node == null) return null;
+
+        if (node instanceof BlockNode) {
+            BlockNode block = (BlockNode) node;
+            BlockNode result = new BlockNode(block.getPosition());
+            for (ASTNode stmt : block.getStatements()) {
+                result.addStatement(rewrite(stmt));
+            }
+            return result;
+        }
+
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode v = (VariableDeclarationNode) node;
+            return new VariableDeclarationNode(v.getPosition(), v.getName(), v.getType(), rewrite(v.getInitializer()));
+        }
+
+        if (node instanceof AssignmentNode) {
+            AssignmentNode a = (AssignmentNode) node;
+            return new AssignmentNode(a.getPosition(), rewrite(a.getTarget()), rewrite(a.getValue()));
+        }
+
+        if (node instanceof PrintStatementNode) {
+            PrintStatementNode p = (PrintStatementNode) node;
+            PrintStatementNode result = new PrintStatementNode(p.getPosition());
+            for (ASTNode expr : p.getExpressions()) {
+                result.addExpression(rewrite(expr));
+            }
+            return result;
+        }
+
+        if (node instanceof IfStatementNode) {
+            IfStatementNode i = (IfStatementNode) node;
+            return new IfStatementNode(i.getPosition(), rewrite(i.getCondition()),
+                (BlockNode) rewrite(i.getThenBlock()), (BlockNode) rewrite(i.getElseBlock()));
+        }
+
+        if (node instanceof WhileLoopNode) {
+            WhileLoopNode w = (WhileLoopNode) node;
+            return new WhileLoopNode(w.getPosition(), rewrite(w.getCondition()), (BlockNode) rewrite(w.getBody()));
+        }
+
+        if (node instanceof ForLoopNode) {
+            ForLoopNode f = (ForLoopNode) node;
+            return new ForLoopNode(f.getPosition(), f.getVariable(), rewrite(f.getRangeStart()),
+                rewrite(f.getRangeEnd()), rewrite(f.getArrayExpr()), f.isReverse(), (BlockNode) rewrite(f.getBody()));
+        }
+
+        if (node instanceof ReturnStatementNode) {
+            ReturnStatementNode r = (ReturnStatementNode) node;
+            return new ReturnStatementNode(r.getPosition(), rewrite(r.getValue()));
+        }
+
+        if (node instanceof RoutineCallNode) {
+            RoutineCallNode call = (RoutineCallNode) node;
+            RoutineCallNode result = new RoutineCallNode(call.getPosition(), call.getName());
+            for (ASTNode arg : call.getArguments()) {
+                result.addArgument(rewrite(arg));
+            }
+            return specialize(result);
+        }
+
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode a = (ArrayAccessNode) node;
+            return new ArrayAccessNode(a.getPosition(), rewrite(a.getArray()), rewrite(a.getIndex()));
+        }
+
+        if (node instanceof RecordAccessNode) {
+            RecordAccessNode r = (RecordAccessNode) node;
+            return new RecordAccessNode(r.getPosition(), rewrite(r.getObject()), r.getFieldName());
+        }
+
+        if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode u = (UnaryExpressionNode) node;
+            return new UnaryExpressionNode(u.getPosition(), u.getOperator(), rewrite(u.getOperand()));
+        }
+
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode b = (BinaryExpressionNode) node;
+            return new BinaryExpressionNode(b.getPosition(), rewrite(b.getLeft()), b.getOperator(), rewrite(b.getRight()));
+        }
+
+        // Identifiers, literals and types are shared
+        return node;
+    }
+
+    /** Redirect a call to a clone for its constant arguments, or return it unchanged. */
+    private RoutineCallNode specialize(RoutineCallNode call) {
+        RoutineDeclarationNode routine = routines.get(call.getName());
+        if (routine == null || routine.getParameters().size() != call.getArguments().size()) {
+            return call;
+        }
+        int size = countNodes(routine.getBody());
+        if (size > MAX_ROUTINE_SIZE || (purity.isPure(routine.getName()) && allLiterals(call))) {
+            return call;
+        }
+
+        // Per parameter: the literal it is bound to, the array size it gets, or nothing
+        List<ParameterNode> params = routine.getParameters();
+        LiteralNode[] constants = new LiteralNode[params.size()];
+        Integer[] sizes = new Integer[params.size()];
+        StringBuilder key = new StringBuilder(routine.getName()).append('(');
+        boolean specialized = false;
+        for (int i = 0; i < params.size(); i++) {
+            ParameterNode param = params.get(i);
+            ASTNode arg = call.getArguments().get(i);
+            if (param.getType() instanceof PrimitiveTypeNode && arg instanceof LiteralNode
+                    && controls(routine.getBody(), param.getName())) {
+                constants[i] = (LiteralNode) arg;
+                Object value = constants[i].getValue();
+                key.append(value.getClass().getSimpleName()).append(' ').append(value);
+                specialized = true;
+            } else if ((sizes[i] = knownSize(param, arg)) != null && iterates(routine.getBody(), param.getName())) {
+                key.append('[').append(sizes[i]).append(']');
+                specialized = true;
+            } else {
+                sizes[i] = null;
+                key.append('_');
+            }
+            key.append(',');
+        }
+        if (!specialized) {
+            return call;
+        }
+
+        String name = clonesByKey.get(key.toString());
+        if (name == null) {
+            if (clonedNodes + size > budget) {
+                return call;
+            }
+            clonedNodes += size;
+            List<RoutineDeclarationNode> existing = clonesOf.computeIfAbsent(routine.getName(), k -> new ArrayList<>());
+            name = routine.getName() + "." + (existing.size() + 1);
+            existing.add(makeClone(routine, name, constants, sizes));
+            clonesByKey.put(key.toString(), name);
+            clones.put(name, routine.getName());
+        }
+
+        RoutineCallNode result = new RoutineCallNode(call.getPosition(), name);
+        for (int i = 0; i < params.size(); i++) {
+            if (constants[i] == null) {
+                result.addArgument(call.getArguments().get(i));
+            }
+        }
+        return result;
+    }
+
+    private RoutineDeclarationNode makeClone(RoutineDeclarationNode routine, String name,
+                                             LiteralNode[] constants, Integer[] sizes) {
+        List<ParameterNode> params = new ArrayList<>();
+        BlockNode body = new BlockNode(routine.getBody().getPosition());
+        for (int i = 0; i < constants.length; i++) {
+            ParameterNode param = routine.getParameters().get(i);
+            if (constants[i] != null) {
+                body.addStatement(new VariableDeclarationNode(param.getPosition(), param.getName(),
+                    param.getType(), constants[i]));
+            } else if (sizes[i] != null) {
+                ArrayTypeNode type = (ArrayTypeNode) param.getType();
+                params.add(new ParameterNode(param.getPosition(), param.getName(), new ArrayTypeNode(
+                    type.getPosition(), new LiteralNode(type.getPosition(), Long.valueOf(sizes[i])),
+                    type.getElementType())));
+            } else {
+                params.add(param);
+            }
+        }
+        for (ASTNode stmt : routine.getBody().getStatements()) {
+            body.addStatement(stmt);
+        }
+        // Rebuilding the body gives the clone statements of its own
+        return new RoutineDeclarationNode(routine.getPosition(), name, params, routine.getReturnType(),
+            (BlockNode) new ConstantFolder().foldExpression(body));
+    }
+
+    /** The size a sizeless one-dimensional array parameter gets from its argument, or null. */
+    private Integer knownSize(ParameterNode param, ASTNode arg) {
+        if (!(param.getType() instanceof ArrayTypeNode) || !(arg instanceof IdentifierNode)) {
+            return null;
+        }
+        ArrayTypeNode paramType = (ArrayTypeNode) param.getType();
+        ASTNode argType = variableTypes.get(((IdentifierNode) arg).getName());
+        if (paramType.getSizeExpression() != null || !(paramType.getElementType() instanceof PrimitiveTypeNode)
+                || !(argType instanceof ArrayTypeNode)) {
+            return null;
+        }
+        ArrayTypeNode arrayType = (ArrayTypeNode) argType;
+        if (!(arrayType.getSizeExpression() instanceof LiteralNode)
+                || !(arrayType.getElementType() instanceof PrimitiveTypeNode)
+                || ((PrimitiveTypeNode) arrayType.getElementType()).getType()
+                    != ((PrimitiveTypeNode) paramType.getElementType()).getType()) {
+            return null;
+        }
+        Object value = ((LiteralNode) arrayType.getSizeExpression()).getValue();
+        return value instanceof Integer || value instanceof Long ? ((Number) value).intValue() : null;
+    }
+
+    private static boolean allLiterals(RoutineCallNode call) {
+        for (ASTNode arg : call.getArguments()) {
+            if (!(arg instanceof LiteralNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Record declared types; a name declared with different types has none. */
+    private static void collectTypes(ASTNode node, Map<String, ASTNode> types) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode decl = (VariableDeclarationNode) node;
+            addType(types, decl.getName(), decl.getType());
+        } else if (node instanceof ForLoopNode) {
+            addType(types, ((ForLoopNode) node).getVariable(), null);
+        }
+        for (ASTNode child : node.getChildren()) {
+            collectTypes(child, types);
+        }
+    }
+
+    private static void addType(Map<String, ASTNode> types, String name, ASTNode type) {
+        if (types.containsKey(name) && types.get(name) != type) {
+            type = null;
+        }
+        types.put(name, type);
+    }
+
+    /** Whether a variable occurs in a loop bound, a condition or an array size. */
+    private static boolean controls(ASTNode node, String name) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof ForLoopNode) {
+            ForLoopNode loop = (ForLoopNode) node;
+            if (mentions(loop.getRangeStart(), name) || mentions(loop.getRangeEnd(), name)) {
+                return true;
+            }
+        } else if (node instanceof IfStatementNode) {
+            if (mentions(((IfStatementNode) node).getCondition(), name)) {
+                return true;
+            }
+        } else if (node instanceof WhileLoopNode) {
+            if (mentions(((WhileLoopNode) node).getCondition(), name)) {
+                return true;
+            }
+        } else if (node instanceof ArrayTypeNode) {
+            if (mentions(((ArrayTypeNode) node).getSizeExpression(), name)) {
+                return true;
+            }
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (controls(child, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether an array variable is iterated with {@code for x in name}. */
+    private static boolean iterates(ASTNode node, String name) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof ForLoopNode && ((ForLoopNode) node).getArrayExpr() instanceof IdentifierNode
+                && ((IdentifierNode) ((ForLoopNode) node).getArrayExpr()).getName().equals(name)) {
+            return true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (iterates(child, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean mentions(ASTNode node, String name) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof IdentifierNode && ((IdentifierNode) node).getName().equals(name)) {
+            return true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (mentions(child, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int countNodes(ASTNode node) {
+        if (node == null) {
+            return 0;
+        }
+        int count = 1;
+        for (ASTNode child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+}
@@ -2,9 +2,20 @@ package com.languagei.compiler.semantic;
 
 import com.languagei.compiler.ast.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Semantic analyzer - performs type checking and validation
+ *
+ * Once routine signatures and types are collected, routine bodies are
+ * independent of each other: each one only reads the global scope as it
+ * stood where the routine is declared. Top-level declarations and
+ * statements are checked in source order, then the bodies are checked
+ * concurrently on a fork-join pool, each by its own analyzer with private
+ * scopes and errors over a snapshot of the globals. Errors are merged back
+ * in source order, so they come out as a sequential pass would report them.
  */
 public class SemanticAnalyzer implements ASTVisitor {
     private final SymbolTable symbolTable;
@@ -12,16 +23,40 @@ public class SemanticAnalyzer implements ASTVisitor {
     private Type currentExpressionType;
     private final Deque<String> loopVariables;
     private final Deque<Type> routineReturnTypes;
+    private final ForkJoinPool pool;
+    private final TypeInterner types;
+    // Type declarations not resolved yet, and those being resolved, by name
+    private final Map<String, TypeDeclarationNode> pendingTypes;
+    private final Set<String> resolvingTypes;
 
     public SemanticAnalyzer() {
-        this.symbolTable = new SymbolTable();
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** @param pool pool that checks routine bodies */
+    public SemanticAnalyzer(ForkJoinPool pool) {
+        this(new SymbolTable(), pool, new TypeInterner());
+    }
+
+    private SemanticAnalyzer(SymbolTable symbolTable, ForkJoinPool pool, TypeInterner types) {
+        this.symbolTable = symbolTable;
         this.errors = new ArrayList<>();
         this.loopVariables = new ArrayDeque<>();
         this.routineReturnTypes = new ArrayDeque<>();
+        this.pool = pool;
+        this.types = types;
+        this.pendingTypes = new HashMap<>();
+        this.resolvingTypes = new HashSet<>();
     }
 
     public void analyze(ProgramNode program) {
-        // First pass: collect declarations
+        // First pass: collect declarations. Types are resolved on first use,
+        // so a declaration may refer to types declared after it.
+        for (ASTNode decl : program.getDeclarations()) {
+            if (decl instanceof TypeDeclarationNode) {
+                pendingTypes.putIfAbsent(((TypeDeclarationNode) decl).getName(), (TypeDeclarationNode) decl);
+            }
+        }
         for (ASTNode decl : program.getDeclarations()) {
             if (decl instanceof RoutineDeclarationNode) {
                 RoutineDeclarationNode routine = (RoutineDeclarationNode) decl;
@@ -32,14 +67,13 @@ public class SemanticAnalyzer implements ASTVisitor {
                 Type returnType = routine.getReturnType() != null ?
                     typeFromNode(routine.getReturnType()) : Type.VOID;
 
-                Type funcType = new Type.FunctionType(paramTypes, returnType);
+                Type funcType = types.function(paramTypes, returnType);
                 symbolTable.declare(routine.getName(), new Symbol(routine.getName(), Symbol.Kind.FUNCTION, funcType));
             } else if (decl instanceof TypeDeclarationNode) {
-                TypeDeclarationNode typeDecl = (TypeDeclarationNode) decl;
-                // Declare type aliases up front so TypeReferenceNode lookups succeed
-                Type type = typeFromNode(typeDecl.getType());
-                symbolTable.declare(typeDecl.getName(),
-                    new Symbol(typeDecl.getName(), Symbol.Kind.TYPE, type));
+                TypeDeclarationNode pending = pendingTypes.get(((TypeDeclarationNode) decl).getName());
+                if (pending != null) {
+                    declareType(pending);
+                }
             }
         }
 
@@ -47,6 +81,30 @@ public class SemanticAnalyzer implements ASTVisitor {
         program.accept(this);
     }
 
+    /**
+     * Resolve a type declaration, following references to other declared
+     * types to the end, and declare its name.
+     */
+    private Type declareType(TypeDeclarationNode decl) {
+        String name = decl.getName();
+        pendingTypes.remove(name);
+        resolvingTypes.add(name);
+        Type type = decl.getType() instanceof RecordTypeNode
+            ? types.declaredRecord(name, fieldTypes((RecordTypeNode) decl.getType()))
+            : typeFromNode(decl.getType());
+        resolvingTypes.remove(name);
+        symbolTable.declare(name, new Symbol(name, Symbol.Kind.TYPE, type));
+        return type;
+    }
+
+    private Map<String, Type> fieldTypes(RecordTypeNode rec) {
+        Map<String, Type> fields = new LinkedHashMap<>();
+        for (VariableDeclarationNode field : rec.getFields()) {
+            fields.put(field.getName(), typeFromNode(field.getType()));
+        }
+        return fields;
+    }
+
     private Type typeFromNode(ASTNode node) {
         if (node instanceof PrimitiveTypeNode) {
             PrimitiveTypeNode prim = (PrimitiveTypeNode) node;
@@ -62,21 +120,23 @@ public class SemanticAnalyzer implements ASTVisitor {
             if (arr.getSizeExpression() != null) {
                 size = evaluateConstantExpression(arr.getSizeExpression());
             }
-            return new Type.ArrayType(elemType, size);
+            return types.array(elemType, size);
         } else if (node instanceof RecordTypeNode) {
-            RecordTypeNode rec = (RecordTypeNode) node;
-            Type.RecordType recordType = new Type.RecordType("record");
-            for (VariableDeclarationNode field : rec.getFields()) {
-                Type fieldType = typeFromNode(field.getType());
-                recordType.addField(field.getName(), fieldType);
-            }
-            return recordType;
+            return types.record(fieldTypes((RecordTypeNode) node));
         } else if (node instanceof TypeReferenceNode) {
             TypeReferenceNode ref = (TypeReferenceNode) node;
             Symbol sym = symbolTable.lookup(ref.getName());
             if (sym != null) {
                 return sym.getType();
             }
+            if (resolvingTypes.contains(ref.getName())) {
+                addError(node.getPosition(), "Cyclic type declaration: " + ref.getName());
+                return Type.VOID;
+            }
+            TypeDeclarationNode pending = pendingTypes.get(ref.getName());
+            if (pending != null) {
+                return declareType(pending);
+            }
             addError(node.getPosition(), "Unknown type: " + ref.getName());
             return Type.VOID;
         }
@@ -114,8 +174,64 @@ public class SemanticAnalyzer implements ASTVisitor {
             return Integer.compare(pa.getOffset(), pb.getOffset());
         });
 
+        // Errors of each item, in source order; routine slots are filled in
+        // once their bodies are checked. Errors reported before this pass,
+        // while collecting signatures, stay in front.
+        int firstError = errors.size();
+        List<List<CompilationError>> itemErrors = new ArrayList<>();
+        List<RoutineDeclarationNode> routines = new ArrayList<>();
+        List<Integer> routineSlots = new ArrayList<>();
+        List<Integer> globalLimits = new ArrayList<>();
         for (ASTNode item : items) {
-            item.accept(this);
+            if (item instanceof RoutineDeclarationNode) {
+                routines.add((RoutineDeclarationNode) item);
+                routineSlots.add(itemErrors.size());
+                globalLimits.add(symbolTable.getGlobalCount());
+                itemErrors.add(null);
+            } else {
+                int start = errors.size();
+                item.accept(this);
+                itemErrors.add(new ArrayList<>(errors.subList(start, errors.size())));
+            }
+        }
+
+        GlobalScope globals = symbolTable.snapshotGlobals();
+        List<RoutineCheck> checks = new ArrayList<>();
+        for (int i = 0; i < routines.size(); i++) {
+            checks.add(new RoutineCheck(routines.get(i), new SymbolTable(globals, globalLimits.get(i)), pool, types));
+        }
+        if (checks.size() > 1) {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(checks)));
+        }
+        for (int i = 0; i < checks.size(); i++) {
+            itemErrors.set(routineSlots.get(i), checks.get(i).invoke());
+        }
+
+        errors.subList(firstError, errors.size()).clear();
+        for (List<CompilationError> list : itemErrors) {
+            errors.addAll(list);
+        }
+    }
+
+    /** Checks one routine body with an analyzer of its own. */
+    private static final class RoutineCheck extends RecursiveTask<List<CompilationError>> {
+        private final RoutineDeclarationNode routine;
+        private final SymbolTable symbolTable;
+        private final ForkJoinPool pool;
+        private final TypeInterner types;
+
+        RoutineCheck(RoutineDeclarationNode routine, SymbolTable symbolTable, ForkJoinPool pool, TypeInterner types) {
+            this.routine = routine;
+            this.symbolTable = symbolTable;
+            this.pool = pool;
+            this.types = types;
+        }
+
+        @Override
+        protected List<CompilationError> compute() {
+            SemanticAnalyzer analyzer = new SemanticAnalyzer(symbolTable, pool, types);
+            routine.accept(analyzer);
+            return analyzer.errors;
         }
     }
 
@@ -157,6 +273,11 @@ public class SemanticAnalyzer implements ASTVisitor {
         // Types are declared during the initial analyze() pass; nothing to do here.
     }
 
+    @Override
+    public void visit(ImportDeclarationNode node) {
+        // Imports are replaced by the declarations they bring in before analysis.
+    }
+
     @Override
     public void visit(RoutineDeclarationNode node) {
         Type declaredReturnType = node.getReturnType() != null
@@ -489,46 +610,7 @@ public class SemanticAnalyzer implements ASTVisitor {
     }
 
     private boolean isAssignmentCompatible(Type target, Type source) {
-        if (target.equals(source)) {
-            return true;
-        }
-        
-        // Arrays: allow sizeless array parameters to accept fixed-size arrays
-        if (target instanceof Type.ArrayType && source instanceof Type.ArrayType) {
-            Type.ArrayType tArr = (Type.ArrayType) target;
-            Type.ArrayType sArr = (Type.ArrayType) source;
-            if (tArr.getElementType().equals(sArr.getElementType())) {
-                if (tArr.getSize() == null && sArr.getSize() != null) {
-                    return true;
-                }
-            }
-        }
-
-        // Integer can receive from integer
-        if (target == Type.INTEGER && source == Type.INTEGER) return true;
-        
-        // Integer can receive from real (with conversion)
-        if (target == Type.INTEGER && source == Type.REAL) return true;
-        
-        // Integer can receive from boolean
-        if (target == Type.INTEGER && source == Type.BOOLEAN) return true;
-        
-        // Real can receive from real
-        if (target == Type.REAL && source == Type.REAL) return true;
-        
-        // Real can receive from integer
-        if (target == Type.REAL && source == Type.INTEGER) return true;
-        
-        // Real can receive from boolean
-        if (target == Type.REAL && source == Type.BOOLEAN) return true;
-        
-        // Boolean can receive from boolean
-        if (target == Type.BOOLEAN && source == Type.BOOLEAN) return true;
-        
-        // Boolean can receive from integer (only 0 or 1)
-        if (target == Type.BOOLEAN && source == Type.INTEGER) return true;
-        
-        return false;
+        return types.isAssignable(target, source);
     }
 
     private void addError(com.languagei.compiler.lexer.Position position, String message) {
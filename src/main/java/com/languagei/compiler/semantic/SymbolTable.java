@@ -7,11 +7,27 @@ import java.util.*;
  */
 public class SymbolTable {
     private final Deque<Map<String, Symbol>> scopes;
+    // Global declarations in order, for snapshots
+    private final List<String> globalNames = new ArrayList<>();
+    private final List<Symbol> globalSymbols = new ArrayList<>();
+    // Set for a table whose globals come from a snapshot
+    private final GlobalScope globals;
+    private final int globalLimit;
 
     public SymbolTable() {
+        this(null, 0);
+    }
+
+    /**
+     * A table whose global scope is the first {@code globalLimit}
+     * declarations of a snapshot; scopes entered on it stay private to it.
+     */
+    public SymbolTable(GlobalScope globals, int globalLimit) {
         this.scopes = new LinkedList<>();
         // Global scope
         scopes.push(new HashMap<>());
+        this.globals = globals;
+        this.globalLimit = globalLimit;
     }
 
     public void enterScope() {
@@ -30,6 +46,10 @@ public class SymbolTable {
             throw new RuntimeException("No scope available");
         }
         currentScope.put(name, symbol);
+        if (scopes.size() == 1 && globals == null) {
+            globalNames.add(name);
+            globalSymbols.add(symbol);
+        }
     }
 
     public Symbol lookup(String name) {
@@ -38,7 +58,7 @@ public class SymbolTable {
                 return scope.get(name);
             }
         }
-        return null;
+        return globals != null ? globals.lookup(name, globalLimit) : null;
     }
 
     public Symbol lookupLocal(String name) {
@@ -58,9 +78,20 @@ public class SymbolTable {
         return scopes.size();
     }
 
+    /** Number of declarations made in the global scope so far. */
+    public int getGlobalCount() {
+        return globalNames.size();
+    }
+
+    /** Snapshot of every declaration made in the global scope so far. */
+    public GlobalScope snapshotGlobals() {
+        return new GlobalScope(globalNames, globalSymbols);
+    }
+
     public void clear() {
         scopes.clear();
         scopes.push(new HashMap<>());
+        globalNames.clear();
+        globalSymbols.clear();
     }
 }
-
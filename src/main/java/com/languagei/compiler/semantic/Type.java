@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  * Represents a type in Language I
+ *
+ * Array, record and routine types are created by a {@link TypeInterner},
+ * which keeps one canonical instance per distinct type, so all types are
+ * compared with {@code ==} or by id.
  */
 public abstract class Type {
     public static final IntegerType INTEGER = new IntegerType();
@@ -11,10 +15,26 @@ public abstract class Type {
     public static final BooleanType BOOLEAN = new BooleanType();
     public static final VoidType VOID = new VoidType();
 
+    /** First id given to an interned type; lower ids belong to the primitive types. */
+    static final int FIRST_INTERNED_ID = 4;
+
+    private final int id;
+
+    Type(int id) {
+        this.id = id;
+    }
+
+    /** Identifies the type among those of one program. */
+    public int getId() {
+        return id;
+    }
+
     public abstract String getName();
     public abstract boolean isCompatibleWith(Type other);
 
     public static class IntegerType extends Type {
+        public IntegerType() { super(0); }
+
         @Override
         public String getName() { return "integer"; }
         
@@ -31,6 +51,8 @@ public abstract class Type {
     }
 
     public static class RealType extends Type {
+        public RealType() { super(1); }
+
         @Override
         public String getName() { return "real"; }
         
@@ -47,6 +69,8 @@ public abstract class Type {
     }
 
     public static class BooleanType extends Type {
+        public BooleanType() { super(2); }
+
         @Override
         public String getName() { return "boolean"; }
         
@@ -63,6 +87,8 @@ public abstract class Type {
     }
 
     public static class VoidType extends Type {
+        public VoidType() { super(3); }
+
         @Override
         public String getName() { return "void"; }
         
@@ -83,7 +109,8 @@ public abstract class Type {
         private final Long size; // null for unbounded arrays
         private final String name;
 
-        public ArrayType(Type elementType, Long size) {
+        ArrayType(int id, Type elementType, Long size) {
+            super(id);
             this.elementType = elementType;
             this.size = size;
             this.name = "array of " + elementType.getName();
@@ -97,35 +124,23 @@ public abstract class Type {
 
         @Override
         public boolean isCompatibleWith(Type other) {
-            if (!(other instanceof ArrayType)) return false;
-            ArrayType that = (ArrayType) other;
-            return this.elementType.equals(that.elementType) &&
-                   Objects.equals(this.size, that.size);
+            return this == other;
         }
-
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof ArrayType)) return false;
-            ArrayType that = (ArrayType) o;
-            return this.elementType.equals(that.elementType) &&
-                   Objects.equals(this.size, that.size);
-        }
-
-        @Override
-        public int hashCode() { return Objects.hash(elementType, size); }
     }
 
+    /**
+     * A record type. Each record declared by a type declaration is a type
+     * of its own, named after the declaration; records written out in
+     * place are equal when their fields are.
+     */
     public static class RecordType extends Type {
         private final String name;
         private final Map<String, Type> fields;
 
-        public RecordType(String name) {
+        RecordType(int id, String name, Map<String, Type> fields) {
+            super(id);
             this.name = name;
-            this.fields = new LinkedHashMap<>();
-        }
-
-        public void addField(String fieldName, Type type) {
-            fields.put(fieldName, type);
+            this.fields = Collections.unmodifiableMap(new LinkedHashMap<>(fields));
         }
 
         public Type getFieldType(String fieldName) {
@@ -139,26 +154,17 @@ public abstract class Type {
 
         @Override
         public boolean isCompatibleWith(Type other) {
-            if (!(other instanceof RecordType)) return false;
-            return this.name.equals(((RecordType) other).name);
+            return this == other;
         }
-
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof RecordType)) return false;
-            return this.name.equals(((RecordType) o).name);
-        }
-
-        @Override
-        public int hashCode() { return name.hashCode(); }
     }
 
     public static class FunctionType extends Type {
         private final List<Type> paramTypes;
         private final Type returnType;
 
-        public FunctionType(List<Type> paramTypes, Type returnType) {
-            this.paramTypes = paramTypes;
+        FunctionType(int id, List<Type> paramTypes, Type returnType) {
+            super(id);
+            this.paramTypes = Collections.unmodifiableList(new ArrayList<>(paramTypes));
             this.returnType = returnType;
         }
 
@@ -178,22 +184,7 @@ public abstract class Type {
 
         @Override
         public boolean isCompatibleWith(Type other) {
-            if (!(other instanceof FunctionType)) return false;
-            FunctionType that = (FunctionType) other;
-            return this.paramTypes.equals(that.paramTypes) && 
-                   this.returnType.equals(that.returnType);
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof FunctionType)) return false;
-            FunctionType that = (FunctionType) o;
-            return this.paramTypes.equals(that.paramTypes) && 
-                   this.returnType.equals(that.returnType);
+            return this == other;
         }
-
-        @Override
-        public int hashCode() { return Objects.hash(paramTypes, returnType); }
     }
 }
-
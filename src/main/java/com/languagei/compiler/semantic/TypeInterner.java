@@ -0,0 +1,86 @@
+package com.languagei.compiler.semantic;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the canonical instance of every array, record and routine type
+ * of a program, each with an id of its own.
+ *
+ * Types are hash-consed on the ids of their parts, so two occurrences of
+ * {@code array [10] integer} yield the same instance and type equality is
+ * {@code ==}. Records declared by a type declaration are nominal: each
+ * declaration gets a distinct type. Assignability is memoized per pair of
+ * ids. Routine bodies are checked concurrently, so the interner is
+ * thread-safe.
+ */
+public class TypeInterner {
+    private final AtomicInteger nextId = new AtomicInteger(Type.FIRST_INTERNED_ID);
+    private final ConcurrentMap<String, Type> types = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Boolean> assignable = new ConcurrentHashMap<>();
+
+    public Type.ArrayType array(Type elementType, Long size) {
+        String key = "array " + elementType.getId() + " " + size;
+        return (Type.ArrayType) types.computeIfAbsent(key,
+            k -> new Type.ArrayType(nextId.getAndIncrement(), elementType, size));
+    }
+
+    /** A record written out in place, equal to any other with the same fields. */
+    public Type.RecordType record(Map<String, Type> fields) {
+        StringBuilder key = new StringBuilder("record");
+        for (Map.Entry<String, Type> field : fields.entrySet()) {
+            key.append(' ').append(field.getKey()).append(':').append(field.getValue().getId());
+        }
+        return (Type.RecordType) types.computeIfAbsent(key.toString(),
+            k -> new Type.RecordType(nextId.getAndIncrement(), "record", fields));
+    }
+
+    /** The record of a type declaration, distinct from every other record. */
+    public Type.RecordType declaredRecord(String name, Map<String, Type> fields) {
+        return new Type.RecordType(nextId.getAndIncrement(), name, fields);
+    }
+
+    public Type.FunctionType function(List<Type> paramTypes, Type returnType) {
+        StringBuilder key = new StringBuilder("routine");
+        for (Type param : paramTypes) {
+            key.append(' ').append(param.getId());
+        }
+        key.append(" : ").append(returnType.getId());
+        return (Type.FunctionType) types.computeIfAbsent(key.toString(),
+            k -> new Type.FunctionType(nextId.getAndIncrement(), paramTypes, returnType));
+    }
+
+    /** Whether a value of type {@code source} may be stored into {@code target}. */
+    public boolean isAssignable(Type target, Type source) {
+        if (target == source) {
+            return true;
+        }
+        long key = ((long) target.getId() << 32) | (source.getId() & 0xffffffffL);
+        return assignable.computeIfAbsent(key, k -> computeAssignable(target, source));
+    }
+
+    /** Number of interned types so far. */
+    public int size() {
+        return nextId.get() - Type.FIRST_INTERNED_ID;
+    }
+
+    private static boolean computeAssignable(Type target, Type source) {
+        // Arrays: allow sizeless array parameters to accept fixed-size arrays
+        if (target instanceof Type.ArrayType && source instanceof Type.ArrayType) {
+            Type.ArrayType tArr = (Type.ArrayType) target;
+            Type.ArrayType sArr = (Type.ArrayType) source;
+            return tArr.getElementType() == sArr.getElementType()
+                && tArr.getSize() == null && sArr.getSize() != null;
+        }
+
+        // Integer and real convert to each other; booleans convert to both
+        if (target == Type.INTEGER || target == Type.REAL) {
+            return source == Type.INTEGER || source == Type.REAL || source == Type.BOOLEAN;
+        }
+
+        // Boolean can receive from integer (only 0 or 1)
+        return target == Type.BOOLEAN && source == Type.INTEGER;
+    }
+}
@@ -0,0 +1,110 @@
+package com.languagei.compiler;
+
+import com.languagei.compiler.ast.ProgramNode;
+import com.languagei.compiler.codegen.CodeGenerator;
+import com.languagei.compiler.codegen.UnusedFunctionEliminator;
+import com.languagei.compiler.lexer.Lexer;
+import com.languagei.compiler.parser.Parser;
+import com.languagei.compiler.semantic.SemanticAnalyzer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodeGeneratorTest {
+
+    private final StringWriter module = new StringWriter();
+
+    private CodeGenerator generate(String code, CompilerOptions options) throws IOException {
+        Lexer lexer = new Lexer(code, "test.i");
+        Parser parser = new Parser(lexer);
+        ProgramNode ast = parser.parse();
+
+        SemanticAnalyzer analyzer = new SemanticAnalyzer();
+        analyzer.analyze(ast);
+        assertFalse(analyzer.hasErrors());
+
+        CodeGenerator codegen = new CodeGenerator(module, options);
+        codegen.generate(ast);
+        return codegen;
+    }
+
+    @Test
+    public void testUnreachableFunctionsAreRemoved() throws IOException {
+        String code = "routine used(x : integer) : integer is\n  return x + 1\nend\n"
+            + "routine unused(x : integer) : integer is\n  return x * 2\nend\n"
+            + "var a : array [1] integer\na[1] := 4\nprint used(a[1])";
+        CodeGenerator codegen = generate(code, new CompilerOptions());
+        String wat = module.toString();
+
+        assertTrue(wat.contains("(func $used"));
+        assertTrue(wat.contains("(func $print_int"));
+        assertFalse(wat.contains("(func $unused"));
+        assertFalse(wat.contains("(func $print_real"));
+        assertFalse(wat.contains("(func $allocate_record"));
+
+        List<String> removed = codegen.getRemovedFunctions();
+        assertTrue(removed.contains("unused"));
+        assertTrue(removed.contains("print_real"));
+        assertTrue(removed.contains("allocate_record"));
+        assertFalse(removed.contains("used"));
+    }
+
+    @Test
+    public void testModuleSizeReport() throws IOException {
+        CodeGenerator codegen = generate("var x : integer is 1\nprint x", new CompilerOptions());
+
+        assertEquals(module.toString().length(), codegen.getModuleSize());
+        assertTrue(codegen.getUnoptimizedModuleSize() > codegen.getModuleSize());
+    }
+
+    @Test
+    public void testEliminatorFollowsCallsFromExports() {
+        String dead = "  ;; never called\n  (func $dead\n    (call $a)\n  )\n";
+        String unusedImport = "  (import \"env\" \"unused\" (func $unused (param i32)))\n";
+        String module = "(module\n"
+            + "  (import \"env\" \"log\" (func $log (param i32)))\n"
+            + unusedImport
+            + "  (func $a\n    (call $b)\n  )\n"
+            + dead
+            + "  (func $b\n    (return_call $log (i32.const 1))\n  )\n"
+            + "  (export \"_start\" (func $a))\n"
+            + ")\n";
+
+        UnusedFunctionEliminator eliminator = new UnusedFunctionEliminator();
+        String result = eliminator.eliminate(module);
+
+        assertEquals(List.of("unused", "dead"), eliminator.getRemovedFunctions());
+        assertEquals(module.replace(unusedImport, "").replace(dead, ""), result);
+    }
+
+    @Test
+    public void testDebugInfoLineTable() throws IOException {
+        String code = "routine add(a : integer, b : integer) : integer is\n"
+            + "  var s : integer is a + b\n"
+            + "  if s > 10 then\n"
+            + "    s := 10\n"
+            + "  end\n"
+            + "  return s\n"
+            + "end\n"
+            + "var x : array [1] integer\n"
+            + "print add(x[1], 2)";
+        CompilerOptions options = new CompilerOptions();
+        options.setDebugInfo(true);
+        generate(code, options);
+        String wat = module.toString();
+
+        assertTrue(wat.startsWith("(module $test\n"));
+        // Line 3 starts after the 4 instructions of line 2, line 4 after the
+        // condition and the if, line 6 after the assignment and the end
+        assertTrue(wat.contains("(@custom \"language-i.lines\" \"language-i-lines 1\\0a"
+            + "func add test.i 1\\0a0 2\\0a4 3\\0a8 4\\0a11 6\\0a"));
+
+        module.getBuffer().setLength(0);
+        generate(code, new CompilerOptions());
+        assertFalse(module.toString().contains("@custom"));
+    }
+}
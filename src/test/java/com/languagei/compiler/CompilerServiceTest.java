@@ -0,0 +1,75 @@
+package com.languagei.compiler;
+
+import com.languagei.compiler.semantic.CompilationError;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilerServiceTest {
+
+    // The argument comes from an array element, so the call is not evaluated
+    // at compile time and square reaches code generation
+    private static final String PROGRAM =
+        "routine square(x : integer) : integer is\n  return x * x\nend\n"
+        + "var n : array [1] integer\nn[1] := 7\nprint square(n[1])";
+
+    @Test
+    public void testCompileSource() {
+        CompilerService service = new CompilerService();
+        CompilationResult result = service.compile(PROGRAM, "square.i");
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.getWat().startsWith("(module"));
+        assertTrue(result.getWat().contains("(func $square"));
+        assertTrue(result.getErrors().isEmpty());
+        assertTrue(result.getPhaseTimes().containsKey("codegen"));
+    }
+
+    @Test
+    public void testSemanticErrorsAreDiagnostics() {
+        CompilerService service = new CompilerService();
+        CompilationResult result = service.compile("var x : integer is 1\nprint y", "bad.i");
+
+        assertFalse(result.isSuccess());
+        assertNull(result.getWat());
+        CompilationError error = result.getErrors().get(0);
+        assertEquals("Undefined variable: y", error.getMessage());
+        assertEquals(2, error.getPosition().getLine());
+    }
+
+    @Test
+    public void testParseErrorHasPosition() {
+        CompilerService service = new CompilerService();
+        CompilationResult result = service.compile("var x : integer is 1\nvar is", "bad.i");
+
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.getErrors().size());
+        assertEquals(2, result.getErrors().get(0).getPosition().getLine());
+    }
+
+    @Test
+    public void testConcurrentCompiles() throws Exception {
+        CompilerService service = new CompilerService();
+        String expected = service.compile(PROGRAM, "square.i").getWat();
+        assertTrue(expected.contains("(func $square"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CompilationResult>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> service.compile(PROGRAM, "square.i")));
+            }
+            for (Future<CompilationResult> result : results) {
+                assertEquals(expected, result.get().getWat());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -80,5 +80,17 @@ public class ParserTest {
         assertNotNull(routine.getReturnType());
         assertNotNull(routine.getBody());
     }
-}
 
+    @Test
+    public void testImportDeclaration() {
+        String code = "import geometry\nvar x : integer is 1";
+        Lexer lexer = new Lexer(code, "test.i");
+        Parser parser = new Parser(lexer);
+        ProgramNode program = parser.parse();
+
+        assertEquals(2, program.getDeclarations().size());
+        ASTNode decl = program.getDeclarations().get(0);
+        assertTrue(decl instanceof ImportDeclarationNode);
+        assertEquals("geometry", ((ImportDeclarationNode) decl).getModuleName());
+    }
+}
@@ -0,0 +1,88 @@
+package com.languagei.compiler;
+
+import com.languagei.compiler.ast.ASTNode;
+import com.languagei.compiler.ast.ProgramNode;
+import com.languagei.compiler.ast.RoutineDeclarationNode;
+import com.languagei.compiler.codegen.CodeGenerator;
+import com.languagei.compiler.codegen.Profile;
+import com.languagei.compiler.lexer.Lexer;
+import com.languagei.compiler.parser.Parser;
+import com.languagei.compiler.semantic.SemanticAnalyzer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfileTest {
+
+    private Path writeProfile(String... lines) throws IOException {
+        Path file = Files.createTempFile("profile", ".iprof");
+        file.toFile().deleteOnExit();
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void testReadCounts() throws IOException {
+        Profile profile = Profile.read(writeProfile(
+            "language-i-profile 1",
+            "entry fib 177",
+            "branch fib 1:3 89 88",
+            "loop _start 10:1 1 3"));
+
+        assertEquals(177, profile.getEntryCount("fib"));
+        assertArrayEquals(new long[] {89, 88}, profile.getBranchCounts("fib", "1:3"));
+        assertArrayEquals(new long[] {1, 3}, profile.getLoopCounts("_start", "10:1"));
+        assertEquals(-1, profile.getEntryCount("main"));
+        assertNull(profile.getBranchCounts("fib", "2:3"));
+    }
+
+    @Test
+    public void testRepeatedRunsAddUp() throws IOException {
+        Profile profile = Profile.read(writeProfile(
+            "language-i-profile 1",
+            "entry fib 10",
+            "branch fib 1:3 6 4",
+            "language-i-profile 1",
+            "entry fib 5",
+            "branch fib 1:3 3 2"));
+
+        assertEquals(15, profile.getEntryCount("fib"));
+        assertArrayEquals(new long[] {9, 6}, profile.getBranchCounts("fib", "1:3"));
+    }
+
+    @Test
+    public void testOtherVersionIsRejected() throws IOException {
+        Path file = writeProfile("language-i-profile 2", "entry fib 10");
+        assertThrows(IOException.class, () -> Profile.read(file));
+    }
+
+    @Test
+    public void testGeneratedLabelsMatchProfileSites() throws IOException {
+        String code = "routine fib(n : integer) : integer is\n"
+            + "  if n <= 1 then\n    return n\n  end\n"
+            + "  return fib(n - 1) + fib(n - 2)\nend\n"
+            + "print fib(10)";
+        ProgramNode ast = new Parser(new Lexer(code, "test.i")).parse();
+        SemanticAnalyzer analyzer = new SemanticAnalyzer();
+        analyzer.analyze(ast);
+
+        CompilerOptions options = new CompilerOptions();
+        options.setProfileGenerate(true);
+        StringWriter module = new StringWriter();
+        new CodeGenerator(module, options).generate(ast);
+        String wat = module.toString();
+
+        RoutineDeclarationNode fib = (RoutineDeclarationNode) ast.getDeclarations().get(0);
+        ASTNode branch = fib.getBody().getStatements().get(0);
+        assertTrue(wat.contains(Profile.FORMAT + " " + Profile.VERSION + "\\0a"));
+        assertTrue(wat.contains("entry " + Profile.routineName(fib)));
+        assertTrue(wat.contains("branch fib " + Profile.position(fib, branch)));
+    }
+}
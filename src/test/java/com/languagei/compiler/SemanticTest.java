@@ -3,9 +3,14 @@ package com.languagei.compiler;
 import com.languagei.compiler.ast.*;
 import com.languagei.compiler.lexer.Lexer;
 import com.languagei.compiler.parser.Parser;
+import com.languagei.compiler.semantic.CompilationError;
+import com.languagei.compiler.semantic.ConstantFolder;
+import com.languagei.compiler.semantic.ConstantPropagator;
 import com.languagei.compiler.semantic.SemanticAnalyzer;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class SemanticTest {
@@ -59,5 +64,79 @@ public class SemanticTest {
         
         assertFalse(analyzer.hasErrors());
     }
-}
 
+    @Test
+    public void testConstantPropagationIntoArraySize() {
+        String code = "var n is 10\nvar m is n * 4\nvar a : array [m] integer";
+        ProgramNode ast = parseCode(code);
+
+        ast = new ConstantFolder().optimize(ast);
+        ast = new ConstantPropagator().optimize(ast);
+
+        VariableDeclarationNode m = (VariableDeclarationNode) ast.getDeclarations().get(1);
+        assertEquals(40L, ((LiteralNode) m.getInitializer()).getValue());
+        VariableDeclarationNode a = (VariableDeclarationNode) ast.getDeclarations().get(2);
+        ArrayTypeNode type = (ArrayTypeNode) a.getType();
+        assertEquals(40L, ((LiteralNode) type.getSizeExpression()).getValue());
+    }
+
+    @Test
+    public void testRoutineBodiesReportErrorsInSourceOrder() {
+        String code = "routine f() : integer is\n  return later\nend\n"
+            + "var later is 1\n"
+            + "print missing\n"
+            + "routine g() : integer is\n  return later + other\nend";
+        ProgramNode ast = parseCode(code);
+
+        SemanticAnalyzer analyzer = new SemanticAnalyzer();
+        analyzer.analyze(ast);
+
+        List<CompilationError> errors = analyzer.getErrors();
+        assertEquals("Undefined variable: later", errors.get(0).getMessage());
+        assertEquals(2, errors.get(0).getPosition().getLine());
+        assertEquals("Undefined variable: missing", errors.get(2).getMessage());
+        assertEquals("Undefined variable: other", errors.get(3).getMessage());
+        assertEquals(7, errors.get(3).getPosition().getLine());
+    }
+
+    @Test
+    public void testSignatureErrorsAreKept() {
+        String code = "routine f(x : Missing) : integer is\n  return 1\nend\nprint f(2)";
+        ProgramNode ast = parseCode(code);
+
+        SemanticAnalyzer analyzer = new SemanticAnalyzer();
+        analyzer.analyze(ast);
+
+        assertTrue(analyzer.hasErrors());
+        assertEquals("Unknown type: Missing", analyzer.getErrors().get(0).getMessage());
+    }
+
+    @Test
+    public void testDeclaredRecordsAreDistinctTypes() {
+        String code = "type A is record x : integer end\n"
+            + "type B is record x : integer end\n"
+            + "type C is A\n"
+            + "var a : A\nvar b : B\nvar c : C\n"
+            + "c := a\n"
+            + "a := b";
+        ProgramNode ast = parseCode(code);
+
+        SemanticAnalyzer analyzer = new SemanticAnalyzer();
+        analyzer.analyze(ast);
+
+        assertEquals(1, analyzer.getErrors().size());
+        assertEquals("Type mismatch in assignment: cannot assign B to A", analyzer.getErrors().get(0).getMessage());
+    }
+
+    @Test
+    public void testCyclicTypeDeclaration() {
+        String code = "type A is B\ntype B is array [2] A";
+        ProgramNode ast = parseCode(code);
+
+        SemanticAnalyzer analyzer = new SemanticAnalyzer();
+        analyzer.analyze(ast);
+
+        assertTrue(analyzer.hasErrors());
+        assertEquals("Cyclic type declaration: A", analyzer.getErrors().get(0).getMessage());
+    }
+}
@@ -0,0 +1,45 @@
+package com.languagei.compiler.benchmark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BenchmarkRunnerTest {
+
+    @Test
+    public void testMedian() {
+        assertEquals(3.0, BenchmarkRunner.median(new double[] {1, 3, 8}), 0);
+        assertEquals(5.5, BenchmarkRunner.median(new double[] {1, 3, 8, 20}), 0);
+        assertEquals(7.0, BenchmarkRunner.median(new double[] {7}), 0);
+    }
+
+    @Test
+    public void testP95Index() {
+        assertEquals(0, BenchmarkRunner.p95Index(1));
+        assertEquals(4, BenchmarkRunner.p95Index(5));
+        assertEquals(18, BenchmarkRunner.p95Index(20));
+        assertEquals(94, BenchmarkRunner.p95Index(100));
+    }
+
+    @Test
+    public void testParseHistory() {
+        BenchmarkRunner.Result first = new BenchmarkRunner.Result("sieve", "default", 5, 120.5, 130.25, 4096);
+        BenchmarkRunner.Result second = new BenchmarkRunner.Result("sieve", "default", 5, 118, 125, 4096);
+        BenchmarkRunner.Result simd = new BenchmarkRunner.Result("sieve", "simd", 5, 80.125, 90, 4200);
+        List<String> lines = List.of(
+            first.toJson("2026-01-01T00:00:00Z"),
+            simd.toJson("2026-01-01T00:00:00Z"),
+            "",
+            "{\"benchmark\": \"sieve\", \"setting\": \"default\"}",
+            second.toJson("2026-01-02T00:00:00Z"));
+
+        Map<String, List<Double>> medians = BenchmarkRunner.parseHistory(lines);
+
+        assertEquals(List.of("sieve default", "sieve simd"), List.copyOf(medians.keySet()));
+        assertEquals(List.of(120.5, 118.0), medians.get("sieve default"));
+        assertEquals(List.of(80.125), medians.get("sieve simd"));
+    }
+}
@@ -0,0 +1,77 @@
+// Benchmark: heap sort of one million pseudo-random integers.
+
+var n : integer is 1000000
+var a : array [1000000] integer
+var seed : integer is 12345
+
+for i in 1..n loop
+  seed := (seed * 75 + 74) % 65537
+  a[i] := seed
+end
+
+var size : integer is n
+var start : integer is n / 2
+var root : integer is 0
+var child : integer is 0
+var tmp : integer is 0
+
+// Build a max-heap, then repeatedly move its top behind the heap.
+// start counts down through the inner nodes, then over the sorted tail.
+while start >= 1 loop
+  root := start
+  child := 2 * root
+  while child <= size loop
+    if child < size then
+      if a[child + 1] > a[child] then
+        child := child + 1
+      end
+    end
+    if a[root] < a[child] then
+      tmp := a[root]
+      a[root] := a[child]
+      a[child] := tmp
+      root := child
+      child := 2 * root
+    else
+      child := size + 1
+    end
+  end
+  start := start - 1
+end
+
+while size > 1 loop
+  tmp := a[1]
+  a[1] := a[size]
+  a[size] := tmp
+  size := size - 1
+  root := 1
+  child := 2
+  while child <= size loop
+    if child < size then
+      if a[child + 1] > a[child] then
+        child := child + 1
+      end
+    end
+    if a[root] < a[child] then
+      tmp := a[root]
+      a[root] := a[child]
+      a[child] := tmp
+      root := child
+      child := 2 * root
+    else
+      child := size + 1
+    end
+  end
+end
+
+var unsorted : integer is 0
+for i in 2..n loop
+  if a[i - 1] > a[i] then
+    unsorted := unsorted + 1
+  end
+end
+
+print unsorted
+print a[1]
+print a[n / 2]
+print a[n]
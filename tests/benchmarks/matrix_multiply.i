@@ -0,0 +1,35 @@
+// Benchmark: 512x512 integer matrix multiplication.
+
+var n : integer is 512
+var a : array [512] array [512] integer
+var b : array [512] array [512] integer
+var c : array [512] array [512] integer
+
+for i in 1..n loop
+  for j in 1..n loop
+    a[i][j] := (i + j) % 7
+    b[i][j] := (i * j) % 5
+  end
+end
+
+var s : integer is 0
+for i in 1..n loop
+  for j in 1..n loop
+    s := 0
+    for k in 1..n loop
+      s := s + a[i][k] * b[k][j]
+    end
+    c[i][j] := s
+  end
+end
+
+var checksum : integer is 0
+for i in 1..n loop
+  for j in 1..n loop
+    checksum := (checksum + c[i][j]) % 1000003
+  end
+end
+
+print c[1][1]
+print c[n][n]
+print checksum
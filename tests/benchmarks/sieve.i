@@ -0,0 +1,20 @@
+// Benchmark: sieve of Eratosthenes up to ten million.
+
+var n : integer is 10000000
+var composite : array [10000000] boolean
+var count : integer is 0
+
+for p in 2..n loop
+  if not composite[p] then
+    count := count + 1
+    if p <= n / p then
+      var m : integer is p * p
+      while m <= n loop
+        composite[m] := true
+        m := m + p
+      end
+    end
+  end
+end
+
+print count
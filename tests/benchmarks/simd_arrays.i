@@ -0,0 +1,44 @@
+// Benchmark: element-wise arithmetic and reductions over large arrays.
+// Compare `run` with and without --simd.
+
+var n : integer is 1000000
+var a : array [1000000] integer
+var b : array [1000000] integer
+var c : array [1000000] integer
+var x : array [1000000] real
+var y : array [1000000] real
+
+for i in 1..n loop
+  a[i] := i - (i / 100) * 100
+  b[i] := 50 - a[i]
+  x[i] := i * 0.5
+end
+
+var total : integer is 0
+var lowest : integer is 2147483647
+var highest : integer is 0
+var scale : real is 1.25
+
+for round in 1..20 loop
+  total := 0
+  for i in 1..n loop
+    c[i] := a[i] * 3 + b[i] - round
+  end
+  for i in 1..n loop
+    total := total + c[i]
+    if c[i] < lowest then
+      lowest := c[i]
+    end
+    if c[i] > highest then
+      highest := c[i]
+    end
+  end
+  for i in 1..n loop
+    y[i] := x[i] * scale + y[i] / 2.0
+  end
+end
+
+print total
+print lowest
+print highest
+print y[n]
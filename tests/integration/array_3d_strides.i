@@ -0,0 +1,50 @@
+// Integration test: 3D arrays, dynamically sized 2D arrays and arrays inside records
+
+type Grid is record
+  var id : integer
+  var cells : array [3] array [4] real
+end
+
+routine total(m : array [] array [] integer, rows : integer, cols : integer) : integer is
+  var t : integer is 0
+  for i in 1..rows loop
+    for j in 1..cols loop
+      t := t * 7 + m[i][j]
+    end
+  end
+  return t
+end
+
+var c : array [3] array [4] array [5] integer
+for i in 1..3 loop
+  for j in 1..4 loop
+    for k in 1..5 loop
+      c[i][j][k] := i * 100 + j * 10 + k
+    end
+  end
+end
+print c[2][3][4]  // 234
+print c[3][4][5]  // 345
+
+var n : integer is 3
+var q : integer is 5
+var e : array [n] array [q] integer
+for i in 1..n loop
+  for j in 1..q loop
+    e[i][j] := i + j
+  end
+end
+print e[3][5]          // 8
+print total(e, n, q)   // 516932781
+
+var g : Grid
+g.id := 4
+for i in 1..3 loop
+  for j in 1..4 loop
+    g.cells[i][j] := i * 1.5 + j
+  end
+end
+print g.cells[3][4]  // 8.5
+print g.id           // 4
+
+// Expected numeric output (ignoring spaces/newlines): 23434585169327818.54
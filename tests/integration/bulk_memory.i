@@ -0,0 +1,99 @@
+// Integration test: aggregates stored inline are copied by value, and
+// element-wise copy and fill loops give the same results as scalar loops
+
+type Point is record
+  var x : integer is 0
+  var y : integer is 0
+end
+
+type Holder is record
+  var p : Point
+end
+
+// Record copied into a record field and an array slot, then the source changes
+var q : Point
+q.x := 1
+q.y := 2
+var h : Holder
+h.p := q
+var ps : array [3] Point
+ps[2] := q
+q.x := 50
+q.y := 60
+print h.p.x    // 1
+print ps[2].y  // 2
+print q.x      // 50
+
+// Row copied into a 2D array, then the source row changes
+var m : array [2] array [3] integer
+var row : array [3] integer
+row[1] := 7
+m[2] := row
+row[1] := 8
+print m[2][1]  // 7
+
+// Copy loop, then the source changes
+var a : array [6] integer
+var b : array [6] integer
+for i in 1..6 loop
+  a[i] := i
+end
+for i in 2..5 loop
+  b[i] := a[i]
+end
+a[3] := 90
+for x in b loop
+  print x      // 0 2 3 4 5 0
+end
+
+// Forward shift: every element takes the value just written before it
+for i in 1..5 loop
+  a[i + 1] := a[i]
+end
+for x in a loop
+  print x      // 1 1 1 1 1 1
+end
+
+// Copy between overlapping views of one array: the destination starts one
+// row above the source, so the elements propagate like the shift above
+routine copyRun(dst : array [] integer, src : array [] integer, n : integer) is
+  for i in 1..n loop
+    dst[i] := src[i]
+  end
+end
+
+var grid : array [3] array [2] integer
+grid[1][1] := 4
+grid[1][2] := 5
+copyRun(grid[2], grid[1], 4)
+print grid[3][1]  // 4
+print grid[3][2]  // 5
+
+// Zero fill
+for i in 1..6 loop
+  b[i] := 9
+end
+for i in 2..6 loop
+  b[i] := 0
+end
+for x in b loop
+  print x      // 9 0 0 0 0 0
+end
+
+// Boolean fill
+var flags : array [4] boolean
+for i in 1..4 loop
+  flags[i] := true
+end
+for i in 3..4 loop
+  flags[i] := false
+end
+var set : integer is 0
+for i in 1..4 loop
+  if flags[i] then
+    set := set + 1
+  end
+end
+print set      // 2
+
+// Expected numeric output (ignoring spaces/newlines): 12507023450111111459000002
@@ -0,0 +1,16 @@
+// Integration test: factorial.i with the argument known only at run time,
+// so the recursive routine runs instead of being evaluated at compile time
+routine factorial(n : integer) : integer
+is
+  if n <= 1 then
+    return 1
+  else
+    return n * factorial(n - 1)
+  end
+end
+
+// Argument from an array, so the call runs at run time
+var args : array [1] integer
+args[1] := 5
+var result : integer is factorial(args[1])
+print result
@@ -0,0 +1,16 @@
+// Integration test: fibonacci.i with the argument known only at run time,
+// so the recursive routine runs instead of being evaluated at compile time
+routine fibonacci(n : integer) : integer
+is
+  if n <= 1 then
+    return n
+  else
+    return fibonacci(n - 1) + fibonacci(n - 2)
+  end
+end
+
+// Argument from an array, so the call runs at run time
+var args : array [1] integer
+args[1] := 10
+var fib10 : integer is fibonacci(args[1])
+print fib10  // 55
@@ -0,0 +1,23 @@
+// Integration test: gcd.i with the arguments known only at run time, so
+// the routine runs instead of being evaluated at compile time
+routine gcd(a : integer, b : integer) : integer
+is
+  while b /= 0 loop
+    var t : integer is b
+    b := a % b
+    a := t
+  end
+  return a
+end
+
+// Arguments from an array, so the calls run at run time
+var args : array [4] integer
+args[1] := 48
+args[2] := 18
+args[3] := 42
+args[4] := 28
+var g1 : integer is gcd(args[1], args[2])
+var g2 : integer is gcd(args[3], args[4])
+
+print g1  // 6
+print g2  // 14
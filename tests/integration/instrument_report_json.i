@@ -0,0 +1,28 @@
+// Integration test: --instrument=json reports every site, including the
+// ones that never ran, as a JSON array sorted by count
+
+routine square(x : integer) : integer is
+  return x * x
+end
+
+routine unused(x : integer) : integer is
+  return x + 1
+end
+
+// Trip count read from an array, so the loop runs at run time
+var n : array [1] integer
+n[1] := 4
+var values : array [6] integer
+var total : integer is 0
+for i in 1..n[1] loop
+  values[i] := square(i)
+  total := total + values[i]
+end
+var j : integer is 0
+while j < n[1] - 1 loop
+  j := j + 1
+end
+print total  // 30
+
+// Report on stderr: the sites of instrument_report.i, followed by the
+// calls of unused with a count of 0
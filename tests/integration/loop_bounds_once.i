@@ -0,0 +1,34 @@
+// Integration test: range bounds are evaluated once, when the loop starts
+
+var s : integer is 0
+var n : integer is 5
+for i in 1..n * 2 loop
+  s := s + i
+end
+print s       // 55
+
+// Changing the bound inside the loop does not change the number of iterations
+for i in 1..n loop
+  n := n - 1
+  s := s + 1
+end
+print s       // 60
+print n       // 0
+
+n := 4
+for i in n..8 reverse loop
+  n := 100
+  s := s + i
+end
+print s       // 90
+
+// Empty ranges do not run the body
+for i in 3..2 loop
+  print 999
+end
+n := 0
+for i in 7..n reverse loop
+  print 998
+end
+
+// Expected numeric output (ignoring spaces/newlines): 5560090
@@ -0,0 +1,44 @@
+// Integration test: fully and partially unrolled range loops (trip counts that are not a multiple of the factor)
+
+var a : array [10] integer
+var s : integer is 0
+for i in 1..10 loop
+  a[i] := i * i
+end
+for i in 1..10 loop
+  var t : integer is a[i] + 1
+  s := s + t
+end
+print s             // 395
+
+// Bound known only at run time: unrolled passes, then the remaining iterations
+routine weigh(b : array [] integer, n : integer) : integer is
+  var w : integer is 0
+  for i in 2..n reverse loop
+    w := w * 3 + b[i] - b[i - 1]
+    w := w % 1000
+  end
+  return w
+end
+var b : array [11] integer
+for i in 1..11 loop
+  b[i] := i * i
+end
+print weigh(b, 11)  // 490
+print weigh(b, 2)   // 3
+print weigh(b, 1)   // 0
+
+// Nested constant loops
+var m : array [3] array [3] integer
+for i in 1..3 loop
+  for j in 1..3 loop
+    m[i][j] := i * 10 + j
+  end
+end
+var tr : integer is 0
+for k in 1..3 reverse loop
+  tr := tr * 100 + m[k][k]
+end
+print tr            // 332211
+
+// Expected numeric output (ignoring spaces/newlines): 39549030332211
@@ -0,0 +1,29 @@
+// Integration test: pure recursive routines (memoized with --memoize) and impure ones that are not
+
+routine fib(n : integer) : integer is
+  if n <= 1 then
+    return n
+  else
+    return fib(n - 1) + fib(n - 2)
+  end
+end
+
+routine binom(n : integer, k : integer) : integer is
+  if k = 0 or k = n then return 1 end
+  return binom(n - 1, k - 1) + binom(n - 1, k)
+end
+
+// Prints, so every call has to run
+routine countdown(n : integer) : integer is
+  print n
+  if n <= 0 then return 0 end
+  return countdown(n - 1)
+end
+
+print fib(25)       // 75025
+print binom(20, 10) // 184756
+print countdown(2)  // 2 1 0, then 0
+print countdown(2)  // 2 1 0, then 0
+print fib(25)       // 75025
+
+// Expected numeric output (ignoring spaces/newlines): 750251847562100210075025
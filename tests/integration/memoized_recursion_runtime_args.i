@@ -0,0 +1,37 @@
+// Integration test: memoized_recursion.i with arguments known only at run
+// time, so the pure routines keep their memo tables under --memoize instead
+// of being evaluated at compile time
+
+routine fib(n : integer) : integer is
+  if n <= 1 then
+    return n
+  else
+    return fib(n - 1) + fib(n - 2)
+  end
+end
+
+routine binom(n : integer, k : integer) : integer is
+  if k = 0 or k = n then return 1 end
+  return binom(n - 1, k - 1) + binom(n - 1, k)
+end
+
+// Prints, so every call has to run
+routine countdown(n : integer) : integer is
+  print n
+  if n <= 0 then return 0 end
+  return countdown(n - 1)
+end
+
+// Arguments read from an array are only known at run time, so the calls
+// are not evaluated at compile time and go through the memo tables
+var args : array [3] integer
+args[1] := 25
+args[2] := 20
+args[3] := 10
+print fib(args[1])             // 75025
+print binom(args[2], args[3])  // 184756
+print countdown(2)             // 2 1 0, then 0
+print countdown(2)             // 2 1 0, then 0
+print fib(args[1])             // 75025
+
+// Expected numeric output (ignoring spaces/newlines): 750251847562100210075025
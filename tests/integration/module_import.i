@@ -0,0 +1,24 @@
+// Integration test: a program importing a module (shapes.i) that imports
+// another one (vectors.i); imported types and routines are used directly
+
+import shapes
+import vectors
+
+var r : Rect
+r.w := 6
+r.h := 7
+print area(r)           // 42
+
+var v : Vec
+v.x := 3
+v.y := 4
+print squaredLength(v)  // 25
+print dot(v, v) + 1     // 26
+
+var a : array [4] integer
+for i in 1..4 loop
+  a[i] := i * 10
+end
+print total(a, 4)       // 100
+
+// Expected numeric output (ignoring spaces/newlines): 422526100
@@ -0,0 +1,27 @@
+// Integration test: tail calls between routines (compile with --tail-calls).
+// isEven and isOdd call each other in tail position; with return_call the
+// calls replace the caller's frame, so a depth read from an array at run
+// time that would overflow the stack runs in constant space.
+
+routine isEven(n : integer) : integer is
+  if n = 0 then
+    return 1
+  end
+  return isOdd(n - 1)
+end
+
+routine isOdd(n : integer) : integer is
+  if n = 0 then
+    return 0
+  end
+  return isEven(n - 1)
+end
+
+var depth : array [2] integer
+depth[1] := 300000
+depth[2] := 300001
+print isEven(depth[1])   // 1
+print isEven(depth[2])   // 0
+print isOdd(depth[2])    // 1
+
+// Expected numeric output (ignoring spaces/newlines): 101
@@ -0,0 +1,24 @@
+// Integration test: power_function.i with the arguments known only at run
+// time, so the routine runs instead of being evaluated at compile time
+routine power(base : integer, exp : integer) : integer
+is
+  var result : integer is 1
+  var i : integer is 1
+  while i <= exp loop
+    result := result * base
+    i := i + 1
+  end
+  return result
+end
+
+// Arguments from an array, so the calls run at run time
+var args : array [4] integer
+args[1] := 2
+args[2] := 5
+args[3] := 3
+args[4] := 4
+var p1 : integer is power(args[1], args[2])
+var p2 : integer is power(args[3], args[4])
+
+print p1  // 32
+print p2  // 81
@@ -0,0 +1,73 @@
+// Integration test: calls to pure routines with constant arguments are
+// evaluated at compile time; the printed values must match run-time results.
+
+routine factorial(n : integer) : integer is
+  if n <= 1 then
+    return 1
+  end
+  return n * factorial(n - 1)
+end
+
+routine power(base : integer, exp : integer) : integer is
+  var result : integer is 1
+  for i in 1..exp loop
+    result := result * base
+  end
+  return result
+end
+
+routine fib(n : integer) : integer is
+  if n < 2 then
+    return n
+  end
+  return fib(n - 1) + fib(n - 2)
+end
+
+routine half(x : real) : real is
+  return x / 2
+end
+
+routine isEven(n : integer) : boolean is
+  return n % 2 = 0
+end
+
+routine collatz(n : integer) : integer is
+  var steps : integer is 0
+  var m : integer is n
+  while m /= 1 loop
+    if m % 2 = 0 then
+      m := m / 2
+    else
+      m := 3 * m + 1
+    end
+    steps := steps + 1
+  end
+  return steps
+end
+
+routine spin(n : integer) : integer is
+  var total : integer is 0
+  for i in 1..n loop
+    for j in 1..n loop
+      total := total + 1
+    end
+  end
+  return total
+end
+
+var k : integer is 5
+print factorial(10)                 // 3628800
+print power(3, 4)                   // 81
+print fib(30)                       // 832040
+print half(7)                       // 3.5
+print isEven(k)                     // 0
+print collatz(27)                   // 111
+print factorial(k) + power(2, k)    // 152
+print spin(400)                     // 160000: too long, left to run time with a warning
+var total : integer is 0
+for i in 1..3 loop
+  total := total + power(2, 10)
+end
+print total                         // 3072
+
+// Expected numeric output (ignoring spaces/newlines): 3628800818320403.501111521600003072
@@ -0,0 +1,47 @@
+// Integration test: routines cloned for constant arguments and known array sizes; one clone per
+// distinct specialization, results unchanged
+
+routine sum_all(a : array [] integer, n : integer) : integer is
+  var s : integer is 0
+  for x in a loop
+    s := s + x
+  end
+  return s + n
+end
+
+routine weigh(b : array [] integer, n : integer) : integer is
+  var w : integer is 0
+  for i in 2..n reverse loop
+    w := w * 3 + b[i] - b[i - 1]
+    w := w % 1000
+  end
+  return w
+end
+
+routine scaled(v : integer, twice : boolean) : integer is
+  if twice then
+    return v * 2
+  end
+  return v
+end
+
+var arr : array [7] integer
+for i in 1..7 loop
+  arr[i] := i
+end
+print sum_all(arr, 0)   // 28
+print sum_all(arr, 1)   // 29: same clone, n is not specialized
+var b : array [11] integer
+for i in 1..11 loop
+  b[i] := i * i
+end
+print weigh(b, 11)      // 490
+print weigh(b, 2)       // 3
+print weigh(b, 11)      // 490: reuses the first clone
+var q : integer is 0
+for i in 1..3 loop
+  q := q + scaled(i, true) + scaled(i, false)
+end
+print q                 // 18
+
+// Expected numeric output (ignoring spaces/newlines): 2829490349018
@@ -0,0 +1,19 @@
+// Integration test: module importing another module (vectors.i), imported
+// by module_import.i. On its own it compiles to a program that prints nothing.
+
+import vectors
+
+type Rect is record
+  w : integer
+  h : integer
+end
+
+routine area(r : Rect) : integer is
+  return r.w * r.h
+end
+
+routine squaredLength(v : Vec) : integer is
+  return dot(v, v)
+end
+
+// Expected numeric output (ignoring spaces/newlines):
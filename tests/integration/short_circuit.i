@@ -0,0 +1,32 @@
+// Integration test: and/or evaluate their right operand only when the left one does not decide
+
+routine side(x : integer) : boolean is
+  print x
+  return x > 2
+end
+
+var a : array [5] integer
+for j in 1..5 loop
+  a[j] := j - 3
+end
+
+// The guard keeps a[i] from reading past the end
+var i : integer is 1
+while i <= 5 and a[i] < 1 loop
+  i := i + 1
+end
+print i                                                   // 4
+
+var k : integer is 6
+if k <= 5 and a[k] > 0 then print 500 else print 600 end  // 600
+
+if i > 10 and side(1) then print 100 else print 200 end   // 200
+if i < 10 or side(2) then print 300 end                   // 300
+if not (i > 10 and side(3)) then print 400 end            // 400
+
+var b : boolean is i > 10 and side(4)
+print b                                                   // 0
+var c : boolean is i < 10 and side(6)                     // prints 6
+print c                                                   // 1
+
+// Expected numeric output (ignoring spaces/newlines): 4600200300400061
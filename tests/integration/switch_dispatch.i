@@ -0,0 +1,53 @@
+// Integration test: if/else-if chains on one integer (jump table and binary search dispatch)
+
+// Dense values: dispatched through a table
+routine dense(x : integer) : integer is
+  var r : integer is 0
+  if x = 1 then r := 10
+  else if x = 2 then r := 20
+  else if 3 = x then r := 30
+  else if x = 2 then r := 99
+  else if x = 5 then r := 50
+  else r := 7 end end end end end
+  return r
+end
+
+// Sparse values: dispatched by binary search
+routine sparse(x : integer) : integer is
+  if x = -100 then return 1
+  else if x = 7 then return 2
+  else if x = 1000 then return 3
+  else if x = 50 then return 4
+  else if x = 99999 then return 5
+  else if x = 0 then return 6
+  end end end end end end
+  return 0
+end
+
+for i in 0..6 loop
+  print dense(i)    // 7 10 20 30 7 50 7
+end
+print sparse(-100)  // 1
+print sparse(7)     // 2
+print sparse(1000)  // 3
+print sparse(50)    // 4
+print sparse(99999) // 5
+print sparse(0)     // 6
+print sparse(8)     // 0
+
+// The chain stops at the first test of another expression
+var a : array [3] integer
+var y : integer is 2
+var w : integer is 0
+a[2] := 4
+for k in 1..6 loop
+  if a[2] = 1 then w := w + 1
+  else if a[2] = 2 then w := w + 2
+  else if a[2] = 3 then w := w + 3
+  else if a[2] = 4 then w := w + k
+  else if y = 2 then w := w + 1000 end end end end end
+  a[2] := k
+end
+print w             // 1012
+
+// Expected numeric output (ignoring spaces/newlines): 7102030750712345601012
@@ -0,0 +1,64 @@
+// Integration test: deep recursion in tail position runs in constant stack
+// space. Self tail calls become loops, and returns of the form x + f(...)
+// or x * f(...) use an accumulator. The depths are read from an array, so
+// the calls run at run time; without the rewrite they overflow the stack.
+
+// Self tail call
+routine countDown(n : integer, acc : integer) : integer is
+  if n = 0 then
+    return acc
+  end
+  return countDown(n - 1, acc + 2)
+end
+
+// Accumulating sum: n + sumTo(n - 1)
+routine sumTo(n : integer) : integer is
+  if n = 0 then
+    return 0
+  end
+  return n + sumTo(n - 1)
+end
+
+// Accumulating product: (-1) * sign(n - 1)
+routine sign(n : integer) : integer is
+  if n = 0 then
+    return 1
+  end
+  return (0 - 1) * sign(n - 1)
+end
+
+// Procedure whose last statement calls itself; it writes around a ring of
+// eight cells, so a deep recursion needs only a small array
+routine fill(a : array [] integer, i : integer, n : integer) is
+  if i > n then
+    return
+  end
+  a[i % 8 + 1] := i * 3
+  fill(a, i + 1, n)
+end
+
+// Mixed + and * returns are not rewritten, but must still be right
+routine mixed(n : integer) : integer is
+  if n = 0 then
+    return 1
+  end
+  if n % 2 = 0 then
+    return 2 * mixed(n - 1)
+  end
+  return 1 + mixed(n - 1)
+end
+
+var depth : array [3] integer
+depth[1] := 200000
+depth[2] := 60000
+depth[3] := 10
+var cells : array [8] integer
+
+print countDown(depth[1], 0)   // 400000
+print sumTo(depth[2])          // 1800030000
+print sign(depth[1] + 1) + 2   // 1: sign is -1
+fill(cells, 1, depth[1])
+print cells[1]                 // 600000: written last by i = 200000
+print mixed(depth[3])          // 94
+
+// Expected numeric output (ignoring spaces/newlines): 4000001800030000160000094
@@ -0,0 +1,43 @@
+// Integration test: type aliases chained through several names, including
+// aliases of types declared further down, resolve to one type.
+
+type Board is Grid
+type Grid is array [3] Cell
+type Cell is Square
+type Square is record
+  value : integer
+  weight : real
+end
+type Count is Number
+type Number is integer
+
+routine fill(b : Board, base : Count) : Number is
+  var total : Number is 0
+  for i in 1..3 loop
+    b[i].value := base * i
+    b[i].weight := i / 2.0
+    total := total + b[i].value
+  end
+  return total
+end
+
+routine heaviest(cells : array [] Cell, count : integer) : real is
+  var best : real is 0.0
+  for i in 1..count loop
+    if cells[i].weight > best then
+      best := cells[i].weight
+    end
+  end
+  return best
+end
+
+var board : Grid
+var n : Count is 7
+print fill(board, n)        // 42
+print board[2].value        // 14
+print heaviest(board, 3)    // 1.5
+var same : array [3] Cell
+same := board
+print same[3].value         // 21
+
+// Expected numeric output (ignoring spaces/newlines): 42141.521
@@ -0,0 +1,21 @@
+// Integration test: module imported by shapes.i and module_import.i. On its
+// own it compiles to a program that prints nothing.
+
+type Vec is record
+  x : integer
+  y : integer
+end
+
+routine dot(a : Vec, b : Vec) : integer is
+  return a.x * b.x + a.y * b.y
+end
+
+routine total(v : array [] integer, n : integer) : integer is
+  var s : integer is 0
+  for i in 1..n loop
+    s := s + v[i]
+  end
+  return s
+end
+
+// Expected numeric output (ignoring spaces/newlines):